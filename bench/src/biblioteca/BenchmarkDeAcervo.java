@@ -0,0 +1,91 @@
+package biblioteca;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Busca por ID, busca por título e carga do acervo, para acervos de
+ * tamanhos diferentes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BenchmarkDeAcervo {
+
+    @Param({"10000", "1000000"})
+    public int obras;
+
+    private GerenciadorDeObras gerenciador;
+    private int[] ids;
+    private String[] consultas;
+    private int proximo;
+
+    @Setup(Level.Trial)
+    public void preparar() throws Exception {
+        DadosDeBenchmark.gerarAcervo(obras);
+        gerenciador = new GerenciadorDeObras();
+        Random aleatorio = new Random(1);
+        ids = new int[4096];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1 + aleatorio.nextInt(obras);
+        }
+        consultas = DadosDeBenchmark.consultas();
+    }
+
+    @TearDown(Level.Trial)
+    public void fechar() {
+        gerenciador.close();
+    }
+
+    @Benchmark
+    public Obra buscarObraPorId() {
+        return gerenciador.buscarObraPorId(ids[proximo++ & (ids.length - 1)]);
+    }
+
+    /**
+     * Mede a busca usada por {@link GerenciadorDeObras#buscarObraPorTitulo},
+     * sem a escrita dos resultados no console.
+     */
+    @Benchmark
+    public List<Obra> buscarObraPorTitulo() {
+        proximo++;
+        return gerenciador.buscarObrasPorTitulo(consultas[proximo % consultas.length], 0, 10);
+    }
+
+    /**
+     * Gerenciador criado por {@link #carregarAcervo}, fechado depois de cada
+     * chamada, fora da medição.
+     */
+    @State(Scope.Thread)
+    public static class Carga {
+
+        GerenciadorDeObras carregado;
+
+        @TearDown(Level.Invocation)
+        public void fechar() {
+            if (carregado != null) {
+                carregado.close();
+                carregado = null;
+            }
+        }
+    }
+
+    /**
+     * Carrega o acervo num gerenciador novo a cada chamada; recarregar no
+     * mesmo gerenciador acrescentaria as obras às que ele já tem. Só a carga
+     * é medida: as threads de gravação só começam com a primeira alteração.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2, time = 5)
+    @Measurement(iterations = 3, time = 5)
+    public GerenciadorDeObras carregarAcervo(Carga carga) {
+        carga.carregado = new GerenciadorDeObras();
+        return carga.carregado;
+    }
+}
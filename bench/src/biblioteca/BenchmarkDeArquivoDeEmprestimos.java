@@ -0,0 +1,84 @@
+package biblioteca;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Gravação e leitura do estado salvo dos empréstimos no formato binário
+ * ({@link ArquivoDeEmprestimos}) e no formato anterior, a lista serializada
+ * com {@link ObjectOutputStream}, que ainda é lido na migração.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class BenchmarkDeArquivoDeEmprestimos {
+
+    private static final Path BINARIO = Paths.get("emprestimos-binario.dat");
+    private static final Path SERIALIZADO = Paths.get("emprestimos-serializado.txt");
+
+    @Param({"10000", "1000000"})
+    public int emprestimos;
+
+    private List<Emprestimo> lista;
+
+    @Setup(Level.Trial)
+    public void preparar() throws Exception {
+        // Três empréstimos por usuário, em média
+        lista = DadosDeBenchmark.emprestimos(emprestimos, Math.max(1, emprestimos / 3), 100_000);
+        ArquivoDeEmprestimos.gravar(BINARIO, lista, 0);
+        gravarSerializado(SERIALIZADO, lista);
+    }
+
+    @TearDown(Level.Trial)
+    public void limpar() throws Exception {
+        Files.deleteIfExists(BINARIO);
+        Files.deleteIfExists(SERIALIZADO);
+    }
+
+    @Benchmark
+    public Path gravarBinario() throws IOException {
+        ArquivoDeEmprestimos.gravar(BINARIO, lista, 0);
+        return BINARIO;
+    }
+
+    @Benchmark
+    public Path gravarSerializado() throws IOException {
+        gravarSerializado(SERIALIZADO, lista);
+        return SERIALIZADO;
+    }
+
+    @Benchmark
+    public ArquivoDeEmprestimos.Conteudo lerBinario() throws IOException {
+        return ArquivoDeEmprestimos.ler(BINARIO);
+    }
+
+    /**
+     * Leitura como na migração, por {@link ArquivoDeEmprestimos#lerFormatoAntigo}.
+     */
+    @Benchmark
+    public ArquivoDeEmprestimos.Conteudo lerSerializado() throws IOException {
+        return ArquivoDeEmprestimos.lerFormatoAntigo(SERIALIZADO);
+    }
+
+    /**
+     * Grava como o formato anterior: a lista serializada seguida do último
+     * lote confirmado.
+     */
+    private static void gravarSerializado(Path destino, List<Emprestimo> emprestimos) throws IOException {
+        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(destino)))) {
+            oos.writeObject(new ArrayList<>(emprestimos));
+            oos.writeInt(0);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package biblioteca;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Empréstimo e devolução com a gravação em disco (diário, alterações do
+ * acervo e checkpoints periódicos), e a carga dos empréstimos salvos, para
+ * quantidades diferentes de usuários e de empréstimos em aberto.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BenchmarkDeEmprestimos {
+
+    private static final int OBRAS = 100_000;
+
+    @Param({"1000", "100000"})
+    public int usuarios;
+
+    @Param({"0", "100000", "1000000"})
+    public int emprestimos;
+
+    private GerenciadorDeObras gerenciadorObras;
+    private GerenciadorDeEmprestimos gerenciador;
+    private Usuario[] leitores;
+    private int proximo;
+
+    @Setup(Level.Trial)
+    public void preparar() throws Exception {
+        DadosDeBenchmark.gerarAcervo(OBRAS);
+        DadosDeBenchmark.gerarEmprestimos(emprestimos, usuarios, OBRAS);
+        gerenciadorObras = new GerenciadorDeObras();
+        gerenciador = new GerenciadorDeEmprestimos(gerenciadorObras);
+        // Usuários que não aparecem nos empréstimos gerados, para não esbarrar no limite
+        leitores = new Usuario[1024];
+        for (int i = 0; i < leitores.length; i++) {
+            String email = DadosDeBenchmark.email(usuarios + i);
+            leitores[i] = new Professor("Leitor " + i, email, DadosDeBenchmark.SENHA, "Benchmark");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void limpar() throws Exception {
+        gerenciador.close();
+        gerenciadorObras.close();
+        DadosDeBenchmark.apagarEstadoDosEmprestimos();
+    }
+
+    /**
+     * Um empréstimo seguido da devolução da mesma obra, para que o estoque e
+     * o número de empréstimos em aberto fiquem estáveis durante a medição.
+     * Usa {@link GerenciadorDeEmprestimos#emprestar} e
+     * {@link GerenciadorDeEmprestimos#devolver}, que são
+     * {@code realizarEmprestimo} e {@code registrarDevolucao} sem as mensagens
+     * no console.
+     */
+    @Benchmark
+    public boolean emprestarEDevolver() {
+        int i = proximo++;
+        Usuario usuario = leitores[i & (leitores.length - 1)];
+        int idObra = 1 + (i * 7919 & Integer.MAX_VALUE) % OBRAS;
+        if (!gerenciador.emprestar(usuario, idObra).isSucesso()) {
+            return false;
+        }
+        return gerenciador.devolver(usuario.getEmail(), idObra).sucesso();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2, time = 5)
+    @Measurement(iterations = 3, time = 5)
+    public GerenciadorDeEmprestimos carregarEmprestimos() {
+        gerenciador.carregarEmprestimos();
+        return gerenciador;
+    }
+}
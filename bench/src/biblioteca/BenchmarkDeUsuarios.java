@@ -0,0 +1,54 @@
+package biblioteca;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Login de usuários. {@code validarLogin} mede o caso comum, de um usuário
+ * que já entrou antes e tem o login em cache; {@code verificarSenha} mede o
+ * custo do hash, pago no primeiro login de cada usuário.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BenchmarkDeUsuarios {
+
+    // Usuários que fazem login durante a medição; o hash de cada um é calculado na preparação
+    private static final int USUARIOS_ATIVOS = 64;
+
+    @Param({"1000", "1000000"})
+    public int usuarios;
+
+    private GerenciadorDeUsuarios gerenciador;
+    private String[] emails;
+    private String hash;
+    private int proximo;
+
+    @Setup(Level.Trial)
+    public void preparar() throws Exception {
+        DadosDeBenchmark.gerarUsuarios(usuarios);
+        gerenciador = new GerenciadorDeUsuarios();
+        Random aleatorio = new Random(3);
+        emails = new String[USUARIOS_ATIVOS];
+        for (int i = 0; i < emails.length; i++) {
+            emails[i] = DadosDeBenchmark.email(aleatorio.nextInt(usuarios));
+            gerenciador.validarLogin(emails[i], DadosDeBenchmark.SENHA);
+        }
+        hash = SenhaSegura.gerarHash(DadosDeBenchmark.SENHA);
+    }
+
+    @Benchmark
+    public Usuario validarLogin() {
+        return gerenciador.validarLogin(emails[proximo++ & (USUARIOS_ATIVOS - 1)], DadosDeBenchmark.SENHA);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public boolean verificarSenha() {
+        return SenhaSegura.verificar(DadosDeBenchmark.SENHA, hash);
+    }
+}
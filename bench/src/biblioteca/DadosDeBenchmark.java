@@ -0,0 +1,128 @@
+package biblioteca;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Gera os arquivos de dados usados pelos benchmarks, no diretório de
+ * trabalho, com o mesmo formato dos arquivos reais da biblioteca. Os dados
+ * são determinísticos para que as execuções sejam comparáveis.
+ */
+final class DadosDeBenchmark {
+
+    static final String SENHA = "senha123";
+
+    // Palavras dos títulos de acervo.csv, que seguem o formato "Palavra de Palavra"
+    private static final String[] PALAVRAS = {
+        "Alma", "Amor", "Aventura", "Caminhada", "Caminho", "Cidade", "Coração", "Céu", "Destino", "Ecos",
+        "Enigma", "Esperança", "Eterno", "Fogo", "Fronteira", "Futuro", "Guerra", "Herança", "História",
+        "Horizonte", "Horizontes", "Imortal", "Labirinto", "Liberdade", "Luz", "Mar", "Memória", "Mistério",
+        "Montanha", "Natureza", "Raízes", "Reflexo", "Refúgio", "Renascer", "Revolução", "Sabedoria",
+        "Segredo", "Sombras", "Sonho", "Terra", "Tradição", "Vento", "Viagem", "Vida"
+    };
+
+    private DadosDeBenchmark() {
+    }
+
+    /**
+     * Grava um acervo.csv com a quantidade de obras pedida.
+     */
+    static void gerarAcervo(int obras) throws IOException {
+        Random aleatorio = new Random(42);
+        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get("acervo.csv"), StandardCharsets.UTF_8)) {
+            bw.write("ID,Título,Quantidade");
+            bw.newLine();
+            for (int id = 1; id <= obras; id++) {
+                bw.write(id + "," + titulo(aleatorio) + "," + (1 + aleatorio.nextInt(5)));
+                bw.newLine();
+            }
+        }
+        Files.deleteIfExists(Paths.get("acervo.delta"));
+    }
+
+    /**
+     * Grava um usuarios.txt com alunos e professores. Todos usam a mesma senha,
+     * já com hash, para que a carga não precise calcular um hash por usuário.
+     */
+    static void gerarUsuarios(int usuarios) throws IOException {
+        String hash = SenhaSegura.gerarHash(SENHA);
+        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get("usuarios.txt"), StandardCharsets.UTF_8)) {
+            bw.write("B,Admin,admin@biblioteca.com," + hash + ",(31) 99999-9999,0");
+            bw.newLine();
+            for (int i = 0; i < usuarios; i++) {
+                if (i % 10 == 0) {
+                    bw.write("P,Professor " + i + "," + email(i) + "," + hash + ",Departamento " + (i % 7));
+                } else {
+                    bw.write("A,Aluno " + i + "," + email(i) + "," + hash + "," + (100000 + i) + ",Curso " + (i % 13));
+                }
+                bw.newLine();
+            }
+        }
+    }
+
+    /**
+     * Grava o estado salvo dos empréstimos com a quantidade pedida de
+     * empréstimos em aberto, e remove o diário e o histórico anteriores.
+     */
+    static void gerarEmprestimos(int emprestimos, int usuarios, int obras) throws IOException {
+        List<Emprestimo> lista = emprestimos(emprestimos, usuarios, obras);
+        apagarEstadoDosEmprestimos();
+        ArquivoDeEmprestimos.gravar(Paths.get("emprestimos.dat"), lista, 0);
+    }
+
+    /**
+     * Empréstimos em aberto, feitos nas últimas duas semanas.
+     */
+    static List<Emprestimo> emprestimos(int emprestimos, int usuarios, int obras) {
+        Random aleatorio = new Random(7);
+        LocalDate hoje = LocalDate.now();
+        List<Emprestimo> lista = new ArrayList<>(emprestimos);
+        for (int i = 0; i < emprestimos; i++) {
+            lista.add(new Emprestimo(email(aleatorio.nextInt(usuarios)), 1 + aleatorio.nextInt(obras),
+                    hoje.minusDays(aleatorio.nextInt(14))));
+        }
+        return lista;
+    }
+
+    /**
+     * Remove o estado salvo, o diário e o histórico dos empréstimos.
+     */
+    static void apagarEstadoDosEmprestimos() throws IOException {
+        Files.deleteIfExists(Paths.get("emprestimos.dat"));
+        Files.deleteIfExists(Paths.get("emprestimos.diario"));
+        Path historico = Paths.get("historico");
+        if (Files.exists(historico)) {
+            try (Stream<Path> caminhos = Files.walk(historico)) {
+                for (Path caminho : caminhos.sorted((a, b) -> b.compareTo(a)).toList()) {
+                    Files.delete(caminho);
+                }
+            }
+        }
+    }
+
+    static String email(int usuario) {
+        return "usuario" + usuario + "@biblioteca.com";
+    }
+
+    /**
+     * Título no formato do acervo, escolhido de forma determinística.
+     */
+    static String titulo(Random aleatorio) {
+        return PALAVRAS[aleatorio.nextInt(PALAVRAS.length)] + " de " + PALAVRAS[aleatorio.nextInt(PALAVRAS.length)];
+    }
+
+    /**
+     * Termos de busca: uma palavra inteira, um prefixo, e duas palavras.
+     */
+    static String[] consultas() {
+        return new String[]{"renascer", "horiz", "sombras de mar", "vento", "cam", "luz de vida"};
+    }
+}
@@ -0,0 +1,189 @@
+package biblioteca;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Representação compacta do acervo, organizada em colunas. Em vez de um objeto
+ * {@link Obra} por título, guarda IDs e quantidades em arrays de inteiros, os
+ * títulos em UTF-8 num único array de bytes indexado por deslocamentos, e os
+ * autores num dicionário sem repetições.
+ *
+ * Funciona como uma lista de obras: {@link #get(int)} cria uma visão leve,
+ * cujas leituras e alterações vão direto para as colunas. As quantidades são
+ * alteradas com compare-and-set, como em {@link Obra}, e ficam numa
+ * {@link ColunaDeQuantidades}, que não é copiada quando o acervo cresce: um
+ * empréstimo feito durante uma inclusão não se perde. Inclusões e alterações
+ * de título ou autor não são seguras em paralelo entre si.
+ */
+class AcervoColunar extends AbstractList<Obra> {
+
+    private int[] ids = new int[16];
+    private final ColunaDeQuantidades quantidades = new ColunaDeQuantidades();
+    private int[] autores = new int[16];
+    private int[] inicioTitulo = new int[17];
+    private byte[] titulos = new byte[256];
+    private int tamanho;
+
+    private final List<String> dicionarioAutores = new ArrayList<>();
+    private final Map<String, Integer> codigoAutor = new HashMap<>();
+
+    @Override
+    public int size() {
+        return tamanho;
+    }
+
+    @Override
+    public Obra get(int posicao) {
+        if (posicao < 0 || posicao >= tamanho) {
+            throw new IndexOutOfBoundsException("Posição " + posicao + " fora do acervo de tamanho " + tamanho);
+        }
+        return new Visao(posicao);
+    }
+
+    @Override
+    public boolean add(Obra obra) {
+        if (tamanho == ids.length) {
+            int capacidade = tamanho * 2;
+            ids = Arrays.copyOf(ids, capacidade);
+            autores = Arrays.copyOf(autores, capacidade);
+            inicioTitulo = Arrays.copyOf(inicioTitulo, capacidade + 1);
+        }
+        ids[tamanho] = obra.getId();
+        quantidades.garantirCapacidade(tamanho + 1);
+        quantidades.set(tamanho, obra.getQuantidade());
+        autores[tamanho] = codificarAutor(obra.getAutor());
+        byte[] titulo = obra.getTitulo().getBytes(StandardCharsets.UTF_8);
+        int inicio = inicioTitulo[tamanho];
+        garantirEspacoTitulos(inicio + titulo.length);
+        System.arraycopy(titulo, 0, titulos, inicio, titulo.length);
+        inicioTitulo[tamanho + 1] = inicio + titulo.length;
+        tamanho++;
+        modCount++;
+        return true;
+    }
+
+    private int codificarAutor(String autor) {
+        Integer codigo = codigoAutor.get(autor);
+        if (codigo == null) {
+            codigo = dicionarioAutores.size();
+            dicionarioAutores.add(autor);
+            codigoAutor.put(autor, codigo);
+        }
+        return codigo;
+    }
+
+    private void garantirEspacoTitulos(int necessario) {
+        if (necessario > titulos.length) {
+            titulos = Arrays.copyOf(titulos, Math.max(necessario, titulos.length * 2));
+        }
+    }
+
+    /**
+     * Substitui o título da posição. Como os títulos ficam contíguos, a área de
+     * títulos é remontada, exceto quando a obra é a última do acervo. Alterar
+     * títulos é raro, então o custo linear é aceitável.
+     */
+    private void alterarTitulo(int posicao, String titulo) {
+        byte[] bytes = titulo.getBytes(StandardCharsets.UTF_8);
+        if (posicao == tamanho - 1) {
+            int inicio = inicioTitulo[posicao];
+            garantirEspacoTitulos(inicio + bytes.length);
+            System.arraycopy(bytes, 0, titulos, inicio, bytes.length);
+            inicioTitulo[tamanho] = inicio + bytes.length;
+        } else {
+            compactarTitulos(posicao, bytes);
+        }
+    }
+
+    private void compactarTitulos(int alterada, byte[] novoTitulo) {
+        int total = inicioTitulo[tamanho] - (inicioTitulo[alterada + 1] - inicioTitulo[alterada]) + novoTitulo.length;
+        byte[] novos = new byte[Math.max(total, 256)];
+        int[] novosInicios = new int[inicioTitulo.length];
+        int escrito = 0;
+        for (int i = 0; i < tamanho; i++) {
+            novosInicios[i] = escrito;
+            if (i == alterada) {
+                System.arraycopy(novoTitulo, 0, novos, escrito, novoTitulo.length);
+                escrito += novoTitulo.length;
+            } else {
+                int comprimento = inicioTitulo[i + 1] - inicioTitulo[i];
+                System.arraycopy(titulos, inicioTitulo[i], novos, escrito, comprimento);
+                escrito += comprimento;
+            }
+        }
+        novosInicios[tamanho] = escrito;
+        titulos = novos;
+        inicioTitulo = novosInicios;
+    }
+
+    /**
+     * Obra cujos dados ficam nas colunas do acervo. Não guarda nada além da
+     * posição, e por isso é barata de criar a cada acesso.
+     */
+    private final class Visao extends Obra {
+
+        private static final long serialVersionUID = 1L;
+        private final int posicao;
+
+        Visao(int posicao) {
+            this.posicao = posicao;
+        }
+
+        @Override
+        public int getId() {
+            return ids[posicao];
+        }
+
+        @Override
+        public void setId(int id) {
+            ids[posicao] = id;
+        }
+
+        @Override
+        public String getTitulo() {
+            int inicio = inicioTitulo[posicao];
+            return new String(titulos, inicio, inicioTitulo[posicao + 1] - inicio, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void setTitulo(String titulo) {
+            alterarTitulo(posicao, titulo);
+        }
+
+        @Override
+        public String getAutor() {
+            return dicionarioAutores.get(autores[posicao]);
+        }
+
+        @Override
+        public void setAutor(String autor) {
+            autores[posicao] = codificarAutor(autor);
+        }
+
+        @Override
+        public int getQuantidade() {
+            return quantidades.get(posicao);
+        }
+
+        @Override
+        public void setQuantidade(int quantidade) {
+            quantidades.set(posicao, Math.max(quantidade, 0)); // Evita quantidade negativa
+        }
+
+        @Override
+        public boolean emprestar() {
+            return quantidades.retirar(posicao);
+        }
+
+        @Override
+        public void devolver() {
+            quantidades.devolver(posicao);
+        }
+    }
+}
@@ -0,0 +1,558 @@
+package biblioteca;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Acervo carregado sob demanda, para catálogos grandes dos quais cada sessão
+ * usa poucas obras. Só os IDs, as quantidades e a posição de cada título e
+ * autor no arquivo do acervo ficam em memória; o título é lido do arquivo no
+ * primeiro acesso e guardado num cache limitado, que descarta os menos usados,
+ * e o autor é lido a cada acesso.
+ *
+ * As posições ficam num índice ao lado do arquivo ({@code acervo.csv.idx}),
+ * montado na primeira carga e válido enquanto o arquivo do acervo não mudar.
+ * Com ele, a carga não lê o arquivo do acervo.
+ *
+ * Funciona como uma lista de obras, como o {@link AcervoColunar}:
+ * {@link #get(int)} cria uma visão leve. ID e quantidade, usados em
+ * empréstimos e devoluções, vêm das colunas em memória e nunca exigem leitura
+ * do arquivo. Títulos e autores alterados e obras incluídas depois da carga ficam em
+ * memória até a próxima gravação do acervo ({@link #gravar}). As quantidades
+ * são alteradas com compare-and-set, numa {@link ColunaDeQuantidades}, e um
+ * empréstimo feito durante uma inclusão não se perde; inclusões não são
+ * seguras em paralelo entre si.
+ */
+class AcervoSobDemanda extends AbstractList<Obra> {
+
+    static final String EXTENSAO_INDICE = ".idx";
+    static final int CAPACIDADE_PADRAO = 10_000;
+
+    private static final int ASSINATURA = 0x41494458; // "AIDX"
+    private static final short VERSAO = 2;
+    private static final int TAMANHO_DO_CABECALHO = 4 + 2 + 8 + 8 + 4 + 4;
+    private static final int TAMANHO_DA_JANELA = 1 << 20;
+    private static final int TAMANHO_POR_OBRA = 4 + 4 + 8 + 4 + 8 + 4;
+    // Posição do título de obras que não estão no arquivo
+    private static final long FORA_DO_ARQUIVO = -1;
+
+    private int[] ids;
+    private final ColunaDeQuantidades quantidades;
+    private long[] inicioTitulo;
+    private int[] tamanhoTitulo;
+    // Autor de tamanho zero no arquivo é o autor desconhecido
+    private long[] inicioAutor;
+    private int[] tamanhoAutor;
+    private int tamanho;
+
+    // Protege o canal, o cache e os títulos alterados
+    private final Object trava = new Object();
+    private Path arquivo;
+    private FileChannel canal;
+    private final LinkedHashMap<Integer, String> cache;
+    // Títulos que não estão no arquivo, por posição; não saem do cache
+    private final Map<Integer, String> titulosAlterados = new HashMap<>();
+    // Autores que não estão no arquivo, por posição
+    private final Map<Integer, String> autores = new HashMap<>();
+
+    /**
+     * Resultado de {@link #gravar}: onde ficou cada título e autor no arquivo novo.
+     */
+    static final class Gravacao {
+
+        private final long[] inicioTitulo;
+        private final int[] tamanhoTitulo;
+        private final long[] inicioAutor;
+        private final int[] tamanhoAutor;
+        private final int[] quantidades;
+
+        private Gravacao(long[] inicioTitulo, int[] tamanhoTitulo, long[] inicioAutor, int[] tamanhoAutor,
+                int[] quantidades) {
+            this.inicioTitulo = inicioTitulo;
+            this.tamanhoTitulo = tamanhoTitulo;
+            this.inicioAutor = inicioAutor;
+            this.tamanhoAutor = tamanhoAutor;
+            this.quantidades = quantidades;
+        }
+    }
+
+    private AcervoSobDemanda(CarregadorDeAcervo.Localizacoes localizacoes, int capacidadeDoCache) {
+        this.ids = localizacoes.ids();
+        this.quantidades = new ColunaDeQuantidades(localizacoes.quantidades());
+        this.inicioTitulo = localizacoes.inicioTitulo();
+        this.tamanhoTitulo = localizacoes.tamanhoTitulo();
+        this.inicioAutor = localizacoes.inicioAutor();
+        this.tamanhoAutor = localizacoes.tamanhoAutor();
+        this.tamanho = ids.length;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> maisAntigo) {
+                return size() > capacidadeDoCache;
+            }
+        };
+    }
+
+    /**
+     * Abre o acervo sobre o arquivo, usando o índice ao lado dele se estiver
+     * em dia, ou montando e gravando o índice caso contrário.
+     *
+     * @param arquivo          Arquivo CSV do acervo; se não existir, o acervo começa vazio.
+     * @param capacidadeDoCache Quantidade máxima de títulos lidos mantidos em memória.
+     */
+    static AcervoSobDemanda abrir(Path arquivo, int capacidadeDoCache) throws IOException {
+        if (!Files.exists(arquivo)) {
+            return new AcervoSobDemanda(CarregadorDeAcervo.Localizacoes.vazias(), capacidadeDoCache);
+        }
+        Path indice = Path.of(arquivo + EXTENSAO_INDICE);
+        CarregadorDeAcervo.Localizacoes localizacoes = lerIndice(indice, arquivo);
+        if (localizacoes == null) {
+            localizacoes = CarregadorDeAcervo.localizar(arquivo);
+            gravarIndice(indice, arquivo, localizacoes);
+        }
+        AcervoSobDemanda acervo = new AcervoSobDemanda(localizacoes, capacidadeDoCache);
+        acervo.arquivo = arquivo;
+        acervo.canal = FileChannel.open(arquivo, StandardOpenOption.READ);
+        return acervo;
+    }
+
+    @Override
+    public int size() {
+        return tamanho;
+    }
+
+    @Override
+    public Obra get(int posicao) {
+        if (posicao < 0 || posicao >= tamanho) {
+            throw new IndexOutOfBoundsException("Posição " + posicao + " fora do acervo de tamanho " + tamanho);
+        }
+        return new Visao(posicao);
+    }
+
+    /**
+     * ID da obra na posição, sem criar a visão.
+     */
+    int idNaPosicao(int posicao) {
+        return ids[posicao];
+    }
+
+    @Override
+    public boolean add(Obra obra) {
+        if (tamanho == ids.length) {
+            int capacidade = Math.max(16, tamanho * 2);
+            ids = Arrays.copyOf(ids, capacidade);
+            inicioTitulo = Arrays.copyOf(inicioTitulo, capacidade);
+            tamanhoTitulo = Arrays.copyOf(tamanhoTitulo, capacidade);
+            inicioAutor = Arrays.copyOf(inicioAutor, capacidade);
+            tamanhoAutor = Arrays.copyOf(tamanhoAutor, capacidade);
+        }
+        ids[tamanho] = obra.getId();
+        quantidades.garantirCapacidade(tamanho + 1);
+        quantidades.set(tamanho, obra.getQuantidade());
+        inicioTitulo[tamanho] = FORA_DO_ARQUIVO;
+        inicioAutor[tamanho] = FORA_DO_ARQUIVO;
+        tamanhoAutor[tamanho] = 0;
+        synchronized (trava) {
+            titulosAlterados.put(tamanho, obra.getTitulo());
+            if (!CarregadorDeAcervo.AUTOR_DESCONHECIDO.equals(obra.getAutor())) {
+                autores.put(tamanho, obra.getAutor());
+            }
+        }
+        tamanho++;
+        modCount++;
+        return true;
+    }
+
+    private String titulo(int posicao) {
+        synchronized (trava) {
+            String titulo = titulosAlterados.get(posicao);
+            if (titulo == null) {
+                titulo = cache.get(posicao);
+                if (titulo == null) {
+                    titulo = lerTitulo(posicao);
+                    cache.put(posicao, titulo);
+                }
+            }
+            return titulo;
+        }
+    }
+
+    private String lerTitulo(int posicao) {
+        return new String(lerBytes(inicioTitulo[posicao], tamanhoTitulo[posicao]), StandardCharsets.UTF_8);
+    }
+
+    private String autor(int posicao) {
+        synchronized (trava) {
+            String autor = autores.get(posicao);
+            if (autor != null) {
+                return autor;
+            }
+            if (tamanhoAutor[posicao] == 0) {
+                return CarregadorDeAcervo.AUTOR_DESCONHECIDO;
+            }
+            return new String(lerBytes(inicioAutor[posicao], tamanhoAutor[posicao]), StandardCharsets.UTF_8);
+        }
+    }
+
+    private byte[] lerBytes(long inicio, int comprimento) {
+        ByteBuffer bytes = ByteBuffer.allocate(comprimento);
+        try {
+            while (bytes.hasRemaining()) {
+                if (canal.read(bytes, inicio + bytes.position()) < 0) {
+                    throw new EOFException("Fim inesperado de " + arquivo);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Erro ao ler o acervo", e);
+        }
+        return bytes.array();
+    }
+
+    private void alterarTitulo(int posicao, String titulo) {
+        synchronized (trava) {
+            titulosAlterados.put(posicao, titulo);
+            cache.remove(posicao);
+        }
+    }
+
+    /**
+     * Percorre os títulos de todas as obras em ordem de posição, lendo o
+     * arquivo sequencialmente, sem passar pelo cache.
+     *
+     * @param destino Recebe cada título e a posição da obra.
+     */
+    void percorrerTitulos(ObjIntConsumer<String> destino) {
+        synchronized (trava) {
+            Janela janela = new Janela();
+            for (int i = 0; i < tamanho; i++) {
+                String alterado = titulosAlterados.get(i);
+                destino.accept(alterado != null ? alterado
+                        : new String(janela.ler(inicioTitulo[i], tamanhoTitulo[i]), 0, tamanhoTitulo[i], StandardCharsets.UTF_8), i);
+            }
+        }
+    }
+
+    /**
+     * Grava o acervo completo, no formato do arquivo do acervo, copiando do
+     * arquivo atual os títulos e autores que não mudaram. As quantidades
+     * gravadas são as atuais. O acervo continua lendo o arquivo atual até
+     * {@link #usar}.
+     *
+     * @param destino Arquivo a ser gravado.
+     * @return As posições dos títulos e autores no arquivo gravado.
+     */
+    Gravacao gravar(Path destino) throws IOException {
+        long[] novosInicios = new long[tamanho];
+        int[] novosTamanhos = new int[tamanho];
+        long[] novosIniciosDeAutor = new long[tamanho];
+        int[] novosTamanhosDeAutor = new int[tamanho];
+        int[] gravadas = new int[tamanho];
+        synchronized (trava) {
+            Janela janela = new Janela();
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(destino), 1 << 16)) {
+                byte[] cabecalho = (CarregadorDeAcervo.CABECALHO + "\n").getBytes(StandardCharsets.UTF_8);
+                out.write(cabecalho);
+                long posicao = cabecalho.length;
+                for (int i = 0; i < tamanho; i++) {
+                    byte[] id = (ids[i] + ",").getBytes(StandardCharsets.US_ASCII);
+                    gravadas[i] = quantidades.get(i);
+                    byte[] quantidade = ("," + gravadas[i]).getBytes(StandardCharsets.US_ASCII);
+                    String alterado = titulosAlterados.get(i);
+                    byte[] titulo;
+                    int comprimento;
+                    if (alterado != null) {
+                        titulo = alterado.getBytes(StandardCharsets.UTF_8);
+                        comprimento = titulo.length;
+                    } else {
+                        titulo = janela.ler(inicioTitulo[i], tamanhoTitulo[i]);
+                        comprimento = tamanhoTitulo[i];
+                    }
+                    out.write(id);
+                    out.write(titulo, 0, comprimento);
+                    out.write(quantidade);
+                    novosInicios[i] = posicao + id.length;
+                    novosTamanhos[i] = comprimento;
+                    posicao += id.length + comprimento + quantidade.length;
+
+                    // Autor desconhecido fica sem a coluna, como nos arquivos antigos
+                    String autorAlterado = autores.get(i);
+                    byte[] autor;
+                    if (autorAlterado != null) {
+                        autor = CarregadorDeAcervo.AUTOR_DESCONHECIDO.equals(autorAlterado)
+                                ? new byte[0] : autorAlterado.strip().getBytes(StandardCharsets.UTF_8);
+                        comprimento = autor.length;
+                    } else {
+                        comprimento = tamanhoAutor[i];
+                        autor = comprimento == 0 ? new byte[0] : janela.ler(inicioAutor[i], comprimento);
+                    }
+                    if (comprimento > 0) {
+                        out.write(',');
+                        out.write(autor, 0, comprimento);
+                        novosIniciosDeAutor[i] = posicao + 1;
+                        posicao += 1 + comprimento;
+                    }
+                    novosTamanhosDeAutor[i] = comprimento;
+                    out.write('\n');
+                    posicao++;
+                }
+            }
+        }
+        return new Gravacao(novosInicios, novosTamanhos, novosIniciosDeAutor, novosTamanhosDeAutor, gravadas);
+    }
+
+    /**
+     * Passa a ler o arquivo gravado por {@link #gravar}, já renomeado para o
+     * lugar do atual, e grava o índice dele. Os títulos e autores alterados
+     * passam a ser lidos do arquivo. Deve ser chamado sem inclusões ou
+     * alterações de título ou autor desde a gravação.
+     *
+     * @param novoArquivo Arquivo gravado.
+     * @param gravacao    Resultado da gravação.
+     */
+    void usar(Path novoArquivo, Gravacao gravacao) throws IOException {
+        synchronized (trava) {
+            FileChannel novoCanal = FileChannel.open(novoArquivo, StandardOpenOption.READ);
+            if (canal != null) {
+                canal.close();
+            }
+            canal = novoCanal;
+            arquivo = novoArquivo;
+            inicioTitulo = Arrays.copyOf(gravacao.inicioTitulo, ids.length);
+            tamanhoTitulo = Arrays.copyOf(gravacao.tamanhoTitulo, ids.length);
+            inicioAutor = Arrays.copyOf(gravacao.inicioAutor, ids.length);
+            tamanhoAutor = Arrays.copyOf(gravacao.tamanhoAutor, ids.length);
+            titulosAlterados.clear();
+            autores.clear();
+        }
+        try {
+            gravarIndice(Path.of(novoArquivo + EXTENSAO_INDICE), novoArquivo, new CarregadorDeAcervo.Localizacoes(
+                    Arrays.copyOf(ids, tamanho), gravacao.quantidades, gravacao.inicioTitulo, gravacao.tamanhoTitulo,
+                    gravacao.inicioAutor, gravacao.tamanhoAutor));
+        } catch (IOException e) {
+            // Sem o índice, a próxima carga apenas o monta de novo
+            System.out.println("Erro ao gravar o índice do acervo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fecha o arquivo do acervo. Os títulos e autores que ainda não foram
+     * lidos deixam de estar disponíveis.
+     */
+    void fechar() throws IOException {
+        synchronized (trava) {
+            if (canal != null) {
+                canal.close();
+            }
+        }
+    }
+
+    /**
+     * Lê o índice, se ele existir, for íntegro e corresponder ao arquivo atual.
+     *
+     * @return As localizações, ou null se o índice tiver de ser montado.
+     */
+    private static CarregadorDeAcervo.Localizacoes lerIndice(Path indice, Path arquivo) throws IOException {
+        if (!Files.exists(indice)) {
+            return null;
+        }
+        BasicFileAttributes atributos = Files.readAttributes(arquivo, BasicFileAttributes.class);
+        try (FileChannel leitura = FileChannel.open(indice, StandardOpenOption.READ)) {
+            if (leitura.size() < TAMANHO_DO_CABECALHO || leitura.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer dados = leitura.map(FileChannel.MapMode.READ_ONLY, 0, leitura.size());
+            if (dados.getInt() != ASSINATURA || dados.getShort() != VERSAO
+                    || dados.getLong() != atributos.size() || dados.getLong() != modificadoEm(atributos)) {
+                return null;
+            }
+            int quantidade = dados.getInt();
+            int crc = dados.getInt();
+            if (quantidade < 0 || dados.remaining() != (long) quantidade * TAMANHO_POR_OBRA) {
+                return null;
+            }
+            CRC32C verificacao = new CRC32C();
+            verificacao.update(dados.duplicate());
+            if ((int) verificacao.getValue() != crc) {
+                return null;
+            }
+            int[] ids = new int[quantidade];
+            int[] quantidades = new int[quantidade];
+            long[] inicios = new long[quantidade];
+            int[] tamanhos = new int[quantidade];
+            long[] iniciosDeAutor = new long[quantidade];
+            int[] tamanhosDeAutor = new int[quantidade];
+            dados.asIntBuffer().get(ids);
+            dados.position(dados.position() + quantidade * 4);
+            dados.asIntBuffer().get(quantidades);
+            dados.position(dados.position() + quantidade * 4);
+            dados.asLongBuffer().get(inicios);
+            dados.position(dados.position() + quantidade * 8);
+            dados.asIntBuffer().get(tamanhos);
+            dados.position(dados.position() + quantidade * 4);
+            dados.asLongBuffer().get(iniciosDeAutor);
+            dados.position(dados.position() + quantidade * 8);
+            dados.asIntBuffer().get(tamanhosDeAutor);
+            return new CarregadorDeAcervo.Localizacoes(ids, quantidades, inicios, tamanhos, iniciosDeAutor, tamanhosDeAutor);
+        }
+    }
+
+    private static void gravarIndice(Path indice, Path arquivo, CarregadorDeAcervo.Localizacoes localizacoes) throws IOException {
+        BasicFileAttributes atributos = Files.readAttributes(arquivo, BasicFileAttributes.class);
+        int quantidade = localizacoes.ids().length;
+        ByteBuffer corpo = ByteBuffer.allocate(quantidade * TAMANHO_POR_OBRA);
+        corpo.asIntBuffer().put(localizacoes.ids());
+        corpo.position(quantidade * 4);
+        corpo.asIntBuffer().put(localizacoes.quantidades());
+        corpo.position(quantidade * 8);
+        corpo.asLongBuffer().put(localizacoes.inicioTitulo());
+        corpo.position(quantidade * 16);
+        corpo.asIntBuffer().put(localizacoes.tamanhoTitulo());
+        corpo.position(quantidade * 20);
+        corpo.asLongBuffer().put(localizacoes.inicioAutor());
+        corpo.position(quantidade * 28);
+        corpo.asIntBuffer().put(localizacoes.tamanhoAutor());
+        corpo.position(0);
+        CRC32C crc = new CRC32C();
+        crc.update(corpo.duplicate());
+        ByteBuffer cabecalho = ByteBuffer.allocate(TAMANHO_DO_CABECALHO);
+        cabecalho.putInt(ASSINATURA).putShort(VERSAO).putLong(atributos.size()).putLong(modificadoEm(atributos))
+                .putInt(quantidade).putInt((int) crc.getValue()).flip();
+
+        Path temporario = Path.of(indice + ".tmp");
+        try (FileChannel escrita = FileChannel.open(temporario, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] partes = {cabecalho, corpo};
+            while (corpo.hasRemaining()) {
+                escrita.write(partes);
+            }
+        }
+        Files.move(temporario, indice, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long modificadoEm(BasicFileAttributes atributos) {
+        return atributos.lastModifiedTime().toInstant().getEpochSecond() * 1_000_000_000L
+                + atributos.lastModifiedTime().toInstant().getNano();
+    }
+
+    /**
+     * Leitura sequencial do arquivo por uma janela de tamanho fixo, para
+     * percorrer muitos títulos sem uma chamada ao sistema por título.
+     */
+    private final class Janela {
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(TAMANHO_DA_JANELA);
+        private long inicio = -1;
+        private int preenchido;
+
+        /**
+         * Bytes de um trecho do arquivo, no início do array devolvido.
+         */
+        byte[] ler(long posicao, int comprimento) {
+            if (comprimento > TAMANHO_DA_JANELA) {
+                return lerBytes(posicao, comprimento);
+            }
+            if (inicio < 0 || posicao < inicio || posicao + comprimento > inicio + preenchido) {
+                preencher(posicao, comprimento);
+            }
+            byte[] bytes = new byte[comprimento];
+            buffer.get((int) (posicao - inicio), bytes);
+            return bytes;
+        }
+
+        private void preencher(long posicao, int comprimento) {
+            buffer.clear();
+            try {
+                while (buffer.position() < comprimento) {
+                    int lidos = canal.read(buffer, posicao + buffer.position());
+                    if (lidos < 0) {
+                        throw new EOFException("Fim inesperado de " + arquivo);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Erro ao ler o acervo", e);
+            }
+            inicio = posicao;
+            preenchido = buffer.position();
+        }
+    }
+
+    /**
+     * Obra cujos ID e quantidade ficam nas colunas do acervo e cujos título e
+     * autor são lidos do arquivo quando pedidos.
+     */
+    private final class Visao extends Obra {
+
+        private static final long serialVersionUID = 1L;
+        private final int posicao;
+
+        Visao(int posicao) {
+            this.posicao = posicao;
+        }
+
+        @Override
+        public int getId() {
+            return ids[posicao];
+        }
+
+        @Override
+        public void setId(int id) {
+            ids[posicao] = id;
+        }
+
+        @Override
+        public String getTitulo() {
+            return titulo(posicao);
+        }
+
+        @Override
+        public void setTitulo(String titulo) {
+            alterarTitulo(posicao, titulo);
+        }
+
+        @Override
+        public String getAutor() {
+            return autor(posicao);
+        }
+
+        @Override
+        public void setAutor(String autor) {
+            synchronized (trava) {
+                autores.put(posicao, autor);
+            }
+        }
+
+        @Override
+        public int getQuantidade() {
+            return quantidades.get(posicao);
+        }
+
+        @Override
+        public void setQuantidade(int quantidade) {
+            quantidades.set(posicao, Math.max(quantidade, 0)); // Evita quantidade negativa
+        }
+
+        @Override
+        public boolean emprestar() {
+            return quantidades.retirar(posicao);
+        }
+
+        @Override
+        public void devolver() {
+            quantidades.devolver(posicao);
+        }
+    }
+}
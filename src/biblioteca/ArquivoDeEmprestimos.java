@@ -0,0 +1,237 @@
+package biblioteca;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Formato binário do estado salvo dos empréstimos.
+ *
+ * <pre>
+ * int    assinatura "EMPD"
+ * short  versão
+ * int    último lote confirmado do histórico
+ * int    quantidade de usuários, seguida de cada email (short com o tamanho + UTF-8)
+ * int    quantidade de registros, seguida de cada registro com 17 bytes:
+ *        int usuário (posição na tabela), int ID da obra,
+ *        int dia do empréstimo, int dia previsto para devolução (epoch day),
+ *        byte indicadores (bit 0: devolvido)
+ * </pre>
+ *
+ * Cada email aparece uma única vez no arquivo, e os registros têm tamanho
+ * fixo, o que torna a leitura e a gravação proporcionais ao número de
+ * empréstimos, sem a descrição de classes e objetos da serialização Java.
+ *
+ * Também lê o formato anterior, uma lista serializada com
+ * {@link ObjectOutputStream}, para a migração dos arquivos existentes.
+ */
+final class ArquivoDeEmprestimos {
+
+    private static final int ASSINATURA = 0x454D5044; // "EMPD"
+    private static final short VERSAO = 1;
+    private static final byte DEVOLVIDO = 1;
+    private static final int BYTES_POR_REGISTRO = 17;
+    private static final int TAMANHO_DO_BUFFER = 1 << 16;
+
+    /**
+     * Conteúdo de um arquivo de empréstimos.
+     *
+     * @param emprestimos    Empréstimos gravados, na ordem do arquivo.
+     * @param loteConfirmado Último lote do histórico referenciado pelo arquivo.
+     */
+    record Conteudo(List<Emprestimo> emprestimos, int loteConfirmado) {
+    }
+
+    private ArquivoDeEmprestimos() {
+    }
+
+    /**
+     * Grava os empréstimos no formato binário.
+     *
+     * @param destino        Arquivo a ser criado ou substituído.
+     * @param emprestimos    Empréstimos a gravar.
+     * @param loteConfirmado Último lote do histórico referenciado pelo arquivo.
+     */
+    static void gravar(Path destino, Collection<Emprestimo> emprestimos, int loteConfirmado) throws IOException {
+        Map<String, Integer> posicaoDoUsuario = new HashMap<>();
+        List<byte[]> usuarios = new ArrayList<>();
+        int[] usuarioDoRegistro = new int[emprestimos.size()];
+        int i = 0;
+        for (Emprestimo e : emprestimos) {
+            Integer posicao = posicaoDoUsuario.get(e.getEmailUsuario());
+            if (posicao == null) {
+                posicao = usuarios.size();
+                posicaoDoUsuario.put(e.getEmailUsuario(), posicao);
+                usuarios.add(e.getEmailUsuario().getBytes(StandardCharsets.UTF_8));
+            }
+            usuarioDoRegistro[i++] = posicao;
+        }
+
+        try (FileChannel canal = FileChannel.open(destino, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(TAMANHO_DO_BUFFER);
+            buffer.putInt(ASSINATURA).putShort(VERSAO).putInt(loteConfirmado).putInt(usuarios.size());
+            for (byte[] email : usuarios) {
+                if (email.length > Short.MAX_VALUE) {
+                    throw new IOException("Email longo demais para o arquivo de empréstimos.");
+                }
+                garantirEspaco(canal, buffer, 2 + email.length);
+                buffer.putShort((short) email.length).put(email);
+            }
+            garantirEspaco(canal, buffer, 4);
+            buffer.putInt(usuarioDoRegistro.length);
+            i = 0;
+            for (Emprestimo e : emprestimos) {
+                garantirEspaco(canal, buffer, BYTES_POR_REGISTRO);
+                buffer.putInt(usuarioDoRegistro[i++])
+                        .putInt(e.getIdObra())
+                        .putInt((int) e.getDataEmprestimo().toEpochDay())
+                        .putInt((int) e.getDataDevolucao().toEpochDay())
+                        .put(e.isDevolvido() ? DEVOLVIDO : 0);
+            }
+            esvaziar(canal, buffer);
+        }
+    }
+
+    /**
+     * Lê um arquivo no formato binário, mapeado em memória.
+     *
+     * @param origem Arquivo gravado por {@link #gravar}.
+     * @return Os empréstimos e o último lote confirmado.
+     */
+    static Conteudo ler(Path origem) throws IOException {
+        try (FileChannel canal = FileChannel.open(origem, StandardOpenOption.READ)) {
+            if (canal.size() > Integer.MAX_VALUE) {
+                throw new IOException("Arquivo de empréstimos grande demais: " + origem);
+            }
+            MappedByteBuffer dados = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            if (dados.getInt() != ASSINATURA) {
+                throw new IOException("Arquivo de empréstimos inválido: " + origem);
+            }
+            short versao = dados.getShort();
+            if (versao != VERSAO) {
+                throw new IOException("Versão do arquivo de empréstimos não suportada: " + versao);
+            }
+            int loteConfirmado = dados.getInt();
+            String[] usuarios = new String[dados.getInt()];
+            for (int i = 0; i < usuarios.length; i++) {
+                byte[] email = new byte[dados.getShort()];
+                dados.get(email);
+                usuarios[i] = new String(email, StandardCharsets.UTF_8);
+            }
+            int registros = dados.getInt();
+            if ((long) registros * BYTES_POR_REGISTRO > dados.remaining()) {
+                throw new IOException("Arquivo de empréstimos truncado: " + origem);
+            }
+            List<Emprestimo> emprestimos = new ArrayList<>(registros);
+            for (int i = 0; i < registros; i++) {
+                String usuario = usuarios[dados.getInt()];
+                int idObra = dados.getInt();
+                LocalDate dataEmprestimo = LocalDate.ofEpochDay(dados.getInt());
+                LocalDate dataDevolucao = LocalDate.ofEpochDay(dados.getInt());
+                byte indicadores = dados.get();
+                Emprestimo emprestimo = new Emprestimo(usuario, idObra, dataEmprestimo, dataDevolucao, null);
+                if ((indicadores & DEVOLVIDO) != 0) {
+                    emprestimo.setDevolvido(true);
+                }
+                emprestimos.add(emprestimo);
+            }
+            return new Conteudo(emprestimos, loteConfirmado);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new IOException("Arquivo de empréstimos corrompido: " + origem, e);
+        }
+    }
+
+    /**
+     * Lê um arquivo no formato anterior, uma lista de {@link Emprestimo}
+     * serializada, seguida ou não do número do último lote confirmado.
+     *
+     * Os arquivos mais antigos foram gravados quando a classe ainda não
+     * declarava o serialVersionUID; o identificador gravado é trocado pelo
+     * atual antes da leitura, e cada empréstimo é reconstruído a partir dos
+     * campos que existiam naquela versão.
+     *
+     * @param origem Arquivo no formato anterior.
+     * @return Os empréstimos e o último lote confirmado (0 se não houver).
+     */
+    @SuppressWarnings("unchecked")
+    static Conteudo lerFormatoAntigo(Path origem) throws IOException {
+        byte[] bytes = Files.readAllBytes(origem);
+        corrigirIdentificadorDaClasse(bytes);
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            List<Emprestimo> lidos = (List<Emprestimo>) ois.readObject();
+            int loteConfirmado;
+            try {
+                loteConfirmado = ois.readInt();
+            } catch (EOFException e) {
+                loteConfirmado = 0;
+            }
+            List<Emprestimo> emprestimos = new ArrayList<>(lidos.size());
+            for (Emprestimo e : lidos) {
+                // Versões antigas não gravavam a data prevista; o construtor a recalcula
+                Emprestimo emprestimo = new Emprestimo(e.getEmailUsuario(), e.getIdObra(), e.getDataEmprestimo());
+                if (e.isDevolvido()) {
+                    emprestimo.setDevolvido(true);
+                }
+                emprestimos.add(emprestimo);
+            }
+            return new Conteudo(emprestimos, loteConfirmado);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Classe desconhecida no arquivo de empréstimos: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Substitui, no descritor serializado de {@link Emprestimo}, o
+     * serialVersionUID gravado pelo da classe atual.
+     */
+    private static void corrigirIdentificadorDaClasse(byte[] bytes) {
+        byte[] nome = Emprestimo.class.getName().getBytes(StandardCharsets.UTF_8);
+        long atual = ObjectStreamClass.lookup(Emprestimo.class).getSerialVersionUID();
+        // Descritor de classe: TC_CLASSDESC, tamanho do nome (short), nome, serialVersionUID (long)
+        ByteBuffer descritor = ByteBuffer.allocate(3 + nome.length);
+        descritor.put((byte) 0x72).putShort((short) nome.length).put(nome);
+        byte[] procurado = descritor.array();
+        for (int i = 0; i + procurado.length + Long.BYTES <= bytes.length; i++) {
+            if (bytes[i] == procurado[0] && regiaoIgual(bytes, i, procurado)) {
+                ByteBuffer.wrap(bytes, i + procurado.length, Long.BYTES).putLong(atual);
+                return;
+            }
+        }
+    }
+
+    private static boolean regiaoIgual(byte[] bytes, int inicio, byte[] procurado) {
+        for (int j = 0; j < procurado.length; j++) {
+            if (bytes[inicio + j] != procurado[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void garantirEspaco(FileChannel canal, ByteBuffer buffer, int necessario) throws IOException {
+        if (buffer.remaining() < necessario) {
+            esvaziar(canal, buffer);
+        }
+    }
+
+    private static void esvaziar(FileChannel canal, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            canal.write(buffer);
+        }
+        buffer.clear();
+    }
+}
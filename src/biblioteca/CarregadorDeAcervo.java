@@ -0,0 +1,386 @@
+package biblioteca;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Leitor do arquivo do acervo para catálogos grandes. O arquivo é mapeado em
+ * memória e dividido em trechos que terminam em fim de linha; os trechos são
+ * processados em paralelo com fork/join por um leitor de bytes que converte os
+ * números direto do buffer, sem {@code String.split} nem substrings.
+ *
+ * Cada linha tem ID, título, quantidade e, opcionalmente, autor, que vai
+ * até o fim da linha e pode conter vírgulas; arquivos antigos, sem a coluna
+ * do autor, continuam válidos, com {@value #AUTOR_DESCONHECIDO}. O cabeçalho
+ * é ignorado, linhas com menos de três campos são descartadas em silêncio e
+ * linhas com números inválidos são relatadas, na ordem do arquivo.
+ *
+ * Também pode só localizar as obras no arquivo, sem criar objetos: para cada
+ * linha válida, guarda o ID, a quantidade e onde estão o título e o autor,
+ * como usa o {@link AcervoSobDemanda}.
+ */
+final class CarregadorDeAcervo {
+
+    static final String AUTOR_DESCONHECIDO = "Autor Desconhecido";
+    static final String CABECALHO = "ID,Título,Quantidade,Autor";
+
+    private static final long TAMANHO_MINIMO_TRECHO = 1 << 20;
+    private static final long TAMANHO_MAXIMO_TRECHO = 1 << 28;
+
+    private CarregadorDeAcervo() {
+    }
+
+    /**
+     * Lê todas as obras do arquivo, na ordem em que aparecem.
+     *
+     * @param caminho Caminho do arquivo CSV do acervo.
+     * @return As obras lidas.
+     */
+    static List<Obra> carregar(Path caminho) throws IOException {
+        try (FileChannel canal = FileChannel.open(caminho, StandardOpenOption.READ)) {
+            Trecho[] trechos = ler(canal, false);
+            int total = 0;
+            for (Trecho trecho : trechos) {
+                total += trecho.obras.size();
+            }
+            List<Obra> obras = new ArrayList<>(total);
+            for (Trecho trecho : trechos) {
+                trecho.erros.forEach(System.out::println);
+                obras.addAll(trecho.obras);
+            }
+            return obras;
+        }
+    }
+
+    /**
+     * Localizações das obras no arquivo, na ordem em que aparecem: ID,
+     * quantidade, e posição e tamanho em bytes do título e do autor, já sem
+     * espaços nas pontas. Autor de tamanho zero é {@value #AUTOR_DESCONHECIDO}.
+     */
+    record Localizacoes(int[] ids, int[] quantidades, long[] inicioTitulo, int[] tamanhoTitulo,
+            long[] inicioAutor, int[] tamanhoAutor) {
+
+        static Localizacoes vazias() {
+            return new Localizacoes(new int[0], new int[0], new long[0], new int[0], new long[0], new int[0]);
+        }
+    }
+
+    /**
+     * Localiza todas as obras do arquivo sem criar objetos para elas.
+     *
+     * @param caminho Caminho do arquivo CSV do acervo.
+     * @return As localizações, com as mesmas obras que {@link #carregar} leria.
+     */
+    static Localizacoes localizar(Path caminho) throws IOException {
+        try (FileChannel canal = FileChannel.open(caminho, StandardOpenOption.READ)) {
+            Trecho[] trechos = ler(canal, true);
+            int total = 0;
+            for (Trecho trecho : trechos) {
+                total += trecho.localizadas;
+            }
+            Localizacoes todas = new Localizacoes(new int[total], new int[total], new long[total], new int[total],
+                    new long[total], new int[total]);
+            int n = 0;
+            for (Trecho trecho : trechos) {
+                trecho.erros.forEach(System.out::println);
+                System.arraycopy(trecho.ids, 0, todas.ids(), n, trecho.localizadas);
+                System.arraycopy(trecho.quantidades, 0, todas.quantidades(), n, trecho.localizadas);
+                System.arraycopy(trecho.inicioTitulo, 0, todas.inicioTitulo(), n, trecho.localizadas);
+                System.arraycopy(trecho.tamanhoTitulo, 0, todas.tamanhoTitulo(), n, trecho.localizadas);
+                System.arraycopy(trecho.inicioAutor, 0, todas.inicioAutor(), n, trecho.localizadas);
+                System.arraycopy(trecho.tamanhoAutor, 0, todas.tamanhoAutor(), n, trecho.localizadas);
+                n += trecho.localizadas;
+            }
+            return todas;
+        }
+    }
+
+    private static Trecho[] ler(FileChannel canal, boolean soLocalizar) throws IOException {
+        long[] limites = dividirEmTrechos(canal);
+        Trecho[] trechos = new Trecho[limites.length - 1];
+        for (int i = 0; i < trechos.length; i++) {
+            trechos[i] = new Trecho(canal, limites[i], limites[i + 1], i == 0, soLocalizar);
+        }
+        ForkJoinPool.commonPool().invoke(new Leitura(trechos, 0, trechos.length));
+        return trechos;
+    }
+
+    /**
+     * Calcula as posições de início de cada trecho, ajustadas para logo depois
+     * de uma quebra de linha. O último elemento é o tamanho do arquivo.
+     */
+    private static long[] dividirEmTrechos(FileChannel canal) throws IOException {
+        long tamanho = canal.size();
+        int paralelismo = ForkJoinPool.getCommonPoolParallelism();
+        long alvo = Math.min(TAMANHO_MAXIMO_TRECHO,
+                Math.max(TAMANHO_MINIMO_TRECHO, tamanho / (paralelismo * 4L)));
+
+        List<Long> inicios = new ArrayList<>();
+        inicios.add(0L);
+        ByteBuffer busca = ByteBuffer.allocate(4096);
+        long posicao = alvo;
+        while (posicao < tamanho) {
+            long fimDeLinha = procurarQuebra(canal, posicao, busca);
+            if (fimDeLinha < 0) {
+                break;
+            }
+            inicios.add(fimDeLinha + 1);
+            posicao = fimDeLinha + 1 + alvo;
+        }
+
+        long[] limites = new long[inicios.size() + 1];
+        for (int i = 0; i < inicios.size(); i++) {
+            limites[i] = inicios.get(i);
+        }
+        limites[limites.length - 1] = tamanho;
+        return limites;
+    }
+
+    private static long procurarQuebra(FileChannel canal, long desde, ByteBuffer busca) throws IOException {
+        long posicao = desde;
+        while (true) {
+            busca.clear();
+            int lidos = canal.read(busca, posicao);
+            if (lidos <= 0) {
+                return -1;
+            }
+            for (int i = 0; i < lidos; i++) {
+                if (busca.get(i) == '\n') {
+                    return posicao + i;
+                }
+            }
+            posicao += lidos;
+        }
+    }
+
+    /**
+     * Divide recursivamente o conjunto de trechos até que cada tarefa leia um só.
+     * Como toda tarefa de fork/join, é serializável só por herança; nunca é
+     * serializada.
+     */
+    @SuppressWarnings("serial")
+    private static final class Leitura extends RecursiveAction {
+
+        private final Trecho[] trechos;
+        private final int de;
+        private final int ate;
+
+        Leitura(Trecho[] trechos, int de, int ate) {
+            this.trechos = trechos;
+            this.de = de;
+            this.ate = ate;
+        }
+
+        @Override
+        protected void compute() {
+            if (ate - de == 1) {
+                trechos[de].ler();
+                return;
+            }
+            int meio = (de + ate) >>> 1;
+            invokeAll(new Leitura(trechos, de, meio), new Leitura(trechos, meio, ate));
+        }
+    }
+
+    /**
+     * Um intervalo do arquivo, alinhado a linhas, e as obras lidas dele.
+     */
+    private static final class Trecho {
+
+        private final FileChannel canal;
+        private final long inicio;
+        private final long fim;
+        private final boolean contemCabecalho;
+        private final boolean soLocalizar;
+        private final List<Obra> obras = new ArrayList<>();
+        private final List<String> erros = new ArrayList<>();
+
+        // Preenchidos no lugar de obras quando o trecho só localiza
+        private int[] ids = new int[0];
+        private int[] quantidades = new int[0];
+        private long[] inicioTitulo = new long[0];
+        private int[] tamanhoTitulo = new int[0];
+        private long[] inicioAutor = new long[0];
+        private int[] tamanhoAutor = new int[0];
+        private int localizadas;
+
+        private MappedByteBuffer buffer;
+        private byte[] texto = new byte[256];
+
+        Trecho(FileChannel canal, long inicio, long fim, boolean contemCabecalho, boolean soLocalizar) {
+            this.canal = canal;
+            this.inicio = inicio;
+            this.fim = fim;
+            this.contemCabecalho = contemCabecalho;
+            this.soLocalizar = soLocalizar;
+        }
+
+        void ler() {
+            try {
+                buffer = canal.map(FileChannel.MapMode.READ_ONLY, inicio, fim - inicio);
+            } catch (IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+            int limite = buffer.limit();
+            int linha = 0;
+            boolean primeira = true;
+            while (linha < limite) {
+                int quebra = linha;
+                while (quebra < limite && buffer.get(quebra) != '\n') {
+                    quebra++;
+                }
+                int fimLinha = quebra > linha && buffer.get(quebra - 1) == '\r' ? quebra - 1 : quebra;
+                if (!(primeira && contemCabecalho)) {
+                    lerLinha(linha, fimLinha);
+                }
+                primeira = false;
+                linha = quebra + 1;
+            }
+        }
+
+        private void lerLinha(int inicioLinha, int fimLinha) {
+            // Mesma regra de String.split(","): campos vazios no fim não contam
+            int virgula1 = -1;
+            int virgula2 = -1;
+            int virgula3 = -1;
+            int campos = 1;
+            int ultimoCampoNaoVazio = 0;
+            int inicioCampo = inicioLinha;
+            for (int i = inicioLinha; i < fimLinha; i++) {
+                if (buffer.get(i) == ',') {
+                    if (i > inicioCampo) {
+                        ultimoCampoNaoVazio = campos;
+                    }
+                    if (campos == 1) {
+                        virgula1 = i;
+                    } else if (campos == 2) {
+                        virgula2 = i;
+                    } else if (campos == 3) {
+                        virgula3 = i;
+                    }
+                    campos++;
+                    inicioCampo = i + 1;
+                }
+            }
+            if (fimLinha > inicioCampo) {
+                ultimoCampoNaoVazio = campos;
+            }
+            if (ultimoCampoNaoVazio < 3) {
+                return;
+            }
+            // Sem autor, a quantidade vai até o fim da linha; com autor, até a terceira vírgula
+            int fimQuantidade = ultimoCampoNaoVazio == 3 ? (virgula3 < 0 ? fimLinha : virgula3) : virgula3;
+            int inicioAutor = ultimoCampoNaoVazio == 3 ? fimLinha : virgula3 + 1;
+
+            long id = lerInteiro(inicioLinha, virgula1);
+            long quantidade = lerInteiro(virgula2 + 1, fimQuantidade);
+            if (id == Long.MIN_VALUE || quantidade == Long.MIN_VALUE) {
+                erros.add("Erro ao processar linha inválida: " + decodificar(inicioLinha, fimLinha));
+                return;
+            }
+            if (soLocalizar) {
+                localizar((int) id, (int) quantidade, virgula1 + 1, virgula2, inicioAutor, fimLinha);
+                return;
+            }
+            String titulo = decodificarSemEspacos(virgula1 + 1, virgula2);
+            String autor = decodificarSemEspacos(inicioAutor, fimLinha);
+            obras.add(new Obra((int) id, titulo, autor.isEmpty() ? AUTOR_DESCONHECIDO : autor, (int) quantidade));
+        }
+
+        private void localizar(int id, int quantidade, int de, int ate, int deAutor, int ateAutor) {
+            de = semEspacosNoInicio(de, ate);
+            ate = semEspacosNoFim(de, ate);
+            deAutor = semEspacosNoInicio(deAutor, ateAutor);
+            ateAutor = semEspacosNoFim(deAutor, ateAutor);
+            if (localizadas == ids.length) {
+                int capacidade = Math.max(1024, localizadas * 2);
+                ids = Arrays.copyOf(ids, capacidade);
+                quantidades = Arrays.copyOf(quantidades, capacidade);
+                inicioTitulo = Arrays.copyOf(inicioTitulo, capacidade);
+                tamanhoTitulo = Arrays.copyOf(tamanhoTitulo, capacidade);
+                inicioAutor = Arrays.copyOf(inicioAutor, capacidade);
+                tamanhoAutor = Arrays.copyOf(tamanhoAutor, capacidade);
+            }
+            ids[localizadas] = id;
+            quantidades[localizadas] = quantidade;
+            inicioTitulo[localizadas] = inicio + de;
+            tamanhoTitulo[localizadas] = ate - de;
+            inicioAutor[localizadas] = inicio + deAutor;
+            tamanhoAutor[localizadas] = ateAutor - deAutor;
+            localizadas++;
+        }
+
+        private int semEspacosNoInicio(int de, int ate) {
+            while (de < ate && (buffer.get(de) & 0xFF) <= ' ') {
+                de++;
+            }
+            return de;
+        }
+
+        private int semEspacosNoFim(int de, int ate) {
+            while (ate > de && (buffer.get(ate - 1) & 0xFF) <= ' ') {
+                ate--;
+            }
+            return ate;
+        }
+
+        /**
+         * Converte um campo em int com as regras de {@code Integer.parseInt}
+         * aplicadas ao campo sem espaços nas pontas.
+         *
+         * @return O valor lido, ou {@code Long.MIN_VALUE} se o campo for inválido.
+         */
+        private long lerInteiro(int de, int ate) {
+            de = semEspacosNoInicio(de, ate);
+            ate = semEspacosNoFim(de, ate);
+            if (de == ate) {
+                return Long.MIN_VALUE;
+            }
+            boolean negativo = false;
+            byte sinal = buffer.get(de);
+            if (sinal == '-' || sinal == '+') {
+                negativo = sinal == '-';
+                if (++de == ate) {
+                    return Long.MIN_VALUE;
+                }
+            }
+            long valor = 0;
+            for (int i = de; i < ate; i++) {
+                int digito = buffer.get(i) - '0';
+                if (digito < 0 || digito > 9) {
+                    return Long.MIN_VALUE;
+                }
+                valor = valor * 10 + digito;
+                if (valor > (long) Integer.MAX_VALUE + 1) {
+                    return Long.MIN_VALUE;
+                }
+            }
+            valor = negativo ? -valor : valor;
+            return valor < Integer.MIN_VALUE || valor > Integer.MAX_VALUE ? Long.MIN_VALUE : valor;
+        }
+
+        private String decodificarSemEspacos(int de, int ate) {
+            de = semEspacosNoInicio(de, ate);
+            return decodificar(de, semEspacosNoFim(de, ate));
+        }
+
+        private String decodificar(int de, int ate) {
+            int tamanho = ate - de;
+            if (texto.length < tamanho) {
+                texto = new byte[Math.max(tamanho, texto.length * 2)];
+            }
+            buffer.get(de, texto, 0, tamanho);
+            return new String(texto, 0, tamanho, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package biblioteca;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Cliente sem interface para teste de carga do {@link ServidorBiblioteca}.
+ * Abre várias sessões simultâneas, cada uma em uma thread virtual, e repete
+ * buscas, empréstimos e devoluções, medindo a vazão e a latência.
+ *
+ * Uso: {@code java -cp Biblioteca.jar biblioteca.ClienteDeCarga [host] [porta]
+ * [sessões] [comandos por sessão] [email] [senha] [maior ID de obra]}
+ */
+public class ClienteDeCarga {
+
+    private static final String[] TERMOS = {"renascer", "mar", "horizonte", "destino", "vento", "sombras"};
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int porta = args.length > 1 ? Integer.parseInt(args[1]) : ServidorBiblioteca.PORTA_PADRAO;
+        int sessoes = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int comandos = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        String email = args.length > 4 ? args[4] : "gabs@gmail.com";
+        String senha = args.length > 5 ? args[5] : "123123";
+        int maiorId = args.length > 6 ? Integer.parseInt(args[6]) : 5000;
+
+        List<Future<long[]>> resultados = new ArrayList<>();
+        long inicio = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < sessoes; i++) {
+                resultados.add(executor.submit(() -> executarSessao(host, porta, comandos, email, senha, maiorId)));
+            }
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+
+        List<Long> latencias = new ArrayList<>();
+        int falhas = 0;
+        for (Future<long[]> resultado : resultados) {
+            try {
+                for (long latencia : resultado.get()) {
+                    latencias.add(latencia);
+                }
+            } catch (Exception e) {
+                falhas++;
+            }
+        }
+        long[] ordenadas = latencias.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(ordenadas);
+        System.out.printf("Sessões: %d (%d falharam) | Comandos: %d | Tempo: %.2f s | Vazão: %.0f comandos/s%n",
+                sessoes, falhas, ordenadas.length, segundos, ordenadas.length / segundos);
+        if (ordenadas.length > 0) {
+            System.out.printf("Latência p50: %.2f ms | p99: %.2f ms | máx: %.2f ms%n",
+                    percentil(ordenadas, 0.50), percentil(ordenadas, 0.99), ordenadas[ordenadas.length - 1] / 1e6);
+        }
+    }
+
+    private static long[] executarSessao(String host, int porta, int comandos, String email, String senha, int maiorId)
+            throws IOException {
+        long[] latencias = new long[comandos];
+        ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+        try (Socket conexao = new Socket(host, porta);
+                BufferedReader entrada = new BufferedReader(new InputStreamReader(conexao.getInputStream(), StandardCharsets.UTF_8));
+                PrintWriter saida = new PrintWriter(new OutputStreamWriter(conexao.getOutputStream(), StandardCharsets.UTF_8), true)) {
+            enviar(saida, entrada, "LOGIN " + email + " " + senha);
+            for (int i = 0; i < comandos; i++) {
+                String comando = switch (aleatorio.nextInt(3)) {
+                    case 0 -> "BUSCAR " + TERMOS[aleatorio.nextInt(TERMOS.length)];
+                    case 1 -> "EMPRESTAR " + (1 + aleatorio.nextInt(maiorId));
+                    default -> "DEVOLVER " + (1 + aleatorio.nextInt(maiorId));
+                };
+                long antes = System.nanoTime();
+                enviar(saida, entrada, comando);
+                latencias[i] = System.nanoTime() - antes;
+            }
+            enviar(saida, entrada, "SAIR");
+        }
+        return latencias;
+    }
+
+    /**
+     * Envia um comando e lê a resposta inteira, incluindo as linhas extras
+     * anunciadas após o "OK".
+     */
+    private static void enviar(PrintWriter saida, BufferedReader entrada, String comando) throws IOException {
+        saida.println(comando);
+        String resposta = entrada.readLine();
+        if (resposta == null) {
+            throw new EOFException("Conexão encerrada pelo servidor.");
+        }
+        if (comando.startsWith("BUSCAR") && resposta.startsWith("OK ")) {
+            int linhas = Integer.parseInt(resposta.substring(3));
+            for (int i = 0; i < linhas; i++) {
+                entrada.readLine();
+            }
+        }
+    }
+
+    private static double percentil(long[] ordenadas, double fracao) {
+        int posicao = (int) Math.min(ordenadas.length - 1, Math.round(fracao * (ordenadas.length - 1)));
+        return ordenadas[posicao] / 1e6;
+    }
+}
@@ -0,0 +1,81 @@
+package biblioteca;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Quantidades de exemplares das obras de um acervo em colunas
+ * ({@link AcervoColunar}, {@link AcervoSobDemanda}), indexadas pela posição
+ * da obra. Empréstimos e devoluções alteram a quantidade com compare-and-set,
+ * sem travas.
+ *
+ * Como no {@link MapaDeDisponiveis}, as quantidades ficam em blocos de
+ * tamanho fixo: crescer acrescenta blocos e nunca copia os existentes, então
+ * um empréstimo ou uma devolução feitos durante uma inclusão não se perdem.
+ */
+final class ColunaDeQuantidades {
+
+    private static final int POR_BLOCO = 1 << 12;
+
+    private volatile AtomicIntegerArray[] blocos = new AtomicIntegerArray[0];
+
+    ColunaDeQuantidades() {
+    }
+
+    /**
+     * Coluna com as quantidades das posições de 0 até {@code quantidades.length - 1}.
+     */
+    ColunaDeQuantidades(int[] quantidades) {
+        garantirCapacidade(quantidades.length);
+        for (int i = 0; i < quantidades.length; i++) {
+            blocos[i / POR_BLOCO].set(i % POR_BLOCO, quantidades[i]);
+        }
+    }
+
+    /**
+     * Garante espaço para as posições de 0 até {@code posicoes - 1}. Não
+     * pode ser chamado por duas threads ao mesmo tempo.
+     */
+    void garantirCapacidade(int posicoes) {
+        AtomicIntegerArray[] atuais = blocos;
+        int necessarios = (posicoes + POR_BLOCO - 1) / POR_BLOCO;
+        if (necessarios <= atuais.length) {
+            return;
+        }
+        AtomicIntegerArray[] novos = Arrays.copyOf(atuais, Math.max(necessarios, atuais.length * 2));
+        for (int i = atuais.length; i < novos.length; i++) {
+            novos[i] = new AtomicIntegerArray(POR_BLOCO);
+        }
+        blocos = novos;
+    }
+
+    int get(int posicao) {
+        return blocos[posicao / POR_BLOCO].get(posicao % POR_BLOCO);
+    }
+
+    void set(int posicao, int quantidade) {
+        blocos[posicao / POR_BLOCO].set(posicao % POR_BLOCO, quantidade);
+    }
+
+    /**
+     * Retira um exemplar da posição, se houver algum.
+     *
+     * @return false se a quantidade já era zero.
+     */
+    boolean retirar(int posicao) {
+        AtomicIntegerArray bloco = blocos[posicao / POR_BLOCO];
+        int indice = posicao % POR_BLOCO;
+        int atual;
+        do {
+            atual = bloco.get(indice);
+            if (atual <= 0) {
+                return false;
+            }
+        } while (!bloco.compareAndSet(indice, atual, atual - 1));
+        return true;
+    }
+
+    void devolver(int posicao) {
+        blocos[posicao / POR_BLOCO].incrementAndGet(posicao % POR_BLOCO);
+    }
+}
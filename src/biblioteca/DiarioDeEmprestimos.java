@@ -0,0 +1,271 @@
+package biblioteca;
+
+import java.io.*;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Diário (journal) de empréstimos. Cada empréstimo ou devolução é anexado ao
+ * fim do arquivo como um registro binário curto, de modo que o custo de
+ * gravação por operação não depende do tamanho do histórico.
+ *
+ * Os registros são gravados em segundo plano por um {@link GravadorEmGrupo}:
+ * registrar um empréstimo ou uma devolução só coloca o registro na fila, e
+ * {@link #aguardarGravacao()} espera que ele chegue ao disco.
+ *
+ * O diário complementa o arquivo de empréstimos: ao carregar, o estado salvo
+ * é lido e os registros do diário são reaplicados por cima dele.
+ */
+class DiarioDeEmprestimos implements AutoCloseable {
+
+    private static final byte EMPRESTIMO = 'E';
+    private static final byte DEVOLUCAO = 'D'; // Formato antigo, sem a data da devolução
+    private static final byte DEVOLUCAO_DATADA = 'R';
+
+    private final File arquivo;
+    private final GravadorEmGrupo gravador;
+
+    /**
+     * Registro colocado na fila de gravação.
+     *
+     * @param sequencia Número do registro na fila, para {@link #aguardar(long)}.
+     * @param bytes     Tamanho do registro.
+     */
+    record Registro(long sequencia, int bytes) {
+    }
+
+    /**
+     * Recebe os registros lidos do diário, na ordem em que foram gravados.
+     */
+    interface Leitor {
+        void emprestimo(String emailUsuario, int idObra, LocalDate dataEmprestimo);
+
+        void devolucao(String emailUsuario, int idObra, LocalDate dataEntrega);
+    }
+
+    /**
+     * Construtor da classe.
+     *
+     * @param nomeArquivo  Caminho do arquivo do diário.
+     * @param durabilidade Quando os registros são considerados gravados.
+     */
+    DiarioDeEmprestimos(String nomeArquivo, Durabilidade durabilidade) {
+        this.arquivo = new File(nomeArquivo);
+        try {
+            this.gravador = new GravadorEmGrupo(arquivo.toPath(), durabilidade);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Não foi possível abrir o diário de empréstimos", e);
+        }
+    }
+
+    Durabilidade getDurabilidade() {
+        return gravador.getDurabilidade();
+    }
+
+    /**
+     * Coloca um empréstimo na fila de gravação do diário.
+     *
+     * @param emprestimo Empréstimo realizado.
+     * @return O registro colocado na fila.
+     */
+    Registro registrarEmprestimo(Emprestimo emprestimo) throws IOException {
+        ByteArrayOutputStream registro = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(registro);
+        escrever(out, EMPRESTIMO, emprestimo.getEmailUsuario(), emprestimo.getIdObra(), emprestimo.getDataEmprestimo());
+        return anexar(registro);
+    }
+
+    /**
+     * Coloca uma devolução na fila de gravação do diário.
+     *
+     * @param emailUsuario Email do usuário que devolveu a obra.
+     * @param idObra       ID da obra devolvida.
+     * @param dataEntrega  Data da devolução.
+     * @return O registro colocado na fila.
+     */
+    Registro registrarDevolucao(String emailUsuario, int idObra, LocalDate dataEntrega) throws IOException {
+        ByteArrayOutputStream registro = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(registro);
+        escrever(out, DEVOLUCAO_DATADA, emailUsuario, idObra, dataEntrega);
+        return anexar(registro);
+    }
+
+    /**
+     * Coloca na fila de gravação, como um único bloco, as transações
+     * aplicadas de um lote, na ordem em que foram aplicadas.
+     *
+     * @param transacoes Transações aplicadas, todas com a data preenchida.
+     * @return O bloco colocado na fila, como um único registro.
+     */
+    Registro registrarLote(List<TransacaoDeEmprestimo> transacoes) throws IOException {
+        ByteArrayOutputStream registros = new ByteArrayOutputStream(transacoes.size() * 40);
+        DataOutputStream out = new DataOutputStream(registros);
+        for (TransacaoDeEmprestimo t : transacoes) {
+            byte tipo = t.tipo() == TransacaoDeEmprestimo.Tipo.EMPRESTIMO ? EMPRESTIMO : DEVOLUCAO_DATADA;
+            escrever(out, tipo, t.emailUsuario(), t.idObra(), t.data());
+        }
+        return anexar(registros);
+    }
+
+    /**
+     * Espera até que todos os registros colocados na fila até agora estejam
+     * gravados, conforme a durabilidade do diário.
+     *
+     * @throws IOException Se algum deles não pôde ser gravado.
+     */
+    void aguardarGravacao() throws IOException {
+        gravador.aguardarTudo();
+    }
+
+    /**
+     * Espera só pela gravação de um registro, e dos colocados na fila antes
+     * dele.
+     *
+     * @param sequencia Número do registro, de {@link Registro#sequencia()}.
+     * @throws IOException Se ele, ou um anterior a ele, não pôde ser gravado.
+     */
+    void aguardar(long sequencia) throws IOException {
+        gravador.aguardar(sequencia);
+    }
+
+    /**
+     * Tamanho atual do arquivo do diário. Só cai no limite entre dois
+     * registros se a fila tiver sido esvaziada e nenhum registro novo estiver
+     * chegando.
+     */
+    long tamanho() {
+        return arquivo.length();
+    }
+
+    private Registro anexar(ByteArrayOutputStream registro) {
+        byte[] dados = registro.toByteArray();
+        return new Registro(gravador.anexar(dados), dados.length);
+    }
+
+    private static void escrever(DataOutputStream out, byte tipo, String emailUsuario, int idObra, LocalDate data) throws IOException {
+        out.writeByte(tipo);
+        out.writeUTF(emailUsuario);
+        out.writeInt(idObra);
+        out.writeLong(data.toEpochDay());
+    }
+
+    /**
+     * Lê todos os registros do diário. Um registro incompleto no fim do arquivo,
+     * deixado por uma interrupção durante a gravação, é descartado: o arquivo
+     * é cortado no fim do último registro completo, para que os próximos
+     * registros não sejam anexados depois dele.
+     *
+     * @param leitor Destino dos registros lidos.
+     * @return A quantidade de registros lidos.
+     */
+    int reproduzir(Leitor leitor) throws IOException {
+        return reproduzir(leitor, 0);
+    }
+
+    /**
+     * Lê os registros do diário a partir de uma posição do arquivo.
+     *
+     * @param leitor  Destino dos registros lidos.
+     * @param posicao Posição do início de um registro.
+     * @return A quantidade de registros lidos.
+     */
+    int reproduzir(Leitor leitor, long posicao) throws IOException {
+        gravador.aguardarTudo();
+        if (!arquivo.exists()) {
+            return 0;
+        }
+        int registros = 0;
+        long fimDoUltimo = posicao;
+        ContadorDeBytes contador = new ContadorDeBytes(new BufferedInputStream(new FileInputStream(arquivo)));
+        try (DataInputStream in = new DataInputStream(contador)) {
+            in.skipNBytes(posicao);
+            while (true) {
+                int tipo = in.read();
+                if (tipo == -1) {
+                    break;
+                }
+                String email = in.readUTF();
+                int idObra = in.readInt();
+                if (tipo == EMPRESTIMO) {
+                    leitor.emprestimo(email, idObra, LocalDate.ofEpochDay(in.readLong()));
+                } else if (tipo == DEVOLUCAO_DATADA) {
+                    leitor.devolucao(email, idObra, LocalDate.ofEpochDay(in.readLong()));
+                } else if (tipo == DEVOLUCAO) {
+                    leitor.devolucao(email, idObra, LocalDate.now());
+                } else {
+                    throw new IOException("Registro desconhecido no diário: " + tipo);
+                }
+                registros++;
+                fimDoUltimo = contador.lidos();
+            }
+        } catch (EOFException e) {
+            System.out.println("Registro incompleto descartado no fim do diário de empréstimos.");
+            gravador.cortar(fimDoUltimo);
+        }
+        return registros;
+    }
+
+    /**
+     * Conta os bytes lidos do arquivo, para saber onde termina cada registro.
+     */
+    private static final class ContadorDeBytes extends FilterInputStream {
+
+        private long lidos;
+
+        ContadorDeBytes(InputStream in) {
+            super(in);
+        }
+
+        // Inclui os bytes pulados, de modo que é a posição no arquivo
+        long lidos() {
+            return lidos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b != -1) {
+                lidos++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int inicio, int tamanho) throws IOException {
+            int n = in.read(b, inicio, tamanho);
+            if (n > 0) {
+                lidos += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long pulados = in.skip(n);
+            lidos += pulados;
+            return pulados;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Esvazia o diário, depois de gravar o que ainda estiver na fila. Deve ser
+     * chamado somente depois que o estado completo tiver sido salvo, e sem
+     * novos registros chegando.
+     */
+    void limpar() throws IOException {
+        gravador.esvaziar();
+    }
+
+    /**
+     * Grava o que ainda estiver na fila e fecha o arquivo do diário.
+     */
+    @Override
+    public void close() {
+        gravador.close();
+    }
+}
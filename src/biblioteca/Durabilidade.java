@@ -0,0 +1,51 @@
+package biblioteca;
+
+/**
+ * Quando uma operação gravada em segundo plano (diário de empréstimos e
+ * alterações do acervo) é considerada concluída. Configurada pela propriedade
+ * de sistema {@code biblioteca.durabilidade}.
+ */
+public enum Durabilidade {
+    /**
+     * As gravações são agrupadas e entregues ao sistema operacional sem
+     * sincronizar o disco, e as operações não esperam por elas. Uma queda do
+     * processo perde só o que ainda estava na fila; uma queda da máquina pode
+     * perder também o que o sistema operacional ainda não gravou.
+     */
+    ASSINCRONA,
+    /**
+     * As gravações são agrupadas e o disco é sincronizado uma vez por grupo.
+     * Cada operação espera o grupo em que entrou; com muitas operações
+     * simultâneas, uma única sincronização atende a todas. É o padrão.
+     */
+    GRUPO,
+    /**
+     * Cada registro é gravado e sincronizado separadamente, e cada operação
+     * espera o seu.
+     */
+    OPERACAO;
+
+    /**
+     * Retorna o modo definido em {@code biblioteca.durabilidade}, ou
+     * {@link #GRUPO} se a propriedade não estiver definida ou for inválida.
+     */
+    public static Durabilidade configurada() {
+        String valor = System.getProperty("biblioteca.durabilidade");
+        if (valor == null) {
+            return GRUPO;
+        }
+        try {
+            return valueOf(valor.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Durabilidade desconhecida: " + valor + ". Usando " + GRUPO + ".");
+            return GRUPO;
+        }
+    }
+
+    /**
+     * Indica se as operações esperam a gravação antes de retornar.
+     */
+    public boolean isSincrona() {
+        return this != ASSINCRONA;
+    }
+}
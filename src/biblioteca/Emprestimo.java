@@ -9,11 +9,14 @@ import java.time.LocalDate;
  */
 public class Emprestimo implements Serializable {
     private static final long serialVersionUID = 1L;
+    // Prazo padrão para a devolução
+    static final int PRAZO_EM_DIAS = 14;
     private String emailUsuario;
     private int idObra;
     private LocalDate dataEmprestimo;
     private LocalDate dataDevolucao;
-    private boolean devolvido;
+    private volatile boolean devolvido;
+    private LocalDate dataEntrega; // Data em que a obra foi de fato devolvida
 
     /**
      * Construtor da classe Emprestimo.
@@ -22,11 +25,48 @@ public class Emprestimo implements Serializable {
      * @param idObra ID da obra emprestada.
      */
     public Emprestimo(String emailUsuario, int idObra) {
+        this(emailUsuario, idObra, LocalDate.now());
+    }
+
+    /**
+     * Construtor usado ao reconstruir um empréstimo a partir do diário.
+     *
+     * @param emailUsuario Email do usuário que realizou o empréstimo.
+     * @param idObra ID da obra emprestada.
+     * @param dataEmprestimo Data em que o empréstimo foi realizado.
+     */
+    Emprestimo(String emailUsuario, int idObra, LocalDate dataEmprestimo) {
+        this(emailUsuario, idObra, dataEmprestimo, dataEmprestimo.plusDays(PRAZO_EM_DIAS), null);
+    }
+
+    /**
+     * Construtor usado ao ler um empréstimo já devolvido do histórico.
+     *
+     * @param emailUsuario Email do usuário que realizou o empréstimo.
+     * @param idObra ID da obra emprestada.
+     * @param dataEmprestimo Data em que o empréstimo foi realizado.
+     * @param dataEntrega Data em que a obra foi devolvida.
+     */
+    Emprestimo(String emailUsuario, int idObra, LocalDate dataEmprestimo, LocalDate dataEntrega) {
+        this(emailUsuario, idObra, dataEmprestimo, dataEmprestimo.plusDays(PRAZO_EM_DIAS), dataEntrega);
+    }
+
+    /**
+     * Construtor usado ao ler empréstimos gravados, com todas as datas.
+     *
+     * @param emailUsuario Email do usuário que realizou o empréstimo.
+     * @param idObra ID da obra emprestada.
+     * @param dataEmprestimo Data em que o empréstimo foi realizado.
+     * @param dataDevolucao Data prevista para a devolução.
+     * @param dataEntrega Data em que a obra foi devolvida, ou null se ainda não foi.
+     */
+    Emprestimo(String emailUsuario, int idObra, LocalDate dataEmprestimo, LocalDate dataDevolucao, LocalDate dataEntrega) {
         this.emailUsuario = emailUsuario;
         this.idObra = idObra;
-        this.dataEmprestimo = LocalDate.now();
-        this.dataDevolucao = dataEmprestimo.plusDays(14); // Padrão: 14 dias para devolução
-        this.devolvido = false;
+        this.dataEmprestimo = dataEmprestimo;
+        this.dataDevolucao = dataDevolucao;
+        this.dataEntrega = dataEntrega;
+        this.devolvido = dataEntrega != null;
     }
 
     public String getEmailUsuario() {
@@ -53,6 +93,26 @@ public class Emprestimo implements Serializable {
         this.devolvido = devolvido;
     }
 
+    /**
+     * Retorna a data em que a obra foi devolvida, ou null se ainda não foi.
+     * Empréstimos devolvidos em versões anteriores, que não guardavam essa
+     * data, usam a data prevista para a devolução.
+     */
+    public LocalDate getDataEntrega() {
+        if (dataEntrega == null && devolvido) {
+            return dataDevolucao;
+        }
+        return dataEntrega;
+    }
+
+    /**
+     * Marca o empréstimo como devolvido na data informada.
+     */
+    void registrarEntrega(LocalDate data) {
+        this.dataEntrega = data;
+        this.devolvido = true;
+    }
+
     public boolean isAtrasado() {
         return !devolvido && LocalDate.now().isAfter(dataDevolucao);
     }
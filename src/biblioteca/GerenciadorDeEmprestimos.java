@@ -1,116 +1,1179 @@
 package biblioteca;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 /**
  * Classe responsável por gerenciar os empréstimos e devoluções de obras na
  * biblioteca.
+ *
+ * Pode ser usada por vários atendimentos ao mesmo tempo. As operações de um
+ * mesmo usuário são serializadas por uma trava escolhida pelo email (lock
+ * striping), de modo que a verificação do limite e a criação do empréstimo
+ * acontecem juntas; usuários diferentes não disputam a mesma trava. O estoque
+ * de cada obra é alterado com compare-and-set em {@link Obra#emprestar()},
+ * por meio de {@link GerenciadorDeObras#emprestar(Obra)}, que também mantém
+ * o mapa de obras disponíveis.
+ * As gravações no diário acontecem em paralelo; só o checkpoint exige acesso
+ * exclusivo.
+ *
+ * O disco não é acessado durante as operações: o diário e as alterações do
+ * acervo são gravados em segundo plano, em grupos, e os checkpoints rodam em
+ * uma thread própria. Com a {@link Durabilidade} configurada como
+ * {@code ASSINCRONA}, empréstimos e devoluções retornam sem esperar a
+ * gravação, e {@link #aguardarGravacao()} espera quando for preciso; nos
+ * outros modos, inclusive no padrão, cada operação espera a sua gravação e
+ * não é confirmada se ela falhar.
+ *
+ * Somente os empréstimos em aberto ficam em memória. Os devolvidos esperam o
+ * próximo checkpoint e então vão para o {@link HistoricoDeEmprestimos}, em
+ * disco, consultado por {@link #consultarHistorico}.
  */
-public class GerenciadorDeEmprestimos {
+public class GerenciadorDeEmprestimos implements AutoCloseable {
 
-    private List<Emprestimo> emprestimosAtivos;
+    private static final int TRAVAS = 64;
+
+    // Substituído somente na carga, antes de o gerenciador ser usado
+    private volatile Set<Emprestimo> emprestimosAtivos = ConcurrentHashMap.newKeySet();
+    // Devolvidos desde o último checkpoint, ainda não gravados no histórico
+    private final Queue<Emprestimo> devolvidosPendentes = new ConcurrentLinkedQueue<>();
+    // Empréstimos ainda não devolvidos, agrupados pelo email do usuário
+    private final Map<String, List<Emprestimo>> abertosPorUsuario = new ConcurrentHashMap<>();
+    private final ReentrantLock[] travasPorUsuario = new ReentrantLock[TRAVAS];
+    // Operações compartilham a trava de leitura; o checkpoint usa a de escrita
+    private final ReentrantReadWriteLock travaDoDiario = new ReentrantReadWriteLock();
+    // Empréstimos abertos em ordem de vencimento; os devolvidos são descartados ao chegar à frente
+    private final PriorityBlockingQueue<Emprestimo> porVencimento =
+            new PriorityBlockingQueue<>(64, Comparator.comparing(Emprestimo::getDataDevolucao));
+    // Empréstimos que já passaram do vencimento e ainda não foram devolvidos
+    private final Set<Emprestimo> atrasados = ConcurrentHashMap.newKeySet();
+    // Atrasados que a tarefa de bloqueio ainda não visitou, seja quem for que os encontrou
+    private final Queue<Emprestimo> atrasadosSemBloqueio = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock travaDeVencimentos = new ReentrantLock();
+    private ScheduledExecutorService verificacaoDeAtrasos;
     private GerenciadorDeObras gerenciadorObras;
-    private static final String ARQUIVO_EMPRESTIMOS = "emprestimos.txt";
+    private static final String ARQUIVO_EMPRESTIMOS = "emprestimos.dat";
+    // Arquivo serializado de versões anteriores, migrado na primeira carga
+    private static final String ARQUIVO_LEGADO = "emprestimos.txt";
+    private static final String ARQUIVO_DIARIO = "emprestimos.diario";
+    static final String DIRETORIO_HISTORICO = "historico";
+    private static final int REGISTROS_POR_CHECKPOINT = 1000;
+    // Dia da entrega de um empréstimo ainda aberto, no instantâneo
+    private static final int SEM_ENTREGA = Integer.MIN_VALUE;
+
+    private final DiarioDeEmprestimos diario = new DiarioDeEmprestimos(ARQUIVO_DIARIO, Durabilidade.configurada());
+    private final ExecutorService checkpoints = Executors.newSingleThreadExecutor(tarefa -> {
+        Thread thread = new Thread(tarefa, "checkpoint-emprestimos");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicInteger registrosNoDiario = new AtomicInteger();
+    // Há um checkpoint na fila ou rodando; volta a false quando ele termina, com ou sem erro
+    private final AtomicBoolean checkpointAgendado = new AtomicBoolean();
+    private final HistoricoDeEmprestimos historico = new HistoricoDeEmprestimos(DIRETORIO_HISTORICO);
+    // Último lote do histórico referenciado pelo estado salvo
+    private volatile int loteConfirmado;
+    // O estado salvo existe mas não pôde ser lido; nada é regravado até uma nova carga
+    private volatile boolean estadoSalvoIlegivel;
+    // Avisado depois de cada checkpoint bem-sucedido
+    private volatile Runnable aposSalvar = () -> {
+    };
+    // Recebe os empréstimos e devoluções, para as réplicas
+    private volatile Replicacao replicacao = Replicacao.NENHUMA;
 
     /**
      * Construtor que inicializa a lista de empréstimos e carrega os dados do
      * arquivo.
      */
     public GerenciadorDeEmprestimos(GerenciadorDeObras gerenciadorObras) {
-        this.emprestimosAtivos = new ArrayList<>();
+        for (int i = 0; i < TRAVAS; i++) {
+            travasPorUsuario[i] = new ReentrantLock();
+        }
         this.gerenciadorObras = gerenciadorObras;
         carregarEmprestimos();
     }
 
+    /**
+     * Construtor que carrega os empréstimos do instantâneo do sistema, se a
+     * seção dele estiver em dia com o estado salvo, ou dos arquivos.
+     *
+     * @param gerenciadorObras Gerenciador do acervo.
+     * @param instantaneo      Instantâneo aberto na partida.
+     */
+    public GerenciadorDeEmprestimos(GerenciadorDeObras gerenciadorObras, InstantaneoDoSistema instantaneo) {
+        for (int i = 0; i < TRAVAS; i++) {
+            travasPorUsuario[i] = new ReentrantLock();
+        }
+        this.gerenciadorObras = gerenciadorObras;
+        if (!carregarDoInstantaneo(instantaneo)) {
+            carregarEmprestimos();
+        }
+    }
+
     public boolean realizarEmprestimo(Usuario usuario, int idObra) {
+        ResultadoEmprestimo resultado = emprestar(usuario, idObra);
+        System.out.println(resultado.getMensagem());
+        return resultado.isSucesso();
+    }
+
+    /**
+     * Realiza um empréstimo sem escrever nada no console.
+     *
+     * @param usuario Usuário que pede o empréstimo.
+     * @param idObra  ID da obra desejada.
+     * @return O resultado, que informa o motivo em caso de recusa.
+     */
+    public ResultadoEmprestimo emprestar(Usuario usuario, int idObra) {
+        long inicio = System.nanoTime();
+        ResultadoEmprestimo resultado = tentarEmprestimo(usuario, idObra);
+        Metricas.registrar(Metricas.Operacao.EMPRESTIMO, inicio);
+        Metricas.registrarResultado(resultado);
+        return resultado;
+    }
+
+    private ResultadoEmprestimo tentarEmprestimo(Usuario usuario, int idObra) {
         if (usuario instanceof Bibliotecario) {
-            System.out.println("Bibliotecários não podem realizar empréstimos.");
-            return false;
+            return ResultadoEmprestimo.BIBLIOTECARIO;
         }
 
-        long emprestimosAtuais = emprestimosAtivos.stream()
-                .filter(e -> e.getEmailUsuario().equals(usuario.getEmail()) && !e.isDevolvido())
-                .count();
+        Obra obra;
+        long noDiario = -1;
+        ReentrantLock trava = travaDe(usuario.getEmail());
+        Replicacao replicacao = this.replicacao;
+        replicacao.iniciarAlteracao();
+        travaDoDiario.readLock().lock();
+        trava.lock();
+        try {
+            ResultadoEmprestimo recusa = verificarUsuario(usuario);
+            if (recusa != null) {
+                return recusa;
+            }
 
-        if (emprestimosAtuais >= usuario.getLimiteEmprestimos()) {
-            System.out.println("Limite de empréstimos atingido!");
-            return false;
+            obra = gerenciadorObras.buscarObraPorId(idObra);
+            Emprestimo emprestimo = abrirEmprestimo(usuario.getEmail(), obra, LocalDate.now());
+            if (emprestimo == null) {
+                return ResultadoEmprestimo.OBRA_INDISPONIVEL;
+            }
+            try {
+                DiarioDeEmprestimos.Registro registro = diario.registrarEmprestimo(emprestimo);
+                Metricas.registrarBytes(Metricas.Operacao.EMPRESTIMO, registro.bytes());
+                noDiario = registro.sequencia();
+            } catch (IOException ex) {
+                System.out.println("Erro ao registrar empréstimo no diário: " + ex.getMessage());
+            }
+            replicacao.emprestimo(emprestimo.getEmailUsuario(), idObra, emprestimo.getDataEmprestimo());
+        } finally {
+            trava.unlock();
+            travaDoDiario.readLock().unlock();
+            replicacao.terminarAlteracao();
         }
+        registrarNoDiario();
+        long alteracao = gerenciadorObras.registrarAlteracao(obra);
+        return gravacaoConfirmada(noDiario, () -> gerenciadorObras.aguardarGravacao(idObra, alteracao))
+                ? ResultadoEmprestimo.REALIZADO
+                : ResultadoEmprestimo.REALIZADO_SEM_GRAVACAO;
+    }
 
+    /**
+     * Verifica se o usuário pode pegar mais uma obra emprestada. Deve ser
+     * chamado com a trava do usuário ou com acesso exclusivo.
+     *
+     * @return O motivo da recusa, ou null se o usuário pode pegar a obra.
+     */
+    private ResultadoEmprestimo verificarUsuario(Usuario usuario) {
+        if (usuario instanceof Bibliotecario) {
+            return ResultadoEmprestimo.BIBLIOTECARIO;
+        }
+        List<Emprestimo> abertos = abertosPorUsuario.get(usuario.getEmail());
+        if (abertos != null && abertos.size() >= usuario.getLimiteEmprestimos()) {
+            return ResultadoEmprestimo.LIMITE_ATINGIDO;
+        }
         if (usuario.isBloqueado()) {
-            System.out.println("Usuário bloqueado devido a atrasos.");
-            return false;
+            return ResultadoEmprestimo.USUARIO_BLOQUEADO;
         }
+        return null;
+    }
 
-        Obra obra = gerenciadorObras.buscarObraPorId(idObra);
-        if (obra == null || obra.getQuantidade() <= 0) {
-            System.out.println("Obra indisponível para empréstimo.");
-            return false;
+    /**
+     * Retira um exemplar do estoque da obra e cria o empréstimo em memória.
+     *
+     * @return O empréstimo criado, ou null se a obra não existir ou não tiver
+     *         exemplares disponíveis.
+     */
+    private Emprestimo abrirEmprestimo(String emailUsuario, Obra obra, LocalDate dataEmprestimo) {
+        if (obra == null || !gerenciadorObras.emprestar(obra)) {
+            return null;
         }
+        Emprestimo emprestimo = new Emprestimo(emailUsuario, obra.getId(), dataEmprestimo);
+        emprestimosAtivos.add(emprestimo);
+        indexarAberto(emprestimo);
+        return emprestimo;
+    }
 
-        if (obra.emprestar()) {
-            emprestimosAtivos.add(new Emprestimo(usuario.getEmail(), idObra));
-            salvarEmprestimos();
-            gerenciadorObras.salvarAcervo();
-            System.out.println("Empréstimo realizado com sucesso!");
+    public void registrarDevolucao(String emailUsuario, int idObra) {
+        System.out.println(devolver(emailUsuario, idObra).mensagem());
+    }
+
+    /**
+     * Registra uma devolução sem escrever nada no console.
+     *
+     * @param emailUsuario Email do usuário que devolve a obra.
+     * @param idObra       ID da obra devolvida.
+     * @return O resultado, que informa se não havia um empréstimo aberto ou
+     *         se a devolução foi registrada sem ser gravada em disco.
+     */
+    public ResultadoDaTransacao devolver(String emailUsuario, int idObra) {
+        long inicio = System.nanoTime();
+        ResultadoDaTransacao resultado = encerrarEmprestimo(emailUsuario, idObra);
+        Metricas.registrar(Metricas.Operacao.DEVOLUCAO, inicio);
+        return resultado;
+    }
+
+    private ResultadoDaTransacao encerrarEmprestimo(String emailUsuario, int idObra) {
+        Obra obra;
+        long noDiario = -1;
+        ReentrantLock trava = travaDe(emailUsuario);
+        Replicacao replicacao = this.replicacao;
+        replicacao.iniciarAlteracao();
+        travaDoDiario.readLock().lock();
+        trava.lock();
+        try {
+            Emprestimo emprestimo = fecharAberto(emailUsuario, idObra, LocalDate.now());
+            if (emprestimo == null) {
+                return ResultadoDaTransacao.EMPRESTIMO_NAO_ENCONTRADO;
+            }
+            obra = gerenciadorObras.buscarObraPorId(idObra);
+            if (obra != null) {
+                gerenciadorObras.devolver(obra);
+            }
+            try {
+                DiarioDeEmprestimos.Registro registro = diario.registrarDevolucao(emailUsuario, idObra, emprestimo.getDataEntrega());
+                Metricas.registrarBytes(Metricas.Operacao.DEVOLUCAO, registro.bytes());
+                noDiario = registro.sequencia();
+            } catch (IOException ex) {
+                System.out.println("Erro ao registrar devolução no diário: " + ex.getMessage());
+            }
+            replicacao.devolucao(emailUsuario, idObra, emprestimo.getDataEntrega());
+        } finally {
+            trava.unlock();
+            travaDoDiario.readLock().unlock();
+            replicacao.terminarAlteracao();
+        }
+        registrarNoDiario();
+        EsperaDoAcervo acervo = () -> {
+        };
+        if (obra != null) {
+            long alteracao = gerenciadorObras.registrarAlteracao(obra);
+            acervo = () -> gerenciadorObras.aguardarGravacao(idObra, alteracao);
+        }
+        return gravacaoConfirmada(noDiario, acervo)
+                ? ResultadoDaTransacao.DEVOLUCAO_REGISTRADA
+                : ResultadoDaTransacao.DEVOLUCAO_SEM_GRAVACAO;
+    }
+
+    /**
+     * Espera até que todas as operações realizadas até agora estejam gravadas
+     * no diário e no arquivo de alterações do acervo, conforme a durabilidade
+     * configurada. Útil no modo {@code ASSINCRONA}, em que as operações
+     * retornam antes da gravação.
+     *
+     * @throws IOException Se alguma delas não pôde ser gravada. Ela continua
+     *                     valendo em memória e só chega ao disco com o
+     *                     próximo checkpoint.
+     */
+    public void aguardarGravacao() throws IOException {
+        diario.aguardarGravacao();
+        gerenciadorObras.aguardarGravacao();
+    }
+
+    /**
+     * Espera pela gravação das alterações de obras feitas por uma operação.
+     */
+    private interface EsperaDoAcervo {
+        void aguardar() throws IOException;
+    }
+
+    /**
+     * Nos modos síncronos, espera a gravação de uma operação: o seu registro
+     * no diário e as alterações de obras que ela fez. Operações feitas ao
+     * mesmo tempo por outras threads não são esperadas. Uma operação que não
+     * entrou no diário nunca é confirmada, em nenhum modo. Se a gravação falhar,
+     * a operação continua valendo em memória e é levada ao disco pelo
+     * próximo checkpoint, que é agendado aqui.
+     *
+     * @param noDiario Número do registro no diário, 0 se a operação não deixou
+     *                 registro a esperar ou -1 se ele não entrou no diário.
+     * @param acervo   Espera pelas alterações de obras da operação.
+     * @return false se a operação ainda não está gravada.
+     */
+    private boolean gravacaoConfirmada(long noDiario, EsperaDoAcervo acervo) {
+        if (noDiario < 0) {
+            // Nem chegou à fila do diário; isso se sabe mesmo sem esperar o disco
+            agendarCheckpoint();
+            return false;
+        }
+        if (!diario.getDurabilidade().isSincrona()) {
             return true;
         }
-        return false;
+        boolean confirmada = true;
+        try {
+            if (noDiario > 0) {
+                diario.aguardar(noDiario);
+            }
+        } catch (IOException e) {
+            System.out.println("Operação ainda não gravada no diário: " + e.getMessage());
+            agendarCheckpoint();
+            confirmada = false;
+        }
+        try {
+            acervo.aguardar();
+        } catch (IOException e) {
+            System.out.println("Alteração do acervo ainda não gravada: " + e.getMessage());
+            confirmada = false;
+        }
+        return confirmada;
     }
 
-    public void registrarDevolucao(String emailUsuario, int idObra) {
-        for (Emprestimo e : emprestimosAtivos) {
-            if (e.getEmailUsuario().equals(emailUsuario) && e.getIdObra() == idObra && !e.isDevolvido()) {
-                e.setDevolvido(true);
-                Obra obra = gerenciadorObras.buscarObraPorId(idObra);
-                if (obra != null) {
-                    obra.devolver();
+    /**
+     * Processa um lote de empréstimos e devoluções, na ordem recebida. Cada
+     * transação é validada contra o estado em memória, que já inclui as
+     * anteriores do mesmo lote: limite de empréstimos, bloqueio do usuário e
+     * estoque da obra. Transações recusadas não interrompem o lote.
+     *
+     * O lote tem acesso exclusivo, como o checkpoint, e só é gravado no final,
+     * de uma vez: as transações aplicadas são anexadas ao diário em uma única
+     * escrita (ou, se o diário passaria do tamanho máximo, é feito um
+     * checkpoint), e as quantidades das obras alteradas são registradas em uma
+     * única gravação no arquivo de alterações do acervo.
+     *
+     * @param transacoes          Transações na ordem em que devem ser aplicadas.
+     * @param gerenciadorUsuarios Gerenciador onde os usuários são procurados.
+     * @return O resultado de cada transação, na mesma ordem. Transações
+     *         aplicadas cuja gravação falhou continuam valendo, com um
+     *         resultado que diz que ainda não foram gravadas.
+     */
+    public List<ResultadoDaTransacao> processarLote(List<TransacaoDeEmprestimo> transacoes, GerenciadorDeUsuarios gerenciadorUsuarios) {
+        long inicio = System.nanoTime();
+        List<ResultadoDaTransacao> resultados = new ArrayList<>(transacoes.size());
+        List<TransacaoDeEmprestimo> aplicadas = new ArrayList<>(transacoes.size());
+        // Cada obra é registrada uma vez, com a quantidade final do lote
+        Map<Integer, Obra> alteradas = new LinkedHashMap<>();
+        LocalDate hoje = LocalDate.now();
+        long noDiario;
+        Replicacao replicacao = this.replicacao;
+        replicacao.iniciarAlteracao();
+        travaDoDiario.writeLock().lock();
+        try {
+            for (TransacaoDeEmprestimo t : transacoes) {
+                LocalDate data = t.data() == null ? hoje : t.data();
+                Obra obra = gerenciadorObras.buscarObraPorId(t.idObra());
+                ResultadoDaTransacao resultado;
+                if (t.tipo() == TransacaoDeEmprestimo.Tipo.EMPRESTIMO) {
+                    resultado = emprestarNoLote(gerenciadorUsuarios.buscarUsuarioPorEmail(t.emailUsuario()), obra, data);
+                } else if (fecharAberto(t.emailUsuario(), t.idObra(), data) != null) {
+                    if (obra != null) {
+                        gerenciadorObras.devolver(obra);
+                    }
+                    resultado = ResultadoDaTransacao.DEVOLUCAO_REGISTRADA;
+                } else {
+                    resultado = ResultadoDaTransacao.EMPRESTIMO_NAO_ENCONTRADO;
                 }
-                salvarEmprestimos();
-                gerenciadorObras.salvarAcervo();
-                System.out.println("Devolução registrada com sucesso!");
-                return;
+                if (resultado.sucesso()) {
+                    aplicadas.add(new TransacaoDeEmprestimo(t.tipo(), t.emailUsuario(), t.idObra(), data));
+                    if (obra != null) {
+                        alteradas.put(obra.getId(), obra);
+                    }
+                }
+                resultados.add(resultado);
             }
+            noDiario = gravarTransacoes(aplicadas);
+            for (TransacaoDeEmprestimo t : aplicadas) {
+                if (t.tipo() == TransacaoDeEmprestimo.Tipo.EMPRESTIMO) {
+                    replicacao.emprestimo(t.emailUsuario(), t.idObra(), t.data());
+                } else {
+                    replicacao.devolucao(t.emailUsuario(), t.idObra(), t.data());
+                }
+            }
+        } finally {
+            travaDoDiario.writeLock().unlock();
+            replicacao.terminarAlteracao();
+        }
+        long[] alteracoes = gerenciadorObras.registrarAlteracoes(alteradas.values());
+        if (!gravacaoConfirmada(noDiario, () -> gerenciadorObras.aguardarGravacao(alteracoes))) {
+            resultados.replaceAll(ResultadoDaTransacao::semGravacao);
+        }
+        Metricas.registrar(Metricas.Operacao.PROCESSAR_LOTE, inicio);
+        return resultados;
+    }
+
+    private ResultadoDaTransacao emprestarNoLote(Usuario usuario, Obra obra, LocalDate data) {
+        if (usuario == null) {
+            return ResultadoDaTransacao.USUARIO_NAO_ENCONTRADO;
+        }
+        ResultadoEmprestimo resultado = verificarUsuario(usuario);
+        if (resultado == null) {
+            resultado = abrirEmprestimo(usuario.getEmail(), obra, data) == null
+                    ? ResultadoEmprestimo.OBRA_INDISPONIVEL
+                    : ResultadoEmprestimo.REALIZADO;
         }
-        System.out.println("Empréstimo não encontrado.");
+        Metricas.registrarResultado(resultado);
+        return ResultadoDaTransacao.de(resultado);
     }
 
+    /**
+     * Aplica um empréstimo ou uma devolução já aceitos pelo líder da
+     * replicação (veja {@link SeguidorDeReplicacao}): não verifica o usuário
+     * nem altera o estoque da obra, que fica a cargo de quem chama. O registro
+     * vai para o diário, como uma operação local.
+     *
+     * @param t Transação aplicada no líder, com a data preenchida.
+     * @return false se for uma devolução sem empréstimo aberto.
+     */
+    boolean aplicarReplicada(TransacaoDeEmprestimo t) {
+        ReentrantLock trava = travaDe(t.emailUsuario());
+        travaDoDiario.readLock().lock();
+        trava.lock();
+        try {
+            if (t.tipo() == TransacaoDeEmprestimo.Tipo.EMPRESTIMO) {
+                Emprestimo emprestimo = new Emprestimo(t.emailUsuario(), t.idObra(), t.data());
+                emprestimosAtivos.add(emprestimo);
+                indexarAberto(emprestimo);
+                diario.registrarEmprestimo(emprestimo);
+            } else {
+                if (fecharAberto(t.emailUsuario(), t.idObra(), t.data()) == null) {
+                    return false;
+                }
+                diario.registrarDevolucao(t.emailUsuario(), t.idObra(), t.data());
+            }
+        } catch (IOException ex) {
+            System.out.println("Erro ao registrar transação replicada no diário: " + ex.getMessage());
+        } finally {
+            trava.unlock();
+            travaDoDiario.readLock().unlock();
+        }
+        registrarNoDiario();
+        return true;
+    }
+
+    /**
+     * Define quem recebe os empréstimos e devoluções feitos a partir de agora.
+     */
+    void replicarPara(Replicacao replicacao) {
+        this.replicacao = replicacao;
+    }
+
+    /**
+     * Grava as transações aplicadas de um lote. Deve ser chamado com a trava
+     * de escrita do diário.
+     *
+     * @return O número do registro do lote no diário, 0 se não há registro a
+     *         esperar ou -1 se ele não entrou no diário.
+     */
+    private long gravarTransacoes(List<TransacaoDeEmprestimo> aplicadas) {
+        if (aplicadas.isEmpty()) {
+            return 0;
+        }
+        // Um lote que encheria o diário vai direto para o estado salvo; se ele
+        // não puder ser salvo, o lote vai para o diário, e o próximo registro
+        // agenda outro checkpoint
+        if (registrosNoDiario.get() + aplicadas.size() >= REGISTROS_POR_CHECKPOINT && salvarEmprestimos()) {
+            return 0;
+        }
+        try {
+            DiarioDeEmprestimos.Registro registro = diario.registrarLote(aplicadas);
+            Metricas.registrarBytes(Metricas.Operacao.PROCESSAR_LOTE, registro.bytes());
+            registrosNoDiario.addAndGet(aplicadas.size());
+            return registro.sequencia();
+        } catch (IOException ex) {
+            System.out.println("Erro ao registrar lote no diário: " + ex.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Carrega o último estado salvo e reaplica sobre ele os registros do diário.
+     * Se o diário tiver registros, o estado resultante é salvo novamente
+     * (checkpoint) e o diário é esvaziado. Empréstimos devolvidos que ainda
+     * estejam no estado salvo, gravado por versões anteriores, também são
+     * levados para o histórico nesse checkpoint.
+     *
+     * Se ainda não existir o arquivo binário, o arquivo serializado de versões
+     * anteriores é lido e convertido; depois da conversão ele é renomeado com
+     * a extensão ".migrado" e não é mais usado.
+     *
+     * Se o estado salvo existir mas não puder ser lido, a carga para ali: o
+     * histórico e o diário não são tocados e nenhum checkpoint é feito até a
+     * próxima carga, para que os arquivos fiquem como estão para o operador.
+     */
     public void carregarEmprestimos() {
-        File arquivo = new File(ARQUIVO_EMPRESTIMOS);
-        if (!arquivo.exists()) {
-            return;
+        long inicio = System.nanoTime();
+        travaDoDiario.writeLock().lock();
+        try {
+            emprestimosAtivos.clear();
+            devolvidosPendentes.clear();
+            loteConfirmado = 0;
+            estadoSalvoIlegivel = false;
+            File arquivo = new File(ARQUIVO_EMPRESTIMOS);
+            File legado = new File(ARQUIVO_LEGADO);
+            boolean migrar = !arquivo.exists() && legado.exists();
+            if (arquivo.exists() || migrar) {
+                try {
+                    ArquivoDeEmprestimos.Conteudo salvo = migrar
+                            ? ArquivoDeEmprestimos.lerFormatoAntigo(legado.toPath())
+                            : ArquivoDeEmprestimos.ler(arquivo.toPath());
+                    for (Emprestimo e : salvo.emprestimos()) {
+                        (e.isDevolvido() ? devolvidosPendentes : emprestimosAtivos).add(e);
+                    }
+                    loteConfirmado = salvo.loteConfirmado();
+                } catch (IOException e) {
+                    System.out.println("Erro ao carregar empréstimos: " + e.getMessage());
+                    System.out.println("Os empréstimos não foram carregados; o estado salvo, o diário e o histórico foram mantidos.");
+                    estadoSalvoIlegivel = true;
+                    return;
+                }
+            }
+            historico.descartarLotesApos(loteConfirmado);
+            reindexarAbertos(emprestimosAtivos);
+
+            int reproduzidos = reaplicarDiario(0);
+            if (reproduzidos > 0 || !devolvidosPendentes.isEmpty() || migrar) {
+                salvarEmprestimos();
+            }
+            if (migrar && arquivo.exists()) {
+                renomearArquivoLegado(legado);
+            }
+        } catch (IOException e) {
+            System.out.println("Erro ao ler o diário de empréstimos: " + e.getMessage());
+        } finally {
+            travaDoDiario.writeLock().unlock();
+            Metricas.registrar(Metricas.Operacao.CARREGAR_EMPRESTIMOS, inicio);
         }
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(arquivo))) {
-            emprestimosAtivos = (List<Emprestimo>) ois.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            System.out.println("Erro ao carregar empréstimos: " + e.getMessage());
+    }
+
+    /**
+     * Reaplica os registros do diário a partir de uma posição. Deve ser
+     * chamado com a trava de escrita do diário.
+     *
+     * @return A quantidade de registros reaplicados.
+     */
+    private int reaplicarDiario(long posicao) throws IOException {
+        return diario.reproduzir(new DiarioDeEmprestimos.Leitor() {
+            @Override
+            public void emprestimo(String emailUsuario, int idObra, LocalDate dataEmprestimo) {
+                Emprestimo emprestimo = new Emprestimo(emailUsuario, idObra, dataEmprestimo);
+                emprestimosAtivos.add(emprestimo);
+                indexarAberto(emprestimo);
+            }
+
+            @Override
+            public void devolucao(String emailUsuario, int idObra, LocalDate dataEntrega) {
+                fecharAberto(emailUsuario, idObra, dataEntrega);
+            }
+        }, posicao);
+    }
+
+    /**
+     * Carrega os empréstimos da seção do instantâneo e reaplica os registros
+     * do diário gravados depois dela. Diferente de {@link #carregarEmprestimos()},
+     * não faz checkpoint: os registros reaplicados e as devoluções pendentes
+     * continuam como estavam antes da parada.
+     *
+     * @return false se a seção não existir, não corresponder ao estado salvo
+     *         ou não puder ser lida; nesse caso nada é carregado.
+     */
+    private boolean carregarDoInstantaneo(InstantaneoDoSistema instantaneo) {
+        long inicio = System.nanoTime();
+        InstantaneoDoSistema.Secao secao = instantaneo.secao(InstantaneoDoSistema.EMPRESTIMOS);
+        travaDoDiario.writeLock().lock();
+        try {
+            if (secao == null || !secao.corresponde(Path.of(ARQUIVO_EMPRESTIMOS), Path.of(ARQUIVO_DIARIO))) {
+                instantaneo.descartar(InstantaneoDoSistema.EMPRESTIMOS);
+                return false;
+            }
+            ByteBuffer dados = secao.dados();
+            int lote = dados.getInt();
+            String[] emails = new String[dados.getInt()];
+            for (int i = 0; i < emails.length; i++) {
+                emails[i] = InstantaneoDoSistema.lerTexto(dados);
+            }
+            int quantidade = dados.getInt();
+            List<Emprestimo> abertos = new ArrayList<>(quantidade);
+            List<Emprestimo> devolvidos = new ArrayList<>();
+            // Posição do email de cada aberto e quantidade de abertos por email
+            int[] usuarioDoAberto = new int[quantidade];
+            int[] abertosDoUsuario = new int[emails.length];
+            // Os empréstimos se concentram em poucos dias; cada dia vira um único LocalDate
+            Map<Integer, LocalDate> dias = new HashMap<>();
+            for (int i = 0; i < quantidade; i++) {
+                int usuario = dados.getInt();
+                int idObra = dados.getInt();
+                LocalDate emprestimo = dias.computeIfAbsent(dados.getInt(), LocalDate::ofEpochDay);
+                LocalDate devolucao = dias.computeIfAbsent(dados.getInt(), LocalDate::ofEpochDay);
+                int entrega = dados.getInt();
+                if (entrega == SEM_ENTREGA) {
+                    usuarioDoAberto[abertos.size()] = usuario;
+                    abertosDoUsuario[usuario]++;
+                    abertos.add(new Emprestimo(emails[usuario], idObra, emprestimo, devolucao, null));
+                } else {
+                    devolvidos.add(new Emprestimo(emails[usuario], idObra, emprestimo, devolucao,
+                            dias.computeIfAbsent(entrega, LocalDate::ofEpochDay)));
+                }
+            }
+            Emprestimo[][] porUsuario = new Emprestimo[emails.length][];
+            for (int u = 0; u < emails.length; u++) {
+                porUsuario[u] = new Emprestimo[abertosDoUsuario[u]];
+                abertosDoUsuario[u] = 0;
+            }
+            for (int i = 0; i < abertos.size(); i++) {
+                int u = usuarioDoAberto[i];
+                porUsuario[u][abertosDoUsuario[u]++] = abertos.get(i);
+            }
+
+            // Com a capacidade certa, o conjunto não é redimensionado durante a carga
+            emprestimosAtivos = ConcurrentHashMap.newKeySet(abertos.size() * 2);
+            emprestimosAtivos.addAll(abertos);
+            devolvidosPendentes.clear();
+            devolvidosPendentes.addAll(devolvidos);
+            loteConfirmado = lote;
+            historico.descartarLotesApos(lote);
+            abertosPorUsuario.clear();
+            for (int u = 0; u < emails.length; u++) {
+                if (porUsuario[u].length > 0) {
+                    abertosPorUsuario.put(emails[u], new CopyOnWriteArrayList<>(porUsuario[u]));
+                }
+            }
+            porVencimento.clear();
+            atrasados.clear();
+            atrasadosSemBloqueio.clear();
+            porVencimento.addAll(abertos);
+            registrosNoDiario.set(reaplicarDiario(secao.posicaoNoRegistro()));
+            if (registrosNoDiario.get() >= REGISTROS_POR_CHECKPOINT) {
+                salvarEmprestimos();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Empréstimos do instantâneo ignorados: " + e.getMessage());
+            instantaneo.descartar(InstantaneoDoSistema.EMPRESTIMOS);
+            return false;
+        } finally {
+            travaDoDiario.writeLock().unlock();
         }
+        Metricas.registrar(Metricas.Operacao.CARREGAR_EMPRESTIMOS, inicio);
+        return true;
     }
 
-    public void salvarEmprestimos() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(ARQUIVO_EMPRESTIMOS))) {
-            oos.writeObject(emprestimosAtivos);
+    /**
+     * Escreve os empréstimos na seção do instantâneo do sistema: o último lote
+     * confirmado do histórico, a tabela de emails e um registro por empréstimo
+     * aberto ou devolvido ainda não gravado no histórico. Os abertos vão em
+     * ordem de vencimento, para que a fila de vencimentos seja montada sem
+     * reordenar nada na carga.
+     *
+     * Só a cópia das coleções e a posição no diário são feitas com acesso
+     * exclusivo. Um empréstimo devolvido depois disso é escrito como
+     * devolvido; a devolução, que também está no diário depois da posição,
+     * não encontra mais o empréstimo aberto na carga e é ignorada.
+     */
+    void escreverNoInstantaneo(DataOutputStream out) throws IOException {
+        List<Emprestimo> abertos;
+        List<Emprestimo> devolvidos;
+        int lote;
+        travaDoDiario.writeLock().lock();
+        try {
+            if (estadoSalvoIlegivel) {
+                // A seção corresponderia ao arquivo ilegível e seria carregada no lugar dele
+                throw new IOException("o estado salvo dos empréstimos não pôde ser lido na carga");
+            }
+            diario.aguardarGravacao();
+            InstantaneoDoSistema.escreverIdentificacao(out, Path.of(ARQUIVO_EMPRESTIMOS), diario.tamanho());
+            abertos = new ArrayList<>(emprestimosAtivos);
+            devolvidos = new ArrayList<>(devolvidosPendentes);
+            lote = loteConfirmado;
+        } finally {
+            travaDoDiario.writeLock().unlock();
+        }
+        // Dia do vencimento e posição num único long, para ordenar sem comparadores
+        long[] ordem = new long[abertos.size()];
+        for (int i = 0; i < ordem.length; i++) {
+            ordem[i] = abertos.get(i).getDataDevolucao().toEpochDay() << 32 | i;
+        }
+        Arrays.sort(ordem);
+        Map<String, Integer> posicaoDoEmail = new HashMap<>();
+        List<String> emails = new ArrayList<>();
+        for (List<Emprestimo> lista : List.of(abertos, devolvidos)) {
+            for (Emprestimo e : lista) {
+                if (posicaoDoEmail.putIfAbsent(e.getEmailUsuario(), emails.size()) == null) {
+                    emails.add(e.getEmailUsuario());
+                }
+            }
+        }
+        out.writeInt(lote);
+        out.writeInt(emails.size());
+        for (String email : emails) {
+            InstantaneoDoSistema.escreverTexto(out, email);
+        }
+        out.writeInt(abertos.size() + devolvidos.size());
+        for (long chave : ordem) {
+            escreverEmprestimo(out, abertos.get((int) chave), posicaoDoEmail);
+        }
+        for (Emprestimo e : devolvidos) {
+            escreverEmprestimo(out, e, posicaoDoEmail);
+        }
+    }
+
+    /**
+     * Tarefa executada com os segmentos do histórico no lugar.
+     */
+    interface CopiaDoHistorico {
+        void executar() throws IOException;
+    }
+
+    /**
+     * Executa uma tarefa sem que nenhum segmento do histórico seja apagado,
+     * adiando a compactação até ela terminar. Usado na cópia para uma réplica
+     * (veja {@link LiderDeReplicacao}): a seção do instantâneo escrita durante
+     * a tarefa só referencia segmentos que {@link #copiarHistorico} ainda
+     * encontra no disco.
+     */
+    void comHistoricoFixo(CopiaDoHistorico tarefa) throws IOException {
+        ReentrantReadWriteLock.ReadLock travaDeConsulta = historico.travaDeConsulta();
+        travaDeConsulta.lock();
+        try {
+            tarefa.executar();
+        } finally {
+            travaDeConsulta.unlock();
+        }
+    }
+
+    /**
+     * Copia os segmentos do histórico para uma réplica. Deve ser chamado
+     * dentro de {@link #comHistoricoFixo}.
+     */
+    void copiarHistorico(DataOutputStream out) throws IOException {
+        historico.copiar(out);
+    }
+
+    /**
+     * Substitui o histórico do diretório de trabalho pela cópia feita por
+     * {@link #copiarHistorico}. Deve ser chamado antes de criar o gerenciador.
+     */
+    static void restaurarHistorico(DataInputStream in) throws IOException {
+        new HistoricoDeEmprestimos(DIRETORIO_HISTORICO).restaurar(in);
+    }
+
+    private static void escreverEmprestimo(DataOutputStream out, Emprestimo e, Map<String, Integer> posicaoDoEmail) throws IOException {
+        out.writeInt(posicaoDoEmail.get(e.getEmailUsuario()));
+        out.writeInt(e.getIdObra());
+        out.writeInt((int) e.getDataEmprestimo().toEpochDay());
+        out.writeInt((int) e.getDataDevolucao().toEpochDay());
+        // A marca de devolvido é lida antes da data, que é gravada antes da marca
+        out.writeInt(e.isDevolvido() ? (int) e.getDataEntrega().toEpochDay() : SEM_ENTREGA);
+    }
+
+    /**
+     * Define o que fazer depois de cada checkpoint bem-sucedido.
+     */
+    void aoSalvar(Runnable acao) {
+        this.aposSalvar = acao;
+    }
+
+    private static void renomearArquivoLegado(File legado) {
+        try {
+            Files.move(legado.toPath(), new File(ARQUIVO_LEGADO + ".migrado").toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Empréstimos migrados para o formato binário.");
+        } catch (IOException e) {
+            System.out.println("Erro ao renomear o arquivo antigo de empréstimos: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Salva o estado completo dos empréstimos (checkpoint) e esvazia o diário.
+     * O arquivo é gravado em um temporário e depois renomeado, para que uma
+     * interrupção não deixe o estado salvo corrompido. Enquanto isso, novas
+     * operações aguardam, para que nenhuma fique fora do estado salvo e do diário.
+     *
+     * As devoluções acumuladas são gravadas antes como um novo lote do
+     * histórico, que só passa a valer quando o estado salvo o referencia.
+     *
+     * @return true se o estado foi salvo; se não, o diário continua valendo.
+     */
+    public boolean salvarEmprestimos() {
+        long inicio = System.nanoTime();
+        travaDoDiario.writeLock().lock();
+        File temporario = new File(ARQUIVO_EMPRESTIMOS + ".tmp");
+        try {
+            if (estadoSalvoIlegivel) {
+                // Regravar agora substituiria o estado que não pôde ser lido
+                System.out.println("Empréstimos não salvos: o estado salvo não pôde ser lido na carga.");
+                return false;
+            }
+            int lote = loteConfirmado;
+            if (!devolvidosPendentes.isEmpty()) {
+                lote++;
+                Metricas.registrarBytes(Metricas.Operacao.SALVAR_EMPRESTIMOS, historico.gravarLote(lote, devolvidosPendentes));
+            }
+            ArquivoDeEmprestimos.gravar(temporario.toPath(), new ArrayList<>(emprestimosAtivos), lote);
+            Metricas.registrarBytes(Metricas.Operacao.SALVAR_EMPRESTIMOS, temporario.length());
+            Files.move(temporario.toPath(), new File(ARQUIVO_EMPRESTIMOS).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            loteConfirmado = lote;
+            devolvidosPendentes.clear();
+            diario.limpar();
+            registrosNoDiario.set(0);
         } catch (IOException e) {
             System.out.println("Erro ao salvar empréstimos: " + e.getMessage());
+            return false;
+        } finally {
+            travaDoDiario.writeLock().unlock();
+            Metricas.registrar(Metricas.Operacao.SALVAR_EMPRESTIMOS, inicio);
+        }
+        aposSalvar.run();
+        try {
+            historico.compactar(loteConfirmado, YearMonth.now());
+        } catch (IOException e) {
+            System.out.println("Erro ao compactar o histórico de empréstimos: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Percorre os empréstimos devolvidos entre duas datas, incluindo os que
+     * ainda aguardam o próximo checkpoint. Os segmentos do histórico são lidos
+     * do disco conforme a consulta avança, sem carregar o histórico inteiro.
+     *
+     * @param de      Primeiro dia de devolução, inclusive.
+     * @param ate     Último dia de devolução, inclusive.
+     * @param destino Recebe cada empréstimo encontrado.
+     */
+    public void consultarHistorico(LocalDate de, LocalDate ate, Consumer<Emprestimo> destino) {
+        ReentrantReadWriteLock.ReadLock travaDeConsulta = historico.travaDeConsulta();
+        travaDeConsulta.lock();
+        try {
+            List<Emprestimo> pendentes;
+            int lote;
+            travaDoDiario.readLock().lock();
+            try {
+                pendentes = new ArrayList<>(devolvidosPendentes);
+                lote = loteConfirmado;
+            } finally {
+                travaDoDiario.readLock().unlock();
+            }
+            historico.percorrer(de, ate, lote, destino);
+            for (Emprestimo e : pendentes) {
+                if (!e.getDataEntrega().isBefore(de) && !e.getDataEntrega().isAfter(ate)) {
+                    destino.accept(e);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Erro ao ler o histórico de empréstimos: " + e.getMessage());
+        } finally {
+            travaDeConsulta.unlock();
+        }
+    }
+
+    /**
+     * Análise feita sobre todos os empréstimos de um período, como as do
+     * {@link RelatorioDeCirculacao}.
+     */
+    interface Analise {
+
+        /**
+         * @param segmentos           Segmentos do histórico dos meses do período,
+         *                            para {@link HistoricoDeEmprestimos#mapear}; os
+         *                            registros ainda devem ser filtrados pela data da entrega.
+         * @param devolvidosPendentes Devolvidos que aguardam o próximo checkpoint,
+         *                            também sem filtro de data.
+         * @param abertos             Empréstimos ainda não devolvidos.
+         */
+        void analisar(List<File> segmentos, List<Emprestimo> devolvidosPendentes, List<Emprestimo> abertos) throws IOException;
+    }
+
+    /**
+     * Executa uma análise sobre os empréstimos devolvidos entre duas datas e
+     * os ainda abertos. Os segmentos do histórico ficam no lugar até a
+     * análise terminar; empréstimos e devoluções continuam sendo atendidos.
+     *
+     * @param de      Primeiro dia de devolução, inclusive.
+     * @param ate     Último dia de devolução, inclusive.
+     * @param analise Análise a executar.
+     */
+    void analisar(LocalDate de, LocalDate ate, Analise analise) throws IOException {
+        ReentrantReadWriteLock.ReadLock travaDeConsulta = historico.travaDeConsulta();
+        travaDeConsulta.lock();
+        try {
+            List<Emprestimo> pendentes;
+            List<Emprestimo> abertos;
+            int lote;
+            travaDoDiario.readLock().lock();
+            try {
+                // Nesta ordem, uma devolução durante a cópia nunca fica de fora:
+                // ela já está marcada se tiver saído dos abertos
+                abertos = new ArrayList<>(emprestimosAtivos);
+                pendentes = new ArrayList<>(devolvidosPendentes);
+                lote = loteConfirmado;
+            } finally {
+                travaDoDiario.readLock().unlock();
+            }
+            Set<Emprestimo> jaPendentes = new HashSet<>(pendentes);
+            abertos.removeIf(e -> {
+                if (!e.isDevolvido()) {
+                    return false;
+                }
+                if (jaPendentes.add(e)) {
+                    pendentes.add(e);
+                }
+                return true;
+            });
+            analise.analisar(historico.segmentos(de, ate, lote), pendentes, abertos);
+        } finally {
+            travaDeConsulta.unlock();
+        }
+    }
+
+    /**
+     * Retorna os empréstimos ainda não devolvidos de um usuário.
+     *
+     * @param emailUsuario Email do usuário.
+     * @return Lista somente leitura, vazia se o usuário não tiver empréstimos abertos.
+     */
+    public List<Emprestimo> abertosDe(String emailUsuario) {
+        List<Emprestimo> abertos = abertosPorUsuario.get(emailUsuario);
+        return abertos == null ? List.of() : Collections.unmodifiableList(abertos);
+    }
+
+    private void indexarAberto(Emprestimo emprestimo) {
+        abertosPorUsuario.computeIfAbsent(emprestimo.getEmailUsuario(), k -> new CopyOnWriteArrayList<>()).add(emprestimo);
+        porVencimento.add(emprestimo);
+    }
+
+    private ReentrantLock travaDe(String emailUsuario) {
+        int h = emailUsuario.hashCode();
+        return travasPorUsuario[(h ^ (h >>> 16)) & (TRAVAS - 1)];
+    }
+
+    /**
+     * Marca como devolvido o empréstimo aberto mais antigo do usuário para a
+     * obra, o retira do índice e dos ativos e o deixa aguardando a gravação no
+     * histórico. A busca percorre apenas os empréstimos abertos do usuário,
+     * limitados pelo seu limite de empréstimos.
+     *
+     * @return O empréstimo encerrado, ou null se não houver nenhum aberto.
+     */
+    private Emprestimo fecharAberto(String emailUsuario, int idObra, LocalDate dataEntrega) {
+        List<Emprestimo> abertos = abertosPorUsuario.get(emailUsuario);
+        if (abertos == null) {
+            return null;
+        }
+        for (Emprestimo e : abertos) {
+            if (e.getIdObra() == idObra) {
+                abertos.remove(e);
+                if (abertos.isEmpty()) {
+                    abertosPorUsuario.remove(emailUsuario);
+                }
+                e.registrarEntrega(dataEntrega);
+                atrasados.remove(e);
+                emprestimosAtivos.remove(e);
+                devolvidosPendentes.add(e);
+                return e;
+            }
         }
+        return null;
     }
 
+    /**
+     * Remonta os índices dos empréstimos abertos. As listas de cada usuário
+     * são montadas antes e copiadas uma única vez para as listas
+     * copy-on-write; se os empréstimos vierem em ordem de vencimento, cada
+     * inclusão na fila de vencimentos é imediata.
+     */
+    private void reindexarAbertos(Collection<Emprestimo> abertos) {
+        abertosPorUsuario.clear();
+        porVencimento.clear();
+        atrasados.clear();
+        atrasadosSemBloqueio.clear();
+        Map<String, List<Emprestimo>> porUsuario = new HashMap<>();
+        for (Emprestimo e : abertos) {
+            porUsuario.computeIfAbsent(e.getEmailUsuario(), k -> new ArrayList<>(4)).add(e);
+        }
+        porUsuario.forEach((email, lista) -> abertosPorUsuario.put(email, new CopyOnWriteArrayList<>(lista)));
+        porVencimento.addAll(abertos);
+    }
+
+    /**
+     * Conta um novo registro no diário e, quando o diário atinge o tamanho
+     * máximo, agenda o checkpoint em segundo plano; quem chama não espera por
+     * ele. Registros feitos até o checkpoint começar também entram nele. Se
+     * o checkpoint falhar, o contador continua acima do limite e o próximo
+     * registro agenda outro.
+     */
+    private void registrarNoDiario() {
+        if (registrosNoDiario.incrementAndGet() >= REGISTROS_POR_CHECKPOINT) {
+            agendarCheckpoint();
+        }
+    }
+
+    /**
+     * Agenda um checkpoint em segundo plano, se ainda não houver um na fila
+     * ou rodando.
+     */
+    private void agendarCheckpoint() {
+        if (checkpointAgendado.compareAndSet(false, true)) {
+            checkpoints.execute(() -> {
+                try {
+                    salvarEmprestimos();
+                } finally {
+                    checkpointAgendado.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Bloqueia os usuários cujos empréstimos venceram desde a última
+     * execução. Só os empréstimos que acabaram de vencer são visitados,
+     * inclusive os que um relatório de atrasados encontrou antes.
+     */
     public void bloquearUsuariosComAtraso(GerenciadorDeUsuarios gerenciadorUsuarios) {
-        for (Emprestimo e : emprestimosAtivos) {
-            if (e.isAtrasado()) {
-                Usuario usuario = gerenciadorUsuarios.getUsuarios().stream()
-                        .filter(u -> u.getEmail().equals(e.getEmailUsuario()))
-                        .findFirst()
-                        .orElse(null);
-                if (usuario != null) {
-                    usuario.setBloqueado(true);
+        verificarVencimentos(LocalDate.now());
+        Emprestimo e;
+        while ((e = atrasadosSemBloqueio.poll()) != null) {
+            if (e.isDevolvido()) {
+                continue;
+            }
+            Usuario usuario = gerenciadorUsuarios.buscarUsuarioPorEmail(e.getEmailUsuario());
+            if (usuario != null) {
+                usuario.setBloqueado(true);
+            }
+        }
+    }
+
+    /**
+     * Inicia uma tarefa em segundo plano que bloqueia periodicamente os usuários
+     * com empréstimos atrasados. A primeira execução é imediata.
+     *
+     * @param gerenciadorUsuarios Gerenciador onde os usuários são procurados.
+     * @param intervalo           Tempo entre as verificações.
+     */
+    public synchronized void iniciarVerificacaoDeAtrasos(GerenciadorDeUsuarios gerenciadorUsuarios, Duration intervalo) {
+        if (verificacaoDeAtrasos != null) {
+            return;
+        }
+        verificacaoDeAtrasos = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            Thread thread = new Thread(tarefa, "verificacao-de-atrasos");
+            thread.setDaemon(true);
+            return thread;
+        });
+        verificacaoDeAtrasos.scheduleWithFixedDelay(() -> {
+            try {
+                bloquearUsuariosComAtraso(gerenciadorUsuarios);
+            } catch (RuntimeException e) {
+                System.out.println("Erro ao verificar atrasos: " + e.getMessage());
+            }
+        }, 0, intervalo.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Interrompe a verificação periódica de atrasos, se estiver ativa.
+     */
+    public synchronized void pararVerificacaoDeAtrasos() {
+        if (verificacaoDeAtrasos != null) {
+            verificacaoDeAtrasos.shutdownNow();
+            verificacaoDeAtrasos = null;
+        }
+    }
+
+    /**
+     * Para a verificação de atrasos, espera o checkpoint em andamento, grava
+     * o que ainda estiver na fila do diário e fecha o arquivo do diário, com
+     * a sua thread de gravação. O gerenciador de obras, recebido de quem
+     * chama, continua aberto. O gerenciador não deve ser usado depois.
+     */
+    @Override
+    public void close() {
+        pararVerificacaoDeAtrasos();
+        checkpoints.shutdown();
+        try {
+            checkpoints.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        diario.close();
+    }
+
+    /**
+     * Retira da fila de vencimentos os empréstimos vencidos até a data e move
+     * os que continuam abertos para o conjunto de atrasados e para a fila da
+     * tarefa de bloqueio.
+     *
+     * @param hoje Data de referência; vence o que tiver devolução antes dela.
+     */
+    private void verificarVencimentos(LocalDate hoje) {
+        travaDeVencimentos.lock();
+        try {
+            Emprestimo proximo;
+            while ((proximo = porVencimento.peek()) != null && proximo.getDataDevolucao().isBefore(hoje)) {
+                porVencimento.poll();
+                if (!proximo.isDevolvido()) {
+                    atrasados.add(proximo);
+                    // Uma devolução pode ter acontecido entre a verificação e a inclusão
+                    if (proximo.isDevolvido()) {
+                        atrasados.remove(proximo);
+                    } else {
+                        atrasadosSemBloqueio.add(proximo);
+                    }
                 }
             }
+        } finally {
+            travaDeVencimentos.unlock();
         }
     }
 
+    /**
+     * Retorna os empréstimos ainda não devolvidos.
+     */
+    public List<Emprestimo> getEmprestimosAbertos() {
+        return new ArrayList<>(emprestimosAtivos);
+    }
+
+    /**
+     * Retorna os empréstimos não devolvidos cujo prazo já passou.
+     */
+    public List<Emprestimo> getEmprestimosAtrasados() {
+        verificarVencimentos(LocalDate.now());
+        return new ArrayList<>(atrasados);
+    }
+
     public void listarObrasEmprestadas() {
         if (emprestimosAtivos.isEmpty()) {
             System.out.println("Nenhuma obra emprestada no momento.");
@@ -118,25 +1181,19 @@ public class GerenciadorDeEmprestimos {
         }
 
         System.out.println("\n=== Obras Emprestadas ===");
-        for (Emprestimo e : emprestimosAtivos) {
-            if (!e.isDevolvido()) {
-                System.out.println("Usuário: " + e.getEmailUsuario() + " | Obra ID: " + e.getIdObra());
-            }
+        for (Emprestimo e : getEmprestimosAbertos()) {
+            System.out.println("Usuário: " + e.getEmailUsuario() + " | Obra ID: " + e.getIdObra());
         }
     }
 
     public void listarUsuariosAtrasados() {
-        boolean encontrouAtrasados = false;
-
         System.out.println("\n=== Usuários com Empréstimos Atrasados ===");
-        for (Emprestimo e : emprestimosAtivos) {
-            if (e.isAtrasado()) {
-                System.out.println("Usuário: " + e.getEmailUsuario() + " | Obra ID: " + e.getIdObra());
-                encontrouAtrasados = true;
-            }
+        List<Emprestimo> atrasados = getEmprestimosAtrasados();
+        for (Emprestimo e : atrasados) {
+            System.out.println("Usuário: " + e.getEmailUsuario() + " | Obra ID: " + e.getIdObra());
         }
 
-        if (!encontrouAtrasados) {
+        if (atrasados.isEmpty()) {
             System.out.println("Nenhum usuário com empréstimo atrasado.");
         }
     }
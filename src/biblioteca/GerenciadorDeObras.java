@@ -1,93 +1,1477 @@
 package biblioteca;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
 
 /**
  * Classe responsável por gerenciar as obras da biblioteca. Essa classe permite
  * carregar, exibir, buscar e salvar obras no acervo.
+ *
+ * Pode ser usada por várias threads. A lista e os índices são protegidos por
+ * uma {@link StampedLock}: a busca por ID tenta primeiro uma leitura otimista,
+ * sem travar, e as inclusões e alterações de título usam a trava de escrita.
+ *
+ * Com a propriedade de sistema {@code biblioteca.acervo.sobDemanda} em
+ * {@code true}, o acervo é lido sob demanda ({@link AcervoSobDemanda}): a
+ * carga lê só um índice com a posição de cada obra no arquivo, e os títulos
+ * são lidos quando usados. O índice de títulos é então montado na primeira
+ * busca por título.
+ *
+ * Um mapa de bits ({@link MapaDeDisponiveis}) marca as obras com exemplares
+ * disponíveis. Para que ele acompanhe as quantidades, empréstimos e devoluções
+ * devem passar por {@link #emprestar(Obra)} e {@link #devolver(Obra)}.
+ *
+ * Com a propriedade {@code biblioteca.acervo.particoes} maior que 1, o acervo
+ * é gravado em vários arquivos, divididos pelo ID das obras (veja
+ * {@link ParticaoDoAcervo}). Os arquivos são lidos e gravados em paralelo, as
+ * alterações de cada um vão para o seu próprio arquivo de alterações, e só o
+ * arquivo cujas alterações chegam ao limite é regravado. A lista e os índices
+ * continuam únicos em memória. O acervo sob demanda usa sempre um único arquivo.
+ *
+ * Além do ID e do título, outros atributos de texto podem ter o seu próprio
+ * índice ({@link #adicionarIndice}); o do autor ({@value #INDICE_AUTOR}) é
+ * registrado sempre. Esses índices só são montados na primeira busca.
  */
-public class GerenciadorDeObras {
+public class GerenciadorDeObras implements AutoCloseable {
+
+    /**
+     * Nome do índice de autores, para {@link #buscarObrasPor}.
+     */
+    public static final String INDICE_AUTOR = "autor";
+
+    private static final int TRAVAS = 64;
 
     private List<Obra> obras;
-    private static final String ARQUIVO_ACERVO = "acervo.csv";
+    private final StampedLock travaDoAcervo = new StampedLock();
+    // Serializa leitura e gravação da quantidade de uma mesma obra no arquivo de alterações
+    private final ReentrantLock[] travasDeAlteracao = new ReentrantLock[TRAVAS];
+    private final IndicePorId indicePorId = new IndicePorId();
+    private final IndiceDeTitulos indiceDeTitulos = new IndiceDeTitulos();
+    // Índices de outros atributos, por nome; protegidos pela trava do acervo
+    private final Map<String, IndiceSecundario> indicesSecundarios = new LinkedHashMap<>();
+    // Posições das obras com exemplares disponíveis
+    private final MapaDeDisponiveis disponiveis = new MapaDeDisponiveis();
+    private static final int RESULTADOS_POR_PAGINA = 10;
+    private static final int ALTERACOES_POR_CONSOLIDACAO = 1000;
+    // Arquivos do acervo, cada um com o seu arquivo de alterações
+    private final ParticaoDoAcervo[] particoes;
+    private final ExecutorService consolidacoes = Executors.newSingleThreadExecutor(tarefa -> {
+        Thread thread = new Thread(tarefa, "consolidacao-acervo");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final int OBRAS_POR_BLOCO_DE_EXIBICAO = 1000;
+    private static final int MAXIMO_POR_PAGINA = 10_000;
+    // Com filtro, uma página examina no máximo este múltiplo do seu tamanho
+    private static final int FATOR_DE_VARREDURA = 50;
+
+    // Posições da lista em cada ordem da listagem; montadas na primeira
+    // listagem e descartadas quando o acervo muda
+    private volatile int[] posicoesPorId;
+    private volatile int[] posicoesPorTitulo;
+    // Acervo lido sob demanda, ou null se estiver todo em memória
+    private AcervoSobDemanda sobDemanda;
+    // No acervo sob demanda, o índice de títulos só é montado na primeira busca
+    private volatile boolean indiceDeTitulosPendente;
+    // Avisado depois de cada gravação completa bem-sucedida
+    private volatile Runnable aposSalvar = () -> {
+    };
+    // Recebe as inclusões e alterações de título, para as réplicas
+    private volatile Replicacao replicacao = Replicacao.NENHUMA;
 
     /**
      * Construtor da classe. Inicializa a lista de obras e carrega os dados do acervo.
+     * Usa a representação compacta se a propriedade de sistema
+     * {@code biblioteca.acervo.compacto} for {@code true}.
      */
     public GerenciadorDeObras() {
-        this.obras = new ArrayList<>();
-        carregarAcervo();
+        this(Boolean.getBoolean("biblioteca.acervo.compacto"));
+    }
+
+    /**
+     * Construtor da classe.
+     *
+     * @param compacto Se true, guarda o acervo em colunas ({@link AcervoColunar}),
+     *                 o que reduz bastante o uso de memória em catálogos grandes;
+     *                 cada acesso a uma obra cria então uma visão sobre as colunas.
+     */
+    public GerenciadorDeObras(boolean compacto) {
+        this(compacto, null);
+    }
+
+    /**
+     * Construtor que carrega o acervo, com os seus índices, do instantâneo do
+     * sistema, se a seção dele estiver em dia com o arquivo do acervo, ou do
+     * arquivo. Usa a representação compacta conforme
+     * {@code biblioteca.acervo.compacto}.
+     *
+     * @param instantaneo Instantâneo aberto na partida.
+     */
+    public GerenciadorDeObras(InstantaneoDoSistema instantaneo) {
+        this(Boolean.getBoolean("biblioteca.acervo.compacto"), instantaneo);
+    }
+
+    private GerenciadorDeObras(boolean compacto, InstantaneoDoSistema instantaneo) {
+        for (int i = 0; i < TRAVAS; i++) {
+            travasDeAlteracao[i] = new ReentrantLock();
+        }
+        indicesSecundarios.put(INDICE_AUTOR, new IndiceSecundario(INDICE_AUTOR, Obra::getAutor));
+        this.obras = compacto ? new AcervoColunar() : new ArrayList<>();
+        boolean lidoSobDemanda = Boolean.getBoolean("biblioteca.acervo.sobDemanda");
+        try {
+            // O acervo sob demanda lê um único arquivo
+            this.particoes = ParticaoDoAcervo.abrir(lidoSobDemanda ? 1 : ParticaoDoAcervo.quantidadeConfigurada());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Não foi possível abrir o arquivo de alterações do acervo", e);
+        }
+        if (lidoSobDemanda) {
+            // O índice ao lado do arquivo já dispensa o instantâneo
+            carregarSobDemanda();
+        } else if (instantaneo == null || !carregarDoInstantaneo(instantaneo)) {
+            carregarAcervo();
+        }
     }
 
+    /**
+     * Retorna uma visão somente leitura do acervo. Inclusões devem passar por
+     * {@link #adicionarObra(Obra)} para manter o índice por ID consistente.
+     */
     public List<Obra> getObras() {
-        return obras;
+        return Collections.unmodifiableList(obras);
     }
 
+    /**
+     * Escreve o acervo inteiro no console, em ordem de ID. As obras são lidas
+     * em páginas e escritas em blocos por um buffer, sem uma escrita por obra.
+     */
     public void exibirAcervo() {
-        if (obras.isEmpty()) {
+        PaginaDoAcervo pagina = listarAcervo(null, OBRAS_POR_BLOCO_DE_EXIBICAO, OrdemDoAcervo.POR_ID, null);
+        if (pagina.getObras().isEmpty()) {
             System.out.println("Nenhuma obra encontrada no acervo.");
+            return;
+        }
+        // Não fecha o console: só esvazia o buffer no final
+        Writer saida = new BufferedWriter(new OutputStreamWriter(System.out, System.out.charset()), 1 << 16);
+        try {
+            pagina.escrever(saida);
+            while (pagina.temMais()) {
+                pagina = listarAcervo(pagina.getProximoCursor(), OBRAS_POR_BLOCO_DE_EXIBICAO, OrdemDoAcervo.POR_ID, null);
+                pagina.escrever(saida);
+            }
+            saida.flush();
+        } catch (IOException e) {
+            System.out.println("Erro ao exibir o acervo: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Lista o acervo em páginas. Cada chamada devolve uma página e um cursor
+     * para continuar de onde ela parou; o custo é proporcional ao tamanho da
+     * página, e não ao do acervo. Obras incluídas entre uma página e outra
+     * aparecem se ficarem depois do cursor na ordem escolhida.
+     *
+     * Com filtro, uma página examina no máximo {@value #FATOR_DE_VARREDURA}
+     * vezes o seu tamanho; se isso não bastar para enchê-la, ela volta
+     * incompleta, mas com cursor, e a listagem continua na próxima chamada.
+     *
+     * @param cursor        Cursor devolvido pela página anterior, ou null para começar.
+     * @param tamanhoPagina Quantidade máxima de obras na página.
+     * @param ordem         Ordem da listagem; deve ser a mesma em todas as páginas.
+     * @param filtro        Obras que devem aparecer, ou null para todas. Por
+     *                      exemplo, {@code obra -> obra.getQuantidade() > 0}
+     *                      lista só as disponíveis.
+     * @return A página, com o cursor da próxima ou null se a listagem terminou.
+     * @throws IllegalArgumentException Se o cursor for inválido ou de outra ordem.
+     */
+    public PaginaDoAcervo listarAcervo(String cursor, int tamanhoPagina, OrdemDoAcervo ordem, Predicate<Obra> filtro) {
+        int tamanho = Math.max(1, Math.min(tamanhoPagina, MAXIMO_POR_PAGINA));
+        long maximoExaminadas = filtro == null ? tamanho : (long) tamanho * FATOR_DE_VARREDURA;
+        List<Obra> encontradas = new ArrayList<>(Math.min(tamanho, 1024));
+        long leitura = travaDoAcervo.readLock();
+        try {
+            int[] posicoes = posicoesEmOrdem(ordem);
+            int inicio = cursor == null ? 0 : inicioDepoisDo(posicoes, ordem, lerCursor(cursor, ordem));
+            int i = inicio;
+            while (i < posicoes.length && encontradas.size() < tamanho && i - inicio < maximoExaminadas) {
+                Obra obra = obras.get(posicoes[i++]);
+                if (filtro == null || filtro.test(obra)) {
+                    encontradas.add(obra);
+                }
+            }
+            String proximo = i < posicoes.length ? criarCursor(ordem, posicoes[i - 1]) : null;
+            return new PaginaDoAcervo(encontradas, proximo);
+        } finally {
+            travaDoAcervo.unlockRead(leitura);
+        }
+    }
+
+    /**
+     * Posições da lista na ordem pedida. Deve ser chamado com a trava do
+     * acervo; como as alterações usam a trava de escrita, a ordem montada aqui
+     * continua válida até ser descartada por uma delas.
+     */
+    private int[] posicoesEmOrdem(OrdemDoAcervo ordem) {
+        int[] posicoes = ordem == OrdemDoAcervo.POR_ID ? posicoesPorId : posicoesPorTitulo;
+        if (posicoes != null) {
+            return posicoes;
+        }
+        int quantidade = obras.size();
+        posicoes = new int[quantidade];
+        if (ordem == OrdemDoAcervo.POR_ID) {
+            // ID e posição num único long, para ordenar sem criar objetos
+            long[] chaves = new long[quantidade];
+            for (int i = 0; i < quantidade; i++) {
+                chaves[i] = (long) obras.get(i).getId() << 32 | i;
+            }
+            Arrays.sort(chaves);
+            for (int i = 0; i < quantidade; i++) {
+                posicoes[i] = (int) chaves[i];
+            }
+            posicoesPorId = posicoes;
         } else {
-            obras.forEach(System.out::println);
+            String[] chaves = new String[quantidade];
+            Integer[] ordenadas = new Integer[quantidade];
+            if (sobDemanda != null) {
+                // Uma leitura sequencial do arquivo, sem encher o cache de títulos
+                sobDemanda.percorrerTitulos((titulo, i) -> chaves[i] = chaveDeTitulo(titulo));
+            } else {
+                for (int i = 0; i < quantidade; i++) {
+                    chaves[i] = chaveDeTitulo(obras.get(i));
+                }
+            }
+            for (int i = 0; i < quantidade; i++) {
+                ordenadas[i] = i;
+            }
+            Arrays.sort(ordenadas, Comparator.<Integer, String>comparing(p -> chaves[p]).thenComparingInt(p -> p));
+            for (int i = 0; i < quantidade; i++) {
+                posicoes[i] = ordenadas[i];
+            }
+            posicoesPorTitulo = posicoes;
+        }
+        return posicoes;
+    }
+
+    /**
+     * Índice, na ordem da listagem, da primeira obra depois da posição do cursor.
+     */
+    private int inicioDepoisDo(int[] posicoes, OrdemDoAcervo ordem, int posicaoDoCursor) {
+        if (posicaoDoCursor >= obras.size()) {
+            throw new IllegalArgumentException("Cursor inválido.");
+        }
+        Obra doCursor = obras.get(posicaoDoCursor);
+        int id = doCursor.getId();
+        String titulo = ordem == OrdemDoAcervo.POR_TITULO ? chaveDeTitulo(doCursor) : null;
+        int baixo = 0;
+        int alto = posicoes.length;
+        while (baixo < alto) {
+            int meio = (baixo + alto) >>> 1;
+            Obra obra = obras.get(posicoes[meio]);
+            int comparacao = ordem == OrdemDoAcervo.POR_ID
+                    ? Integer.compare(obra.getId(), id)
+                    : chaveDeTitulo(obra).compareTo(titulo);
+            if (comparacao == 0) {
+                comparacao = Integer.compare(posicoes[meio], posicaoDoCursor);
+            }
+            if (comparacao <= 0) {
+                baixo = meio + 1;
+            } else {
+                alto = meio;
+            }
+        }
+        return baixo;
+    }
+
+    private static String chaveDeTitulo(Obra obra) {
+        return chaveDeTitulo(obra.getTitulo());
+    }
+
+    private static String chaveDeTitulo(String titulo) {
+        return String.join(" ", IndiceDeTitulos.termos(titulo));
+    }
+
+    /**
+     * O cursor guarda a ordem e a posição, na lista, da última obra examinada.
+     */
+    private static String criarCursor(OrdemDoAcervo ordem, int posicao) {
+        String conteudo = ordem.name() + ":" + posicao;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(conteudo.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static int lerCursor(String cursor, OrdemDoAcervo ordem) {
+        String conteudo;
+        try {
+            conteudo = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Cursor inválido.", e);
+        }
+        try {
+            int separador = conteudo.indexOf(':');
+            if (separador < 0 || !conteudo.substring(0, separador).equals(ordem.name())) {
+                throw new IllegalArgumentException("Cursor inválido para a ordem " + ordem + ".");
+            }
+            int posicao = Integer.parseInt(conteudo.substring(separador + 1));
+            if (posicao < 0) {
+                throw new IllegalArgumentException("Cursor inválido.");
+            }
+            return posicao;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cursor inválido.", e);
+        }
+    }
+
+    /**
+     * Adiciona uma obra ao acervo, mantendo o índice por ID atualizado.
+     *
+     * @param obra Obra a ser adicionada.
+     */
+    public void adicionarObra(Obra obra) {
+        Replicacao replicacao = this.replicacao;
+        replicacao.iniciarAlteracao();
+        long escrita = travaDoAcervo.writeLock();
+        try {
+            obras.add(obra);
+            disponiveis.garantirCapacidade(obras.size());
+            disponiveis.marcar(obras.size() - 1, obra.getQuantidade() > 0);
+            indexar(obra, obras.size() - 1);
+            descartarOrdens();
+            replicacao.obraIncluida(obra);
+        } finally {
+            travaDoAcervo.unlockWrite(escrita);
+            replicacao.terminarAlteracao();
         }
     }
 
     public Obra buscarObraPorId(int id) {
-        return obras.stream()
-                .filter(obra -> obra.getId() == id)
-                .findFirst()
-                .orElse(null);
+        long marca = travaDoAcervo.tryOptimisticRead();
+        if (marca != 0) {
+            try {
+                Obra obra = obraComId(id);
+                if (travaDoAcervo.validate(marca)) {
+                    return obra;
+                }
+            } catch (RuntimeException e) {
+                // O acervo mudou durante a leitura otimista; repete com a trava
+            }
+        }
+        long leitura = travaDoAcervo.readLock();
+        try {
+            return obraComId(id);
+        } finally {
+            travaDoAcervo.unlockRead(leitura);
+        }
+    }
+
+    private int posicaoComId(int id) {
+        long marca = travaDoAcervo.tryOptimisticRead();
+        if (marca != 0) {
+            int posicao = indicePorId.posicaoDe(id);
+            if (travaDoAcervo.validate(marca)) {
+                return posicao;
+            }
+        }
+        long leitura = travaDoAcervo.readLock();
+        try {
+            return indicePorId.posicaoDe(id);
+        } finally {
+            travaDoAcervo.unlockRead(leitura);
+        }
+    }
+
+    /**
+     * Empresta um exemplar da obra (veja {@link Obra#emprestar()}) e, se a
+     * obra ficou sem exemplares, a desmarca no mapa de disponíveis.
+     *
+     * @param obra Obra do acervo.
+     * @return true se havia exemplar disponível.
+     */
+    public boolean emprestar(Obra obra) {
+        boolean emprestada = obra.emprestar();
+        if (emprestada) {
+            atualizarDisponibilidade(obra);
+        }
+        return emprestada;
+    }
+
+    /**
+     * Devolve um exemplar da obra (veja {@link Obra#devolver()}) e a marca
+     * como disponível no mapa.
+     *
+     * @param obra Obra do acervo.
+     */
+    public void devolver(Obra obra) {
+        obra.devolver();
+        atualizarDisponibilidade(obra);
+    }
+
+    /**
+     * Acerta o bit da obra com a sua quantidade atual. O bit só muda quando a
+     * quantidade passa por zero; como outra thread pode mudar a quantidade
+     * entre a leitura e a marcação, a quantidade é relida depois de marcar,
+     * até que as duas concordem.
+     */
+    private void atualizarDisponibilidade(Obra obra) {
+        int posicao = posicaoComId(obra.getId());
+        if (posicao < 0) {
+            return;
+        }
+        boolean disponivel;
+        do {
+            disponivel = obra.getQuantidade() > 0;
+            disponiveis.marcar(posicao, disponivel);
+        } while (disponivel != obra.getQuantidade() > 0);
+    }
+
+    /**
+     * Marca no mapa de disponíveis todas as obras da lista. Deve ser chamado
+     * com a trava de escrita do acervo, depois de uma carga.
+     */
+    private void marcarDisponiveis() {
+        disponiveis.garantirCapacidade(obras.size());
+        for (int i = 0; i < obras.size(); i++) {
+            disponiveis.marcar(i, obras.get(i).getQuantidade() > 0);
+        }
+    }
+
+    /**
+     * @return A quantidade de obras com pelo menos um exemplar disponível.
+     */
+    public int contarDisponiveis() {
+        return disponiveis.contar();
+    }
+
+    /**
+     * Entrega os IDs das obras com exemplares disponíveis, na ordem da lista,
+     * sem ler as obras indisponíveis. Roda com a trava de leitura do acervo,
+     * então o destino não deve incluir obras nem alterar títulos.
+     *
+     * @param destino Recebe cada ID.
+     */
+    public void percorrerDisponiveis(IntConsumer destino) {
+        long leitura = travaDoAcervo.readLock();
+        try {
+            for (int p = disponiveis.proxima(0); p >= 0 && p < obras.size(); p = disponiveis.proxima(p + 1)) {
+                destino.accept(obras.get(p).getId());
+            }
+        } finally {
+            travaDoAcervo.unlockRead(leitura);
+        }
+    }
+
+    /**
+     * Descarta as ordens da listagem, que são remontadas na próxima listagem.
+     * Deve ser chamado com a trava de escrita do acervo.
+     */
+    private void descartarOrdens() {
+        posicoesPorId = null;
+        posicoesPorTitulo = null;
+    }
+
+    private Obra obraComId(int id) {
+        int posicao = indicePorId.posicaoDe(id);
+        return posicao < 0 ? null : obras.get(posicao);
+    }
+
+    /**
+     * Indexa a obra pela sua posição na lista. Em caso de IDs repetidos, mantém
+     * a primeira ocorrência, como fazia a busca sequencial.
+     */
+    private void indexar(Obra obra, int posicao) {
+        if (indicePorId.posicaoDe(obra.getId()) < 0) {
+            indicePorId.associar(obra.getId(), posicao);
+            if (!indiceDeTitulosPendente) {
+                indiceDeTitulos.indexar(obra.getId(), obra.getTitulo());
+            }
+            for (IndiceSecundario indice : indicesSecundarios.values()) {
+                indice.indexar(obra);
+            }
+        }
+    }
+
+    /**
+     * Altera o título de uma obra, atualizando o índice de títulos.
+     *
+     * @param id         ID da obra.
+     * @param novoTitulo Novo título.
+     * @return true se a obra existir, false caso contrário.
+     */
+    public boolean atualizarTitulo(int id, String novoTitulo) {
+        Replicacao replicacao = this.replicacao;
+        replicacao.iniciarAlteracao();
+        long escrita = travaDoAcervo.writeLock();
+        try {
+            Obra obra = obraComId(id);
+            if (obra == null) {
+                return false;
+            }
+            // Outros índices podem depender do título
+            for (IndiceSecundario indice : indicesSecundarios.values()) {
+                indice.remover(obra);
+            }
+            if (indiceDeTitulosPendente) {
+                // O índice, quando montado, já lê o título novo
+                obra.setTitulo(novoTitulo);
+            } else {
+                indiceDeTitulos.remover(id, obra.getTitulo());
+                obra.setTitulo(novoTitulo);
+                indiceDeTitulos.indexar(id, novoTitulo);
+            }
+            for (IndiceSecundario indice : indicesSecundarios.values()) {
+                indice.indexar(obra);
+            }
+            posicoesPorTitulo = null;
+            replicacao.tituloAlterado(id, novoTitulo);
+            return true;
+        } finally {
+            travaDoAcervo.unlockWrite(escrita);
+            replicacao.terminarAlteracao();
+        }
+    }
+
+    /**
+     * Busca obras cujo título contém todos os termos informados, ignorando
+     * maiúsculas e acentos. Cada termo também casa como prefixo: "renas"
+     * encontra "Renascer".
+     *
+     * @param consulta      Termos de busca.
+     * @param pagina        Número da página, começando em 0.
+     * @param tamanhoPagina Quantidade máxima de obras por página.
+     * @return As obras da página solicitada, das mais às menos relevantes.
+     */
+    public List<Obra> buscarObrasPorTitulo(String consulta, int pagina, int tamanhoPagina) {
+        return buscarObrasPorTitulo(consulta, pagina, tamanhoPagina, false);
+    }
+
+    /**
+     * Como {@link #buscarObrasPorTitulo(String, int, int)}, mas, com
+     * {@code soDisponiveis}, só entre as obras com exemplares disponíveis. O
+     * filtro é aplicado aos IDs encontrados pelo índice, consultando o mapa de
+     * disponíveis, antes de ordenar e paginar: as obras indisponíveis não são
+     * lidas nem ocupam lugar nas páginas.
+     */
+    public List<Obra> buscarObrasPorTitulo(String consulta, int pagina, int tamanhoPagina, boolean soDisponiveis) {
+        long inicio = System.nanoTime();
+        if (indiceDeTitulosPendente) {
+            montarIndiceDeTitulos();
+        }
+        List<Obra> encontradas = new ArrayList<>();
+        long leitura = travaDoAcervo.readLock();
+        try {
+            IntPredicate filtro = soDisponiveis ? id -> disponiveis.contem(indicePorId.posicaoDe(id)) : null;
+            for (int id : indiceDeTitulos.buscar(consulta, pagina, tamanhoPagina, filtro)) {
+                Obra obra = obraComId(id);
+                if (obra != null) {
+                    encontradas.add(obra);
+                }
+            }
+        } finally {
+            travaDoAcervo.unlockRead(leitura);
+        }
+        Metricas.registrar(Metricas.Operacao.BUSCA_POR_TITULO, inicio);
+        return encontradas;
+    }
+
+    /**
+     * Monta o índice de títulos do acervo sob demanda, lendo o arquivo do
+     * acervo uma vez, do início ao fim.
+     */
+    private void montarIndiceDeTitulos() {
+        long escrita = travaDoAcervo.writeLock();
+        try {
+            if (!indiceDeTitulosPendente) {
+                return;
+            }
+            sobDemanda.percorrerTitulos((titulo, posicao) -> {
+                int id = sobDemanda.idNaPosicao(posicao);
+                // IDs repetidos: só a primeira ocorrência, como em indexar
+                if (indicePorId.posicaoDe(id) == posicao) {
+                    indiceDeTitulos.indexar(id, titulo);
+                }
+            });
+            indiceDeTitulosPendente = false;
+        } finally {
+            travaDoAcervo.unlockWrite(escrita);
+        }
+    }
+
+    /**
+     * Registra um índice sobre um atributo de texto das obras, buscado com
+     * {@link #buscarObrasPor}. O índice é montado na primeira busca e, a
+     * partir daí, acompanha as inclusões e alterações de título; um atributo
+     * alterado de outra forma não é reindexado.
+     *
+     * @param nome     Nome do índice.
+     * @param atributo Valor indexado de cada obra.
+     * @throws IllegalArgumentException Se já houver um índice com esse nome.
+     */
+    public void adicionarIndice(String nome, Function<Obra, String> atributo) {
+        long escrita = travaDoAcervo.writeLock();
+        try {
+            if (indicesSecundarios.containsKey(nome)) {
+                throw new IllegalArgumentException("Já existe um índice chamado " + nome + ".");
+            }
+            indicesSecundarios.put(nome, new IndiceSecundario(nome, atributo));
+        } finally {
+            travaDoAcervo.unlockWrite(escrita);
+        }
+    }
+
+    /**
+     * Busca obras cujo atributo de um índice contém todos os termos
+     * informados, com as mesmas regras de {@link #buscarObrasPorTitulo}.
+     *
+     * @param nomeDoIndice  Nome do índice, como {@value #INDICE_AUTOR}.
+     * @param consulta      Termos de busca.
+     * @param pagina        Número da página, começando em 0.
+     * @param tamanhoPagina Quantidade máxima de obras por página.
+     * @param soDisponiveis Se true, só entre as obras com exemplares disponíveis.
+     * @return As obras da página solicitada, das mais às menos relevantes.
+     * @throws IllegalArgumentException Se não houver índice com esse nome.
+     */
+    public List<Obra> buscarObrasPor(String nomeDoIndice, String consulta, int pagina, int tamanhoPagina,
+            boolean soDisponiveis) {
+        long inicio = System.nanoTime();
+        IndiceSecundario indice = indiceSecundario(nomeDoIndice);
+        if (!indice.montado()) {
+            montar(indice);
+        }
+        List<Obra> encontradas = new ArrayList<>();
+        long leitura = travaDoAcervo.readLock();
+        try {
+            IntPredicate filtro = soDisponiveis ? id -> disponiveis.contem(indicePorId.posicaoDe(id)) : null;
+            for (int id : indice.buscar(consulta, pagina, tamanhoPagina, filtro)) {
+                Obra obra = obraComId(id);
+                if (obra != null) {
+                    encontradas.add(obra);
+                }
+            }
+        } finally {
+            travaDoAcervo.unlockRead(leitura);
+        }
+        Metricas.registrar(Metricas.Operacao.BUSCA_POR_ATRIBUTO, inicio);
+        return encontradas;
+    }
+
+    /**
+     * Busca obras pelo autor, com as mesmas regras de {@link #buscarObrasPorTitulo}.
+     */
+    public List<Obra> buscarObrasPorAutor(String consulta, int pagina, int tamanhoPagina, boolean soDisponiveis) {
+        return buscarObrasPor(INDICE_AUTOR, consulta, pagina, tamanhoPagina, soDisponiveis);
+    }
+
+    private IndiceSecundario indiceSecundario(String nome) {
+        long leitura = travaDoAcervo.readLock();
+        try {
+            IndiceSecundario indice = indicesSecundarios.get(nome);
+            if (indice == null) {
+                throw new IllegalArgumentException("Índice desconhecido: " + nome + ".");
+            }
+            return indice;
+        } finally {
+            travaDoAcervo.unlockRead(leitura);
+        }
+    }
+
+    /**
+     * Monta um índice secundário percorrendo o acervo uma vez. No acervo sob
+     * demanda, cada obra com autor conhecido exige uma leitura do arquivo.
+     */
+    private void montar(IndiceSecundario indice) {
+        long escrita = travaDoAcervo.writeLock();
+        try {
+            if (indice.montado()) {
+                return;
+            }
+            for (int i = 0; i < obras.size(); i++) {
+                Obra obra = obras.get(i);
+                // IDs repetidos: só a primeira ocorrência, como em indexar
+                if (indicePorId.posicaoDe(obra.getId()) == i) {
+                    indice.indexarNaMontagem(obra);
+                }
+            }
+            indice.concluirMontagem();
+        } finally {
+            travaDoAcervo.unlockWrite(escrita);
+        }
     }
 
     public void buscarObraPorTitulo(String titulo) {
-        obras.stream()
-            .filter(obra -> obra.getTitulo().equalsIgnoreCase(titulo))
-            .findFirst()
-            .ifPresentOrElse(
-                obra -> System.out.println("Obra encontrada: " + obra),
-                () -> System.out.println("Nenhuma obra encontrada com esse título."));
+        buscarObraPorTitulo(titulo, false);
     }
 
+    public void buscarObraPorAutor(String autor, boolean soDisponiveis) {
+        List<Obra> encontradas = buscarObrasPorAutor(autor, 0, RESULTADOS_POR_PAGINA, soDisponiveis);
+        if (encontradas.isEmpty()) {
+            System.out.println("Nenhuma obra encontrada desse autor.");
+        } else {
+            encontradas.forEach(obra -> System.out.println("Obra encontrada: " + obra));
+        }
+    }
+
+    public void buscarObraPorTitulo(String titulo, boolean soDisponiveis) {
+        List<Obra> encontradas = buscarObrasPorTitulo(titulo, 0, RESULTADOS_POR_PAGINA, soDisponiveis);
+        if (encontradas.isEmpty()) {
+            System.out.println("Nenhuma obra encontrada com esse título.");
+        } else {
+            encontradas.forEach(obra -> System.out.println("Obra encontrada: " + obra));
+        }
+    }
+
+    /**
+     * Carrega o acervo dos arquivos das partições, lidos em paralelo. Arquivos
+     * deixados por outra quantidade de partições também são lidos, com as suas
+     * alterações, e o acervo é então regravado na divisão atual. Se algum deles
+     * não puder ser lido, nada é carregado nem regravado, e os arquivos ficam
+     * como estão.
+     */
     public void carregarAcervo() {
-        File arquivo = new File(ARQUIVO_ACERVO);
-        if (!arquivo.exists()) {
+        long inicio = System.nanoTime();
+        List<Path> deOutraDivisao;
+        try {
+            deOutraDivisao = ParticaoDoAcervo.deOutraDivisao(particoes.length);
+        } catch (IOException e) {
+            System.out.println("Erro ao carregar o acervo: " + e.getMessage());
+            return;
+        }
+        List<Path> arquivos = new ArrayList<>();
+        for (Path arquivo : deOutraDivisao) {
+            if (arquivo.toString().endsWith(".csv")) {
+                arquivos.add(arquivo);
+            }
+        }
+        for (ParticaoDoAcervo particao : particoes) {
+            if (Files.exists(particao.arquivo())) {
+                arquivos.add(particao.arquivo());
+            }
+        }
+        if (arquivos.isEmpty()) {
             System.out.println("O arquivo `acervo.csv` não foi encontrado!");
             return;
         }
 
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(arquivo), StandardCharsets.UTF_8))) {
-            br.lines()
-              .skip(1) // Pular cabeçalho
-              .map(linha -> linha.split(","))
-              .filter(dados -> dados.length == 3)
-              .forEach(dados -> {
-                  try {
-                      int id = Integer.parseInt(dados[0].trim());
-                      String titulo = dados[1].trim();
-                      int quantidade = Integer.parseInt(dados[2].trim());
-                      obras.add(new Obra(id, titulo, "Autor Desconhecido", quantidade));
-                  } catch (NumberFormatException e) {
-                      System.out.println("Erro ao processar linha inválida: " + String.join(",", dados));
-                  }
-              });
-        } catch (IOException e) {
+        List<byte[]> alteracoesDeOutraDivisao = new ArrayList<>();
+        try {
+            List<List<Obra>> lidas = arquivos.parallelStream().map(arquivo -> {
+                try {
+                    return CarregadorDeAcervo.carregar(arquivo);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).toList();
+            // As alterações da divisão anterior são lidas antes de qualquer obra entrar no acervo
+            for (Path arquivo : deOutraDivisao) {
+                if (arquivo.toString().endsWith(".delta")) {
+                    byte[] alteracoes = lerAlteracoes(arquivo, 0);
+                    if (alteracoes == null) {
+                        System.out.println("O acervo não foi carregado, e os arquivos da divisão anterior foram mantidos.");
+                        return;
+                    }
+                    alteracoesDeOutraDivisao.add(alteracoes);
+                }
+            }
+            List<Obra> juntas = juntarPorId(lidas);
+            if (obras instanceof ArrayList<Obra> lista) {
+                lista.ensureCapacity(obras.size() + juntas.size());
+            }
+            for (Obra obra : juntas) {
+                adicionarObra(obra);
+            }
+        } catch (UncheckedIOException e) {
+            // Sem as obras, aplicar e consolidar as alterações regravaria o acervo vazio
             System.out.println("Erro ao carregar o acervo: " + e.getMessage());
+            return;
+        }
+        for (byte[] alteracoes : alteracoesDeOutraDivisao) {
+            aplicarAlteracoes(alteracoes);
+        }
+        if (deOutraDivisao.isEmpty()) {
+            aplicarAlteracoes();
+        } else if (!aplicarAlteracoesSemConsolidar()) {
+            System.out.println("O acervo não foi redividido, e os arquivos da divisão anterior foram mantidos.");
+        } else if (salvarTudo()) {
+            for (Path arquivo : deOutraDivisao) {
+                try {
+                    Files.deleteIfExists(arquivo);
+                } catch (IOException e) {
+                    System.out.println("Erro ao apagar " + arquivo + ": " + e.getMessage());
+                }
+            }
+            System.out.println("Acervo dividido em " + particoes.length + " partição(ões).");
+        } else {
+            System.out.println("Os arquivos da divisão anterior foram mantidos.");
+        }
+        Metricas.registrar(Metricas.Operacao.CARREGAR_ACERVO, inicio);
+    }
+
+    /**
+     * Junta as obras lidas de cada arquivo em ordem de ID, mantendo a ordem
+     * de cada arquivo. Um acervo que estava em ordem de ID antes de ser
+     * dividido volta, assim, na mesma ordem.
+     */
+    private static List<Obra> juntarPorId(List<List<Obra>> listas) {
+        if (listas.size() == 1) {
+            return listas.get(0);
+        }
+        int total = 0;
+        for (List<Obra> lista : listas) {
+            total += lista.size();
+        }
+        List<Obra> juntas = new ArrayList<>(total);
+        int[] proximas = new int[listas.size()];
+        PriorityQueue<Integer> fila = new PriorityQueue<>(
+                Comparator.comparingInt(i -> listas.get(i).get(proximas[i]).getId()));
+        for (int i = 0; i < listas.size(); i++) {
+            if (!listas.get(i).isEmpty()) {
+                fila.add(i);
+            }
+        }
+        while (!fila.isEmpty()) {
+            int i = fila.poll();
+            juntas.add(listas.get(i).get(proximas[i]++));
+            if (proximas[i] < listas.get(i).size()) {
+                fila.add(i);
+            }
+        }
+        return juntas;
+    }
+
+    /**
+     * Carrega o acervo sob demanda: só os IDs, as quantidades e as posições
+     * dos títulos no arquivo. O tamanho do cache de títulos vem da propriedade
+     * {@code biblioteca.acervo.cache}.
+     */
+    private void carregarSobDemanda() {
+        long inicio = System.nanoTime();
+        Path arquivo = particoes[0].arquivo();
+        if (!Files.exists(arquivo)) {
+            System.out.println("O arquivo `acervo.csv` não foi encontrado!");
+        }
+        try {
+            sobDemanda = AcervoSobDemanda.abrir(arquivo,
+                    Integer.getInteger("biblioteca.acervo.cache", AcervoSobDemanda.CAPACIDADE_PADRAO));
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println("Erro ao carregar o acervo: " + e.getMessage());
+            return;
+        }
+        long escrita = travaDoAcervo.writeLock();
+        try {
+            obras = sobDemanda;
+            indiceDeTitulosPendente = true;
+            for (int i = 0; i < sobDemanda.size(); i++) {
+                int id = sobDemanda.idNaPosicao(i);
+                if (indicePorId.posicaoDe(id) < 0) {
+                    indicePorId.associar(id, i);
+                }
+            }
+            marcarDisponiveis();
+        } finally {
+            travaDoAcervo.unlockWrite(escrita);
+        }
+        if (Files.exists(arquivo)) {
+            // Sem o arquivo, consolidar regravaria o acervo vazio e descartaria as alterações
+            aplicarAlteracoes();
+        }
+        Metricas.registrar(Metricas.Operacao.CARREGAR_ACERVO, inicio);
+    }
+
+    /**
+     * Registra a alteração de quantidade de uma obra. Em vez de regravar todo o
+     * acervo, anexa uma linha "id,quantidade" ao arquivo de alterações; o
+     * acervo completo só é regravado a cada {@value #ALTERACOES_POR_CONSOLIDACAO}
+     * alterações, em segundo plano.
+     *
+     * A linha só é colocada na fila de gravação (veja {@link GravadorEmGrupo})
+     * da partição da obra; {@link #aguardarGravacao(int, long)} espera que
+     * ela chegue ao disco. Threads diferentes podem registrar alterações ao mesmo tempo;
+     * só as de uma mesma obra são serializadas, para que a última linha da
+     * obra na fila tenha sempre a quantidade mais recente. As alterações são
+     * contadas por partição, e só a partição que chega ao limite é regravada.
+     *
+     * @param obra Obra cuja quantidade foi alterada.
+     * @return O número de sequência da linha na fila da partição.
+     */
+    public long registrarAlteracao(Obra obra) {
+        long inicio = System.nanoTime();
+        ParticaoDoAcervo particao = particaoDe(obra.getId());
+        ReentrantLock trava = travasDeAlteracao[obra.getId() & (TRAVAS - 1)];
+        long sequencia;
+        particao.trava().readLock().lock();
+        trava.lock();
+        try {
+            byte[] linha = (obra.getId() + "," + obra.getQuantidade() + "\n").getBytes(StandardCharsets.UTF_8);
+            sequencia = particao.alteracoes().anexar(linha);
+            Metricas.registrarBytes(Metricas.Operacao.REGISTRAR_ALTERACAO, linha.length);
+        } finally {
+            trava.unlock();
+            particao.trava().readLock().unlock();
+            Metricas.registrar(Metricas.Operacao.REGISTRAR_ALTERACAO, inicio);
+        }
+        // Se a consolidação falhar, a contagem continua acima do limite e a próxima alteração agenda outra
+        if (particao.pendentes().incrementAndGet() >= ALTERACOES_POR_CONSOLIDACAO) {
+            agendarConsolidacao(particao);
+        }
+        return sequencia;
+    }
+
+    /**
+     * Agenda a regravação da partição em segundo plano, se ainda não houver
+     * uma na fila ou rodando.
+     */
+    private void agendarConsolidacao(ParticaoDoAcervo particao) {
+        if (particao.consolidacaoAgendada().compareAndSet(false, true)) {
+            consolidacoes.execute(() -> {
+                try {
+                    consolidar(particao);
+                } finally {
+                    particao.consolidacaoAgendada().set(false);
+                }
+            });
+        }
+    }
+
+    private ParticaoDoAcervo particaoDe(int id) {
+        return particoes[ParticaoDoAcervo.indice(id, particoes.length)];
+    }
+
+    /**
+     * Espera até que as alterações registradas até agora estejam gravadas,
+     * conforme a durabilidade configurada.
+     *
+     * @throws IOException Se alguma delas não pôde ser gravada; ela só chega
+     *                     ao disco com a próxima regravação do acervo.
+     */
+    public void aguardarGravacao() throws IOException {
+        for (ParticaoDoAcervo particao : particoes) {
+            particao.alteracoes().aguardarTudo();
+        }
+    }
+
+    /**
+     * Espera só pela gravação de uma alteração, e das anteriores a ela na
+     * mesma partição. Se ela não puder ser gravada, a regravação da partição
+     * é agendada, para que a alteração chegue ao disco mesmo assim.
+     *
+     * @param idObra    ID da obra alterada.
+     * @param sequencia Número devolvido por {@link #registrarAlteracao(Obra)}.
+     * @throws IOException Se a alteração não pôde ser gravada.
+     */
+    public void aguardarGravacao(int idObra, long sequencia) throws IOException {
+        aguardarGravacao(particaoDe(idObra), sequencia);
+    }
+
+    /**
+     * Espera só pela gravação das alterações de um lote, partição por
+     * partição, como em {@link #aguardarGravacao(int, long)}.
+     *
+     * @param sequencias Números devolvidos por {@link #registrarAlteracoes(Collection)}.
+     * @throws IOException Se alguma delas não pôde ser gravada.
+     */
+    public void aguardarGravacao(long[] sequencias) throws IOException {
+        IOException falha = null;
+        for (ParticaoDoAcervo particao : particoes) {
+            try {
+                aguardarGravacao(particao, sequencias[particao.numero()]);
+            } catch (IOException e) {
+                falha = e;
+            }
+        }
+        if (falha != null) {
+            throw falha;
         }
     }
 
+    private void aguardarGravacao(ParticaoDoAcervo particao, long sequencia) throws IOException {
+        if (sequencia <= 0) {
+            return;
+        }
+        try {
+            particao.alteracoes().aguardar(sequencia);
+        } catch (IOException e) {
+            agendarConsolidacao(particao);
+            throw e;
+        }
+    }
+
+    /**
+     * Registra as quantidades de várias obras de uma vez, com um único
+     * registro na fila do arquivo de alterações de cada partição envolvida.
+     * As partições cujas alterações pendentes chegarem ao limite são
+     * regravadas em vez disso.
+     *
+     * Se a regravação falhar, as alterações da partição são anexadas mesmo
+     * assim.
+     *
+     * @param alteradas Obras cuja quantidade foi alterada, sem repetições.
+     * @return O número de sequência do registro de cada partição, ou 0 nas
+     *         partições sem registro, para {@link #aguardarGravacao(long[])}.
+     */
+    public long[] registrarAlteracoes(Collection<Obra> alteradas) {
+        long[] sequencias = new long[particoes.length];
+        if (alteradas.isEmpty()) {
+            return sequencias;
+        }
+        int[] porParticao = new int[particoes.length];
+        for (Obra obra : alteradas) {
+            porParticao[ParticaoDoAcervo.indice(obra.getId(), particoes.length)]++;
+        }
+        List<ParticaoDoAcervo> registradas = new ArrayList<>();
+        for (ParticaoDoAcervo particao : particoes) {
+            int quantidade = porParticao[particao.numero()];
+            if (quantidade == 0
+                    || particao.pendentes().get() + quantidade >= ALTERACOES_POR_CONSOLIDACAO && consolidar(particao)) {
+                continue;
+            }
+            registradas.add(particao);
+        }
+        if (registradas.isEmpty()) {
+            return sequencias;
+        }
+        long inicio = System.nanoTime();
+        for (ParticaoDoAcervo particao : registradas) {
+            particao.trava().readLock().lock();
+        }
+        // Todas as travas, sempre na mesma ordem: as quantidades lidas aqui não
+        // podem ser gravadas depois de uma alteração mais recente da mesma obra
+        for (ReentrantLock trava : travasDeAlteracao) {
+            trava.lock();
+        }
+        try {
+            StringBuilder[] linhas = new StringBuilder[particoes.length];
+            for (ParticaoDoAcervo particao : registradas) {
+                linhas[particao.numero()] = new StringBuilder(porParticao[particao.numero()] * 12);
+            }
+            for (Obra obra : alteradas) {
+                StringBuilder destino = linhas[ParticaoDoAcervo.indice(obra.getId(), particoes.length)];
+                if (destino != null) {
+                    destino.append(obra.getId()).append(',').append(obra.getQuantidade()).append('\n');
+                }
+            }
+            for (ParticaoDoAcervo particao : registradas) {
+                byte[] bytes = linhas[particao.numero()].toString().getBytes(StandardCharsets.UTF_8);
+                sequencias[particao.numero()] = particao.alteracoes().anexar(bytes);
+                Metricas.registrarBytes(Metricas.Operacao.REGISTRAR_ALTERACAO, bytes.length);
+            }
+        } finally {
+            for (int i = travasDeAlteracao.length - 1; i >= 0; i--) {
+                travasDeAlteracao[i].unlock();
+            }
+            for (int i = registradas.size() - 1; i >= 0; i--) {
+                registradas.get(i).trava().readLock().unlock();
+            }
+            Metricas.registrar(Metricas.Operacao.REGISTRAR_ALTERACAO, inicio);
+        }
+        for (ParticaoDoAcervo particao : registradas) {
+            if (particao.pendentes().addAndGet(porParticao[particao.numero()]) >= ALTERACOES_POR_CONSOLIDACAO) {
+                consolidar(particao);
+            }
+        }
+        return sequencias;
+    }
+
+    /**
+     * Aplica ao acervo carregado as alterações registradas desde a última
+     * gravação de cada partição e consolida as partições que tinham alguma.
+     */
+    private void aplicarAlteracoes() {
+        for (ParticaoDoAcervo particao : particoes) {
+            // Com erro de leitura, o arquivo de alterações fica como está, sem consolidar
+            if (aplicarAlteracoes(particao.arquivoDeAlteracoes(), 0) > 0) {
+                consolidar(particao);
+            }
+        }
+    }
+
+    /**
+     * Aplica as alterações de todas as partições sem consolidar, para a
+     * regravação completa que vem em seguida.
+     *
+     * @return false se algum arquivo de alterações não pôde ser lido.
+     */
+    private boolean aplicarAlteracoesSemConsolidar() {
+        boolean lidas = true;
+        for (ParticaoDoAcervo particao : particoes) {
+            lidas &= aplicarAlteracoes(particao.arquivoDeAlteracoes(), 0) >= 0;
+        }
+        return lidas;
+    }
+
+    /**
+     * Aplica as alterações registradas a partir de uma posição de um arquivo
+     * de alterações, sem consolidar.
+     *
+     * @param caminho Arquivo de alterações.
+     * @param posicao Posição, no início de uma linha, a partir da qual ler.
+     * @return A quantidade de linhas lidas, ou -1 se o arquivo não pôde ser lido.
+     */
+    private int aplicarAlteracoes(Path caminho, long posicao) {
+        byte[] dados = lerAlteracoes(caminho, posicao);
+        return dados == null ? -1 : aplicarAlteracoes(dados);
+    }
+
+    /**
+     * Lê as alterações registradas a partir de uma posição de um arquivo de
+     * alterações. Só valem as linhas terminadas por quebra de linha: uma
+     * última linha sem ela foi cortada por uma interrupção durante a gravação
+     * (de "123,45" pode ter sobrado "123,4") e é removida do arquivo, para
+     * que as próximas alterações não sejam anexadas a ela.
+     *
+     * @return As linhas completas, ou null se o arquivo não pôde ser lido.
+     */
+    private static byte[] lerAlteracoes(Path caminho, long posicao) {
+        File arquivo = caminho.toFile();
+        if (!arquivo.exists() || arquivo.length() <= posicao) {
+            return new byte[0];
+        }
+        byte[] dados;
+        try (InputStream in = new FileInputStream(arquivo)) {
+            in.skipNBytes(posicao);
+            dados = in.readAllBytes();
+        } catch (IOException e) {
+            System.out.println("Erro ao ler alterações do acervo: " + e.getMessage());
+            return null;
+        }
+        int fim = dados.length;
+        while (fim > 0 && dados[fim - 1] != '\n') {
+            fim--;
+        }
+        if (fim < dados.length) {
+            System.out.println("Alteração incompleta descartada: "
+                    + new String(dados, fim, dados.length - fim, StandardCharsets.UTF_8));
+            try (FileChannel canal = FileChannel.open(caminho, StandardOpenOption.WRITE)) {
+                canal.truncate(posicao + fim);
+            } catch (IOException e) {
+                System.out.println("Erro ao descartar a alteração incompleta: " + e.getMessage());
+                return null;
+            }
+        }
+        return Arrays.copyOf(dados, fim);
+    }
+
+    /**
+     * Aplica linhas "id,quantidade" completas, lidas por {@link #lerAlteracoes}.
+     *
+     * @return A quantidade de linhas lidas.
+     */
+    private int aplicarAlteracoes(byte[] dados) {
+        int lidas = 0;
+        int inicioDaLinha = 0;
+        for (int i = 0; i < dados.length; i++) {
+            if (dados[i] != '\n') {
+                continue;
+            }
+            String linha = new String(dados, inicioDaLinha, i - inicioDaLinha, StandardCharsets.UTF_8).strip();
+            inicioDaLinha = i + 1;
+            lidas++;
+            int virgula = linha.indexOf(',');
+            try {
+                Obra obra = buscarObraPorId(Integer.parseInt(linha.substring(0, virgula)));
+                if (obra != null) {
+                    obra.setQuantidade(Integer.parseInt(linha.substring(virgula + 1)));
+                    atualizarDisponibilidade(obra);
+                }
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                System.out.println("Alteração inválida ignorada: " + linha);
+            }
+        }
+        return lidas;
+    }
+
+    /**
+     * Regrava o acervo completo, gravando as partições em paralelo, e descarta
+     * as alterações pendentes, que passam a fazer parte dos arquivos.
+     */
     public void salvarAcervo() {
-        try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(ARQUIVO_ACERVO), StandardCharsets.UTF_8))) {
-            bw.write("ID,Título,Quantidade");
-            bw.newLine();
-            for (Obra obra : obras) {
-                bw.write(obra.getId() + "," + obra.getTitulo() + "," + obra.getQuantidade());
-                bw.newLine();
+        salvarTudo();
+    }
+
+    /**
+     * Espera a consolidação em andamento, grava o que ainda estiver na fila
+     * dos arquivos de alterações e fecha esses arquivos, com as suas threads
+     * de gravação, e o arquivo do acervo sob demanda. O gerenciador não deve
+     * ser usado depois.
+     */
+    @Override
+    public void close() {
+        consolidacoes.shutdown();
+        try {
+            consolidacoes.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (ParticaoDoAcervo particao : particoes) {
+            particao.close();
+        }
+        if (sobDemanda != null) {
+            try {
+                sobDemanda.fechar();
+            } catch (IOException e) {
+                System.out.println("Erro ao fechar o acervo: " + e.getMessage());
             }
-            System.out.println("Acervo salvo com sucesso!");
+        }
+    }
+
+    private boolean salvarTudo() {
+        List<Boolean> salvas = Arrays.stream(particoes).parallel().map(this::salvar).toList();
+        if (salvas.contains(false)) {
+            return false;
+        }
+        System.out.println("Acervo salvo com sucesso!");
+        aposSalvar.run();
+        return true;
+    }
+
+    /**
+     * Regrava só a partição, quando as suas alterações chegam ao limite.
+     *
+     * @return true se a partição foi gravada.
+     */
+    private boolean consolidar(ParticaoDoAcervo particao) {
+        if (particoes.length == 1) {
+            return salvarTudo();
+        }
+        if (!salvar(particao)) {
+            return false;
+        }
+        System.out.println("Partição " + particao.numero() + " do acervo salva com sucesso!");
+        aposSalvar.run();
+        return true;
+    }
+
+    /**
+     * Regrava o arquivo de uma partição e descarta as suas alterações
+     * pendentes. A gravação é feita em um arquivo temporário, renomeado no
+     * final, para não corromper o acervo em caso de interrupção; enquanto
+     * isso, só as alterações da própria partição esperam.
+     *
+     * @return true se a partição foi gravada.
+     */
+    private boolean salvar(ParticaoDoAcervo particao) {
+        long inicio = System.nanoTime();
+        Path temporario = particao.arquivo().resolveSibling(particao.arquivo().getFileName() + ".tmp");
+        particao.trava().writeLock().lock();
+        long leitura = travaDoAcervo.readLock();
+        try {
+            AcervoSobDemanda.Gravacao gravacao = null;
+            if (sobDemanda != null) {
+                // Copia do arquivo atual os títulos que não estão em memória
+                gravacao = sobDemanda.gravar(temporario);
+            } else {
+                try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporario.toFile()), StandardCharsets.UTF_8))) {
+                    bw.write(CarregadorDeAcervo.CABECALHO);
+                    bw.newLine();
+                    for (Obra obra : obras) {
+                        if (particoes.length > 1 && particaoDe(obra.getId()) != particao) {
+                            continue;
+                        }
+                        bw.write(Integer.toString(obra.getId()));
+                        bw.write(',');
+                        bw.write(obra.getTitulo());
+                        bw.write(',');
+                        bw.write(Integer.toString(obra.getQuantidade()));
+                        // Autor desconhecido fica sem a coluna, como nos arquivos antigos
+                        if (!CarregadorDeAcervo.AUTOR_DESCONHECIDO.equals(obra.getAutor())) {
+                            bw.write(',');
+                            bw.write(obra.getAutor().strip());
+                        }
+                        bw.newLine();
+                    }
+                }
+            }
+            Metricas.registrarBytes(Metricas.Operacao.SALVAR_ACERVO, Files.size(temporario));
+            Files.move(temporario, particao.arquivo(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (gravacao != null) {
+                sobDemanda.usar(particao.arquivo(), gravacao);
+            }
+            particao.alteracoes().esvaziar();
+            particao.pendentes().set(0);
+            return true;
         } catch (IOException e) {
             System.out.println("Erro ao salvar o acervo: " + e.getMessage());
+            return false;
+        } finally {
+            travaDoAcervo.unlockRead(leitura);
+            particao.trava().writeLock().unlock();
+            Metricas.registrar(Metricas.Operacao.SALVAR_ACERVO, inicio);
+        }
+    }
+
+    /**
+     * Define quem recebe as inclusões e alterações de título feitas a partir de agora.
+     */
+    void replicarPara(Replicacao replicacao) {
+        this.replicacao = replicacao;
+    }
+
+    /**
+     * Define o que fazer depois de cada gravação completa bem-sucedida.
+     */
+    void aoSalvar(Runnable acao) {
+        this.aposSalvar = acao;
+    }
+
+    /**
+     * Escreve o acervo e os seus índices na seção do instantâneo do sistema.
+     *
+     * A posição no arquivo de alterações é lida com a gravação do acervo
+     * bloqueada e depois de esvaziada a fila. As quantidades escritas podem
+     * ser mais recentes que essa posição, o que não é problema: as linhas
+     * seguintes trazem a quantidade final de cada obra e são reaplicadas na
+     * carga. Se o acervo for regravado enquanto isso, a seção deixa de
+     * corresponder ao arquivo e é descartada na próxima partida.
+     *
+     * Com o acervo sob demanda, a seção só marca que não contém as obras.
+     */
+    void escreverNoInstantaneo(DataOutputStream out) throws IOException {
+        escreverNoInstantaneo(out, false);
+    }
+
+    /**
+     * Como {@link #escreverNoInstantaneo(DataOutputStream)}, mas, com
+     * {@code completo}, copia as obras também do acervo sob demanda, como
+     * precisa uma réplica, que não tem o arquivo do acervo.
+     */
+    void escreverNoInstantaneo(DataOutputStream out, boolean completo) throws IOException {
+        if (completo && indiceDeTitulosPendente) {
+            montarIndiceDeTitulos();
+        }
+        for (ParticaoDoAcervo particao : particoes) {
+            particao.trava().writeLock().lock();
+        }
+        try {
+            // A primeira partição vai na identificação da seção; as demais, logo depois
+            for (ParticaoDoAcervo particao : particoes) {
+                particao.alteracoes().aguardarTudo();
+                InstantaneoDoSistema.escreverIdentificacao(out, particao.arquivo(), particao.arquivoDeAlteracoes().toFile().length());
+                if (particao.numero() == 0) {
+                    out.writeInt(particoes.length);
+                }
+            }
+        } finally {
+            for (int i = particoes.length - 1; i >= 0; i--) {
+                particoes[i].trava().writeLock().unlock();
+            }
+        }
+        // O acervo sob demanda não é copiado: a sua carga usa o próprio índice
+        out.writeBoolean(completo || sobDemanda == null);
+        if (!completo && sobDemanda != null) {
+            return;
+        }
+        long leitura = travaDoAcervo.readLock();
+        try {
+            out.writeInt(obras.size());
+            for (Obra obra : obras) {
+                out.writeInt(obra.getId());
+                InstantaneoDoSistema.escreverTexto(out, obra.getTitulo());
+                InstantaneoDoSistema.escreverTexto(out, obra.getAutor());
+                out.writeInt(obra.getQuantidade());
+            }
+            indicePorId.gravar(out);
+            indiceDeTitulos.gravar(out);
+        } finally {
+            travaDoAcervo.unlockRead(leitura);
+        }
+    }
+
+    /**
+     * Carrega o acervo e os índices da seção do instantâneo e reaplica as
+     * alterações gravadas depois dela. As alterações reaplicadas continuam
+     * pendentes e são consolidadas junto com as próximas.
+     *
+     * @return false se a seção não existir, não corresponder ao arquivo do
+     *         acervo ou não puder ser lida; nesse caso o acervo continua vazio.
+     */
+    private boolean carregarDoInstantaneo(InstantaneoDoSistema instantaneo) {
+        long inicio = System.nanoTime();
+        InstantaneoDoSistema.Secao secao = instantaneo.secao(InstantaneoDoSistema.ACERVO);
+        // Posição a partir da qual reaplicar as alterações de cada partição
+        long[] posicoes = new long[particoes.length];
+        long escrita = travaDoAcervo.writeLock();
+        try {
+            if (secao == null || !secao.corresponde(particoes[0].arquivo(), particoes[0].arquivoDeAlteracoes())) {
+                instantaneo.descartar(InstantaneoDoSistema.ACERVO);
+                return false;
+            }
+            ByteBuffer dados = secao.dados();
+            int divisao = dados.getInt();
+            if (divisao != particoes.length && !secao.deOutraInstancia()) {
+                instantaneo.descartar(InstantaneoDoSistema.ACERVO);
+                return false;
+            }
+            posicoes[0] = secao.posicaoNoRegistro();
+            for (int i = 1; i < divisao; i++) {
+                InstantaneoDoSistema.Secao parte = secao.identificacaoSeguinte(dados);
+                if (secao.deOutraInstancia()) {
+                    continue;
+                }
+                if (!parte.corresponde(particoes[i].arquivo(), particoes[i].arquivoDeAlteracoes())) {
+                    instantaneo.descartar(InstantaneoDoSistema.ACERVO);
+                    return false;
+                }
+                posicoes[i] = parte.posicaoNoRegistro();
+            }
+            if (dados.get() == 0) {
+                // Gravada com o acervo sob demanda, sem as obras
+                instantaneo.descartar(InstantaneoDoSistema.ACERVO);
+                return false;
+            }
+            Obra[] lidas = new Obra[dados.getInt()];
+            // Poucos autores se repetem em muitas obras; cada um vira uma única String
+            Map<String, String> autores = new HashMap<>();
+            for (int i = 0; i < lidas.length; i++) {
+                int id = dados.getInt();
+                String titulo = InstantaneoDoSistema.lerTexto(dados);
+                String autor = InstantaneoDoSistema.lerTexto(dados);
+                lidas[i] = new Obra(id, titulo, autores.computeIfAbsent(autor, a -> a), dados.getInt());
+            }
+            indicePorId.restaurar(dados);
+            try {
+                indiceDeTitulos.restaurar(dados);
+            } catch (RuntimeException e) {
+                indicePorId.limpar();
+                throw e;
+            }
+            obras.addAll(Arrays.asList(lidas));
+            marcarDisponiveis();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Acervo do instantâneo ignorado: " + e.getMessage());
+            instantaneo.descartar(InstantaneoDoSistema.ACERVO);
+            return false;
+        } finally {
+            travaDoAcervo.unlockWrite(escrita);
+        }
+        for (ParticaoDoAcervo particao : particoes) {
+            int reaplicadas = Math.max(0, aplicarAlteracoes(particao.arquivoDeAlteracoes(), posicoes[particao.numero()]));
+            particao.pendentes().set(reaplicadas);
+            if (reaplicadas >= ALTERACOES_POR_CONSOLIDACAO) {
+                consolidar(particao);
+            }
         }
+        Metricas.registrar(Metricas.Operacao.CARREGAR_ACERVO, inicio);
+        return true;
     }
 }
\ No newline at end of file
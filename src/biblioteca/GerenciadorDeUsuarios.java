@@ -1,50 +1,239 @@
 package biblioteca;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Classe responsável por gerenciar os usuários do sistema. Permite o cadastro,
  * busca, carregamento e salvamento de usuários.
+ *
+ * Os usuários são indexados por email. As senhas são guardadas como hashes
+ * com sal ({@link SenhaSegura}); senhas em texto puro de arquivos antigos são
+ * convertidas no primeiro login bem-sucedido. Como o hash é propositalmente
+ * lento, um login que já foi verificado fica em cache, e sessões abertas podem
+ * ser retomadas por um token sem repetir a verificação. As sessões expiradas
+ * são descartadas no máximo uma vez por minuto, quando uma nova é aberta.
  */
 public class GerenciadorDeUsuarios {
 
     private List<Usuario> usuarios;
+    private final Map<String, Usuario> usuariosPorEmail = new ConcurrentHashMap<>();
+    // Email -> resumo rápido (SHA-256 com chave do processo) da última senha verificada
+    private final Map<String, String> loginsVerificados = new ConcurrentHashMap<>();
+    private final Map<String, Sessao> sessoes = new ConcurrentHashMap<>();
+    private final byte[] chaveDoProcesso = new byte[32];
+    private static final SecureRandom ALEATORIO = new SecureRandom();
+    private static final int MAXIMO_LOGINS_EM_CACHE = 100_000;
+    private static final long DURACAO_SESSAO_MS = 30 * 60 * 1000L;
+    private static final long INTERVALO_LIMPEZA_SESSOES_MS = 60 * 1000L;
+    // Quando as sessões expiradas devem ser procuradas de novo
+    private final AtomicLong proximaLimpezaDeSessoes = new AtomicLong();
     private static final String ARQUIVO_USUARIOS = "usuarios.txt";
+    // Avisado depois de cada salvamento bem-sucedido
+    private volatile Runnable aposSalvar = () -> {
+    };
+    // Recebe os cadastros, para as réplicas
+    private volatile Replicacao replicacao = Replicacao.NENHUMA;
+
+    private record Sessao(String email, long expiraEm) {
+    }
 
     /**
      * Construtor que inicializa a lista de usuários e carrega os dados do
      * arquivo.
      */
     public GerenciadorDeUsuarios() {
-        this.usuarios = new ArrayList<>();
+        this.usuarios = new CopyOnWriteArrayList<>(); // Cadastros são raros; leituras não travam
+        ALEATORIO.nextBytes(chaveDoProcesso);
         carregarUsuarios();
     }
 
+    /**
+     * Construtor que carrega os usuários do instantâneo do sistema, se a seção
+     * dele estiver em dia com o arquivo, ou do arquivo.
+     *
+     * @param instantaneo Instantâneo aberto na partida.
+     */
+    public GerenciadorDeUsuarios(InstantaneoDoSistema instantaneo) {
+        this.usuarios = new CopyOnWriteArrayList<>();
+        ALEATORIO.nextBytes(chaveDoProcesso);
+        if (!carregarDoInstantaneo(instantaneo)) {
+            carregarUsuarios();
+        }
+    }
+
     public List<Usuario> getUsuarios() {
         return usuarios;
     }
 
     public void cadastrarUsuario(Usuario usuario) {
-        usuarios.add(usuario);
-        salvarUsuarios();
+        if (!SenhaSegura.isHash(usuario.getSenha())) {
+            usuario.setSenha(SenhaSegura.gerarHash(usuario.getSenha()));
+        }
+        Replicacao replicacao = this.replicacao;
+        replicacao.iniciarAlteracao();
+        try {
+            synchronized (this) {
+                usuarios.add(usuario);
+                usuariosPorEmail.putIfAbsent(usuario.getEmail(), usuario);
+                replicacao.usuarioCadastrado(usuario);
+                salvarUsuarios();
+            }
+        } finally {
+            replicacao.terminarAlteracao();
+        }
+    }
+
+    /**
+     * Busca um usuário pelo email.
+     *
+     * @param email Email do usuário.
+     * @return O usuário, ou null se não houver nenhum com esse email.
+     */
+    public Usuario buscarUsuarioPorEmail(String email) {
+        return email == null ? null : usuariosPorEmail.get(email);
     }
 
     public Usuario validarLogin(String email, String senha) {
-        return usuarios.stream()
-                .filter(u -> u.getEmail().equals(email) && u.getSenha().equals(senha))
-                .findFirst()
-                .orElse(null);
+        long inicio = System.nanoTime();
+        Usuario usuario = verificarLogin(email, senha);
+        Metricas.registrar(Metricas.Operacao.LOGIN, inicio);
+        if (usuario == null) {
+            Metricas.registrarLoginRecusado();
+        }
+        return usuario;
+    }
+
+    private Usuario verificarLogin(String email, String senha) {
+        Usuario usuario = buscarUsuarioPorEmail(email);
+        if (usuario == null || senha == null) {
+            return null;
+        }
+        String resumo = resumir(senha, usuario.getSenha());
+        String verificado = loginsVerificados.get(email);
+        if (verificado != null && MessageDigest.isEqual(bytes(verificado), bytes(resumo))) {
+            return usuario;
+        }
+        if (!SenhaSegura.verificar(senha, usuario.getSenha())) {
+            return null;
+        }
+        if (!SenhaSegura.isHash(usuario.getSenha())) {
+            // Converte a senha antiga; o arquivo é atualizado no próximo salvamento
+            usuario.setSenha(SenhaSegura.gerarHash(senha));
+            resumo = resumir(senha, usuario.getSenha());
+        }
+        if (loginsVerificados.size() >= MAXIMO_LOGINS_EM_CACHE) {
+            loginsVerificados.clear();
+        }
+        loginsVerificados.put(email, resumo);
+        return usuario;
+    }
+
+    /**
+     * Valida o login e abre uma sessão.
+     *
+     * @param email Email do usuário.
+     * @param senha Senha do usuário.
+     * @return O token da sessão, ou null se o login for inválido.
+     */
+    public String abrirSessao(String email, String senha) {
+        Usuario usuario = validarLogin(email, senha);
+        if (usuario == null) {
+            return null;
+        }
+        byte[] aleatorio = new byte[24];
+        ALEATORIO.nextBytes(aleatorio);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(aleatorio);
+        long agora = System.currentTimeMillis();
+        descartarSessoesExpiradas(agora);
+        sessoes.put(token, new Sessao(usuario.getEmail(), agora + DURACAO_SESSAO_MS));
+        return token;
+    }
+
+    /**
+     * Remove as sessões expiradas, se a última limpeza tiver sido há mais de
+     * {@value #INTERVALO_LIMPEZA_SESSOES_MS} ms. Sem isso, uma sessão que
+     * nunca é consultada depois de expirar ficaria no mapa para sempre.
+     */
+    private void descartarSessoesExpiradas(long agora) {
+        long proxima = proximaLimpezaDeSessoes.get();
+        if (agora < proxima || !proximaLimpezaDeSessoes.compareAndSet(proxima, agora + INTERVALO_LIMPEZA_SESSOES_MS)) {
+            return;
+        }
+        sessoes.values().removeIf(sessao -> sessao.expiraEm() < agora);
+    }
+
+    /**
+     * Retorna o usuário de uma sessão aberta, sem verificar a senha de novo.
+     *
+     * @param token Token devolvido por {@link #abrirSessao(String, String)}.
+     * @return O usuário, ou null se a sessão não existir ou tiver expirado.
+     */
+    public Usuario usuarioDaSessao(String token) {
+        Sessao sessao = token == null ? null : sessoes.get(token);
+        if (sessao == null) {
+            return null;
+        }
+        if (sessao.expiraEm() < System.currentTimeMillis()) {
+            sessoes.remove(token);
+            return null;
+        }
+        return buscarUsuarioPorEmail(sessao.email());
+    }
+
+    /**
+     * Revoga o token; a sessão não pode mais ser retomada.
+     *
+     * @param token Token devolvido por {@link #abrirSessao(String, String)}.
+     */
+    public void encerrarSessao(String token) {
+        if (token != null) {
+            sessoes.remove(token);
+        }
+    }
+
+    /**
+     * Resumo rápido da senha informada junto com o valor armazenado. Como o
+     * valor armazenado entra no resumo, trocar a senha invalida o cache.
+     */
+    private String resumir(String senha, String armazenada) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(chaveDoProcesso);
+            sha.update(bytes(senha));
+            sha.update((byte) 0);
+            sha.update(bytes(armazenada));
+            return Base64.getEncoder().encodeToString(sha.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] bytes(String texto) {
+        return texto.getBytes(StandardCharsets.UTF_8);
     }
 
     public void carregarUsuarios() {
+        long inicio = System.nanoTime();
         File arquivo = new File(ARQUIVO_USUARIOS);
         if (!arquivo.exists()) {
             System.out.println("Arquivo de usuários não encontrado: " + ARQUIVO_USUARIOS);
             return;
         }
 
+        List<Usuario> lidos = new ArrayList<>();
         try (BufferedReader br = new BufferedReader(new FileReader(ARQUIVO_USUARIOS))) {
             String linha;
             while ((linha = br.readLine()) != null) {
@@ -58,16 +247,16 @@ public class GerenciadorDeUsuarios {
                         case "B" -> {
                             String telefone = dados[4];
                             int totalDevolucoes = Integer.parseInt(dados[5]);
-                            usuarios.add(new Bibliotecario(nome, email, senha, telefone, totalDevolucoes));
+                            lidos.add(new Bibliotecario(nome, email, senha, telefone, totalDevolucoes));
                         }
                         case "P" -> {
                             String departamento = dados[4];
-                            usuarios.add(new Professor(nome, email, senha, departamento));
+                            lidos.add(new Professor(nome, email, senha, departamento));
                         }
                         case "A" -> {
                             String matricula = dados[4];
                             String curso = dados[5];
-                            usuarios.add(new Aluno(nome, email, senha, matricula, curso));
+                            lidos.add(new Aluno(nome, email, senha, matricula, curso));
                         }
                     }
                 }
@@ -75,9 +264,15 @@ public class GerenciadorDeUsuarios {
         } catch (IOException e) {
             System.out.println("Erro ao carregar usuários: " + e.getMessage());
         }
+        usuarios.addAll(lidos);
+        for (Usuario usuario : lidos) {
+            usuariosPorEmail.putIfAbsent(usuario.getEmail(), usuario);
+        }
+        Metricas.registrar(Metricas.Operacao.CARREGAR_USUARIOS, inicio);
     }
 
     public void salvarUsuarios() {
+        long inicio = System.nanoTime();
         try (BufferedWriter bw = new BufferedWriter(new FileWriter(ARQUIVO_USUARIOS))) {
             for (Usuario usuario : usuarios) {
                 if (usuario instanceof Bibliotecario biblio) {
@@ -92,6 +287,123 @@ public class GerenciadorDeUsuarios {
             System.out.println("Usuários salvos com sucesso!");
         } catch (IOException e) {
             System.out.println("Erro ao salvar usuários: " + e.getMessage());
+            return;
+        }
+        Metricas.registrarBytes(Metricas.Operacao.SALVAR_USUARIOS, new File(ARQUIVO_USUARIOS).length());
+        Metricas.registrar(Metricas.Operacao.SALVAR_USUARIOS, inicio);
+        aposSalvar.run();
+    }
+
+    /**
+     * Define quem recebe os cadastros feitos a partir de agora.
+     */
+    void replicarPara(Replicacao replicacao) {
+        this.replicacao = replicacao;
+    }
+
+    /**
+     * Define o que fazer depois de cada salvamento bem-sucedido.
+     */
+    void aoSalvar(Runnable acao) {
+        this.aposSalvar = acao;
+    }
+
+    /**
+     * Escreve os usuários na seção do instantâneo do sistema. Sincronizado com
+     * o cadastro, para que o arquivo identificado na seção seja o mesmo cujo
+     * conteúdo é escrito.
+     */
+    synchronized void escreverNoInstantaneo(DataOutputStream out) throws IOException {
+        InstantaneoDoSistema.escreverIdentificacao(out, Path.of(ARQUIVO_USUARIOS), 0);
+        List<Usuario> atuais = List.copyOf(usuarios);
+        out.writeInt(atuais.size());
+        for (Usuario usuario : atuais) {
+            escreverUsuario(out, usuario);
+        }
+    }
+
+    /**
+     * Escreve um usuário no formato binário do instantâneo, também usado na
+     * replicação.
+     */
+    static void escreverUsuario(DataOutputStream out, Usuario usuario) throws IOException {
+        if (usuario instanceof Bibliotecario biblio) {
+            out.writeByte('B');
+            escreverComum(out, usuario);
+            InstantaneoDoSistema.escreverTexto(out, biblio.getTelefone());
+            out.writeInt(biblio.getTotalDevolucoes());
+        } else if (usuario instanceof Professor prof) {
+            out.writeByte('P');
+            escreverComum(out, usuario);
+            InstantaneoDoSistema.escreverTexto(out, prof.getDepartamento());
+        } else if (usuario instanceof Aluno aluno) {
+            out.writeByte('A');
+            escreverComum(out, usuario);
+            InstantaneoDoSistema.escreverTexto(out, aluno.getMatricula());
+            InstantaneoDoSistema.escreverTexto(out, aluno.getCurso());
+        } else {
+            // Mantém a contagem; o usuário é descartado na leitura, como no arquivo
+            out.writeByte('?');
+        }
+    }
+
+    /**
+     * Lê um usuário escrito por {@link #escreverUsuario}.
+     *
+     * @return O usuário, ou null se for de um tipo desconhecido.
+     */
+    static Usuario lerUsuario(ByteBuffer dados) {
+        byte tipo = dados.get();
+        if (tipo == '?') {
+            return null;
+        }
+        String nome = InstantaneoDoSistema.lerTexto(dados);
+        String email = InstantaneoDoSistema.lerTexto(dados);
+        String senha = InstantaneoDoSistema.lerTexto(dados);
+        return switch (tipo) {
+            case 'B' -> new Bibliotecario(nome, email, senha, InstantaneoDoSistema.lerTexto(dados), dados.getInt());
+            case 'P' -> new Professor(nome, email, senha, InstantaneoDoSistema.lerTexto(dados));
+            default -> new Aluno(nome, email, senha, InstantaneoDoSistema.lerTexto(dados), InstantaneoDoSistema.lerTexto(dados));
+        };
+    }
+
+    private static void escreverComum(DataOutputStream out, Usuario usuario) throws IOException {
+        InstantaneoDoSistema.escreverTexto(out, usuario.getNome());
+        InstantaneoDoSistema.escreverTexto(out, usuario.getEmail());
+        InstantaneoDoSistema.escreverTexto(out, usuario.getSenha());
+    }
+
+    /**
+     * Carrega os usuários da seção do instantâneo.
+     *
+     * @return false se a seção não existir ou não corresponder ao arquivo atual.
+     */
+    private boolean carregarDoInstantaneo(InstantaneoDoSistema instantaneo) {
+        long inicio = System.nanoTime();
+        InstantaneoDoSistema.Secao secao = instantaneo.secao(InstantaneoDoSistema.USUARIOS);
+        try {
+            if (secao == null || !secao.corresponde(Path.of(ARQUIVO_USUARIOS), null)) {
+                instantaneo.descartar(InstantaneoDoSistema.USUARIOS);
+                return false;
+            }
+        } catch (IOException e) {
+            instantaneo.descartar(InstantaneoDoSistema.USUARIOS);
+            return false;
+        }
+        ByteBuffer dados = secao.dados();
+        int quantidade = dados.getInt();
+        List<Usuario> lidos = new ArrayList<>(quantidade);
+        for (int i = 0; i < quantidade; i++) {
+            Usuario usuario = lerUsuario(dados);
+            if (usuario != null) {
+                lidos.add(usuario);
+            }
+        }
+        usuarios.addAll(lidos);
+        for (Usuario usuario : lidos) {
+            usuariosPorEmail.putIfAbsent(usuario.getEmail(), usuario);
         }
+        Metricas.registrar(Metricas.Operacao.CARREGAR_USUARIOS, inicio);
+        return true;
     }
 }
@@ -0,0 +1,335 @@
+package biblioteca;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Gravação em segundo plano (write-behind) de registros anexados a um arquivo.
+ * Quem grava só coloca o registro em uma fila; uma thread própria retira da
+ * fila tudo o que estiver esperando e grava de uma vez (group commit), com
+ * uma única chamada ao sistema e, conforme a {@link Durabilidade}, uma única
+ * sincronização do disco para o grupo inteiro.
+ *
+ * Os registros chegam ao arquivo inteiros e na ordem em que foram anexados.
+ * Depois de uma queda, o arquivo contém portanto um prefixo dos registros:
+ * tudo o que foi confirmado por {@link #aguardar(long)} e talvez parte do que
+ * ainda estava na fila, com no máximo um registro incompleto no final.
+ *
+ * Se uma gravação falhar, o arquivo é cortado de volta ao tamanho que tinha
+ * antes dela, e o gravador passa a recusar os registros: nenhum outro é
+ * gravado, para que o arquivo continue sendo um prefixo, e quem espera por
+ * eles recebe o erro. A recusa só termina quando o arquivo é esvaziado por
+ * {@link #esvaziar()}, depois que o estado completo foi salvo de outra forma.
+ *
+ * Cada registro recebe um número de sequência, usado para esperar por ele.
+ * A thread de gravação só é iniciada com o primeiro registro. Ao encerrar o
+ * processo, ou em {@link #close()}, a fila é esvaziada antes de o arquivo
+ * ser fechado.
+ */
+final class GravadorEmGrupo implements AutoCloseable {
+
+    // Limite de bytes por grupo, para que uma fila longa não vire uma única escrita enorme
+    private static final int BYTES_POR_GRUPO = 1 << 20;
+
+    private final Path arquivo;
+    private final Durabilidade durabilidade;
+    private final FileChannel canal;
+    private final LinkedBlockingQueue<Registro> fila = new LinkedBlockingQueue<>();
+    // Garante que a ordem da fila seja a ordem dos números de sequência
+    private final ReentrantLock travaDaFila = new ReentrantLock();
+    // Protege o canal e o número do último registro gravado
+    private final ReentrantLock travaDoCanal = new ReentrantLock();
+    private final Condition gravou = travaDoCanal.newCondition();
+    // Iniciadas com o primeiro registro; protegidas pela trava da fila
+    private Thread escritor;
+    private Thread fechamento;
+    private boolean fechado;
+    private long anexados;
+    private long gravados;
+    // Erro da gravação que falhou e o primeiro registro que não foi gravado
+    private IOException falha;
+    private long primeiroNaoGravado;
+
+    private record Registro(long sequencia, byte[] dados) {
+    }
+
+    /**
+     * Abre o arquivo para anexar.
+     *
+     * @param arquivo      Arquivo onde os registros são anexados; é criado se não existir.
+     * @param durabilidade Quando sincronizar o disco.
+     */
+    GravadorEmGrupo(Path arquivo, Durabilidade durabilidade) throws IOException {
+        this.arquivo = arquivo;
+        this.durabilidade = durabilidade;
+        this.canal = FileChannel.open(arquivo, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    Durabilidade getDurabilidade() {
+        return durabilidade;
+    }
+
+    /**
+     * Coloca um registro na fila de gravação.
+     *
+     * @param dados Registro completo; não deve ser alterado depois.
+     * @return O número de sequência do registro, para {@link #aguardar(long)}.
+     * @throws IllegalStateException Se o gravador já foi fechado.
+     */
+    long anexar(byte[] dados) {
+        travaDaFila.lock();
+        try {
+            if (fechado) {
+                throw new IllegalStateException("O gravador de " + arquivo.getFileName() + " já foi fechado.");
+            }
+            if (escritor == null) {
+                iniciar();
+            }
+            long sequencia = ++anexados;
+            fila.add(new Registro(sequencia, dados));
+            return sequencia;
+        } finally {
+            travaDaFila.unlock();
+        }
+    }
+
+    /**
+     * Espera até que o registro, e todos os anexados antes dele, tenham sido
+     * gravados (e sincronizados, se a durabilidade pedir).
+     *
+     * @param sequencia Número devolvido por {@link #anexar(byte[])}.
+     * @throws IOException Se o registro, ou um anterior a ele, não foi gravado.
+     */
+    void aguardar(long sequencia) throws IOException {
+        travaDoCanal.lock();
+        try {
+            esperar(sequencia);
+            if (falha != null && sequencia >= primeiroNaoGravado) {
+                throw new IOException("registro não gravado em " + arquivo.getFileName() + ": " + falha.getMessage(), falha);
+            }
+        } finally {
+            travaDoCanal.unlock();
+        }
+    }
+
+    /**
+     * Espera a gravação de tudo o que foi anexado até agora.
+     *
+     * @throws IOException Se algum desses registros não foi gravado.
+     */
+    void aguardarTudo() throws IOException {
+        aguardar(ultimoAnexado());
+    }
+
+    /**
+     * Espera a gravação do que está na fila e então esvazia o arquivo,
+     * inclusive depois de uma falha, que deixa de valer. Quem chama deve ter
+     * salvo o estado completo e impedir novos registros enquanto isso.
+     */
+    void esvaziar() throws IOException {
+        long ultimo = ultimoAnexado();
+        travaDoCanal.lock();
+        try {
+            esperar(ultimo);
+            canal.truncate(0);
+            falha = null;
+        } finally {
+            travaDoCanal.unlock();
+        }
+    }
+
+    /**
+     * Espera a gravação do que está na fila e então corta o arquivo no
+     * tamanho informado, descartando o que vier depois. Usado na carga, para
+     * tirar um registro incompleto do fim do arquivo antes de anexar outros.
+     */
+    void cortar(long tamanho) throws IOException {
+        long ultimo = ultimoAnexado();
+        travaDoCanal.lock();
+        try {
+            esperar(ultimo);
+            canal.truncate(tamanho);
+        } finally {
+            travaDoCanal.unlock();
+        }
+    }
+
+    // Deve ser chamado com a trava da fila
+    private void iniciar() {
+        escritor = new Thread(this::gravarContinuamente, "gravacao-" + arquivo.getFileName());
+        escritor.setDaemon(true);
+        escritor.start();
+        fechamento = new Thread(this::fechar, "fechamento-" + arquivo.getFileName());
+        Runtime.getRuntime().addShutdownHook(fechamento);
+    }
+
+    private long ultimoAnexado() {
+        travaDaFila.lock();
+        try {
+            return anexados;
+        } finally {
+            travaDaFila.unlock();
+        }
+    }
+
+    // Deve ser chamado com a trava do canal
+    private void esperar(long sequencia) {
+        while (gravados < sequencia) {
+            gravou.awaitUninterruptibly();
+        }
+    }
+
+    private void gravarContinuamente() {
+        List<Registro> grupo = new ArrayList<>();
+        while (true) {
+            try {
+                grupo.add(fila.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            long bytes = grupo.get(0).dados().length;
+            Registro proximo;
+            while (bytes < BYTES_POR_GRUPO && (proximo = fila.poll()) != null) {
+                grupo.add(proximo);
+                bytes += proximo.dados().length;
+            }
+            gravarGrupo(grupo, bytes);
+            grupo.clear();
+        }
+    }
+
+    private void gravarGrupo(List<Registro> grupo, long bytes) {
+        long inicio = System.nanoTime();
+        travaDoCanal.lock();
+        long tamanho = -1;
+        long sequencia = grupo.get(0).sequencia();
+        try {
+            if (falha != null) {
+                // Gravar depois de um registro perdido deixaria um buraco no arquivo
+                return;
+            }
+            tamanho = canal.size();
+            if (durabilidade == Durabilidade.OPERACAO) {
+                for (Registro registro : grupo) {
+                    sequencia = registro.sequencia();
+                    escrever(ByteBuffer.wrap(registro.dados()));
+                    canal.force(false);
+                    tamanho = canal.size();
+                    gravados = sequencia;
+                    gravou.signalAll();
+                }
+            } else {
+                ByteBuffer[] buffers = new ByteBuffer[grupo.size()];
+                for (int i = 0; i < buffers.length; i++) {
+                    buffers[i] = ByteBuffer.wrap(grupo.get(i).dados());
+                }
+                escrever(buffers, bytes);
+                if (durabilidade == Durabilidade.GRUPO) {
+                    canal.force(false);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Erro ao gravar " + arquivo.getFileName() + ": " + e.getMessage());
+            falha = e;
+            primeiroNaoGravado = sequencia;
+            descartarGravacaoParcial(tamanho);
+        } finally {
+            // Quem espera é liberado mesmo com erro, e o recebe de aguardar
+            gravados = grupo.get(grupo.size() - 1).sequencia();
+            gravou.signalAll();
+            travaDoCanal.unlock();
+        }
+        Metricas.registrar(Metricas.Operacao.GRAVAR_GRUPO, inicio);
+        Metricas.registrarBytes(Metricas.Operacao.GRAVAR_GRUPO, bytes);
+    }
+
+    /**
+     * Corta o arquivo de volta ao tamanho de antes da gravação que falhou,
+     * para que um registro escrito pela metade não fique no meio do arquivo.
+     */
+    private void descartarGravacaoParcial(long tamanho) {
+        if (tamanho < 0) {
+            return;
+        }
+        try {
+            canal.truncate(tamanho);
+        } catch (IOException e) {
+            System.out.println("Erro ao descartar a gravação incompleta de " + arquivo.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    private void escrever(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            canal.write(buffer);
+        }
+    }
+
+    private void escrever(ByteBuffer[] buffers, long bytes) throws IOException {
+        long escritos = 0;
+        while (escritos < bytes) {
+            escritos += canal.write(buffers);
+        }
+    }
+
+    /**
+     * Grava o que ainda estiver na fila, fecha o arquivo e encerra a thread
+     * de gravação. Novos registros passam a ser recusados. Chamar de novo não
+     * tem efeito.
+     */
+    @Override
+    public void close() {
+        Thread escritor;
+        Thread fechamento;
+        travaDaFila.lock();
+        try {
+            if (fechado) {
+                return;
+            }
+            fechado = true;
+            escritor = this.escritor;
+            fechamento = this.fechamento;
+        } finally {
+            travaDaFila.unlock();
+        }
+        fechar();
+        if (escritor != null) {
+            escritor.interrupt();
+            try {
+                Runtime.getRuntime().removeShutdownHook(fechamento);
+            } catch (IllegalStateException e) {
+                // O processo já está encerrando, e o fechamento roda de qualquer forma
+            }
+        }
+    }
+
+    /**
+     * Grava o que ainda estiver na fila e fecha o arquivo. Chamado por
+     * {@link #close()} ou ao encerrar o processo.
+     */
+    private void fechar() {
+        try {
+            // A thread de gravação, mesmo sendo daemon, continua rodando durante o encerramento
+            long ultimo = ultimoAnexado();
+            travaDoCanal.lock();
+            try {
+                esperar(ultimo);
+                if (canal.isOpen()) {
+                    canal.force(false);
+                    canal.close();
+                }
+            } finally {
+                travaDoCanal.unlock();
+            }
+        } catch (IOException e) {
+            System.out.println("Erro ao fechar " + arquivo.getFileName() + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package biblioteca;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de latências em nanossegundos, com faixas logarítmicas: cada
+ * potência de 2 é dividida em {@value #SUBDIVISOES} faixas iguais, o que dá
+ * um erro relativo de no máximo 12,5% em qualquer percentil, com um número
+ * fixo de contadores.
+ *
+ * Registrar um valor custa um incremento em um {@link LongAdder}, sem travas;
+ * threads diferentes registram ao mesmo tempo sem disputar o mesmo contador.
+ */
+final class HistogramaDeLatencia {
+
+    private static final int BITS_DE_SUBDIVISAO = 3;
+    static final int SUBDIVISOES = 1 << BITS_DE_SUBDIVISAO;
+    // Valores a partir de 2^40 ns (cerca de 18 minutos) vão para a última faixa
+    private static final int MAIOR_EXPOENTE = 40;
+    private static final int FAIXAS = (MAIOR_EXPOENTE - BITS_DE_SUBDIVISAO + 2) * SUBDIVISOES;
+
+    private final LongAdder[] contagens = new LongAdder[FAIXAS];
+    private final LongAdder soma = new LongAdder();
+    private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+    HistogramaDeLatencia() {
+        for (int i = 0; i < FAIXAS; i++) {
+            contagens[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Registra uma medição.
+     *
+     * @param nanos Duração em nanossegundos.
+     */
+    void registrar(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        contagens[faixaDe(nanos)].increment();
+        soma.add(nanos);
+        maximo.accumulate(nanos);
+    }
+
+    /**
+     * Copia as contagens de cada faixa. As medições registradas durante a
+     * cópia podem ou não aparecer nela.
+     */
+    long[] contagens() {
+        long[] copia = new long[FAIXAS];
+        for (int i = 0; i < FAIXAS; i++) {
+            copia[i] = contagens[i].sum();
+        }
+        return copia;
+    }
+
+    long soma() {
+        return soma.sum();
+    }
+
+    long maximo() {
+        return maximo.get();
+    }
+
+    void zerar() {
+        for (LongAdder contagem : contagens) {
+            contagem.reset();
+        }
+        soma.reset();
+        maximo.reset();
+    }
+
+    /**
+     * Total de medições em um conjunto de contagens.
+     */
+    static long total(long[] contagens) {
+        long total = 0;
+        for (long c : contagens) {
+            total += c;
+        }
+        return total;
+    }
+
+    /**
+     * Calcula um percentil a partir das contagens de cada faixa.
+     *
+     * @param contagens Contagens devolvidas por {@link #contagens()}, ou a
+     *                  diferença entre duas cópias, para um intervalo de tempo.
+     * @param fracao    Percentil desejado, entre 0 e 1.
+     * @return O maior valor da faixa que contém o percentil, em nanossegundos,
+     *         ou 0 se não houver medições.
+     */
+    static long percentil(long[] contagens, double fracao) {
+        long total = total(contagens);
+        if (total == 0) {
+            return 0;
+        }
+        long posicao = Math.max(1, (long) Math.ceil(fracao * total));
+        long acumulado = 0;
+        for (int i = 0; i < contagens.length; i++) {
+            acumulado += contagens[i];
+            if (acumulado >= posicao) {
+                return limiteSuperior(i);
+            }
+        }
+        return limiteSuperior(contagens.length - 1);
+    }
+
+    private static int faixaDe(long nanos) {
+        if (nanos < SUBDIVISOES) {
+            return (int) nanos;
+        }
+        int expoente = Math.min(63 - Long.numberOfLeadingZeros(nanos), MAIOR_EXPOENTE);
+        int subdivisao = (int) (nanos >>> (expoente - BITS_DE_SUBDIVISAO)) & (SUBDIVISOES - 1);
+        return Math.min((expoente - BITS_DE_SUBDIVISAO + 1) * SUBDIVISOES + subdivisao, FAIXAS - 1);
+    }
+
+    private static long limiteSuperior(int faixa) {
+        if (faixa < SUBDIVISOES) {
+            return faixa;
+        }
+        int expoente = faixa / SUBDIVISOES + BITS_DE_SUBDIVISAO - 1;
+        long inicio = (long) (SUBDIVISOES + faixa % SUBDIVISOES) << (expoente - BITS_DE_SUBDIVISAO);
+        return inicio + (1L << (expoente - BITS_DE_SUBDIVISAO)) - 1;
+    }
+}
@@ -0,0 +1,521 @@
+package biblioteca;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Histórico dos empréstimos já devolvidos, guardado em disco fora do conjunto
+ * de empréstimos ativos.
+ *
+ * O histórico é dividido por mês da devolução, um diretório por mês
+ * ({@code historico/AAAA-MM}). A cada checkpoint, as devoluções acumuladas
+ * desde o anterior são gravadas como um lote numerado ({@code lote-N.seg});
+ * os lotes de meses já encerrados são depois compactados em um único
+ * {@code mes.seg}. Nenhum segmento é alterado depois de gravado.
+ *
+ * Cada segmento guarda uma tabela com os emails sem repetição, seguida dos
+ * registros com quatro inteiros: posição do email, ID da obra e os dias
+ * (epoch day) do empréstimo e da devolução.
+ *
+ * O número de um lote só passa a valer quando o estado salvo dos empréstimos
+ * que o referencia é gravado. Lotes com número maior que o último confirmado
+ * são sobras de um checkpoint interrompido: são ignorados na leitura e
+ * apagados na carga, e o próximo checkpoint os regrava com o mesmo número.
+ */
+class HistoricoDeEmprestimos {
+
+    private static final int ASSINATURA = 0x48495354; // "HIST"
+    private static final byte VERSAO = 1;
+    private static final String PREFIXO_LOTE = "lote-";
+    private static final String SEGMENTO_DO_MES = "mes.seg";
+    private static final String EXTENSAO = ".seg";
+    private static final int BYTES_POR_REGISTRO = 4 * 4;
+    private static final long INICIO_DA_IMPRESSAO = 0xcbf29ce484222325L;
+
+    private static final Comparator<Emprestimo> ORDEM = Comparator
+            .comparing(Emprestimo::getDataEntrega)
+            .thenComparing(Emprestimo::getEmailUsuario)
+            .thenComparingInt(Emprestimo::getIdObra);
+
+    private final File diretorio;
+    // Consultas usam a trava de leitura; só a compactação apaga segmentos
+    private final ReentrantReadWriteLock travaDosSegmentos = new ReentrantReadWriteLock();
+
+    /**
+     * Construtor da classe.
+     *
+     * @param nomeDiretorio Diretório onde os segmentos são gravados.
+     */
+    HistoricoDeEmprestimos(String nomeDiretorio) {
+        this.diretorio = new File(nomeDiretorio);
+    }
+
+    /**
+     * Grava as devoluções de um checkpoint como um lote, separado por mês.
+     *
+     * @param lote       Número do lote; deve ser maior que o último confirmado.
+     * @param devolvidos Empréstimos devolvidos desde o checkpoint anterior.
+     * @return A quantidade de bytes gravados.
+     */
+    long gravarLote(int lote, Collection<Emprestimo> devolvidos) throws IOException {
+        Map<YearMonth, List<Emprestimo>> porMes = new TreeMap<>();
+        for (Emprestimo e : devolvidos) {
+            porMes.computeIfAbsent(YearMonth.from(e.getDataEntrega()), k -> new ArrayList<>()).add(e);
+        }
+        long bytes = 0;
+        for (Map.Entry<YearMonth, List<Emprestimo>> mes : porMes.entrySet()) {
+            File pasta = pastaDo(mes.getKey());
+            pasta.mkdirs();
+            File segmento = new File(pasta, nomeDoLote(lote));
+            gravarSegmento(segmento, lote, mes.getValue());
+            bytes += segmento.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Apaga os lotes com número maior que o último confirmado, deixados por um
+     * checkpoint que não chegou a gravar o estado dos empréstimos.
+     *
+     * @param loteConfirmado Último lote referenciado pelo estado salvo.
+     */
+    void descartarLotesApos(int loteConfirmado) throws IOException {
+        for (File pasta : pastasDeMeses()) {
+            for (File arquivo : arquivos(pasta)) {
+                int lote = numeroDoLote(arquivo);
+                if (lote > loteConfirmado || arquivo.getName().endsWith(".tmp")) {
+                    Files.deleteIfExists(arquivo.toPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Junta em um único segmento os lotes confirmados de cada mês anterior ao
+     * atual. Se houver uma consulta em andamento, a compactação é adiada para
+     * o próximo checkpoint.
+     *
+     * @param loteConfirmado Último lote referenciado pelo estado salvo.
+     * @param mesAtual       Mês corrente, que ainda recebe lotes e não é compactado.
+     */
+    void compactar(int loteConfirmado, YearMonth mesAtual) throws IOException {
+        if (!travaDosSegmentos.writeLock().tryLock()) {
+            return;
+        }
+        try {
+            for (File pasta : pastasDeMeses()) {
+                if (!YearMonth.parse(pasta.getName()).isBefore(mesAtual)) {
+                    continue;
+                }
+                compactarMes(pasta, loteConfirmado);
+            }
+        } finally {
+            travaDosSegmentos.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Percorre as devoluções registradas entre duas datas. Somente os meses do
+     * intervalo são abertos, e um segmento por vez.
+     *
+     * @param de             Primeiro dia do intervalo, inclusive.
+     * @param ate            Último dia do intervalo, inclusive.
+     * @param loteConfirmado Último lote confirmado no momento da consulta.
+     * @param destino        Recebe cada empréstimo encontrado.
+     */
+    void percorrer(LocalDate de, LocalDate ate, int loteConfirmado, Consumer<Emprestimo> destino) throws IOException {
+        for (File segmento : segmentos(de, ate, loteConfirmado)) {
+            lerSegmento(segmento, e -> {
+                if (!e.getDataEntrega().isBefore(de) && !e.getDataEntrega().isAfter(ate)) {
+                    destino.accept(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Segmentos que podem conter devoluções entre duas datas: os dos meses do
+     * intervalo. Os registros de cada um ainda precisam ser filtrados pela
+     * data. Devem ser lidos com a trava de consulta.
+     *
+     * @param de             Primeiro dia do intervalo, inclusive.
+     * @param ate            Último dia do intervalo, inclusive.
+     * @param loteConfirmado Último lote confirmado no momento da consulta.
+     */
+    List<File> segmentos(LocalDate de, LocalDate ate, int loteConfirmado) throws IOException {
+        YearMonth primeiro = YearMonth.from(de);
+        YearMonth ultimo = YearMonth.from(ate);
+        List<File> segmentos = new ArrayList<>();
+        for (File pasta : pastasDeMeses()) {
+            YearMonth mes = YearMonth.parse(pasta.getName());
+            if (!mes.isBefore(primeiro) && !mes.isAfter(ultimo)) {
+                segmentos.addAll(segmentosValidos(pasta, loteConfirmado));
+            }
+        }
+        return segmentos;
+    }
+
+    /**
+     * Mapeia um segmento em memória para ler os seus registros diretamente,
+     * sem criar um {@link Emprestimo} por registro. Os registros têm tamanho
+     * fixo e podem ser lidos por várias threads ao mesmo tempo.
+     */
+    static SegmentoMapeado mapear(File segmento) throws IOException {
+        try (FileChannel canal = FileChannel.open(segmento.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer dados = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            if (dados.remaining() < 4 + 1 + 4 + 4 || dados.getInt() != ASSINATURA || dados.get() != VERSAO) {
+                throw new IOException("Segmento de histórico inválido: " + segmento.getPath());
+            }
+            dados.getInt(); // Lote
+            // Os emails não são decodificados; veja impressaoDoEmail
+            int[] inicioDosEmails = new int[dados.getInt()];
+            for (int i = 0; i < inicioDosEmails.length; i++) {
+                inicioDosEmails[i] = dados.position();
+                dados.position(dados.position() + 2 + (dados.getShort() & 0xFFFF));
+            }
+            int registros = dados.getInt();
+            if (dados.remaining() != (long) registros * BYTES_POR_REGISTRO) {
+                throw new IOException("Segmento de histórico incompleto: " + segmento.getPath());
+            }
+            return new SegmentoMapeado(dados.duplicate().clear(), inicioDosEmails, registros, dados.slice());
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Segmento de histórico incompleto: " + segmento.getPath(), e);
+        }
+    }
+
+    /**
+     * Impressão de 64 bits de um email, igual à que
+     * {@link SegmentoMapeado#impressaoDoEmail} calcula sobre os bytes gravados.
+     * Permite reconhecer os emails de um segmento sem decodificá-los.
+     */
+    static long impressaoDoEmail(String email) {
+        // Os mesmos bytes de DataOutputStream.writeUTF, sem o comprimento
+        long h = INICIO_DA_IMPRESSAO;
+        for (int i = 0; i < email.length(); i++) {
+            char c = email.charAt(i);
+            if (c >= 0x01 && c <= 0x7F) {
+                h = misturar(h, c);
+            } else if (c <= 0x7FF) {
+                h = misturar(misturar(h, 0xC0 | c >> 6), 0x80 | c & 0x3F);
+            } else {
+                h = misturar(misturar(misturar(h, 0xE0 | c >> 12), 0x80 | c >> 6 & 0x3F), 0x80 | c & 0x3F);
+            }
+        }
+        return h;
+    }
+
+    /**
+     * FNV-1a de 64 bits sobre os bytes de um texto gravado com
+     * {@link DataOutputStream#writeUTF}, sem o comprimento.
+     */
+    private static long impressao(ByteBuffer dados, int inicio) {
+        int fim = inicio + 2 + (dados.getShort(inicio) & 0xFFFF);
+        long h = INICIO_DA_IMPRESSAO;
+        for (int i = inicio + 2; i < fim; i++) {
+            h = misturar(h, dados.get(i) & 0xFF);
+        }
+        return h;
+    }
+
+    private static long misturar(long h, int b) {
+        return (h ^ b) * 0x100000001b3L;
+    }
+
+    /**
+     * Registros de um segmento mapeado em memória.
+     */
+    static final class SegmentoMapeado {
+
+        private final ByteBuffer arquivo;
+        private final int[] inicioDosEmails;
+        private final int registros;
+        private final ByteBuffer dados;
+
+        private SegmentoMapeado(ByteBuffer arquivo, int[] inicioDosEmails, int registros, ByteBuffer dados) {
+            this.arquivo = arquivo;
+            this.inicioDosEmails = inicioDosEmails;
+            this.registros = registros;
+            this.dados = dados;
+        }
+
+        /**
+         * Quantidade de emails do segmento, sem repetição; cada registro
+         * guarda a posição do seu.
+         */
+        int emails() {
+            return inicioDosEmails.length;
+        }
+
+        /**
+         * Veja {@link HistoricoDeEmprestimos#impressaoDoEmail(String)}.
+         */
+        long impressaoDoEmail(int posicao) {
+            return impressao(arquivo, inicioDosEmails[posicao]);
+        }
+
+        int registros() {
+            return registros;
+        }
+
+        /**
+         * Posição, entre os emails do segmento, do email do usuário do registro.
+         */
+        int posicaoDoEmail(int registro) {
+            return dados.getInt(registro * BYTES_POR_REGISTRO);
+        }
+
+        int idObra(int registro) {
+            return dados.getInt(registro * BYTES_POR_REGISTRO + 4);
+        }
+
+        /**
+         * Dia (epoch day) do empréstimo.
+         */
+        int diaDoEmprestimo(int registro) {
+            return dados.getInt(registro * BYTES_POR_REGISTRO + 8);
+        }
+
+        /**
+         * Dia (epoch day) da devolução.
+         */
+        int diaDaEntrega(int registro) {
+            return dados.getInt(registro * BYTES_POR_REGISTRO + 12);
+        }
+    }
+
+    /**
+     * Copia todos os segmentos para outra instância, cada um como o nome
+     * relativo ao diretório ({@code AAAA-MM/arquivo}), o tamanho e o conteúdo.
+     * Lotes ainda não confirmados também são copiados; quem os recebe os
+     * descarta na carga, como faria aqui. Deve ser chamado com a trava de
+     * consulta, para que a compactação não apague segmentos durante a cópia.
+     *
+     * @param out Destino da cópia, lida por {@link #restaurar}.
+     */
+    void copiar(DataOutputStream out) throws IOException {
+        List<File> segmentos = new ArrayList<>();
+        for (File pasta : pastasDeMeses()) {
+            for (File arquivo : arquivos(pasta)) {
+                if (arquivo.getName().endsWith(EXTENSAO)) {
+                    segmentos.add(arquivo);
+                }
+            }
+        }
+        out.writeInt(segmentos.size());
+        for (File segmento : segmentos) {
+            out.writeUTF(segmento.getParentFile().getName() + "/" + segmento.getName());
+            out.writeLong(segmento.length());
+            Files.copy(segmento.toPath(), out);
+        }
+    }
+
+    /**
+     * Substitui o histórico pelos segmentos copiados por {@link #copiar}.
+     *
+     * @param in Origem da cópia.
+     */
+    void restaurar(DataInputStream in) throws IOException {
+        for (File pasta : pastasDeMeses()) {
+            for (File arquivo : arquivos(pasta)) {
+                Files.delete(arquivo.toPath());
+            }
+        }
+        int quantidade = in.readInt();
+        for (int i = 0; i < quantidade; i++) {
+            String nome = in.readUTF();
+            long tamanho = in.readLong();
+            if (!nome.matches("\\d{4}-\\d{2}/[\\w.-]+")) {
+                throw new IOException("Segmento inválido na cópia do histórico: " + nome);
+            }
+            File segmento = new File(diretorio, nome);
+            segmento.getParentFile().mkdirs();
+            try (OutputStream destino = new BufferedOutputStream(new FileOutputStream(segmento))) {
+                byte[] buffer = new byte[1 << 16];
+                for (long restante = tamanho; restante > 0; ) {
+                    int lidos = in.read(buffer, 0, (int) Math.min(buffer.length, restante));
+                    if (lidos < 0) {
+                        throw new EOFException("Cópia do histórico incompleta");
+                    }
+                    destino.write(buffer, 0, lidos);
+                    restante -= lidos;
+                }
+            }
+        }
+    }
+
+    /**
+     * Trava que mantém os segmentos no lugar durante uma consulta.
+     */
+    ReentrantReadWriteLock.ReadLock travaDeConsulta() {
+        return travaDosSegmentos.readLock();
+    }
+
+    private void compactarMes(File pasta, int loteConfirmado) throws IOException {
+        List<File> segmentos = segmentosValidos(pasta, loteConfirmado);
+        boolean soOMes = segmentos.size() == 1 && segmentos.get(0).getName().equals(SEGMENTO_DO_MES);
+        if (segmentos.isEmpty() || soOMes) {
+            return;
+        }
+        int ultimoLote = 0;
+        List<Emprestimo> registros = new ArrayList<>();
+        for (File segmento : segmentos) {
+            ultimoLote = Math.max(ultimoLote, lerSegmento(segmento, registros::add));
+        }
+        registros.sort(ORDEM);
+        gravarSegmento(new File(pasta, SEGMENTO_DO_MES), ultimoLote, registros);
+        // O segmento do mês registra o último lote incluído, então lotes que
+        // sobrarem de uma interrupção aqui são ignorados na leitura
+        for (File segmento : segmentos) {
+            if (!segmento.getName().equals(SEGMENTO_DO_MES)) {
+                Files.deleteIfExists(segmento.toPath());
+            }
+        }
+    }
+
+    /**
+     * Segmentos de um mês que devem ser lidos: o segmento compactado, se
+     * existir, e os lotes confirmados que ainda não foram incluídos nele.
+     */
+    private List<File> segmentosValidos(File pasta, int loteConfirmado) throws IOException {
+        File doMes = new File(pasta, SEGMENTO_DO_MES);
+        int incluidos = doMes.exists() ? lerUltimoLote(doMes) : 0;
+        List<File> segmentos = new ArrayList<>();
+        if (doMes.exists()) {
+            segmentos.add(doMes);
+        }
+        for (File arquivo : arquivos(pasta)) {
+            int lote = numeroDoLote(arquivo);
+            if (lote > incluidos && lote <= loteConfirmado) {
+                segmentos.add(arquivo);
+            }
+        }
+        return segmentos;
+    }
+
+    private void gravarSegmento(File destino, int lote, List<Emprestimo> registros) throws IOException {
+        Map<String, Integer> posicaoDoEmail = new HashMap<>();
+        List<String> emails = new ArrayList<>();
+        for (Emprestimo e : registros) {
+            if (posicaoDoEmail.putIfAbsent(e.getEmailUsuario(), emails.size()) == null) {
+                emails.add(e.getEmailUsuario());
+            }
+        }
+        File temporario = new File(destino.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporario)))) {
+            out.writeInt(ASSINATURA);
+            out.writeByte(VERSAO);
+            out.writeInt(lote);
+            out.writeInt(emails.size());
+            for (String email : emails) {
+                out.writeUTF(email);
+            }
+            out.writeInt(registros.size());
+            for (Emprestimo e : registros) {
+                out.writeInt(posicaoDoEmail.get(e.getEmailUsuario()));
+                out.writeInt(e.getIdObra());
+                out.writeInt((int) e.getDataEmprestimo().toEpochDay());
+                out.writeInt((int) e.getDataEntrega().toEpochDay());
+            }
+        }
+        Files.move(temporario.toPath(), destino.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Lê um segmento inteiro.
+     *
+     * @return O número do último lote incluído no segmento.
+     */
+    private int lerSegmento(File segmento, Consumer<Emprestimo> destino) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmento)))) {
+            int lote = lerCabecalho(in, segmento);
+            String[] emails = new String[in.readInt()];
+            for (int i = 0; i < emails.length; i++) {
+                emails[i] = in.readUTF();
+            }
+            int registros = in.readInt();
+            for (int i = 0; i < registros; i++) {
+                String email = emails[in.readInt()];
+                int idObra = in.readInt();
+                LocalDate emprestimo = LocalDate.ofEpochDay(in.readInt());
+                LocalDate entrega = LocalDate.ofEpochDay(in.readInt());
+                destino.accept(new Emprestimo(email, idObra, emprestimo, entrega));
+            }
+            return lote;
+        }
+    }
+
+    private int lerUltimoLote(File segmento) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmento)))) {
+            return lerCabecalho(in, segmento);
+        }
+    }
+
+    private int lerCabecalho(DataInputStream in, File segmento) throws IOException {
+        if (in.readInt() != ASSINATURA || in.readByte() != VERSAO) {
+            throw new IOException("Segmento de histórico inválido: " + segmento.getPath());
+        }
+        return in.readInt();
+    }
+
+    private File pastaDo(YearMonth mes) {
+        return new File(diretorio, mes.toString());
+    }
+
+    /**
+     * Diretórios de meses existentes, em ordem cronológica.
+     */
+    private List<File> pastasDeMeses() {
+        File[] pastas = diretorio.listFiles(File::isDirectory);
+        List<File> meses = new ArrayList<>();
+        if (pastas != null) {
+            for (File pasta : pastas) {
+                if (pasta.getName().matches("\\d{4}-\\d{2}")) {
+                    meses.add(pasta);
+                }
+            }
+        }
+        meses.sort(Comparator.comparing(File::getName));
+        return meses;
+    }
+
+    private static File[] arquivos(File pasta) {
+        File[] arquivos = pasta.listFiles(File::isFile);
+        return arquivos == null ? new File[0] : arquivos;
+    }
+
+    private static String nomeDoLote(int lote) {
+        return PREFIXO_LOTE + lote + EXTENSAO;
+    }
+
+    /**
+     * Número do lote a partir do nome do arquivo, ou 0 se não for um lote.
+     */
+    private static int numeroDoLote(File arquivo) {
+        String nome = arquivo.getName();
+        if (!nome.startsWith(PREFIXO_LOTE) || !nome.endsWith(EXTENSAO)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(nome.substring(PREFIXO_LOTE.length(), nome.length() - EXTENSAO.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package biblioteca;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Importa um arquivo de empréstimos e devoluções exportado do balcão e o
+ * processa como um único lote, com {@link GerenciadorDeEmprestimos#processarLote}.
+ *
+ * Cada linha do arquivo é uma {@link TransacaoDeEmprestimo}; linhas em branco
+ * e linhas começando com '#' são ignoradas. Ao final, escreve o resultado de
+ * cada linha e um resumo com o tempo e a vazão.
+ *
+ * Deve ser usado com o sistema parado, já que grava diretamente os arquivos
+ * de dados.
+ */
+class ImportadorDeTransacoes {
+
+    private final GerenciadorDeUsuarios gerenciadorUsuarios;
+    private final GerenciadorDeEmprestimos gerenciadorEmprestimos;
+
+    ImportadorDeTransacoes(GerenciadorDeUsuarios gerenciadorUsuarios, GerenciadorDeEmprestimos gerenciadorEmprestimos) {
+        this.gerenciadorUsuarios = gerenciadorUsuarios;
+        this.gerenciadorEmprestimos = gerenciadorEmprestimos;
+    }
+
+    /**
+     * Lê e processa o arquivo, escrevendo os resultados no console.
+     *
+     * @param arquivo Arquivo com uma transação por linha, em UTF-8.
+     */
+    void importar(Path arquivo) throws IOException {
+        long inicio = System.nanoTime();
+        List<TransacaoDeEmprestimo> transacoes = new ArrayList<>();
+        // Número de cada linha lida e, para as que não puderam ser lidas, o erro
+        List<Integer> numeros = new ArrayList<>();
+        List<String> erros = new ArrayList<>();
+        int invalidas = 0;
+        try (BufferedReader br = Files.newBufferedReader(arquivo, StandardCharsets.UTF_8)) {
+            String linha;
+            int numero = 0;
+            while ((linha = br.readLine()) != null) {
+                numero++;
+                if (linha.isBlank() || linha.startsWith("#")) {
+                    continue;
+                }
+                numeros.add(numero);
+                try {
+                    transacoes.add(TransacaoDeEmprestimo.ler(linha));
+                    erros.add(null);
+                } catch (IllegalArgumentException e) {
+                    erros.add(e.getMessage());
+                    invalidas++;
+                }
+            }
+        }
+        long lido = System.nanoTime();
+
+        List<ResultadoDaTransacao> resultados = gerenciadorEmprestimos.processarLote(transacoes, gerenciadorUsuarios);
+        long processado = System.nanoTime();
+
+        Writer saida = new BufferedWriter(new OutputStreamWriter(System.out, System.out.charset()), 1 << 16);
+        int aplicadas = 0;
+        int proximoResultado = 0;
+        for (int i = 0; i < numeros.size(); i++) {
+            String mensagem = erros.get(i);
+            boolean sucesso = false;
+            if (mensagem == null) {
+                ResultadoDaTransacao resultado = resultados.get(proximoResultado++);
+                sucesso = resultado.sucesso();
+                mensagem = resultado.mensagem();
+            }
+            if (sucesso) {
+                aplicadas++;
+            }
+            saida.write("Linha " + numeros.get(i) + ": " + (sucesso ? "OK " : "ERRO ") + mensagem + "\n");
+        }
+        int total = numeros.size();
+        double segundos = (processado - inicio) / 1e9;
+        saida.write(String.format("%n%d transações: %d aplicadas, %d recusadas, %d inválidas%n",
+                total, aplicadas, transacoes.size() - aplicadas, invalidas));
+        saida.write(String.format("Leitura: %.1f ms | Processamento e gravação: %.1f ms | Vazão: %.0f transações/s%n",
+                (lido - inicio) / 1e6, (processado - lido) / 1e6, segundos > 0 ? total / segundos : 0.0));
+        saida.flush();
+    }
+}
@@ -0,0 +1,565 @@
+package biblioteca;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+/**
+ * Índice invertido sobre os títulos das obras. Cada título é dividido em
+ * termos normalizados (minúsculas e sem acentos), e cada termo aponta para a
+ * lista ordenada dos IDs das obras que o contêm.
+ *
+ * As consultas combinam todos os termos (E lógico), aceitam prefixos e
+ * retornam os resultados ordenados por relevância e paginados.
+ *
+ * Também serve a outros atributos de texto, como o autor, pelo
+ * {@link IndiceSecundario}.
+ */
+class IndiceDeTitulos {
+
+    private final TreeMap<String, ListaDeIds> postagens = new TreeMap<>();
+    // Quantidade de termos de cada título, por ID
+    private final IndicePorId termosPorId = new IndicePorId();
+    // Quantidade de títulos indexados com cada quantidade de termos
+    private int[] titulosPorTermos = new int[16];
+
+    /**
+     * Adiciona os termos do título ao índice.
+     *
+     * @param id     ID da obra.
+     * @param titulo Título da obra.
+     */
+    void indexar(int id, String titulo) {
+        List<String> termos = termos(titulo);
+        for (String termo : termos) {
+            postagens.computeIfAbsent(termo, t -> new ListaDeIds()).adicionar(id);
+        }
+        int anterior = termosPorId.posicaoDe(id);
+        if (anterior >= 0) {
+            contarTitulo(anterior, -1);
+        }
+        termosPorId.associar(id, termos.size());
+        contarTitulo(termos.size(), 1);
+    }
+
+    /**
+     * Remove os termos do título do índice.
+     *
+     * @param id     ID da obra.
+     * @param titulo Título com o qual a obra foi indexada.
+     */
+    void remover(int id, String titulo) {
+        for (String termo : termos(titulo)) {
+            ListaDeIds lista = postagens.get(termo);
+            if (lista != null && lista.remover(id) && lista.tamanho == 0) {
+                postagens.remove(termo);
+            }
+        }
+        int termos = termosPorId.posicaoDe(id);
+        if (termos >= 0) {
+            contarTitulo(termos, -1);
+            termosPorId.remover(id);
+        }
+    }
+
+    /**
+     * Remove todos os termos do índice.
+     */
+    void limpar() {
+        postagens.clear();
+        termosPorId.limpar();
+        Arrays.fill(titulosPorTermos, 0);
+    }
+
+    /**
+     * Escreve os termos, cada um com a sua lista de IDs, para que o índice
+     * seja restaurado sem dividir os títulos de novo.
+     */
+    void gravar(DataOutputStream out) throws IOException {
+        out.writeInt(postagens.size());
+        for (Map.Entry<String, ListaDeIds> postagem : postagens.entrySet()) {
+            InstantaneoDoSistema.escreverTexto(out, postagem.getKey());
+            ListaDeIds lista = postagem.getValue();
+            InstantaneoDoSistema.escreverInteiros(out, lista.ids, lista.tamanho);
+        }
+        termosPorId.gravar(out);
+    }
+
+    /**
+     * Substitui o conteúdo do índice pelo que foi gravado por {@link #gravar}.
+     *
+     * @throws IllegalArgumentException Se o conteúdo lido não for válido; nesse caso o índice não muda.
+     */
+    void restaurar(ByteBuffer dados) {
+        int quantidade = dados.getInt();
+        String[] termos = new String[quantidade];
+        ListaDeIds[] listas = new ListaDeIds[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            termos[i] = InstantaneoDoSistema.lerTexto(dados);
+            listas[i] = new ListaDeIds(InstantaneoDoSistema.lerInteiros(dados));
+        }
+        termosPorId.restaurar(dados);
+        postagens.clear();
+        for (int i = 0; i < quantidade; i++) {
+            postagens.put(termos[i], listas[i]);
+        }
+        Arrays.fill(titulosPorTermos, 0);
+        termosPorId.percorrerPosicoes(termosDoTitulo -> contarTitulo(termosDoTitulo, 1));
+    }
+
+    /**
+     * Busca as obras cujo título contém todos os termos da consulta. Um termo
+     * da consulta casa com qualquer termo do título que comece com ele; casamentos
+     * exatos valem mais na ordenação, seguidos de títulos mais curtos e do menor ID.
+     *
+     * @param consulta      Texto digitado pelo usuário.
+     * @param pagina        Número da página, começando em 0.
+     * @param tamanhoPagina Quantidade máxima de resultados por página.
+     * @return Os IDs da página solicitada, em ordem de relevância.
+     */
+    int[] buscar(String consulta, int pagina, int tamanhoPagina) {
+        return buscar(consulta, pagina, tamanhoPagina, null);
+    }
+
+    /**
+     * Como {@link #buscar(String, int, int)}, considerando só os IDs aceitos
+     * pelo filtro. O filtro é aplicado à interseção dos termos, antes da
+     * ordenação, então as páginas contam só os IDs aceitos.
+     *
+     * As listas dos termos são percorridas juntas, em ordem de ID, cada uma
+     * saltando direto para o próximo ID que pode estar em todas; as listas
+     * dos termos que casam com um prefixo são intercaladas durante o
+     * percurso, sem serem copiadas. Primeiro são percorridas só as listas dos
+     * termos exatos, cujos títulos vêm antes de todos os outros, e o percurso
+     * para assim que nenhum ID seguinte pode entrar nas páginas até a pedida.
+     *
+     * @param filtro IDs aceitos, ou null para aceitar todos.
+     */
+    int[] buscar(String consulta, int pagina, int tamanhoPagina, IntPredicate filtro) {
+        List<String> termosConsulta = termos(consulta);
+        if (termosConsulta.isEmpty() || pagina < 0 || tamanhoPagina <= 0) {
+            return new int[0];
+        }
+        // Mantém apenas os melhores resultados até o fim da página pedida
+        long limite = (long) (pagina + 1) * tamanhoPagina;
+        if (limite > Integer.MAX_VALUE) {
+            return new int[0];
+        }
+
+        int quantidade = termosConsulta.size();
+        ListaDeIds[] exatas = new ListaDeIds[quantidade];
+        List<Collection<ListaDeIds>> comPrefixo = new ArrayList<>(quantidade);
+        int termosExatos = 0;
+        for (int i = 0; i < quantidade; i++) {
+            String termo = termosConsulta.get(i);
+            Collection<ListaDeIds> faixa = postagens.subMap(termo, termo + Character.MAX_VALUE).values();
+            if (faixa.isEmpty()) {
+                return new int[0];
+            }
+            comPrefixo.add(faixa);
+            exatas[i] = postagens.get(termo);
+            if (exatas[i] != null) {
+                termosExatos++;
+            }
+        }
+
+        Melhores melhores = new Melhores((int) limite);
+        int menosTermos = menorQuantidadeDeTermos();
+        boolean todosExatos = termosExatos == quantidade;
+        if (todosExatos) {
+            Cursor[] cursores = new Cursor[quantidade];
+            for (int i = 0; i < quantidade; i++) {
+                cursores[i] = new Cursor(List.of(exatas[i]));
+            }
+            percorrerIntersecao(cursores, id -> {
+                if (melhores.completa(quantidade, menosTermos, id)) {
+                    return false;
+                }
+                if (filtro == null || filtro.test(id)) {
+                    melhores.oferecer(quantidade, termosPorId.posicaoDe(id), id);
+                }
+                return true;
+            });
+            if (melhores.cheia()) {
+                return melhores.pagina(pagina, tamanhoPagina);
+            }
+        }
+
+        // Os títulos com todos os termos exatos, se houver, já foram vistos
+        int maisExatos = todosExatos ? quantidade - 1 : termosExatos;
+        Cursor[] cursores = new Cursor[quantidade];
+        Cursor[] cursoresExatos = new Cursor[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            cursores[i] = new Cursor(comPrefixo.get(i));
+            cursoresExatos[i] = exatas[i] == null ? null : new Cursor(List.of(exatas[i]));
+        }
+        percorrerIntersecao(cursores, id -> {
+            if (melhores.completa(maisExatos, menosTermos, id)) {
+                return false;
+            }
+            int exatos = 0;
+            for (Cursor exato : cursoresExatos) {
+                if (exato != null && exato.avancar(id) == id) {
+                    exatos++;
+                }
+            }
+            if (exatos < quantidade && (filtro == null || filtro.test(id))) {
+                melhores.oferecer(exatos, termosPorId.posicaoDe(id), id);
+            }
+            return true;
+        });
+        return melhores.pagina(pagina, tamanhoPagina);
+    }
+
+    /**
+     * Entrega, em ordem crescente, os IDs presentes em todos os cursores,
+     * enquanto o destino pedir mais. Os cursores avançam em rodízio até o
+     * maior ID visto, de modo que os IDs que não estão em algum deles são
+     * pulados sem serem visitados.
+     */
+    private static void percorrerIntersecao(Cursor[] cursores, IntPredicate destino) {
+        // Os cursores menores saltam mais longe a cada avanço
+        Arrays.sort(cursores, Comparator.comparingLong(Cursor::tamanho));
+        long candidato = Integer.MIN_VALUE;
+        int iguais = 0;
+        for (int i = 0; ; i = (i + 1) % cursores.length) {
+            long id = cursores[i].avancar(candidato);
+            if (id == Cursor.FIM) {
+                return;
+            }
+            if (id > candidato) {
+                candidato = id;
+                iguais = 1;
+            } else {
+                iguais++;
+            }
+            if (iguais == cursores.length) {
+                if (!destino.test((int) candidato)) {
+                    return;
+                }
+                candidato++;
+                iguais = 0;
+            }
+        }
+    }
+
+    /**
+     * Menor quantidade de termos entre os títulos indexados; nenhum
+     * resultado tem título mais curto.
+     */
+    private int menorQuantidadeDeTermos() {
+        for (int termos = 0; termos < titulosPorTermos.length; termos++) {
+            if (titulosPorTermos[termos] > 0) {
+                return termos;
+            }
+        }
+        return 0;
+    }
+
+    private void contarTitulo(int termos, int diferenca) {
+        if (termos >= titulosPorTermos.length) {
+            titulosPorTermos = Arrays.copyOf(titulosPorTermos, Math.max(termos + 1, titulosPorTermos.length * 2));
+        }
+        titulosPorTermos[termos] += diferenca;
+    }
+
+    /**
+     * Divide um texto em termos normalizados: sem acentos, em minúsculas e
+     * separados por qualquer caractere que não seja letra ou dígito.
+     *
+     * @param texto Texto a ser dividido.
+     * @return Lista de termos, na ordem em que aparecem.
+     */
+    static List<String> termos(String texto) {
+        List<String> termos = new ArrayList<>();
+        if (texto == null) {
+            return termos;
+        }
+        String decomposto = Normalizer.normalize(texto, Normalizer.Form.NFD);
+        StringBuilder atual = new StringBuilder();
+        for (int i = 0; i < decomposto.length(); i++) {
+            char c = decomposto.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue; // Acento separado da letra pela decomposição
+            }
+            if (Character.isLetterOrDigit(c)) {
+                atual.append(c);
+            } else if (atual.length() > 0) {
+                termos.add(atual.toString().toLowerCase(Locale.ROOT));
+                atual.setLength(0);
+            }
+        }
+        if (atual.length() > 0) {
+            termos.add(atual.toString().toLowerCase(Locale.ROOT));
+        }
+        return termos;
+    }
+
+    /**
+     * Os melhores resultados vistos até agora, até o limite pedido, numa fila
+     * de prioridade sobre um array de longs: cada resultado é uma chave
+     * numérica que já compara por relevância, sem um objeto por resultado.
+     */
+    private static final class Melhores {
+
+        private final int limite;
+        // Heap binário com o pior resultado na raiz
+        private long[] chaves;
+        private int tamanho;
+
+        Melhores(int limite) {
+            this.limite = limite;
+            this.chaves = new long[Math.min(limite, 1024)];
+        }
+
+        /**
+         * Chave maior para o resultado mais relevante: mais termos exatos,
+         * título com menos termos e menor ID, nessa ordem.
+         */
+        static long chave(int exatos, int termosTitulo, int id) {
+            long exatosLimitados = Math.min(Math.max(exatos, 0), 0x7FFF);
+            long termosLimitados = Math.min(Math.max(termosTitulo, 0), 0xFFFF);
+            return exatosLimitados << 48 | (0xFFFF - termosLimitados) << 32
+                    | 0xFFFFFFFFL - Integer.toUnsignedLong(id ^ Integer.MIN_VALUE);
+        }
+
+        static int id(long chave) {
+            return (int) (0xFFFFFFFFL - (chave & 0xFFFFFFFFL)) ^ Integer.MIN_VALUE;
+        }
+
+        boolean cheia() {
+            return tamanho == limite;
+        }
+
+        /**
+         * Se nenhum resultado com no máximo esses termos exatos, com título de
+         * pelo menos essa quantidade de termos e ID a partir desse ainda
+         * entraria.
+         */
+        boolean completa(int maisExatos, int menosTermos, int id) {
+            return cheia() && chaves[0] > chave(maisExatos, menosTermos, id);
+        }
+
+        void oferecer(int exatos, int termosTitulo, int id) {
+            long chave = chave(exatos, termosTitulo, id);
+            if (tamanho < limite) {
+                if (tamanho == chaves.length) {
+                    chaves = Arrays.copyOf(chaves, (int) Math.min((long) limite, tamanho * 2L));
+                }
+                int i = tamanho++;
+                while (i > 0 && chaves[(i - 1) / 2] > chave) {
+                    chaves[i] = chaves[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                chaves[i] = chave;
+            } else if (chave > chaves[0]) {
+                descer(chave);
+            }
+        }
+
+        // Substitui a raiz pela chave e a leva para baixo até o seu lugar
+        private void descer(long chave) {
+            int i = 0;
+            while (true) {
+                int filho = 2 * i + 1;
+                if (filho >= tamanho) {
+                    break;
+                }
+                if (filho + 1 < tamanho && chaves[filho + 1] < chaves[filho]) {
+                    filho++;
+                }
+                if (chaves[filho] >= chave) {
+                    break;
+                }
+                chaves[i] = chaves[filho];
+                i = filho;
+            }
+            chaves[i] = chave;
+        }
+
+        /**
+         * Os IDs da página, do mais relevante para o menos relevante.
+         */
+        int[] pagina(int pagina, int tamanhoPagina) {
+            long[] ordenadas = Arrays.copyOf(chaves, tamanho);
+            Arrays.sort(ordenadas);
+            int quantidade = (int) Math.max(0, tamanho - (long) pagina * tamanhoPagina);
+            int[] ids = new int[quantidade];
+            for (int i = 0; i < quantidade; i++) {
+                ids[i] = id(ordenadas[quantidade - 1 - i]);
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Percorre em ordem crescente a união de listas ordenadas de IDs, saltando
+     * direto para o primeiro ID maior ou igual a um alvo. Cada lista salta por
+     * busca exponencial a partir da sua posição atual, e uma fila de
+     * prioridade sobre o ID atual de cada lista dá o menor deles.
+     */
+    private static final class Cursor {
+
+        static final long FIM = Long.MAX_VALUE;
+
+        private final ListaDeIds[] listas;
+        private final int[] posicoes;
+        // Heap binário dos índices das listas não esgotadas, pelo ID atual
+        private final int[] fila;
+        private int naFila;
+        private final long tamanho;
+
+        Cursor(Collection<ListaDeIds> listas) {
+            this.listas = listas.toArray(new ListaDeIds[0]);
+            this.posicoes = new int[this.listas.length];
+            this.fila = new int[this.listas.length];
+            long total = 0;
+            for (int i = 0; i < this.listas.length; i++) {
+                total += this.listas[i].tamanho;
+                if (this.listas[i].tamanho > 0) {
+                    fila[naFila++] = i;
+                }
+            }
+            this.tamanho = total;
+            for (int i = naFila / 2 - 1; i >= 0; i--) {
+                descer(i);
+            }
+        }
+
+        long tamanho() {
+            return tamanho;
+        }
+
+        /**
+         * Avança até o primeiro ID maior ou igual ao alvo.
+         *
+         * @return Esse ID, ou {@link #FIM} se não houver nenhum.
+         */
+        long avancar(long alvo) {
+            if (alvo > Integer.MAX_VALUE) {
+                naFila = 0;
+            }
+            while (naFila > 0) {
+                int lista = fila[0];
+                int atual = atual(lista);
+                if (atual >= alvo) {
+                    return atual;
+                }
+                posicoes[lista] = saltar(listas[lista], posicoes[lista], (int) alvo);
+                if (posicoes[lista] == listas[lista].tamanho) {
+                    fila[0] = fila[--naFila];
+                }
+                descer(0);
+            }
+            return FIM;
+        }
+
+        private int atual(int lista) {
+            return listas[lista].ids[posicoes[lista]];
+        }
+
+        private void descer(int i) {
+            int lista = fila[i];
+            int id = i < naFila ? atual(lista) : 0;
+            while (true) {
+                int filho = 2 * i + 1;
+                if (filho >= naFila) {
+                    break;
+                }
+                if (filho + 1 < naFila && atual(fila[filho + 1]) < atual(fila[filho])) {
+                    filho++;
+                }
+                if (atual(fila[filho]) >= id) {
+                    break;
+                }
+                fila[i] = fila[filho];
+                i = filho;
+            }
+            fila[i] = lista;
+        }
+
+        /**
+         * Posição do primeiro ID maior ou igual ao alvo, a partir de uma
+         * posição cujo ID é menor que ele: dobra o salto até passar do alvo e
+         * então faz uma busca binária no último intervalo.
+         */
+        private static int saltar(ListaDeIds lista, int inicio, int alvo) {
+            int[] ids = lista.ids;
+            int baixo = inicio + 1;
+            int salto = 1;
+            int alto = baixo;
+            while (alto < lista.tamanho && ids[alto] < alvo) {
+                baixo = alto + 1;
+                salto *= 2;
+                alto = (int) Math.min((long) baixo + salto, lista.tamanho);
+            }
+            int posicao = Arrays.binarySearch(ids, baixo, Math.min(alto + 1, lista.tamanho), alvo);
+            return posicao >= 0 ? posicao : -posicao - 1;
+        }
+    }
+
+    /**
+     * Lista ordenada de IDs sobre um array de inteiros primitivos. Como o acervo
+     * costuma ser carregado em ordem de ID, as inclusões são quase sempre no fim.
+     */
+    private static final class ListaDeIds {
+
+        private int[] ids;
+        private int tamanho;
+
+        ListaDeIds() {
+            this.ids = new int[4];
+        }
+
+        /**
+         * Lista com os IDs informados, que já devem estar ordenados.
+         */
+        ListaDeIds(int[] ids) {
+            this.ids = ids.length == 0 ? new int[4] : ids;
+            this.tamanho = ids.length;
+        }
+
+        void adicionar(int id) {
+            if (tamanho > 0 && ids[tamanho - 1] < id) {
+                garantirCapacidade();
+                ids[tamanho++] = id;
+                return;
+            }
+            int posicao = Arrays.binarySearch(ids, 0, tamanho, id);
+            if (posicao >= 0) {
+                return;
+            }
+            posicao = -posicao - 1;
+            garantirCapacidade();
+            System.arraycopy(ids, posicao, ids, posicao + 1, tamanho - posicao);
+            ids[posicao] = id;
+            tamanho++;
+        }
+
+        boolean remover(int id) {
+            int posicao = Arrays.binarySearch(ids, 0, tamanho, id);
+            if (posicao < 0) {
+                return false;
+            }
+            System.arraycopy(ids, posicao + 1, ids, posicao, tamanho - posicao - 1);
+            tamanho--;
+            return true;
+        }
+
+        private void garantirCapacidade() {
+            if (tamanho == ids.length) {
+                ids = Arrays.copyOf(ids, tamanho * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package biblioteca;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Índice primário que associa o ID de uma obra à sua posição na lista do
+ * acervo. Usa endereçamento aberto com sondagem linear sobre arrays de
+ * inteiros primitivos, de modo que as consultas são O(1) e não alocam objetos.
+ * Também serve para associar IDs a qualquer outro valor inteiro não negativo.
+ *
+ * As alterações exigem acesso exclusivo, mas {@link #posicaoDe(int)} pode ser
+ * chamado ao mesmo tempo que elas, numa leitura otimista que será descartada:
+ * os dois arrays são trocados juntos, já preenchidos, por uma única escrita
+ * volátil, e a sondagem nunca passa da capacidade da tabela. Uma consulta
+ * concorrente pode dar um resultado errado, mas sempre termina.
+ */
+class IndicePorId {
+
+    private static final int VAZIO = -1;
+    private static final int CAPACIDADE_INICIAL = 16;
+
+    private record Tabela(int[] chaves, int[] posicoes) {
+    }
+
+    private volatile Tabela tabela;
+    private int tamanho;
+    private int limite;
+
+    /**
+     * Construtor que cria um índice vazio.
+     */
+    IndicePorId() {
+        alocar(CAPACIDADE_INICIAL);
+    }
+
+    /**
+     * Associa um ID a uma posição, substituindo a associação anterior se houver.
+     *
+     * @param id      ID da obra.
+     * @param posicao Posição da obra na lista do acervo (não negativa).
+     */
+    void associar(int id, int posicao) {
+        if (tamanho >= limite) {
+            redimensionar(tabela.chaves().length * 2);
+        }
+        Tabela t = tabela;
+        int i = localizar(t, id);
+        if (t.posicoes()[i] == VAZIO) {
+            t.chaves()[i] = id;
+            tamanho++;
+        }
+        t.posicoes()[i] = posicao;
+    }
+
+    /**
+     * Retorna a posição associada ao ID.
+     *
+     * @param id ID da obra.
+     * @return A posição na lista do acervo, ou -1 se o ID não estiver indexado.
+     */
+    int posicaoDe(int id) {
+        Tabela t = tabela;
+        int i = localizar(t, id);
+        return i < 0 ? VAZIO : t.posicoes()[i];
+    }
+
+    /**
+     * Remove a associação de um ID, reorganizando o agrupamento seguinte para
+     * que as sondagens lineares continuem corretas.
+     *
+     * @param id ID da obra.
+     */
+    void remover(int id) {
+        Tabela t = tabela;
+        int[] chaves = t.chaves();
+        int[] posicoes = t.posicoes();
+        int i = localizar(t, id);
+        if (posicoes[i] == VAZIO) {
+            return;
+        }
+        int mascara = chaves.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mascara;
+            if (posicoes[j] == VAZIO) {
+                break;
+            }
+            int ideal = espalhar(chaves[j]) & mascara;
+            // Move o elemento j para a lacuna i se i estiver entre sua posição ideal e j
+            if (((j - ideal) & mascara) >= ((j - i) & mascara)) {
+                chaves[i] = chaves[j];
+                posicoes[i] = posicoes[j];
+                i = j;
+            }
+        }
+        posicoes[i] = VAZIO;
+        tamanho--;
+    }
+
+    /**
+     * Remove todas as associações.
+     */
+    void limpar() {
+        alocar(tabela.chaves().length);
+    }
+
+    int tamanho() {
+        return tamanho;
+    }
+
+    /**
+     * Entrega a posição de cada ID indexado, em qualquer ordem.
+     */
+    void percorrerPosicoes(IntConsumer destino) {
+        int[] posicoes = tabela.posicoes();
+        for (int posicao : posicoes) {
+            if (posicao != VAZIO) {
+                destino.accept(posicao);
+            }
+        }
+    }
+
+    /**
+     * Escreve a tabela como está, para ser restaurada sem reinserir os IDs.
+     */
+    void gravar(DataOutputStream out) throws IOException {
+        Tabela t = tabela;
+        out.writeInt(tamanho);
+        InstantaneoDoSistema.escreverInteiros(out, t.chaves(), t.chaves().length);
+        InstantaneoDoSistema.escreverInteiros(out, t.posicoes(), t.posicoes().length);
+    }
+
+    /**
+     * Substitui o conteúdo do índice pela tabela gravada por {@link #gravar}.
+     *
+     * @throws IllegalArgumentException Se a tabela lida não for válida; nesse caso o índice não muda.
+     */
+    void restaurar(ByteBuffer dados) {
+        int quantidade = dados.getInt();
+        int[] novasChaves = InstantaneoDoSistema.lerInteiros(dados);
+        int[] novasPosicoes = InstantaneoDoSistema.lerInteiros(dados);
+        int capacidade = novasChaves.length;
+        if (capacidade == 0 || Integer.bitCount(capacidade) != 1 || novasPosicoes.length != capacidade
+                || quantidade < 0 || quantidade > capacidade / 2) {
+            throw new IllegalArgumentException("Tabela do índice por ID inválida.");
+        }
+        tabela = new Tabela(novasChaves, novasPosicoes);
+        tamanho = quantidade;
+        limite = capacidade / 2;
+    }
+
+    /**
+     * Procura o ID por sondagem linear.
+     *
+     * @return A posição do ID na tabela ou, se ele não estiver lá, a da
+     *         primeira entrada vazia; -1 se a tabela inteira foi percorrida
+     *         sem achar nenhuma das duas, o que só acontece numa leitura
+     *         concorrente com uma alteração.
+     */
+    private static int localizar(Tabela t, int id) {
+        int[] chaves = t.chaves();
+        int[] posicoes = t.posicoes();
+        int mascara = chaves.length - 1;
+        int i = espalhar(id) & mascara;
+        for (int sondagens = 0; sondagens < chaves.length; sondagens++) {
+            if (posicoes[i] == VAZIO || chaves[i] == id) {
+                return i;
+            }
+            i = (i + 1) & mascara;
+        }
+        return -1;
+    }
+
+    private static int espalhar(int id) {
+        int h = id * 0x9E3779B9; // Espalha IDs sequenciais pela tabela
+        return h ^ (h >>> 16);
+    }
+
+    private void alocar(int capacidade) {
+        tabela = novaTabela(capacidade);
+        limite = capacidade / 2; // Fator de carga máximo de 50%
+        tamanho = 0;
+    }
+
+    private static Tabela novaTabela(int capacidade) {
+        int[] posicoes = new int[capacidade];
+        Arrays.fill(posicoes, VAZIO);
+        return new Tabela(new int[capacidade], posicoes);
+    }
+
+    private void redimensionar(int novaCapacidade) {
+        Tabela antiga = tabela;
+        // A nova tabela só é publicada depois de preenchida
+        Tabela nova = novaTabela(novaCapacidade);
+        for (int i = 0; i < antiga.chaves().length; i++) {
+            if (antiga.posicoes()[i] != VAZIO) {
+                int j = localizar(nova, antiga.chaves()[i]);
+                nova.chaves()[j] = antiga.chaves()[i];
+                nova.posicoes()[j] = antiga.posicoes()[i];
+            }
+        }
+        tabela = nova;
+        limite = novaCapacidade / 2;
+    }
+}
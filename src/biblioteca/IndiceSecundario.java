@@ -0,0 +1,82 @@
+package biblioteca;
+
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+
+/**
+ * Índice de um atributo de texto das obras além do título, como o autor,
+ * com a mesma busca por termos do {@link IndiceDeTitulos}. O valor indexado
+ * de cada obra vem de uma função sobre a obra, informada ao registrar o
+ * índice no {@link GerenciadorDeObras}.
+ *
+ * O índice só é montado na primeira busca, percorrendo o acervo; até lá,
+ * inclusões e alterações não custam nada a ele. Quem o usa deve segurar a
+ * trava do acervo: a de escrita para montar e alterar, e a de leitura para
+ * buscar.
+ */
+final class IndiceSecundario {
+
+    private final String nome;
+    private final Function<Obra, String> atributo;
+    private final IndiceDeTitulos termos = new IndiceDeTitulos();
+    private volatile boolean montado;
+
+    /**
+     * Construtor da classe.
+     *
+     * @param nome     Nome do índice, usado nas buscas.
+     * @param atributo Valor indexado de cada obra.
+     */
+    IndiceSecundario(String nome, Function<Obra, String> atributo) {
+        this.nome = nome;
+        this.atributo = atributo;
+    }
+
+    String nome() {
+        return nome;
+    }
+
+    boolean montado() {
+        return montado;
+    }
+
+    /**
+     * Indexa a obra, se o índice já estiver montado.
+     */
+    void indexar(Obra obra) {
+        if (montado) {
+            termos.indexar(obra.getId(), atributo.apply(obra));
+        }
+    }
+
+    /**
+     * Remove a obra com o valor que ela tem agora, se o índice já estiver
+     * montado. Deve ser chamado antes de a obra ser alterada.
+     */
+    void remover(Obra obra) {
+        if (montado) {
+            termos.remover(obra.getId(), atributo.apply(obra));
+        }
+    }
+
+    /**
+     * Indexa uma obra durante a montagem, antes de {@link #concluirMontagem()}.
+     */
+    void indexarNaMontagem(Obra obra) {
+        termos.indexar(obra.getId(), atributo.apply(obra));
+    }
+
+    void concluirMontagem() {
+        montado = true;
+    }
+
+    /**
+     * Busca as obras cujo atributo contém todos os termos da consulta, como
+     * {@link IndiceDeTitulos#buscar(String, int, int, IntPredicate)}.
+     *
+     * @return Os IDs da página solicitada, em ordem de relevância.
+     */
+    int[] buscar(String consulta, int pagina, int tamanhoPagina, IntPredicate filtro) {
+        return termos.buscar(consulta, pagina, tamanhoPagina, filtro);
+    }
+}
@@ -0,0 +1,452 @@
+package biblioteca;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32C;
+
+/**
+ * Instantâneo (snapshot) binário do sistema inteiro: usuários, acervo, com os
+ * seus índices, e empréstimos, em um único arquivo que é mapeado em memória na
+ * partida. Carregar uma seção é copiar blocos do arquivo, sem interpretar
+ * texto nem reconstruir índices, o que torna a partida muito mais rápida que a
+ * leitura dos arquivos de cada gerenciador.
+ *
+ * <pre>
+ * int    assinatura "BSNP"
+ * short  versão
+ * int    quantidade de seções, seguida de cada uma:
+ *        byte tipo, long início, long tamanho, int CRC-32C do conteúdo
+ * int    CRC-32C do cabeçalho
+ * seções
+ * </pre>
+ *
+ * O instantâneo não substitui os arquivos de cada gerenciador, que continuam
+ * sendo gravados como antes. Cada seção começa com a identificação do arquivo
+ * principal do gerenciador (tamanho, data de modificação e identificador no
+ * sistema de arquivos) e com a posição no arquivo de registros (diário ou
+ * alterações) até onde a seção já inclui. A seção só é usada se o arquivo
+ * principal ainda for o mesmo; nesse caso, basta reaplicar os registros a
+ * partir daquela posição. Se o arquivo não existir, se o CRC não conferir ou
+ * se a seção estiver desatualizada, o gerenciador lê os seus próprios
+ * arquivos, e um novo instantâneo é gravado em seguida.
+ *
+ * O arquivo é regravado em segundo plano depois de cada checkpoint de um dos
+ * gerenciadores; a gravação é feita em um temporário, renomeado no final.
+ */
+public final class InstantaneoDoSistema {
+
+    public static final String ARQUIVO = "biblioteca.snap";
+
+    static final byte USUARIOS = 1;
+    static final byte ACERVO = 2;
+    static final byte EMPRESTIMOS = 3;
+    private static final byte[] TIPOS = {USUARIOS, ACERVO, EMPRESTIMOS};
+
+    private static final int ASSINATURA = 0x42534E50; // "BSNP"
+    private static final short VERSAO = 3;
+    private static final int BYTES_POR_SECAO = 1 + 8 + 8 + 4;
+    // Escrita por escreverIdentificacao no início de cada seção
+    private static final int TAMANHO_DA_IDENTIFICACAO = 8 + 8 + 4 + 8;
+    private static final int TAMANHO_DO_CABECALHO = 4 + 2 + 4 + TIPOS.length * BYTES_POR_SECAO + 4;
+    private static final int TAMANHO_DO_BUFFER = 1 << 16;
+
+    private final Path arquivo;
+    // Seções válidas lidas na partida; descartadas depois que os gerenciadores carregam
+    private final Map<Byte, Secao> secoes = new HashMap<>();
+    private boolean desatualizado;
+    private final AtomicBoolean gravacaoAgendada = new AtomicBoolean();
+    private final ExecutorService gravacoes = Executors.newSingleThreadExecutor(tarefa -> {
+        Thread thread = new Thread(tarefa, "instantaneo");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private GerenciadorDeUsuarios gerenciadorUsuarios;
+    private GerenciadorDeObras gerenciadorObras;
+    private GerenciadorDeEmprestimos gerenciadorEmprestimos;
+
+    /**
+     * Uma seção do instantâneo, já verificada pelo CRC.
+     */
+    static final class Secao {
+
+        private final Impressao impressao;
+        private final long posicaoNoRegistro;
+        private final ByteBuffer dados;
+
+        private Secao(Impressao impressao, long posicaoNoRegistro, ByteBuffer dados) {
+            this.impressao = impressao;
+            this.posicaoNoRegistro = posicaoNoRegistro;
+            this.dados = dados;
+        }
+
+        /**
+         * Seção recebida de outra instância, que não se refere a nenhum
+         * arquivo local.
+         */
+        private Secao(ByteBuffer dados) {
+            this(null, 0, dados);
+        }
+
+        /**
+         * Indica se a seção corresponde ao arquivo principal atual e se o
+         * arquivo de registros ainda contém tudo o que a seção já incluiu.
+         *
+         * @param principal Arquivo principal do gerenciador.
+         * @param registros Diário ou arquivo de alterações do gerenciador.
+         */
+        boolean corresponde(Path principal, Path registros) throws IOException {
+            if (impressao == null) {
+                return true;
+            }
+            if (!impressao.equals(Impressao.de(principal))) {
+                return false;
+            }
+            return posicaoNoRegistro == 0 || Files.exists(registros) && Files.size(registros) >= posicaoNoRegistro;
+        }
+
+        /**
+         * Indica se a seção veio de outra instância (veja {@link #deSecoes}).
+         */
+        boolean deOutraInstancia() {
+            return impressao == null;
+        }
+
+        /**
+         * Lê dos dados a identificação de mais um par de arquivos do
+         * gerenciador, escrita com {@link #escreverIdentificacao}, para
+         * gerenciadores com mais de um arquivo principal. Numa seção de outra
+         * instância, a identificação lida também não se refere a nenhum
+         * arquivo local.
+         *
+         * @return Uma seção sem dados, só para {@link #corresponde} e
+         *         {@link #posicaoNoRegistro()}.
+         */
+        Secao identificacaoSeguinte(ByteBuffer dados) {
+            Impressao lida = new Impressao(dados.getLong(), dados.getLong(), dados.getInt());
+            long posicao = dados.getLong();
+            return impressao == null ? new Secao(null, 0, null) : new Secao(lida, posicao, null);
+        }
+
+        /**
+         * Posição no arquivo de registros a partir da qual os registros ainda
+         * precisam ser reaplicados.
+         */
+        long posicaoNoRegistro() {
+            return posicaoNoRegistro;
+        }
+
+        /**
+         * Conteúdo da seção, em ordem big-endian.
+         */
+        ByteBuffer dados() {
+            return dados;
+        }
+    }
+
+    /**
+     * Identificação de um arquivo: muda sempre que ele é regravado, já que as
+     * gravações usam um temporário renomeado.
+     */
+    private record Impressao(long tamanho, long modificadoEm, int chave) {
+
+        static final Impressao AUSENTE = new Impressao(-1, 0, 0);
+
+        static Impressao de(Path arquivo) throws IOException {
+            try {
+                BasicFileAttributes atributos = Files.readAttributes(arquivo, BasicFileAttributes.class);
+                Object chave = atributos.fileKey();
+                long modificado = atributos.lastModifiedTime().toInstant().getEpochSecond() * 1_000_000_000L
+                        + atributos.lastModifiedTime().toInstant().getNano();
+                return new Impressao(atributos.size(), modificado, chave == null ? 0 : chave.hashCode());
+            } catch (NoSuchFileException e) {
+                return AUSENTE;
+            }
+        }
+    }
+
+    private InstantaneoDoSistema(Path arquivo) {
+        this.arquivo = arquivo;
+    }
+
+    /**
+     * Cria um instantâneo com seções recebidas de outra instância, como a
+     * imagem enviada pelo {@link LiderDeReplicacao}. As seções correspondem a
+     * qualquer arquivo, e nenhum registro é reaplicado depois delas; o
+     * diretório de trabalho não deve ter os arquivos dos gerenciadores.
+     *
+     * @param conteudos Conteúdo de cada seção, como escrito pelos
+     *                  gerenciadores, por tipo.
+     */
+    static InstantaneoDoSistema deSecoes(Map<Byte, byte[]> conteudos) {
+        InstantaneoDoSistema instantaneo = new InstantaneoDoSistema(Path.of(ARQUIVO));
+        conteudos.forEach((tipo, conteudo) -> {
+            // A identificação dos arquivos de origem não vale aqui
+            ByteBuffer dados = ByteBuffer.wrap(conteudo);
+            dados.position(TAMANHO_DA_IDENTIFICACAO);
+            instantaneo.secoes.put(tipo, new Secao(dados.slice()));
+        });
+        return instantaneo;
+    }
+
+    /**
+     * Abre o instantâneo do diretório de trabalho e verifica o cabeçalho e o
+     * CRC de cada seção. Nunca falha: se o arquivo não existir ou estiver
+     * corrompido, o instantâneo volta vazio e os gerenciadores leem os seus
+     * próprios arquivos.
+     */
+    public static InstantaneoDoSistema abrir() {
+        InstantaneoDoSistema instantaneo = new InstantaneoDoSistema(Path.of(ARQUIVO));
+        instantaneo.ler();
+        return instantaneo;
+    }
+
+    /**
+     * Retorna uma seção válida pelo CRC, ou null se ela não puder ser usada.
+     * Se a seção não existir, o instantâneo é marcado para ser regravado.
+     *
+     * @param tipo {@link #USUARIOS}, {@link #ACERVO} ou {@link #EMPRESTIMOS}.
+     */
+    Secao secao(byte tipo) {
+        Secao secao = secoes.get(tipo);
+        if (secao == null) {
+            desatualizado = true;
+        }
+        return secao;
+    }
+
+    /**
+     * Informa que uma seção estava desatualizada e os arquivos do gerenciador
+     * foram lidos no lugar dela.
+     */
+    void descartar(byte tipo) {
+        secoes.remove(tipo);
+        desatualizado = true;
+    }
+
+    /**
+     * Passa a regravar o instantâneo depois de cada checkpoint dos
+     * gerenciadores, e o grava já, em segundo plano, se algum deles não pôde
+     * usar o instantâneo na partida. Libera as seções lidas, que não são mais
+     * necessárias.
+     */
+    public void acompanhar(GerenciadorDeUsuarios gerenciadorUsuarios, GerenciadorDeObras gerenciadorObras,
+            GerenciadorDeEmprestimos gerenciadorEmprestimos) {
+        this.gerenciadorUsuarios = gerenciadorUsuarios;
+        this.gerenciadorObras = gerenciadorObras;
+        this.gerenciadorEmprestimos = gerenciadorEmprestimos;
+        secoes.clear();
+        gerenciadorUsuarios.aoSalvar(this::agendarGravacao);
+        gerenciadorObras.aoSalvar(this::agendarGravacao);
+        gerenciadorEmprestimos.aoSalvar(this::agendarGravacao);
+        if (desatualizado) {
+            agendarGravacao();
+        }
+    }
+
+    /**
+     * Agenda uma gravação em segundo plano. Pedidos feitos enquanto uma
+     * gravação ainda espera na fila são atendidos por ela.
+     */
+    private void agendarGravacao() {
+        if (gravacaoAgendada.compareAndSet(false, true)) {
+            gravacoes.execute(() -> {
+                gravacaoAgendada.set(false);
+                gravar();
+            });
+        }
+    }
+
+    /**
+     * Grava o instantâneo com o estado atual dos gerenciadores acompanhados.
+     */
+    synchronized void gravar() {
+        long inicio = System.nanoTime();
+        Path temporario = Path.of(arquivo + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer cabecalho = ByteBuffer.allocate(TAMANHO_DO_CABECALHO);
+            cabecalho.putInt(ASSINATURA).putShort(VERSAO).putInt(TIPOS.length);
+            canal.position(TAMANHO_DO_CABECALHO);
+            for (byte tipo : TIPOS) {
+                long posicao = canal.position();
+                CRC32C crc = new CRC32C();
+                // Não fecha o fluxo: o canal continua sendo usado pelas outras seções
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new SaidaComCrc(Channels.newOutputStream(canal), crc), TAMANHO_DO_BUFFER));
+                switch (tipo) {
+                    case USUARIOS -> gerenciadorUsuarios.escreverNoInstantaneo(out);
+                    case ACERVO -> gerenciadorObras.escreverNoInstantaneo(out);
+                    default -> gerenciadorEmprestimos.escreverNoInstantaneo(out);
+                }
+                out.flush();
+                cabecalho.put(tipo).putLong(posicao).putLong(canal.position() - posicao).putInt((int) crc.getValue());
+            }
+            CRC32C crcDoCabecalho = new CRC32C();
+            crcDoCabecalho.update(cabecalho.array(), 0, cabecalho.position());
+            cabecalho.putInt((int) crcDoCabecalho.getValue());
+            cabecalho.flip();
+            canal.position(0);
+            while (cabecalho.hasRemaining()) {
+                canal.write(cabecalho);
+            }
+            canal.force(false);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Erro ao gravar o instantâneo do sistema: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temporario, arquivo, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Metricas.registrarBytes(Metricas.Operacao.SALVAR_INSTANTANEO, Files.size(arquivo));
+        } catch (IOException e) {
+            System.out.println("Erro ao gravar o instantâneo do sistema: " + e.getMessage());
+        }
+        Metricas.registrar(Metricas.Operacao.SALVAR_INSTANTANEO, inicio);
+    }
+
+    private void ler() {
+        if (!Files.exists(arquivo)) {
+            desatualizado = true;
+            return;
+        }
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ)) {
+            if (canal.size() < TAMANHO_DO_CABECALHO || canal.size() > Integer.MAX_VALUE) {
+                throw new IOException("tamanho inválido");
+            }
+            MappedByteBuffer dados = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+            CRC32C crc = new CRC32C();
+            crc.update(dados.slice(0, TAMANHO_DO_CABECALHO - 4));
+            if (dados.getInt() != ASSINATURA || dados.getShort() != VERSAO
+                    || dados.getInt(TAMANHO_DO_CABECALHO - 4) != (int) crc.getValue()) {
+                throw new IOException("cabeçalho inválido");
+            }
+            int quantidade = dados.getInt();
+            for (int i = 0; i < quantidade; i++) {
+                byte tipo = dados.get();
+                long inicio = dados.getLong();
+                long tamanho = dados.getLong();
+                int esperado = dados.getInt();
+                if (inicio < TAMANHO_DO_CABECALHO || inicio + tamanho > canal.size()) {
+                    throw new IOException("seção fora do arquivo");
+                }
+                ByteBuffer conteudo = dados.slice((int) inicio, (int) tamanho);
+                crc.reset();
+                crc.update(conteudo.duplicate());
+                if ((int) crc.getValue() != esperado) {
+                    System.out.println("Seção de " + nomeDa(tipo) + " do instantâneo corrompida; será lida dos arquivos.");
+                    continue;
+                }
+                Impressao impressao = new Impressao(conteudo.getLong(), conteudo.getLong(), conteudo.getInt());
+                long posicaoNoRegistro = conteudo.getLong();
+                secoes.put(tipo, new Secao(impressao, posicaoNoRegistro, conteudo.slice()));
+            }
+        } catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            System.out.println("Instantâneo do sistema ignorado (" + e.getMessage() + "); lendo os arquivos.");
+            secoes.clear();
+            desatualizado = true;
+        }
+    }
+
+    private static String nomeDa(byte tipo) {
+        return switch (tipo) {
+            case USUARIOS -> "usuários";
+            case ACERVO -> "acervo";
+            case EMPRESTIMOS -> "empréstimos";
+            default -> "tipo " + tipo;
+        };
+    }
+
+    /**
+     * Escreve o início de uma seção: a identificação do arquivo principal do
+     * gerenciador e a posição no seu arquivo de registros.
+     *
+     * @param out               Destino da seção.
+     * @param principal         Arquivo principal do gerenciador.
+     * @param posicaoNoRegistro Tamanho do arquivo de registros já incluído na seção.
+     */
+    static void escreverIdentificacao(DataOutputStream out, Path principal, long posicaoNoRegistro) throws IOException {
+        Impressao impressao = Impressao.de(principal);
+        out.writeLong(impressao.tamanho());
+        out.writeLong(impressao.modificadoEm());
+        out.writeInt(impressao.chave());
+        out.writeLong(posicaoNoRegistro);
+    }
+
+    static void escreverTexto(DataOutputStream out, String texto) throws IOException {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String lerTexto(ByteBuffer dados) {
+        byte[] bytes = new byte[dados.getInt()];
+        dados.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Escreve um array de inteiros como um bloco, precedido do tamanho.
+     */
+    static void escreverInteiros(DataOutputStream out, int[] valores, int quantidade) throws IOException {
+        out.writeInt(quantidade);
+        ByteBuffer bloco = ByteBuffer.allocate(Math.min(quantidade, TAMANHO_DO_BUFFER / 4) * 4).order(ByteOrder.BIG_ENDIAN);
+        for (int i = 0; i < quantidade; ) {
+            int n = Math.min(quantidade - i, bloco.capacity() / 4);
+            bloco.clear();
+            bloco.asIntBuffer().put(valores, i, n);
+            out.write(bloco.array(), 0, n * 4);
+            i += n;
+        }
+    }
+
+    /**
+     * Lê um bloco gravado por {@link #escreverInteiros}.
+     */
+    static int[] lerInteiros(ByteBuffer dados) {
+        int[] valores = new int[dados.getInt()];
+        dados.asIntBuffer().get(valores);
+        dados.position(dados.position() + valores.length * 4);
+        return valores;
+    }
+
+    /**
+     * Repassa os bytes escritos e os acumula no CRC da seção.
+     */
+    private static final class SaidaComCrc extends FilterOutputStream {
+
+        private final CRC32C crc;
+
+        SaidaComCrc(OutputStream destino, CRC32C crc) {
+            super(destino);
+            this.crc = crc;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            crc.update(b);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int inicio, int tamanho) throws IOException {
+            crc.update(b, inicio, tamanho);
+            out.write(b, inicio, tamanho);
+        }
+    }
+}
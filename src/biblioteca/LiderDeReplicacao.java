@@ -0,0 +1,368 @@
+package biblioteca;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Líder da replicação. A instância que grava os arquivos repassa cada
+ * empréstimo, devolução, inclusão de obra, alteração de título e cadastro de
+ * usuário, numerados em sequência, às réplicas conectadas por TCP (veja
+ * {@link SeguidorDeReplicacao}), que os aplicam na mesma ordem e atendem
+ * consultas somente de leitura.
+ *
+ * Os registros mais recentes ficam em memória, de modo que uma réplica que
+ * se reconecta continua de onde parou. Uma réplica nova, ou atrasada demais,
+ * recebe antes uma imagem do estado: as seções do instantâneo dos três
+ * gerenciadores e os segmentos do histórico. Para que a imagem corresponda
+ * exatamente a uma sequência, as seções são copiadas em memória com as
+ * alterações suspensas; só o envio acontece depois.
+ *
+ * <pre>
+ * réplica -> líder: int "BREP", short versão, long época, long última sequência aplicada
+ * líder -> réplica: byte 'C', long época                     (continua da sequência seguinte)
+ *                 | byte 'I', long época, long sequência,    (imagem até a sequência)
+ *                   int tamanho + seção de usuários, int tamanho + seção do acervo,
+ *                   int tamanho + seção de empréstimos, segmentos do histórico
+ * em seguida, do líder: byte 'G', long sequência, long criado em (ms), int tamanho, conteúdo
+ *                     | byte 'P', long última sequência     (pulso, sem registros novos)
+ * e da réplica: long última sequência aplicada, a cada lote aplicado ou pulso
+ * </pre>
+ *
+ * A época muda a cada partida do líder, cujas sequências recomeçam; uma
+ * réplica de outra época recebe uma imagem.
+ */
+final class LiderDeReplicacao implements Replicacao {
+
+    static final int PORTA_PADRAO = 5051;
+    static final int ASSINATURA = 0x42524550; // "BREP"
+    static final short VERSAO = 1;
+
+    static final byte CONTINUAR = 'C';
+    static final byte IMAGEM = 'I';
+    static final byte REGISTRO = 'G';
+    static final byte PULSO = 'P';
+
+    static final byte EMPRESTIMO = 'E';
+    static final byte DEVOLUCAO = 'R';
+    static final byte OBRA = 'O';
+    static final byte TITULO = 'T';
+    static final byte USUARIO = 'U';
+
+    static final long INTERVALO_DO_PULSO_MS = 1000;
+    private static final int REGISTROS_GUARDADOS_PADRAO = 100_000;
+    private static final int REGISTROS_POR_ENVIO = 1000;
+
+    private final GerenciadorDeUsuarios gerenciadorUsuarios;
+    private final GerenciadorDeObras gerenciadorObras;
+    private final GerenciadorDeEmprestimos gerenciadorEmprestimos;
+    private final int porta;
+    private final long epoca = ThreadLocalRandom.current().nextLong();
+    // Alterações compartilham a trava de leitura; a cópia da imagem usa a de escrita
+    private final ReentrantReadWriteLock travaDoCorte = new ReentrantReadWriteLock();
+    // Registros recentes: a sequência s fica na posição s % tamanho; protegidos por this
+    private final Registro[] guardados;
+    private long ultimaSequencia;
+    // Última sequência confirmada por cada réplica conectada
+    private final Map<Integer, Long> confirmadas = new ConcurrentHashMap<>();
+    private final AtomicInteger conexoes = new AtomicInteger();
+
+    private record Registro(long sequencia, long criadoEm, byte[] conteudo) {
+    }
+
+    /**
+     * Conteúdo de um registro, escrito depois do tipo.
+     */
+    private interface Conteudo {
+        void escrever(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Construtor da classe. Os registros mais recentes guardados em memória
+     * são {@code biblioteca.replicacao.registros} (100000 por padrão).
+     *
+     * @param porta Porta TCP em que as réplicas se conectam.
+     */
+    LiderDeReplicacao(GerenciadorDeUsuarios gerenciadorUsuarios, GerenciadorDeObras gerenciadorObras,
+            GerenciadorDeEmprestimos gerenciadorEmprestimos, int porta) {
+        this.gerenciadorUsuarios = gerenciadorUsuarios;
+        this.gerenciadorObras = gerenciadorObras;
+        this.gerenciadorEmprestimos = gerenciadorEmprestimos;
+        this.porta = porta;
+        this.guardados = new Registro[Integer.getInteger("biblioteca.replicacao.registros", REGISTROS_GUARDADOS_PADRAO)];
+    }
+
+    /**
+     * Inicia o líder se a propriedade {@code biblioteca.replicacao.porta}
+     * estiver definida.
+     *
+     * @return O líder iniciado, ou null se a replicação não estiver configurada.
+     */
+    static LiderDeReplicacao configurado(GerenciadorDeUsuarios gerenciadorUsuarios, GerenciadorDeObras gerenciadorObras,
+            GerenciadorDeEmprestimos gerenciadorEmprestimos) throws IOException {
+        Integer porta = Integer.getInteger("biblioteca.replicacao.porta");
+        if (porta == null) {
+            return null;
+        }
+        LiderDeReplicacao lider = new LiderDeReplicacao(gerenciadorUsuarios, gerenciadorObras, gerenciadorEmprestimos, porta);
+        lider.iniciar();
+        return lider;
+    }
+
+    /**
+     * Passa a receber as alterações dos gerenciadores e a aceitar réplicas,
+     * em uma thread em segundo plano.
+     */
+    void iniciar() throws IOException {
+        ServerSocket servidor = new ServerSocket(porta);
+        gerenciadorUsuarios.replicarPara(this);
+        gerenciadorObras.replicarPara(this);
+        gerenciadorEmprestimos.replicarPara(this);
+        Thread aceitacao = new Thread(() -> {
+            while (true) {
+                try {
+                    Socket socket = servidor.accept();
+                    socket.setTcpNoDelay(true);
+                    int id = conexoes.incrementAndGet();
+                    Thread envio = new Thread(() -> atender(socket, id), "replicacao-envio-" + id);
+                    envio.setDaemon(true);
+                    envio.start();
+                } catch (IOException e) {
+                    System.out.println("Erro ao aceitar réplica: " + e.getMessage());
+                }
+            }
+        }, "replicacao-lider");
+        aceitacao.setDaemon(true);
+        aceitacao.start();
+        System.out.println("Líder da replicação escutando na porta " + porta);
+    }
+
+    // ----- Replicacao -----
+
+    @Override
+    public void iniciarAlteracao() {
+        travaDoCorte.readLock().lock();
+    }
+
+    @Override
+    public void terminarAlteracao() {
+        travaDoCorte.readLock().unlock();
+    }
+
+    @Override
+    public void emprestimo(String emailUsuario, int idObra, LocalDate dataEmprestimo) {
+        publicar(EMPRESTIMO, out -> {
+            InstantaneoDoSistema.escreverTexto(out, emailUsuario);
+            out.writeInt(idObra);
+            out.writeLong(dataEmprestimo.toEpochDay());
+        });
+    }
+
+    @Override
+    public void devolucao(String emailUsuario, int idObra, LocalDate dataEntrega) {
+        publicar(DEVOLUCAO, out -> {
+            InstantaneoDoSistema.escreverTexto(out, emailUsuario);
+            out.writeInt(idObra);
+            out.writeLong(dataEntrega.toEpochDay());
+        });
+    }
+
+    @Override
+    public void obraIncluida(Obra obra) {
+        publicar(OBRA, out -> {
+            out.writeInt(obra.getId());
+            InstantaneoDoSistema.escreverTexto(out, obra.getTitulo());
+            InstantaneoDoSistema.escreverTexto(out, obra.getAutor());
+            out.writeInt(obra.getQuantidade());
+        });
+    }
+
+    @Override
+    public void tituloAlterado(int idObra, String titulo) {
+        publicar(TITULO, out -> {
+            out.writeInt(idObra);
+            InstantaneoDoSistema.escreverTexto(out, titulo);
+        });
+    }
+
+    @Override
+    public void usuarioCadastrado(Usuario usuario) {
+        publicar(USUARIO, out -> GerenciadorDeUsuarios.escreverUsuario(out, usuario));
+    }
+
+    private void publicar(byte tipo, Conteudo conteudo) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(tipo);
+            conteudo.escrever(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Não acontece em memória
+        }
+        long criadoEm = System.currentTimeMillis();
+        synchronized (this) {
+            long sequencia = ++ultimaSequencia;
+            guardados[(int) (sequencia % guardados.length)] = new Registro(sequencia, criadoEm, bytes.toByteArray());
+            notifyAll();
+        }
+    }
+
+    // ----- Envio às réplicas -----
+
+    private void atender(Socket socket, int id) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            if (in.readInt() != ASSINATURA || in.readShort() != VERSAO) {
+                System.out.println("Conexão de replicação recusada: protocolo desconhecido.");
+                return;
+            }
+            long epocaDaReplica = in.readLong();
+            long aplicada = in.readLong();
+            long enviada;
+            if (epocaDaReplica == epoca && aplicada >= 0 && disponivelDesde(aplicada)) {
+                out.writeByte(CONTINUAR);
+                out.writeLong(epoca);
+                enviada = aplicada;
+            } else {
+                long inicio = System.nanoTime();
+                out.writeByte(IMAGEM);
+                out.writeLong(epoca);
+                enviada = escreverImagem(out);
+                System.out.printf("Imagem enviada à réplica %d até a sequência %d em %d ms.%n",
+                        id, enviada, (System.nanoTime() - inicio) / 1_000_000);
+            }
+            out.flush();
+            confirmadas.put(id, enviada);
+            Thread confirmacoes = new Thread(() -> receberConfirmacoes(in, id), "replicacao-confirmacao-" + id);
+            confirmacoes.setDaemon(true);
+            confirmacoes.start();
+
+            while (true) {
+                List<Registro> lote = aguardarRegistros(enviada);
+                if (lote == null) {
+                    System.out.println("Réplica " + id + " atrasada demais; conexão encerrada.");
+                    return;
+                }
+                if (lote.isEmpty()) {
+                    out.writeByte(PULSO);
+                    out.writeLong(ultimaSequencia());
+                }
+                for (Registro registro : lote) {
+                    out.writeByte(REGISTRO);
+                    out.writeLong(registro.sequencia());
+                    out.writeLong(registro.criadoEm());
+                    out.writeInt(registro.conteudo().length);
+                    out.write(registro.conteudo());
+                    enviada = registro.sequencia();
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("Réplica " + id + " desconectada: " + e.getMessage());
+        } finally {
+            confirmadas.remove(id);
+        }
+    }
+
+    /**
+     * Indica se os registros seguintes a uma sequência ainda estão em memória.
+     */
+    private synchronized boolean disponivelDesde(long sequencia) {
+        return sequencia <= ultimaSequencia && ultimaSequencia - sequencia <= guardados.length;
+    }
+
+    private synchronized long ultimaSequencia() {
+        return ultimaSequencia;
+    }
+
+    /**
+     * Espera registros depois de uma sequência, por no máximo o intervalo do pulso.
+     *
+     * @return Os registros seguintes, no máximo {@value #REGISTROS_POR_ENVIO};
+     *         vazio se nenhum chegou; null se já saíram da memória.
+     */
+    private synchronized List<Registro> aguardarRegistros(long enviada) throws IOException {
+        long limite = System.currentTimeMillis() + INTERVALO_DO_PULSO_MS;
+        try {
+            for (long espera; ultimaSequencia == enviada && (espera = limite - System.currentTimeMillis()) > 0; ) {
+                wait(espera);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Envio à réplica interrompido");
+        }
+        if (!disponivelDesde(enviada)) {
+            return null;
+        }
+        long ate = Math.min(ultimaSequencia, enviada + REGISTROS_POR_ENVIO);
+        List<Registro> lote = new ArrayList<>((int) (ate - enviada));
+        for (long s = enviada + 1; s <= ate; s++) {
+            lote.add(guardados[(int) (s % guardados.length)]);
+        }
+        return lote;
+    }
+
+    private void receberConfirmacoes(DataInputStream in, int id) {
+        try {
+            while (true) {
+                confirmadas.put(id, in.readLong());
+                long maisAtrasada = Long.MAX_VALUE;
+                for (long confirmada : confirmadas.values()) {
+                    maisAtrasada = Math.min(maisAtrasada, confirmada);
+                }
+                Metricas.registrarReplicacao(ultimaSequencia(), maisAtrasada);
+            }
+        } catch (IOException e) {
+            // A conexão foi encerrada; o envio percebe e a descarta
+        }
+    }
+
+    /**
+     * Escreve a imagem do estado. As seções são copiadas em memória com as
+     * alterações suspensas e os segmentos do histórico fixos; os segmentos
+     * são copiados depois, já com as alterações liberadas.
+     *
+     * @return A sequência da última alteração incluída na imagem.
+     */
+    private long escreverImagem(DataOutputStream out) throws IOException {
+        long[] sequencia = new long[1];
+        gerenciadorEmprestimos.comHistoricoFixo(() -> {
+            byte[] usuarios;
+            byte[] acervo;
+            byte[] emprestimos;
+            travaDoCorte.writeLock().lock();
+            try {
+                sequencia[0] = ultimaSequencia();
+                usuarios = secao(gerenciadorUsuarios::escreverNoInstantaneo);
+                acervo = secao(saida -> gerenciadorObras.escreverNoInstantaneo(saida, true));
+                emprestimos = secao(gerenciadorEmprestimos::escreverNoInstantaneo);
+            } finally {
+                travaDoCorte.writeLock().unlock();
+            }
+            out.writeLong(sequencia[0]);
+            for (byte[] conteudo : List.of(usuarios, acervo, emprestimos)) {
+                out.writeInt(conteudo.length);
+                out.write(conteudo);
+            }
+            gerenciadorEmprestimos.copiarHistorico(out);
+        });
+        return sequencia[0];
+    }
+
+    private static byte[] secao(Conteudo conteudo) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        conteudo.escrever(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -1,10 +1,108 @@
 package biblioteca;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+
 /**
  * Classe principal que inicializa o sistema da biblioteca.
+ * Com o argumento {@code --servidor [porta]}, inicia o modo servidor em vez
+ * do menu no console. Com {@code --importar arquivo}, processa um arquivo de
+ * empréstimos e devoluções em lote (veja {@link ImportadorDeTransacoes}) e
+ * termina. Com {@code --relatorio diretorio [de ate]}, grava os relatórios de
+ * circulação do período (veja {@link RelatorioDeCirculacao}), por padrão o
+ * último ano, e termina.
+ *
+ * As métricas ficam sempre disponíveis pelo JMX. Com a propriedade
+ * {@code -Dbiblioteca.metricas.intervalo=segundos}, também são escritas no
+ * console a cada intervalo.
+ *
+ * A propriedade {@code -Dbiblioteca.durabilidade=ASSINCRONA|GRUPO|OPERACAO}
+ * define quando empréstimos e devoluções são considerados gravados (veja
+ * {@link Durabilidade}); o padrão é {@code GRUPO}.
+ *
+ * Na partida, os dados são lidos do instantâneo {@code biblioteca.snap}
+ * (veja {@link InstantaneoDoSistema}), se ele estiver em dia com os arquivos
+ * de cada gerenciador, e dos próprios arquivos caso contrário.
+ *
+ * Com {@code -Dbiblioteca.acervo.sobDemanda=true}, o acervo é lido sob
+ * demanda (veja {@link AcervoSobDemanda}), guardando em memória até
+ * {@code -Dbiblioteca.acervo.cache=titulos} títulos (10000 por padrão). Com
+ * {@code -Dbiblioteca.acervo.particoes=N}, o acervo é gravado em N arquivos,
+ * lidos e gravados em paralelo (veja {@link ParticaoDoAcervo}); mudar N
+ * redivide os arquivos na partida seguinte.
+ *
+ * Com {@code -Dbiblioteca.replicacao.porta=porta}, no console ou no modo
+ * servidor, a instância é líder e envia as suas alterações às réplicas que se
+ * conectarem a essa porta (veja {@link LiderDeReplicacao}). Com
+ * {@code --replica host:porta [portaDoServidor]}, a instância é uma réplica
+ * desse líder e atende em modo servidor somente leitura (veja
+ * {@link SeguidorDeReplicacao}); o diretório de trabalho deve ser só dela (a
+ * réplica não inicia num diretório que já tenha os arquivos de outra
+ * instância), e o acervo fica sempre em memória.
  */
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        Metricas.registrarNoJmx();
+        String intervaloMetricas = System.getProperty("biblioteca.metricas.intervalo");
+        if (intervaloMetricas != null) {
+            Metricas.getInstancia().iniciarRelatorioPeriodico(Duration.ofSeconds(Long.parseLong(intervaloMetricas)));
+        }
+
+        if (args.length > 0 && args[0].equals("--servidor")) {
+            int porta = args.length > 1 ? Integer.parseInt(args[1]) : ServidorBiblioteca.PORTA_PADRAO;
+            InstantaneoDoSistema instantaneo = InstantaneoDoSistema.abrir();
+            GerenciadorDeUsuarios gerenciadorUsuarios = new GerenciadorDeUsuarios(instantaneo);
+            GerenciadorDeObras gerenciadorObras = new GerenciadorDeObras(instantaneo);
+            GerenciadorDeEmprestimos gerenciadorEmprestimos = new GerenciadorDeEmprestimos(gerenciadorObras, instantaneo);
+            instantaneo.acompanhar(gerenciadorUsuarios, gerenciadorObras, gerenciadorEmprestimos);
+            gerenciadorEmprestimos.iniciarVerificacaoDeAtrasos(gerenciadorUsuarios, Duration.ofHours(1));
+            LiderDeReplicacao.configurado(gerenciadorUsuarios, gerenciadorObras, gerenciadorEmprestimos);
+            new ServidorBiblioteca(gerenciadorUsuarios, gerenciadorObras, gerenciadorEmprestimos, porta).iniciar();
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--replica")) {
+            String[] lider = args[1].split(":", 2);
+            int porta = args.length > 2 ? Integer.parseInt(args[2]) : ServidorBiblioteca.PORTA_PADRAO;
+            // O acervo da réplica vem da imagem do líder, não de um arquivo lido sob demanda
+            System.clearProperty("biblioteca.acervo.sobDemanda");
+            SeguidorDeReplicacao seguidor = new SeguidorDeReplicacao(lider[0],
+                    lider.length > 1 ? Integer.parseInt(lider[1]) : LiderDeReplicacao.PORTA_PADRAO);
+            seguidor.iniciar();
+            Thread replicacao = new Thread(() -> {
+                seguidor.acompanhar();
+                System.out.println("A réplica perdeu a sincronia com o líder e precisa ser reiniciada.");
+                System.exit(1);
+            }, "replicacao-seguidor");
+            replicacao.start();
+            seguidor.getGerenciadorEmprestimos().iniciarVerificacaoDeAtrasos(seguidor.getGerenciadorUsuarios(), Duration.ofHours(1));
+            new ServidorBiblioteca(seguidor.getGerenciadorUsuarios(), seguidor.getGerenciadorObras(),
+                    seguidor.getGerenciadorEmprestimos(), porta, true).iniciar();
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--importar")) {
+            // Só lê o instantâneo: como o processo termina logo, ele é regravado na próxima partida
+            InstantaneoDoSistema instantaneo = InstantaneoDoSistema.abrir();
+            GerenciadorDeUsuarios gerenciadorUsuarios = new GerenciadorDeUsuarios(instantaneo);
+            try (GerenciadorDeObras gerenciadorObras = new GerenciadorDeObras(instantaneo);
+                 GerenciadorDeEmprestimos gerenciadorEmprestimos = new GerenciadorDeEmprestimos(gerenciadorObras, instantaneo)) {
+                new ImportadorDeTransacoes(gerenciadorUsuarios, gerenciadorEmprestimos).importar(Path.of(args[1]));
+            }
+            return;
+        }
+        if (args.length > 1 && args[0].equals("--relatorio")) {
+            LocalDate ate = args.length > 3 ? LocalDate.parse(args[3]) : LocalDate.now();
+            LocalDate de = args.length > 3 ? LocalDate.parse(args[2]) : ate.minusYears(1).plusDays(1);
+            InstantaneoDoSistema instantaneo = InstantaneoDoSistema.abrir();
+            GerenciadorDeUsuarios gerenciadorUsuarios = new GerenciadorDeUsuarios(instantaneo);
+            try (GerenciadorDeObras gerenciadorObras = new GerenciadorDeObras(instantaneo);
+                 GerenciadorDeEmprestimos gerenciadorEmprestimos = new GerenciadorDeEmprestimos(gerenciadorObras, instantaneo)) {
+                new RelatorioDeCirculacao(gerenciadorUsuarios, gerenciadorObras, gerenciadorEmprestimos)
+                        .gerar(de, ate, Path.of(args[1]));
+            }
+            return;
+        }
         SistemaBiblioteca sistema = new SistemaBiblioteca();
         sistema.iniciar();
     }
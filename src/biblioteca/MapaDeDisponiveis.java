@@ -0,0 +1,108 @@
+package biblioteca;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Mapa de bits das obras com exemplares disponíveis, indexado pela posição da
+ * obra na lista do acervo. Cada bit é ligado e desligado com compare-and-set,
+ * sem travas, e a contagem de bits ligados é mantida a cada troca, de modo
+ * que contar as disponíveis é O(1) e percorrê-las pula 64 obras indisponíveis
+ * por vez.
+ *
+ * Os bits ficam em blocos de tamanho fixo. Crescer acrescenta blocos e nunca
+ * copia os existentes, então uma troca feita durante o crescimento não se perde.
+ */
+final class MapaDeDisponiveis {
+
+    private static final int PALAVRAS_POR_BLOCO = 1 << 10;
+    private static final int BITS_POR_BLOCO = PALAVRAS_POR_BLOCO * Long.SIZE;
+
+    private volatile AtomicLongArray[] blocos = new AtomicLongArray[0];
+    private final AtomicInteger disponiveis = new AtomicInteger();
+
+    /**
+     * Garante espaço para as posições de 0 até {@code posicoes - 1}. Não
+     * pode ser chamado por duas threads ao mesmo tempo.
+     */
+    void garantirCapacidade(int posicoes) {
+        AtomicLongArray[] atuais = blocos;
+        int necessarios = (posicoes + BITS_POR_BLOCO - 1) / BITS_POR_BLOCO;
+        if (necessarios <= atuais.length) {
+            return;
+        }
+        AtomicLongArray[] novos = java.util.Arrays.copyOf(atuais, Math.max(necessarios, atuais.length * 2));
+        for (int i = atuais.length; i < novos.length; i++) {
+            novos[i] = new AtomicLongArray(PALAVRAS_POR_BLOCO);
+        }
+        blocos = novos;
+    }
+
+    /**
+     * Liga ou desliga o bit da posição, se ele ainda não estiver no estado pedido.
+     *
+     * @return true se o bit mudou.
+     */
+    boolean marcar(int posicao, boolean disponivel) {
+        AtomicLongArray bloco = blocos[posicao / BITS_POR_BLOCO];
+        int palavra = (posicao % BITS_POR_BLOCO) >>> 6;
+        long bit = 1L << posicao;
+        long atual;
+        long nova;
+        do {
+            atual = bloco.get(palavra);
+            nova = disponivel ? atual | bit : atual & ~bit;
+            if (nova == atual) {
+                return false;
+            }
+        } while (!bloco.compareAndSet(palavra, atual, nova));
+        disponiveis.addAndGet(disponivel ? 1 : -1);
+        return true;
+    }
+
+    boolean contem(int posicao) {
+        AtomicLongArray[] atuais = blocos;
+        if (posicao < 0 || posicao / BITS_POR_BLOCO >= atuais.length) {
+            return false;
+        }
+        return (atuais[posicao / BITS_POR_BLOCO].get((posicao % BITS_POR_BLOCO) >>> 6) & 1L << posicao) != 0;
+    }
+
+    /**
+     * Quantidade de posições marcadas como disponíveis.
+     */
+    int contar() {
+        return disponiveis.get();
+    }
+
+    /**
+     * Primeira posição disponível a partir de uma posição.
+     *
+     * @param desde Posição inicial, inclusive.
+     * @return A posição, ou -1 se não houver nenhuma.
+     */
+    int proxima(int desde) {
+        AtomicLongArray[] atuais = blocos;
+        if (desde < 0) {
+            desde = 0;
+        }
+        int b = desde / BITS_POR_BLOCO;
+        int p = (desde % BITS_POR_BLOCO) >>> 6;
+        if (b >= atuais.length) {
+            return -1;
+        }
+        long palavra = atuais[b].get(p) & -1L << desde;
+        while (true) {
+            if (palavra != 0) {
+                return b * BITS_POR_BLOCO + p * Long.SIZE + Long.numberOfTrailingZeros(palavra);
+            }
+            if (++p == PALAVRAS_POR_BLOCO) {
+                p = 0;
+                if (++b == atuais.length) {
+                    return -1;
+                }
+            }
+            palavra = atuais[b].get(p);
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package biblioteca;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+/**
+ * Métricas de desempenho do sistema: um histograma de latência e um contador
+ * de bytes gravados para cada operação dos gerenciadores, e contadores dos
+ * resultados de empréstimos e de logins recusados. Na replicação (veja
+ * {@link LiderDeReplicacao}), também o atraso das réplicas.
+ *
+ * As métricas são de todo o processo e ficam disponíveis pelo JMX, no objeto
+ * {@value #NOME_JMX} (por exemplo, no JConsole), e em um relatório de texto
+ * que pode ser escrito periodicamente no console. No JMX, os valores são
+ * acumulados desde o início ou desde a última chamada de {@code zerar}; no
+ * relatório periódico, cada linha se refere apenas ao último intervalo.
+ */
+public final class Metricas implements DynamicMBean {
+
+    public static final String NOME_JMX = "biblioteca:type=Metricas";
+
+    /**
+     * Operações medidas.
+     */
+    public enum Operacao {
+        EMPRESTIMO("Emprestimo"),
+        DEVOLUCAO("Devolucao"),
+        BUSCA_POR_TITULO("BuscaPorTitulo"),
+        BUSCA_POR_ATRIBUTO("BuscaPorAtributo"),
+        LOGIN("Login"),
+        REGISTRAR_ALTERACAO("RegistrarAlteracao"),
+        CARREGAR_ACERVO("CarregarAcervo"),
+        SALVAR_ACERVO("SalvarAcervo"),
+        CARREGAR_USUARIOS("CarregarUsuarios"),
+        SALVAR_USUARIOS("SalvarUsuarios"),
+        CARREGAR_EMPRESTIMOS("CarregarEmprestimos"),
+        SALVAR_EMPRESTIMOS("SalvarEmprestimos"),
+        PROCESSAR_LOTE("ProcessarLote"),
+        GRAVAR_GRUPO("GravarGrupo"),
+        SALVAR_INSTANTANEO("SalvarInstantaneo"),
+        RELATORIO_DE_CIRCULACAO("RelatorioDeCirculacao"),
+        // Na réplica: do registro da alteração no líder até a sua aplicação
+        REPLICACAO("Replicacao");
+
+        private final String nome;
+
+        Operacao(String nome) {
+            this.nome = nome;
+        }
+
+        public String getNome() {
+            return nome;
+        }
+    }
+
+    private static final Metricas INSTANCIA = new Metricas();
+
+    private final Map<Operacao, HistogramaDeLatencia> latencias = new EnumMap<>(Operacao.class);
+    private final Map<Operacao, LongAdder> bytesGravados = new EnumMap<>(Operacao.class);
+    private final Map<ResultadoEmprestimo, LongAdder> resultados = new EnumMap<>(ResultadoEmprestimo.class);
+    private final LongAdder loginsRecusados = new LongAdder();
+    // Última sequência publicada pelo líder e última aplicada pela réplica (no
+    // líder, a confirmada pela réplica mais atrasada); -1 fora da replicação
+    private final AtomicLong sequenciaDoLider = new AtomicLong(-1);
+    private final AtomicLong sequenciaAplicada = new AtomicLong(-1);
+
+    // Contagens do último relatório periódico, para calcular os valores do intervalo
+    private final Map<Operacao, long[]> contagensAnteriores = new EnumMap<>(Operacao.class);
+    private final Map<Operacao, Long> bytesAnteriores = new EnumMap<>(Operacao.class);
+    private long inicioDoIntervalo = System.nanoTime();
+    private ScheduledExecutorService relatorioPeriodico;
+
+    private Metricas() {
+        for (Operacao operacao : Operacao.values()) {
+            latencias.put(operacao, new HistogramaDeLatencia());
+            bytesGravados.put(operacao, new LongAdder());
+            contagensAnteriores.put(operacao, new long[0]);
+            bytesAnteriores.put(operacao, 0L);
+        }
+        for (ResultadoEmprestimo resultado : ResultadoEmprestimo.values()) {
+            resultados.put(resultado, new LongAdder());
+        }
+    }
+
+    /**
+     * Retorna as métricas do processo.
+     */
+    public static Metricas getInstancia() {
+        return INSTANCIA;
+    }
+
+    /**
+     * Registra a duração de uma operação.
+     *
+     * @param operacao Operação medida.
+     * @param inicio   Valor de {@link System#nanoTime()} no início da operação.
+     */
+    static void registrar(Operacao operacao, long inicio) {
+        INSTANCIA.latencias.get(operacao).registrar(System.nanoTime() - inicio);
+    }
+
+    /**
+     * Registra uma duração medida de outra forma, como o atraso da
+     * replicação, medido pelo relógio do líder e da réplica.
+     *
+     * @param operacao Operação medida.
+     * @param nanos    Duração, em nanossegundos.
+     */
+    static void registrarDuracao(Operacao operacao, long nanos) {
+        INSTANCIA.latencias.get(operacao).registrar(Math.max(nanos, 0));
+    }
+
+    /**
+     * Atualiza a posição da replicação.
+     *
+     * @param doLider  Última sequência publicada pelo líder.
+     * @param aplicada Última sequência aplicada pela réplica, ou confirmada
+     *                 pela réplica mais atrasada, no líder.
+     */
+    static void registrarReplicacao(long doLider, long aplicada) {
+        INSTANCIA.sequenciaDoLider.set(doLider);
+        INSTANCIA.sequenciaAplicada.set(aplicada);
+    }
+
+    /**
+     * Soma bytes gravados em disco por uma operação.
+     */
+    static void registrarBytes(Operacao operacao, long bytes) {
+        INSTANCIA.bytesGravados.get(operacao).add(bytes);
+    }
+
+    /**
+     * Conta o resultado de uma tentativa de empréstimo.
+     */
+    static void registrarResultado(ResultadoEmprestimo resultado) {
+        INSTANCIA.resultados.get(resultado).increment();
+    }
+
+    /**
+     * Conta um login recusado por email ou senha incorretos.
+     */
+    static void registrarLoginRecusado() {
+        INSTANCIA.loginsRecusados.increment();
+    }
+
+    /**
+     * Registra as métricas no servidor JMX da plataforma. Chamadas repetidas
+     * não têm efeito.
+     */
+    public static void registrarNoJmx() {
+        try {
+            ObjectName nome = new ObjectName(NOME_JMX);
+            MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+            if (!servidor.isRegistered(nome)) {
+                servidor.registerMBean(INSTANCIA, nome);
+            }
+        } catch (JMException e) {
+            System.out.println("Erro ao registrar as métricas no JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Escreve o relatório no console a cada intervalo, em uma thread em segundo
+     * plano. Chamadas repetidas não têm efeito.
+     *
+     * @param intervalo Tempo entre os relatórios.
+     */
+    public synchronized void iniciarRelatorioPeriodico(Duration intervalo) {
+        if (relatorioPeriodico != null) {
+            return;
+        }
+        relatorioPeriodico = Executors.newSingleThreadScheduledExecutor(tarefa -> {
+            Thread thread = new Thread(tarefa, "relatorio-de-metricas");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long periodo = intervalo.toMillis();
+        relatorioPeriodico.scheduleAtFixedRate(() -> System.out.print(relatorioDoIntervalo()),
+                periodo, periodo, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Interrompe o relatório periódico, se estiver ativo.
+     */
+    public synchronized void pararRelatorioPeriodico() {
+        if (relatorioPeriodico != null) {
+            relatorioPeriodico.shutdownNow();
+            relatorioPeriodico = null;
+        }
+    }
+
+    /**
+     * Relatório com os valores acumulados de todas as operações.
+     */
+    public String relatorio() {
+        StringBuilder texto = new StringBuilder("=== Métricas (acumulado) ===\n");
+        for (Operacao operacao : Operacao.values()) {
+            HistogramaDeLatencia histograma = latencias.get(operacao);
+            linha(texto, operacao, histograma.contagens(), histograma.maximo(), bytesGravados.get(operacao).sum(), 0);
+        }
+        resultados(texto);
+        return texto.toString();
+    }
+
+    /**
+     * Relatório com as operações realizadas desde o relatório anterior, com a
+     * vazão de cada uma no intervalo.
+     */
+    synchronized String relatorioDoIntervalo() {
+        long agora = System.nanoTime();
+        double segundos = (agora - inicioDoIntervalo) / 1e9;
+        inicioDoIntervalo = agora;
+        StringBuilder texto = new StringBuilder(String.format("=== Métricas (últimos %.0f s) ===%n", segundos));
+        for (Operacao operacao : Operacao.values()) {
+            long[] atuais = latencias.get(operacao).contagens();
+            long[] anteriores = contagensAnteriores.put(operacao, atuais);
+            long[] intervalo = atuais.clone();
+            for (int i = 0; i < anteriores.length; i++) {
+                intervalo[i] -= anteriores[i];
+            }
+            long bytes = bytesGravados.get(operacao).sum();
+            linha(texto, operacao, intervalo, -1, bytes - bytesAnteriores.put(operacao, bytes), segundos);
+        }
+        resultados(texto);
+        return texto.toString();
+    }
+
+    /**
+     * Zera todas as métricas.
+     */
+    public synchronized void zerar() {
+        for (Operacao operacao : Operacao.values()) {
+            latencias.get(operacao).zerar();
+            bytesGravados.get(operacao).reset();
+            contagensAnteriores.put(operacao, new long[0]);
+            bytesAnteriores.put(operacao, 0L);
+        }
+        for (LongAdder contador : resultados.values()) {
+            contador.reset();
+        }
+        loginsRecusados.reset();
+    }
+
+    private static void linha(StringBuilder texto, Operacao operacao, long[] contagens, long maximo, long bytes,
+            double segundos) {
+        long total = HistogramaDeLatencia.total(contagens);
+        if (total == 0) {
+            return;
+        }
+        texto.append(String.format("%-20s n=%-9d", operacao.getNome(), total));
+        if (segundos > 0) {
+            texto.append(String.format(" %9.1f/s", total / segundos));
+        }
+        texto.append(String.format(" p50=%s p90=%s p99=%s p99.9=%s",
+                tempo(HistogramaDeLatencia.percentil(contagens, 0.50)),
+                tempo(HistogramaDeLatencia.percentil(contagens, 0.90)),
+                tempo(HistogramaDeLatencia.percentil(contagens, 0.99)),
+                tempo(HistogramaDeLatencia.percentil(contagens, 0.999))));
+        if (maximo >= 0) {
+            texto.append(" máx=").append(tempo(maximo));
+        }
+        if (bytes > 0) {
+            texto.append(" gravados=").append(bytes).append(" B");
+        }
+        texto.append('\n');
+    }
+
+    private void resultados(StringBuilder texto) {
+        texto.append("Empréstimos:");
+        for (ResultadoEmprestimo resultado : ResultadoEmprestimo.values()) {
+            texto.append(' ').append(resultado.name()).append('=').append(resultados.get(resultado).sum());
+        }
+        texto.append(" | Logins recusados: ").append(loginsRecusados.sum());
+        long doLider = sequenciaDoLider.get();
+        if (doLider >= 0) {
+            long aplicada = sequenciaAplicada.get();
+            texto.append(" | Replicação: líder=").append(doLider).append(" aplicada=").append(aplicada)
+                    .append(" atraso=").append(doLider - aplicada);
+        }
+        texto.append('\n');
+    }
+
+    private static String tempo(long nanos) {
+        if (nanos < 10_000) {
+            return nanos + "ns";
+        }
+        if (nanos < 10_000_000) {
+            return nanos / 1_000 + "us";
+        }
+        return nanos / 1_000_000 + "ms";
+    }
+
+    // ----- DynamicMBean -----
+    //
+    // Para cada operação: <Nome>Contagem, <Nome>MediaMicros, <Nome>P50Micros,
+    // <Nome>P90Micros, <Nome>P99Micros, <Nome>P999Micros, <Nome>MaximoMicros e
+    // <Nome>BytesGravados. Para cada resultado de empréstimo:
+    // Resultado<RESULTADO>. Além disso, LoginsRecusados, Relatorio e, para a
+    // replicação, ReplicacaoSequenciaDoLider, ReplicacaoSequenciaAplicada e
+    // ReplicacaoAtraso (em registros).
+
+    private static final String[] SUFIXOS = {
+        "Contagem", "MediaMicros", "P50Micros", "P90Micros", "P99Micros", "P999Micros", "MaximoMicros", "BytesGravados"
+    };
+
+    @Override
+    public Object getAttribute(String atributo) throws AttributeNotFoundException {
+        if (atributo.equals("LoginsRecusados")) {
+            return loginsRecusados.sum();
+        }
+        if (atributo.equals("Relatorio")) {
+            return relatorio();
+        }
+        switch (atributo) {
+            case "ReplicacaoSequenciaDoLider":
+                return sequenciaDoLider.get();
+            case "ReplicacaoSequenciaAplicada":
+                return sequenciaAplicada.get();
+            case "ReplicacaoAtraso":
+                return sequenciaDoLider.get() - sequenciaAplicada.get();
+            default:
+                break;
+        }
+        if (atributo.startsWith("Resultado")) {
+            try {
+                return resultados.get(ResultadoEmprestimo.valueOf(atributo.substring("Resultado".length()))).sum();
+            } catch (IllegalArgumentException e) {
+                throw new AttributeNotFoundException(atributo);
+            }
+        }
+        for (Operacao operacao : Operacao.values()) {
+            if (atributo.startsWith(operacao.getNome())) {
+                String sufixo = atributo.substring(operacao.getNome().length());
+                HistogramaDeLatencia histograma = latencias.get(operacao);
+                long[] contagens = histograma.contagens();
+                long total = HistogramaDeLatencia.total(contagens);
+                switch (sufixo) {
+                    case "Contagem":
+                        return total;
+                    case "MediaMicros":
+                        return total == 0 ? 0.0 : histograma.soma() / 1e3 / total;
+                    case "P50Micros":
+                        return HistogramaDeLatencia.percentil(contagens, 0.50) / 1e3;
+                    case "P90Micros":
+                        return HistogramaDeLatencia.percentil(contagens, 0.90) / 1e3;
+                    case "P99Micros":
+                        return HistogramaDeLatencia.percentil(contagens, 0.99) / 1e3;
+                    case "P999Micros":
+                        return HistogramaDeLatencia.percentil(contagens, 0.999) / 1e3;
+                    case "MaximoMicros":
+                        return histograma.maximo() / 1e3;
+                    case "BytesGravados":
+                        return bytesGravados.get(operacao).sum();
+                    default:
+                        break;
+                }
+            }
+        }
+        throw new AttributeNotFoundException(atributo);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] atributos) {
+        AttributeList lista = new AttributeList();
+        for (String atributo : atributos) {
+            try {
+                lista.add(new Attribute(atributo, getAttribute(atributo)));
+            } catch (AttributeNotFoundException e) {
+                // Atributos desconhecidos ficam fora da lista, como pede a interface
+            }
+        }
+        return lista;
+    }
+
+    @Override
+    public void setAttribute(Attribute atributo) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Os atributos das métricas são somente leitura: " + atributo.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList atributos) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String operacao, Object[] parametros, String[] assinatura) throws ReflectionException {
+        switch (operacao) {
+            case "zerar":
+                zerar();
+                return null;
+            case "relatorio":
+                return relatorio();
+            default:
+                throw new ReflectionException(new NoSuchMethodException(operacao));
+        }
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> atributos = new ArrayList<>();
+        for (Operacao operacao : Operacao.values()) {
+            for (String sufixo : SUFIXOS) {
+                boolean decimal = sufixo.endsWith("Micros");
+                atributos.add(new MBeanAttributeInfo(operacao.getNome() + sufixo,
+                        decimal ? "double" : "long", operacao.getNome() + " " + sufixo, true, false, false));
+            }
+        }
+        for (ResultadoEmprestimo resultado : ResultadoEmprestimo.values()) {
+            atributos.add(new MBeanAttributeInfo("Resultado" + resultado.name(), "long",
+                    resultado.getMensagem(), true, false, false));
+        }
+        atributos.add(new MBeanAttributeInfo("LoginsRecusados", "long", "Logins recusados", true, false, false));
+        atributos.add(new MBeanAttributeInfo("Relatorio", "java.lang.String", "Relatório acumulado", true, false, false));
+        atributos.add(new MBeanAttributeInfo("ReplicacaoSequenciaDoLider", "long",
+                "Última sequência publicada pelo líder", true, false, false));
+        atributos.add(new MBeanAttributeInfo("ReplicacaoSequenciaAplicada", "long",
+                "Última sequência aplicada pela réplica", true, false, false));
+        atributos.add(new MBeanAttributeInfo("ReplicacaoAtraso", "long",
+                "Registros publicados pelo líder e ainda não aplicados", true, false, false));
+        MBeanOperationInfo[] operacoes = {
+            new MBeanOperationInfo("zerar", "Zera todas as métricas", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION),
+            new MBeanOperationInfo("relatorio", "Relatório acumulado", new MBeanParameterInfo[0], "java.lang.String", MBeanOperationInfo.INFO)
+        };
+        return new MBeanInfo(Metricas.class.getName(), "Métricas da biblioteca",
+                atributos.toArray(new MBeanAttributeInfo[0]), null, operacoes, null);
+    }
+}
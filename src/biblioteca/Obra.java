@@ -1,17 +1,31 @@
 package biblioteca;
 
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 
 /**
  * Classe que representa uma obra (livro) no sistema da biblioteca.
  * Implementa Serializable para permitir persistência de dados.
+ * A quantidade disponível é alterada com compare-and-set, de modo que
+ * empréstimos simultâneos nunca deixam o estoque negativo.
  */
 public class Obra implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final VarHandle QUANTIDADE;
+
+    static {
+        try {
+            QUANTIDADE = MethodHandles.lookup().findVarHandle(Obra.class, "quantidade", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private int id;
     private String titulo;
     private String autor;
-    private int quantidade;
+    private volatile int quantidade;
 
     /**
      * Construtor da classe Obra.
@@ -28,6 +42,14 @@ public class Obra implements Serializable {
         this.quantidade = Math.max(quantidade, 0); // Evita quantidade negativa
     }
 
+    /**
+     * Construtor usado por visões que guardam os dados da obra em outro lugar,
+     * como o {@link AcervoColunar}. Essas visões sobrescrevem todos os métodos
+     * de acesso.
+     */
+    Obra() {
+    }
+
     // Getters e Setters
     public int getId() {
         return id;
@@ -67,18 +89,21 @@ public class Obra implements Serializable {
      * @return true se o empréstimo for bem-sucedido, false se não houver exemplares disponíveis.
      */
     public boolean emprestar() {
-        if (quantidade > 0) {
-            quantidade--;
-            return true;
-        }
-        return false;
+        int atual;
+        do {
+            atual = quantidade;
+            if (atual <= 0) {
+                return false;
+            }
+        } while (!QUANTIDADE.compareAndSet(this, atual, atual - 1));
+        return true;
     }
 
     /**
      * Registra a devolução de um exemplar da obra, aumentando a quantidade disponível.
      */
     public void devolver() {
-        quantidade++;
+        QUANTIDADE.getAndAdd(this, 1);
     }
 
     /**
@@ -88,6 +113,6 @@ public class Obra implements Serializable {
      */
     @Override
     public String toString() {
-        return "📖 ID: " + id + " | Título: " + titulo + " | Autor: " + autor + " | 📦 Disponível: " + quantidade;
+        return "📖 ID: " + getId() + " | Título: " + getTitulo() + " | Autor: " + getAutor() + " | 📦 Disponível: " + getQuantidade();
     }
 }
\ No newline at end of file
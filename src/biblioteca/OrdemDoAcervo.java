@@ -0,0 +1,11 @@
+package biblioteca;
+
+/**
+ * Ordem das obras na listagem paginada do acervo.
+ */
+public enum OrdemDoAcervo {
+    /** Pelo ID da obra. */
+    POR_ID,
+    /** Pelo título, sem diferenciar maiúsculas e acentos; títulos iguais seguem a ordem de inclusão. */
+    POR_TITULO
+}
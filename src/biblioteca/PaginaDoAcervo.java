@@ -0,0 +1,53 @@
+package biblioteca;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Uma página da listagem do acervo, com o cursor para a página seguinte.
+ */
+public final class PaginaDoAcervo {
+
+    private final List<Obra> obras;
+    private final String proximoCursor;
+
+    PaginaDoAcervo(List<Obra> obras, String proximoCursor) {
+        this.obras = List.copyOf(obras);
+        this.proximoCursor = proximoCursor;
+    }
+
+    public List<Obra> getObras() {
+        return obras;
+    }
+
+    /**
+     * Retorna o cursor que continua a listagem depois desta página, ou null
+     * se a listagem terminou.
+     */
+    public String getProximoCursor() {
+        return proximoCursor;
+    }
+
+    public boolean temMais() {
+        return proximoCursor != null;
+    }
+
+    /**
+     * Escreve as obras da página, uma por linha, com uma única chamada ao
+     * destino. Com um destino bufferizado, o custo da escrita é proporcional
+     * ao tamanho da página.
+     *
+     * @param destino Onde as linhas são escritas.
+     */
+    public void escrever(Appendable destino) throws IOException {
+        StringBuilder texto = new StringBuilder(obras.size() * 64);
+        for (Obra obra : obras) {
+            texto.append("ID: ").append(obra.getId())
+                    .append(" | Título: ").append(obra.getTitulo())
+                    .append(" | Autor: ").append(obra.getAutor())
+                    .append(" | Disponível: ").append(obra.getQuantidade())
+                    .append('\n');
+        }
+        destino.append(texto);
+    }
+}
@@ -0,0 +1,156 @@
+package biblioteca;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Uma partição dos arquivos do acervo: o arquivo CSV com as obras cujos IDs
+ * caem nela e o arquivo de alterações de quantidade dessas obras, com a sua
+ * própria fila de gravação ({@link GravadorEmGrupo}), trava e contagem de
+ * alterações pendentes. Assim, alterações de partições diferentes não
+ * disputam o mesmo arquivo, e cada partição é consolidada sozinha.
+ *
+ * Com uma única partição, os arquivos são {@code acervo.csv} e
+ * {@code acervo.delta}. Com N partições, a obra de ID i fica na partição
+ * i mod N, nos arquivos {@code acervo-<i mod N>.csv} e
+ * {@code acervo-<i mod N>.delta}.
+ */
+final class ParticaoDoAcervo implements AutoCloseable {
+
+    static final String ARQUIVO_UNICO = "acervo.csv";
+    static final String ALTERACOES_DO_ARQUIVO_UNICO = "acervo.delta";
+    private static final Pattern ARQUIVO_DE_PARTICAO = Pattern.compile("acervo-(\\d{1,6})\\.(csv|delta)");
+
+    private final int numero;
+    private final Path arquivo;
+    private final Path arquivoDeAlteracoes;
+    // Grava o arquivo de alterações em segundo plano
+    private final GravadorEmGrupo alteracoes;
+    // Alterações compartilham a trava de leitura; a consolidação usa a de escrita
+    private final ReentrantReadWriteLock trava = new ReentrantReadWriteLock();
+    private final AtomicInteger pendentes = new AtomicInteger();
+    // Há uma consolidação em segundo plano na fila ou rodando
+    private final AtomicBoolean consolidacaoAgendada = new AtomicBoolean();
+
+    private ParticaoDoAcervo(int numero, Path arquivo, Path arquivoDeAlteracoes) throws IOException {
+        this.numero = numero;
+        this.arquivo = arquivo;
+        this.arquivoDeAlteracoes = arquivoDeAlteracoes;
+        this.alteracoes = new GravadorEmGrupo(arquivoDeAlteracoes, Durabilidade.configurada());
+    }
+
+    /**
+     * Quantidade de partições da propriedade {@code biblioteca.acervo.particoes}; 1 por padrão.
+     */
+    static int quantidadeConfigurada() {
+        return Math.max(1, Integer.getInteger("biblioteca.acervo.particoes", 1));
+    }
+
+    /**
+     * Abre as partições do diretório de trabalho, com os seus arquivos de alterações.
+     *
+     * @param quantidade Quantidade de partições.
+     */
+    static ParticaoDoAcervo[] abrir(int quantidade) throws IOException {
+        ParticaoDoAcervo[] particoes = new ParticaoDoAcervo[quantidade];
+        if (quantidade == 1) {
+            particoes[0] = new ParticaoDoAcervo(0, Path.of(ARQUIVO_UNICO), Path.of(ALTERACOES_DO_ARQUIVO_UNICO));
+            return particoes;
+        }
+        for (int i = 0; i < quantidade; i++) {
+            particoes[i] = new ParticaoDoAcervo(i, Path.of("acervo-" + i + ".csv"), Path.of("acervo-" + i + ".delta"));
+        }
+        return particoes;
+    }
+
+    /**
+     * Índice da partição de uma obra.
+     */
+    static int indice(int id, int quantidade) {
+        return Math.floorMod(id, quantidade);
+    }
+
+    /**
+     * Arquivos do acervo e de alterações existentes no diretório de trabalho,
+     * de qualquer quantidade de partições.
+     */
+    static List<Path> arquivosExistentes() throws IOException {
+        List<Path> arquivos = new ArrayList<>();
+        for (String nome : new String[] {ARQUIVO_UNICO, ALTERACOES_DO_ARQUIVO_UNICO}) {
+            if (Files.exists(Path.of(nome))) {
+                arquivos.add(Path.of(nome));
+            }
+        }
+        try (DirectoryStream<Path> diretorio = Files.newDirectoryStream(Path.of("."), "acervo-*")) {
+            for (Path caminho : diretorio) {
+                if (ARQUIVO_DE_PARTICAO.matcher(caminho.getFileName().toString()).matches()) {
+                    arquivos.add(caminho.getFileName());
+                }
+            }
+        }
+        return arquivos;
+    }
+
+    /**
+     * Arquivos existentes que não pertencem a uma divisão em uma quantidade de
+     * partições, deixados por uma divisão anterior.
+     */
+    static List<Path> deOutraDivisao(int quantidade) throws IOException {
+        List<Path> arquivos = new ArrayList<>();
+        for (Path caminho : arquivosExistentes()) {
+            Matcher particao = ARQUIVO_DE_PARTICAO.matcher(caminho.toString());
+            boolean daDivisao = particao.matches()
+                    ? quantidade > 1 && Integer.parseInt(particao.group(1)) < quantidade
+                    : quantidade == 1;
+            if (!daDivisao) {
+                arquivos.add(caminho);
+            }
+        }
+        return arquivos;
+    }
+
+    int numero() {
+        return numero;
+    }
+
+    Path arquivo() {
+        return arquivo;
+    }
+
+    Path arquivoDeAlteracoes() {
+        return arquivoDeAlteracoes;
+    }
+
+    GravadorEmGrupo alteracoes() {
+        return alteracoes;
+    }
+
+    ReentrantReadWriteLock trava() {
+        return trava;
+    }
+
+    AtomicInteger pendentes() {
+        return pendentes;
+    }
+
+    AtomicBoolean consolidacaoAgendada() {
+        return consolidacaoAgendada;
+    }
+
+    /**
+     * Grava o que ainda estiver na fila e fecha o arquivo de alterações.
+     */
+    @Override
+    public void close() {
+        alteracoes.close();
+    }
+}
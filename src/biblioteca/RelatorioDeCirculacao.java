@@ -0,0 +1,524 @@
+package biblioteca;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntPredicate;
+
+/**
+ * Relatórios de circulação de um período, calculados em paralelo sobre o
+ * histórico de empréstimos e os empréstimos em aberto:
+ * <ul>
+ * <li>as obras mais emprestadas;</li>
+ * <li>a utilização de cada obra, isto é, a fração dos dias do período em que
+ * os seus exemplares estiveram emprestados;</li>
+ * <li>os empréstimos e a taxa de atraso por curso dos alunos e por
+ * departamento dos professores.</li>
+ * </ul>
+ *
+ * O trabalho é dividido com fork/join: cada segmento do histórico é mapeado
+ * em memória e os seus registros são repartidos em tarefas, sem criar um
+ * objeto por empréstimo nem decodificar os emails. Cada thread acumula em contadores próprios, somados
+ * no final, de modo que a memória depende do tamanho do acervo e da
+ * quantidade de threads, e não da quantidade de empréstimos. Das obras, só
+ * as {@value #OBRAS_POR_RELATORIO} primeiras de cada relatório são escritas.
+ *
+ * Um empréstimo devolvido entra no período da sua devolução, como em
+ * {@link GerenciadorDeEmprestimos#consultarHistorico}; um aberto entra se
+ * tiver começado até o fim do período. Um empréstimo está em atraso se foi,
+ * ou ainda não foi, devolvido depois do prazo.
+ *
+ * Os relatórios são gravados em CSV, em UTF-8, no diretório informado.
+ */
+class RelatorioDeCirculacao {
+
+    static final int OBRAS_POR_RELATORIO = 100;
+    static final String ARQUIVO_MAIS_EMPRESTADAS = "obras-mais-emprestadas.csv";
+    static final String ARQUIVO_UTILIZACAO = "utilizacao-das-obras.csv";
+    static final String ARQUIVO_POR_GRUPO = "emprestimos-por-grupo.csv";
+
+    // Registros examinados sem dividir a tarefa
+    private static final int REGISTROS_POR_TAREFA = 1 << 16;
+    private static final int OBRAS_POR_PAGINA = 10_000;
+    // Grupo dos usuários que não são alunos nem professores, ou não cadastrados
+    private static final int OUTROS = 0;
+
+    private final GerenciadorDeUsuarios gerenciadorUsuarios;
+    private final GerenciadorDeObras gerenciadorObras;
+    private final GerenciadorDeEmprestimos gerenciadorEmprestimos;
+
+    /**
+     * Contadores de uma thread. As obras são indicadas pela sua posição no
+     * retrato do acervo tirado no início do relatório.
+     */
+    private static final class Contadores {
+
+        private final int[] emprestimosPorObra;
+        private final long[] diasPorObra;
+        private final int[] abertosPorObra;
+        private final long[] emprestimosPorGrupo;
+        private final long[] atrasadosPorGrupo;
+
+        private Contadores(int obras, int grupos) {
+            emprestimosPorObra = new int[obras];
+            diasPorObra = new long[obras];
+            abertosPorObra = new int[obras];
+            emprestimosPorGrupo = new long[grupos];
+            atrasadosPorGrupo = new long[grupos];
+        }
+
+        private void somar(Contadores outros) {
+            for (int i = 0; i < emprestimosPorObra.length; i++) {
+                emprestimosPorObra[i] += outros.emprestimosPorObra[i];
+                diasPorObra[i] += outros.diasPorObra[i];
+                abertosPorObra[i] += outros.abertosPorObra[i];
+            }
+            for (int i = 0; i < emprestimosPorGrupo.length; i++) {
+                emprestimosPorGrupo[i] += outros.emprestimosPorGrupo[i];
+                atrasadosPorGrupo[i] += outros.atrasadosPorGrupo[i];
+            }
+        }
+    }
+
+    RelatorioDeCirculacao(GerenciadorDeUsuarios gerenciadorUsuarios, GerenciadorDeObras gerenciadorObras,
+            GerenciadorDeEmprestimos gerenciadorEmprestimos) {
+        this.gerenciadorUsuarios = gerenciadorUsuarios;
+        this.gerenciadorObras = gerenciadorObras;
+        this.gerenciadorEmprestimos = gerenciadorEmprestimos;
+    }
+
+    /**
+     * Calcula os relatórios do período e os grava no diretório, escrevendo
+     * um resumo no console.
+     *
+     * @param de        Primeiro dia do período, inclusive.
+     * @param ate       Último dia do período, inclusive.
+     * @param diretorio Diretório dos arquivos CSV; é criado se não existir.
+     */
+    void gerar(LocalDate de, LocalDate ate, Path diretorio) throws IOException {
+        long inicio = System.nanoTime();
+        Execucao execucao = new Execucao(de, ate);
+        gerenciadorEmprestimos.analisar(de, ate, execucao);
+        Contadores total = execucao.somar();
+
+        Files.createDirectories(diretorio);
+        int[] maisEmprestadas = primeiras(execucao.ids.length,
+                Comparator.<Integer>comparingInt(p -> total.emprestimosPorObra[p]), p -> total.emprestimosPorObra[p] > 0);
+        try (Writer saida = abrir(diretorio.resolve(ARQUIVO_MAIS_EMPRESTADAS))) {
+            saida.write("Posição,ID,Título,Empréstimos,Exemplares\n");
+            for (int i = 0; i < maisEmprestadas.length; i++) {
+                int p = maisEmprestadas[i];
+                saida.write((i + 1) + "," + execucao.ids[p] + "," + campo(titulo(execucao.ids[p])) + ","
+                        + total.emprestimosPorObra[p] + "," + execucao.exemplares(total, p) + "\n");
+            }
+        }
+        double diasDoPeriodo = ate.toEpochDay() - de.toEpochDay() + 1;
+        double[] utilizacao = new double[execucao.ids.length];
+        for (int p = 0; p < utilizacao.length; p++) {
+            int exemplares = execucao.exemplares(total, p);
+            utilizacao[p] = exemplares == 0 ? 0 : total.diasPorObra[p] / (exemplares * diasDoPeriodo);
+        }
+        int[] maisUtilizadas = primeiras(utilizacao.length,
+                Comparator.<Integer>comparingDouble(p -> utilizacao[p]), p -> utilizacao[p] > 0);
+        try (Writer saida = abrir(diretorio.resolve(ARQUIVO_UTILIZACAO))) {
+            saida.write("Posição,ID,Título,Dias emprestados,Exemplares,Utilização\n");
+            for (int i = 0; i < maisUtilizadas.length; i++) {
+                int p = maisUtilizadas[i];
+                saida.write((i + 1) + "," + execucao.ids[p] + "," + campo(titulo(execucao.ids[p])) + ","
+                        + total.diasPorObra[p] + "," + execucao.exemplares(total, p) + ","
+                        + String.format(Locale.ROOT, "%.4f", utilizacao[p]) + "\n");
+            }
+        }
+        long emprestimos = 0;
+        long atrasados = 0;
+        Integer[] grupos = new Integer[execucao.nomesDosGrupos.size()];
+        for (int g = 0; g < grupos.length; g++) {
+            grupos[g] = g;
+            emprestimos += total.emprestimosPorGrupo[g];
+            atrasados += total.atrasadosPorGrupo[g];
+        }
+        Arrays.sort(grupos, Comparator.<Integer>comparingLong(g -> total.emprestimosPorGrupo[g]).reversed());
+        try (Writer saida = abrir(diretorio.resolve(ARQUIVO_POR_GRUPO))) {
+            saida.write("Tipo,Grupo,Empréstimos,Em atraso,Taxa de atraso\n");
+            for (int g : grupos) {
+                saida.write(execucao.tiposDosGrupos.get(g) + "," + campo(execucao.nomesDosGrupos.get(g)) + ","
+                        + total.emprestimosPorGrupo[g] + "," + total.atrasadosPorGrupo[g] + ","
+                        + String.format(Locale.ROOT, "%.4f", taxa(total.atrasadosPorGrupo[g], total.emprestimosPorGrupo[g])) + "\n");
+            }
+        }
+        Metricas.registrar(Metricas.Operacao.RELATORIO_DE_CIRCULACAO, inicio);
+        System.out.printf("Relatório de circulação de %s a %s: %d empréstimos, %.1f%% em atraso. Gravado em %s (%.0f ms).%n",
+                de, ate, emprestimos, 100 * taxa(atrasados, emprestimos), diretorio, (System.nanoTime() - inicio) / 1e6);
+    }
+
+    /**
+     * Posições das até {@value #OBRAS_POR_RELATORIO} obras com o maior valor,
+     * em ordem decrescente, com um heap do tamanho do resultado. Em caso de
+     * empate, vem primeiro a obra de menor posição, que tem o menor ID.
+     */
+    private static int[] primeiras(int obras, Comparator<Integer> valor, IntPredicate entra) {
+        Comparator<Integer> ordem = valor.thenComparing(Comparator.<Integer>reverseOrder());
+        PriorityQueue<Integer> menores = new PriorityQueue<>(OBRAS_POR_RELATORIO + 1, ordem);
+        for (int p = 0; p < obras; p++) {
+            if (!entra.test(p)) {
+                continue;
+            }
+            if (menores.size() < OBRAS_POR_RELATORIO) {
+                menores.add(p);
+            } else if (ordem.compare(p, menores.peek()) > 0) {
+                menores.poll();
+                menores.add(p);
+            }
+        }
+        int[] primeiras = new int[menores.size()];
+        for (int i = primeiras.length - 1; i >= 0; i--) {
+            primeiras[i] = menores.poll();
+        }
+        return primeiras;
+    }
+
+    private String titulo(int id) {
+        Obra obra = gerenciadorObras.buscarObraPorId(id);
+        return obra == null ? "" : obra.getTitulo();
+    }
+
+    private static double taxa(long parte, long todo) {
+        return todo == 0 ? 0 : (double) parte / todo;
+    }
+
+    private static Writer abrir(Path arquivo) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(arquivo), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * Campo de texto do CSV, entre aspas se tiver vírgula, aspas ou quebra de linha.
+     */
+    private static String campo(String texto) {
+        if (texto.indexOf(',') < 0 && texto.indexOf('"') < 0 && texto.indexOf('\n') < 0) {
+            return texto;
+        }
+        return '"' + texto.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Estado de um relatório: o retrato do acervo e dos grupos de usuários,
+     * tirado no início, e os contadores de cada thread.
+     */
+    private final class Execucao implements GerenciadorDeEmprestimos.Analise {
+
+        private final int primeiroDia;
+        private final int ultimoDia;
+        private final int hoje = (int) LocalDate.now().toEpochDay();
+        private int[] ids;
+        private int[] quantidades;
+        private final IndicePorId posicoes = new IndicePorId();
+        private final Map<String, Integer> grupoDoEmail = new HashMap<>();
+        // Grupo de cada email pela sua impressão, para os segmentos do
+        // histórico; endereçamento aberto, com o grupo somado de 1 (0 é vazio)
+        private long[] impressoes;
+        private int[] gruposPorImpressao;
+        private final List<String> nomesDosGrupos = new ArrayList<>(List.of("Outros"));
+        private final List<String> tiposDosGrupos = new ArrayList<>(List.of("outros"));
+        private final Map<Thread, Contadores> contadores = new ConcurrentHashMap<>();
+
+        private Execucao(LocalDate de, LocalDate ate) {
+            this.primeiroDia = (int) de.toEpochDay();
+            this.ultimoDia = (int) ate.toEpochDay();
+            retratarAcervo();
+            agruparUsuarios();
+        }
+
+        /**
+         * Guarda ID e quantidade de cada obra, em ordem de ID, lendo o
+         * acervo em páginas para não segurar a trava dele durante a leitura toda.
+         */
+        private void retratarAcervo() {
+            int[] lidos = new int[OBRAS_POR_PAGINA];
+            int[] disponiveis = new int[OBRAS_POR_PAGINA];
+            int quantidade = 0;
+            PaginaDoAcervo pagina = null;
+            do {
+                pagina = gerenciadorObras.listarAcervo(pagina == null ? null : pagina.getProximoCursor(),
+                        OBRAS_POR_PAGINA, OrdemDoAcervo.POR_ID, null);
+                for (Obra obra : pagina.getObras()) {
+                    if (quantidade == lidos.length) {
+                        lidos = Arrays.copyOf(lidos, quantidade * 2);
+                        disponiveis = Arrays.copyOf(disponiveis, quantidade * 2);
+                    }
+                    // IDs repetidos: vale o primeiro, como na busca por ID
+                    if (posicoes.posicaoDe(obra.getId()) < 0) {
+                        posicoes.associar(obra.getId(), quantidade);
+                        lidos[quantidade] = obra.getId();
+                        disponiveis[quantidade] = obra.getQuantidade();
+                        quantidade++;
+                    }
+                }
+            } while (pagina.temMais());
+            ids = Arrays.copyOf(lidos, quantidade);
+            quantidades = Arrays.copyOf(disponiveis, quantidade);
+        }
+
+        private void agruparUsuarios() {
+            Map<String, Integer> grupos = new HashMap<>();
+            for (Usuario usuario : gerenciadorUsuarios.getUsuarios()) {
+                String tipo;
+                String nome;
+                if (usuario instanceof Aluno aluno) {
+                    tipo = "curso";
+                    nome = aluno.getCurso();
+                } else if (usuario instanceof Professor professor) {
+                    tipo = "departamento";
+                    nome = professor.getDepartamento();
+                } else {
+                    continue;
+                }
+                nome = nome == null || nome.isBlank() ? "Não informado" : nome.strip();
+                Integer grupo = grupos.get(tipo + ":" + nome);
+                if (grupo == null) {
+                    grupo = nomesDosGrupos.size();
+                    grupos.put(tipo + ":" + nome, grupo);
+                    nomesDosGrupos.add(nome);
+                    tiposDosGrupos.add(tipo);
+                }
+                grupoDoEmail.put(usuario.getEmail(), grupo);
+            }
+            int capacidade = Integer.highestOneBit(Math.max(16, grupoDoEmail.size() * 2)) << 1;
+            impressoes = new long[capacidade];
+            gruposPorImpressao = new int[capacidade];
+            for (Map.Entry<String, Integer> email : grupoDoEmail.entrySet()) {
+                long impressao = HistoricoDeEmprestimos.impressaoDoEmail(email.getKey());
+                int i = posicaoDaImpressao(impressao);
+                impressoes[i] = impressao;
+                gruposPorImpressao[i] = email.getValue() + 1;
+            }
+        }
+
+        private int posicaoDaImpressao(long impressao) {
+            int mascara = impressoes.length - 1;
+            int i = (int) (impressao ^ (impressao >>> 32)) & mascara;
+            while (gruposPorImpressao[i] != 0 && impressoes[i] != impressao) {
+                i = (i + 1) & mascara;
+            }
+            return i;
+        }
+
+        /**
+         * Grupo de um email de segmento. Uma colisão de impressões, de chance
+         * desprezível, só trocaria o grupo de um email.
+         */
+        private int grupoDaImpressao(long impressao) {
+            int grupo = gruposPorImpressao[posicaoDaImpressao(impressao)];
+            return grupo == 0 ? OUTROS : grupo - 1;
+        }
+
+        private int exemplares(Contadores total, int posicao) {
+            return quantidades[posicao] + total.abertosPorObra[posicao];
+        }
+
+        @Override
+        public void analisar(List<File> segmentos, List<Emprestimo> devolvidosPendentes, List<Emprestimo> abertos) throws IOException {
+            try {
+                ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        invokeAll(new PorSegmentos(segmentos, 0, segmentos.size()),
+                                new PorEmprestimos(devolvidosPendentes, 0, devolvidosPendentes.size()),
+                                new PorEmprestimos(abertos, 0, abertos.size()));
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        private Contadores contadores() {
+            return contadores.computeIfAbsent(Thread.currentThread(), t -> new Contadores(ids.length, nomesDosGrupos.size()));
+        }
+
+        /**
+         * Soma os contadores de todas as threads.
+         */
+        private Contadores somar() {
+            Contadores total = new Contadores(ids.length, nomesDosGrupos.size());
+            for (Contadores parcial : contadores.values()) {
+                total.somar(parcial);
+            }
+            contadores.clear();
+            return total;
+        }
+
+        private int grupoDe(String email) {
+            return grupoDoEmail.getOrDefault(email, OUTROS);
+        }
+
+        /**
+         * Conta um empréstimo devolvido, se a devolução for do período.
+         */
+        private void devolvido(Contadores c, int obra, int grupo, int emprestimo, int entrega) {
+            if (entrega < primeiroDia || entrega > ultimoDia) {
+                return;
+            }
+            c.emprestimosPorGrupo[grupo]++;
+            if (entrega > emprestimo + Emprestimo.PRAZO_EM_DIAS) {
+                c.atrasadosPorGrupo[grupo]++;
+            }
+            if (obra >= 0) {
+                c.emprestimosPorObra[obra]++;
+                // Devolvido no mesmo dia: conta um dia emprestado
+                c.diasPorObra[obra] += diasNoPeriodo(emprestimo, Math.max(entrega, emprestimo + 1));
+            }
+        }
+
+        /**
+         * Conta um empréstimo em aberto, se tiver começado até o fim do período.
+         */
+        private void aberto(Contadores c, int obra, int grupo, int emprestimo, int vencimento) {
+            if (obra >= 0) {
+                // Exemplar fora da estante, seja qual for o período
+                c.abertosPorObra[obra]++;
+            }
+            if (emprestimo > ultimoDia) {
+                return;
+            }
+            c.emprestimosPorGrupo[grupo]++;
+            if (hoje > vencimento) {
+                c.atrasadosPorGrupo[grupo]++;
+            }
+            if (obra >= 0) {
+                c.emprestimosPorObra[obra]++;
+                c.diasPorObra[obra] += diasNoPeriodo(emprestimo, hoje + 1);
+            }
+        }
+
+        /**
+         * Dias do intervalo [inicio, fim) que caem no período.
+         */
+        private long diasNoPeriodo(int inicio, int fim) {
+            return Math.max(0, Math.min(fim, ultimoDia + 1) - Math.max(inicio, primeiroDia));
+        }
+
+        /**
+         * Divide a lista de segmentos ao meio até chegar a um só.
+         */
+        // Como as outras tarefas abaixo, nunca é serializada
+        @SuppressWarnings("serial")
+        private final class PorSegmentos extends RecursiveAction {
+
+            private final List<File> segmentos;
+            private final int de;
+            private final int ate;
+
+            private PorSegmentos(List<File> segmentos, int de, int ate) {
+                this.segmentos = segmentos;
+                this.de = de;
+                this.ate = ate;
+            }
+
+            @Override
+            protected void compute() {
+                if (ate - de > 1) {
+                    int meio = (de + ate) >>> 1;
+                    invokeAll(new PorSegmentos(segmentos, de, meio), new PorSegmentos(segmentos, meio, ate));
+                } else if (ate > de) {
+                    HistoricoDeEmprestimos.SegmentoMapeado segmento;
+                    try {
+                        segmento = HistoricoDeEmprestimos.mapear(segmentos.get(de));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    int[] grupos = new int[segmento.emails()];
+                    for (int i = 0; i < grupos.length; i++) {
+                        grupos[i] = grupoDaImpressao(segmento.impressaoDoEmail(i));
+                    }
+                    new PorRegistros(segmento, grupos, 0, segmento.registros()).compute();
+                }
+            }
+        }
+
+        /**
+         * Conta um trecho dos registros de um segmento, dividindo-o enquanto
+         * for maior que {@value #REGISTROS_POR_TAREFA} registros.
+         */
+        @SuppressWarnings("serial")
+        private final class PorRegistros extends RecursiveAction {
+
+            private final HistoricoDeEmprestimos.SegmentoMapeado segmento;
+            private final int[] grupos;
+            private final int de;
+            private final int ate;
+
+            private PorRegistros(HistoricoDeEmprestimos.SegmentoMapeado segmento, int[] grupos, int de, int ate) {
+                this.segmento = segmento;
+                this.grupos = grupos;
+                this.de = de;
+                this.ate = ate;
+            }
+
+            @Override
+            protected void compute() {
+                if (ate - de > REGISTROS_POR_TAREFA) {
+                    int meio = (de + ate) >>> 1;
+                    invokeAll(new PorRegistros(segmento, grupos, de, meio), new PorRegistros(segmento, grupos, meio, ate));
+                    return;
+                }
+                Contadores c = contadores();
+                for (int i = de; i < ate; i++) {
+                    devolvido(c, posicoes.posicaoDe(segmento.idObra(i)), grupos[segmento.posicaoDoEmail(i)],
+                            segmento.diaDoEmprestimo(i), segmento.diaDaEntrega(i));
+                }
+            }
+        }
+
+        /**
+         * Conta um trecho de uma lista de empréstimos em memória, devolvidos
+         * ou abertos.
+         */
+        @SuppressWarnings("serial")
+        private final class PorEmprestimos extends RecursiveAction {
+
+            private final List<Emprestimo> emprestimos;
+            private final int de;
+            private final int ate;
+
+            private PorEmprestimos(List<Emprestimo> emprestimos, int de, int ate) {
+                this.emprestimos = emprestimos;
+                this.de = de;
+                this.ate = ate;
+            }
+
+            @Override
+            protected void compute() {
+                if (ate - de > REGISTROS_POR_TAREFA) {
+                    int meio = (de + ate) >>> 1;
+                    invokeAll(new PorEmprestimos(emprestimos, de, meio), new PorEmprestimos(emprestimos, meio, ate));
+                    return;
+                }
+                Contadores c = contadores();
+                for (int i = de; i < ate; i++) {
+                    Emprestimo e = emprestimos.get(i);
+                    int obra = posicoes.posicaoDe(e.getIdObra());
+                    int grupo = grupoDe(e.getEmailUsuario());
+                    int emprestimo = (int) e.getDataEmprestimo().toEpochDay();
+                    if (e.isDevolvido()) {
+                        devolvido(c, obra, grupo, emprestimo, (int) e.getDataEntrega().toEpochDay());
+                    } else {
+                        aberto(c, obra, grupo, emprestimo, (int) e.getDataDevolucao().toEpochDay());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package biblioteca;
+
+import java.time.LocalDate;
+
+/**
+ * Recebe as alterações feitas nos gerenciadores, para repassá-las a outras
+ * instâncias (veja {@link LiderDeReplicacao}).
+ *
+ * Cada alteração acontece entre {@link #iniciarAlteracao()} e
+ * {@link #terminarAlteracao()}, chamados antes de qualquer trava do
+ * gerenciador, e é informada ainda dentro das travas que a ordenam em relação
+ * às outras alterações do mesmo usuário ou da mesma obra. Assim, quem recebe
+ * pode impedir novas alterações enquanto copia o estado dos gerenciadores.
+ */
+interface Replicacao {
+
+    /**
+     * Não repassa nada; usada quando a instância não é líder.
+     */
+    Replicacao NENHUMA = new Replicacao() {
+    };
+
+    default void iniciarAlteracao() {
+    }
+
+    default void terminarAlteracao() {
+    }
+
+    default void emprestimo(String emailUsuario, int idObra, LocalDate dataEmprestimo) {
+    }
+
+    default void devolucao(String emailUsuario, int idObra, LocalDate dataEntrega) {
+    }
+
+    default void obraIncluida(Obra obra) {
+    }
+
+    default void tituloAlterado(int idObra, String titulo) {
+    }
+
+    default void usuarioCadastrado(Usuario usuario) {
+    }
+}
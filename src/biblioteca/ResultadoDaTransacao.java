@@ -0,0 +1,36 @@
+package biblioteca;
+
+/**
+ * Resultado de uma transação processada em lote, com a mensagem do motivo em
+ * caso de recusa.
+ *
+ * @param sucesso  Se a transação foi aplicada.
+ * @param mensagem Mensagem mostrada ao usuário.
+ */
+public record ResultadoDaTransacao(boolean sucesso, String mensagem) {
+
+    static final ResultadoDaTransacao DEVOLUCAO_REGISTRADA =
+            new ResultadoDaTransacao(true, "Devolução registrada com sucesso!");
+    static final ResultadoDaTransacao EMPRESTIMO_NAO_ENCONTRADO =
+            new ResultadoDaTransacao(false, "Empréstimo não encontrado.");
+    static final ResultadoDaTransacao USUARIO_NAO_ENCONTRADO =
+            new ResultadoDaTransacao(false, "Usuário não encontrado.");
+    static final ResultadoDaTransacao DEVOLUCAO_SEM_GRAVACAO =
+            new ResultadoDaTransacao(true, "Devolução registrada, mas ainda não gravada em disco; ela será gravada no próximo salvamento.");
+
+    static ResultadoDaTransacao de(ResultadoEmprestimo resultado) {
+        return new ResultadoDaTransacao(resultado.isSucesso(), resultado.getMensagem());
+    }
+
+    /**
+     * O mesmo resultado para uma transação aplicada cuja gravação em disco
+     * falhou: ela continua valendo, mas só chega ao disco no próximo
+     * salvamento.
+     */
+    ResultadoDaTransacao semGravacao() {
+        if (!sucesso) {
+            return this;
+        }
+        return equals(DEVOLUCAO_REGISTRADA) ? DEVOLUCAO_SEM_GRAVACAO : de(ResultadoEmprestimo.REALIZADO_SEM_GRAVACAO);
+    }
+}
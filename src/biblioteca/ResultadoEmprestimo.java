@@ -0,0 +1,27 @@
+package biblioteca;
+
+/**
+ * Resultado de uma tentativa de empréstimo, com a mensagem mostrada ao usuário.
+ */
+public enum ResultadoEmprestimo {
+    REALIZADO("Empréstimo realizado com sucesso!"),
+    BIBLIOTECARIO("Bibliotecários não podem realizar empréstimos."),
+    LIMITE_ATINGIDO("Limite de empréstimos atingido!"),
+    USUARIO_BLOQUEADO("Usuário bloqueado devido a atrasos."),
+    OBRA_INDISPONIVEL("Obra indisponível para empréstimo."),
+    REALIZADO_SEM_GRAVACAO("Empréstimo realizado, mas ainda não gravado em disco; ele será gravado no próximo salvamento.");
+
+    private final String mensagem;
+
+    ResultadoEmprestimo(String mensagem) {
+        this.mensagem = mensagem;
+    }
+
+    public String getMensagem() {
+        return mensagem;
+    }
+
+    public boolean isSucesso() {
+        return this == REALIZADO || this == REALIZADO_SEM_GRAVACAO;
+    }
+}
@@ -0,0 +1,315 @@
+package biblioteca;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Réplica de um {@link LiderDeReplicacao}. Na partida, recebe do líder a
+ * imagem do estado e cria os gerenciadores a partir dela; depois, aplica os
+ * registros do líder na ordem em que chegam, por uma única thread, enquanto
+ * os gerenciadores atendem consultas.
+ *
+ * A réplica grava os seus próprios arquivos no diretório de trabalho, que
+ * deve ser só dela: os arquivos dos gerenciadores que estiverem lá são
+ * substituídos pela imagem. Por isso ela marca o diretório com o arquivo
+ * {@value #ARQUIVO_DA_REPLICA}, travado enquanto ela roda, e não inicia num
+ * diretório sem a marca que já tenha arquivos de dados, como o de um líder,
+ * nem num em que outra réplica esteja rodando.
+ *
+ * Se a conexão cair, a réplica se reconecta e continua da última sequência
+ * aplicada; se o líder não tiver mais os registros seguintes, ou tiver sido
+ * reiniciado, a réplica precisa ser reiniciada para receber uma nova imagem.
+ *
+ * Dois empréstimos e devoluções da mesma obra, feitos por usuários
+ * diferentes, podem chegar em ordem diferente da que alterou o estoque no
+ * líder. Um empréstimo que chega antes da devolução que o liberou fica
+ * devendo o exemplar, descontado na devolução seguinte da obra.
+ */
+final class SeguidorDeReplicacao {
+
+    // Arquivos dos gerenciadores, substituídos pela imagem; os do acervo e o
+    // histórico são substituídos à parte
+    private static final String[] ARQUIVOS_DE_TRABALHO = {
+        "usuarios.txt", "acervo.csv.idx", "emprestimos.dat", "emprestimos.diario", InstantaneoDoSistema.ARQUIVO
+    };
+    private static final long INTERVALO_DE_RECONEXAO_MS = 1000;
+    static final String ARQUIVO_DA_REPLICA = "replica.lock";
+
+    private final String host;
+    private final int porta;
+    private GerenciadorDeUsuarios gerenciadorUsuarios;
+    private GerenciadorDeObras gerenciadorObras;
+    private GerenciadorDeEmprestimos gerenciadorEmprestimos;
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private long epoca;
+    private long aplicada = -1;
+    private long doLider = -1;
+    // Mantém a trava do diretório enquanto o processo roda
+    private FileChannel marcaDoDiretorio;
+    // Exemplares emprestados antes de a devolução que os liberou chegar, por obra
+    private final Map<Integer, Integer> exemplaresDevidos = new HashMap<>();
+
+    /**
+     * Construtor da classe.
+     *
+     * @param host  Endereço do líder.
+     * @param porta Porta de replicação do líder.
+     */
+    SeguidorDeReplicacao(String host, int porta) {
+        this.host = host;
+        this.porta = porta;
+    }
+
+    /**
+     * Conecta ao líder, recebe a imagem e cria os gerenciadores.
+     */
+    void iniciar() throws IOException {
+        reservarDiretorio();
+        if (!conectar()) {
+            throw new IOException("O líder não enviou a imagem do estado");
+        }
+    }
+
+    /**
+     * Marca o diretório de trabalho como da réplica e o trava.
+     *
+     * @throws IOException Se o diretório tiver dados de outra instância ou
+     *                     outra réplica estiver rodando nele.
+     */
+    private void reservarDiretorio() throws IOException {
+        Path marca = Path.of(ARQUIVO_DA_REPLICA);
+        Path diretorio = Path.of("").toAbsolutePath();
+        if (!Files.exists(marca) && temArquivosDeDados()) {
+            throw new IOException("O diretório " + diretorio + " tem os arquivos de outra instância, que a imagem do líder"
+                    + " substituiria; inicie a réplica num diretório só dela.");
+        }
+        FileChannel canal = FileChannel.open(marca, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock trava;
+        try {
+            trava = canal.tryLock();
+        } catch (OverlappingFileLockException e) {
+            trava = null;
+        }
+        if (trava == null) {
+            canal.close();
+            throw new IOException("Outra réplica já está rodando no diretório " + diretorio + ".");
+        }
+        marcaDoDiretorio = canal;
+    }
+
+    private static boolean temArquivosDeDados() throws IOException {
+        for (String arquivo : ARQUIVOS_DE_TRABALHO) {
+            if (Files.exists(Path.of(arquivo))) {
+                return true;
+            }
+        }
+        return !ParticaoDoAcervo.arquivosExistentes().isEmpty()
+                || Files.exists(Path.of(GerenciadorDeEmprestimos.DIRETORIO_HISTORICO));
+    }
+
+    GerenciadorDeUsuarios getGerenciadorUsuarios() {
+        return gerenciadorUsuarios;
+    }
+
+    GerenciadorDeObras getGerenciadorObras() {
+        return gerenciadorObras;
+    }
+
+    GerenciadorDeEmprestimos getGerenciadorEmprestimos() {
+        return gerenciadorEmprestimos;
+    }
+
+    /**
+     * Aplica os registros do líder, reconectando depois de cada queda.
+     * Retorna somente quando a réplica não puder mais continuar de onde parou.
+     */
+    void acompanhar() {
+        while (true) {
+            try {
+                aplicarRegistros();
+            } catch (EOFException e) {
+                System.out.println("Conexão com o líder perdida: o líder encerrou a conexão.");
+            } catch (IOException e) {
+                System.out.println("Conexão com o líder perdida: " + e.getMessage());
+            }
+            fechar();
+            while (true) {
+                try {
+                    Thread.sleep(INTERVALO_DE_RECONEXAO_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    if (!conectar()) {
+                        return;
+                    }
+                    System.out.println("Reconectada ao líder a partir da sequência " + aplicada + ".");
+                    break;
+                } catch (IOException e) {
+                    fechar();
+                }
+            }
+        }
+    }
+
+    /**
+     * Abre a conexão e, na primeira vez, carrega a imagem.
+     *
+     * @return false se o líder enviou uma imagem a uma réplica já carregada.
+     */
+    private boolean conectar() throws IOException {
+        socket = new Socket(host, porta);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeInt(LiderDeReplicacao.ASSINATURA);
+        out.writeShort(LiderDeReplicacao.VERSAO);
+        out.writeLong(epoca);
+        out.writeLong(gerenciadorEmprestimos == null ? -1 : aplicada);
+        out.flush();
+        byte resposta = in.readByte();
+        long epocaDoLider = in.readLong();
+        if (resposta == LiderDeReplicacao.CONTINUAR && epocaDoLider == epoca) {
+            return true;
+        }
+        if (resposta != LiderDeReplicacao.IMAGEM) {
+            throw new IOException("Resposta desconhecida do líder: " + resposta);
+        }
+        if (gerenciadorEmprestimos != null) {
+            System.out.println("O líder foi reiniciado ou não tem mais os registros seguintes à sequência " + aplicada + ".");
+            fechar();
+            return false;
+        }
+        epoca = epocaDoLider;
+        carregarImagem();
+        return true;
+    }
+
+    private void carregarImagem() throws IOException {
+        long inicio = System.nanoTime();
+        long sequencia = in.readLong();
+        Map<Byte, byte[]> secoes = new HashMap<>();
+        for (byte tipo : new byte[] {InstantaneoDoSistema.USUARIOS, InstantaneoDoSistema.ACERVO, InstantaneoDoSistema.EMPRESTIMOS}) {
+            byte[] conteudo = new byte[in.readInt()];
+            in.readFully(conteudo);
+            secoes.put(tipo, conteudo);
+        }
+        for (String arquivo : ARQUIVOS_DE_TRABALHO) {
+            Files.deleteIfExists(Path.of(arquivo));
+        }
+        for (Path arquivo : ParticaoDoAcervo.arquivosExistentes()) {
+            Files.delete(arquivo);
+        }
+        GerenciadorDeEmprestimos.restaurarHistorico(in);
+        InstantaneoDoSistema instantaneo = InstantaneoDoSistema.deSecoes(secoes);
+        gerenciadorUsuarios = new GerenciadorDeUsuarios(instantaneo);
+        gerenciadorObras = new GerenciadorDeObras(instantaneo);
+        gerenciadorEmprestimos = new GerenciadorDeEmprestimos(gerenciadorObras, instantaneo);
+        aplicada = sequencia;
+        doLider = sequencia;
+        Metricas.registrarReplicacao(doLider, aplicada);
+        System.out.printf("Imagem do líder carregada até a sequência %d em %d ms.%n",
+                sequencia, (System.nanoTime() - inicio) / 1_000_000);
+    }
+
+    private void aplicarRegistros() throws IOException {
+        while (true) {
+            byte tipo = in.readByte();
+            if (tipo == LiderDeReplicacao.PULSO) {
+                doLider = Math.max(doLider, in.readLong());
+            } else if (tipo == LiderDeReplicacao.REGISTRO) {
+                long sequencia = in.readLong();
+                long criadoEm = in.readLong();
+                byte[] conteudo = new byte[in.readInt()];
+                in.readFully(conteudo);
+                if (sequencia != aplicada + 1) {
+                    throw new IOException("Registro " + sequencia + " fora de ordem depois de " + aplicada);
+                }
+                aplicar(ByteBuffer.wrap(conteudo));
+                aplicada = sequencia;
+                doLider = Math.max(doLider, sequencia);
+                Metricas.registrarDuracao(Metricas.Operacao.REPLICACAO, (System.currentTimeMillis() - criadoEm) * 1_000_000);
+            } else {
+                throw new IOException("Mensagem desconhecida do líder: " + tipo);
+            }
+            // Confirma ao fim de cada lote recebido
+            if (in.available() == 0) {
+                out.writeLong(aplicada);
+                out.flush();
+                Metricas.registrarReplicacao(doLider, aplicada);
+            }
+        }
+    }
+
+    private void aplicar(ByteBuffer dados) {
+        switch (dados.get()) {
+            case LiderDeReplicacao.EMPRESTIMO -> aplicarTransacao(TransacaoDeEmprestimo.Tipo.EMPRESTIMO, dados);
+            case LiderDeReplicacao.DEVOLUCAO -> aplicarTransacao(TransacaoDeEmprestimo.Tipo.DEVOLUCAO, dados);
+            case LiderDeReplicacao.OBRA -> gerenciadorObras.adicionarObra(new Obra(dados.getInt(),
+                    InstantaneoDoSistema.lerTexto(dados), InstantaneoDoSistema.lerTexto(dados), dados.getInt()));
+            case LiderDeReplicacao.TITULO -> gerenciadorObras.atualizarTitulo(dados.getInt(), InstantaneoDoSistema.lerTexto(dados));
+            case LiderDeReplicacao.USUARIO -> {
+                Usuario usuario = GerenciadorDeUsuarios.lerUsuario(dados);
+                if (usuario != null) {
+                    gerenciadorUsuarios.cadastrarUsuario(usuario);
+                }
+            }
+            default -> System.out.println("Registro de replicação desconhecido ignorado.");
+        }
+    }
+
+    private void aplicarTransacao(TransacaoDeEmprestimo.Tipo tipo, ByteBuffer dados) {
+        String email = InstantaneoDoSistema.lerTexto(dados);
+        int idObra = dados.getInt();
+        LocalDate data = LocalDate.ofEpochDay(dados.getLong());
+        if (!gerenciadorEmprestimos.aplicarReplicada(new TransacaoDeEmprestimo(tipo, email, idObra, data))) {
+            return;
+        }
+        Obra obra = gerenciadorObras.buscarObraPorId(idObra);
+        if (obra == null) {
+            return;
+        }
+        if (tipo == TransacaoDeEmprestimo.Tipo.EMPRESTIMO) {
+            if (!gerenciadorObras.emprestar(obra)) {
+                exemplaresDevidos.merge(idObra, 1, Integer::sum);
+                return;
+            }
+        } else {
+            Integer devidos = exemplaresDevidos.get(idObra);
+            if (devidos != null) {
+                if (devidos == 1) {
+                    exemplaresDevidos.remove(idObra);
+                } else {
+                    exemplaresDevidos.put(idObra, devidos - 1);
+                }
+                return;
+            }
+            gerenciadorObras.devolver(obra);
+        }
+        gerenciadorObras.registrarAlteracao(obra);
+    }
+
+    private void fechar() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // A conexão já está perdida
+            }
+            socket = null;
+        }
+    }
+}
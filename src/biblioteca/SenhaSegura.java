@@ -0,0 +1,89 @@
+package biblioteca;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Geração e verificação de hashes de senha com sal (PBKDF2 com HMAC-SHA256).
+ *
+ * O hash é guardado no formato {@code pbkdf2$iterações$sal$hash}, com sal e
+ * hash em Base64. Valores fora desse formato são tratados como senhas em texto
+ * puro, gravadas por versões anteriores do sistema.
+ */
+final class SenhaSegura {
+
+    private static final String PREFIXO = "pbkdf2$";
+    private static final String ALGORITMO = "PBKDF2WithHmacSHA256";
+    private static final int ITERACOES = 100_000;
+    private static final int BYTES_SAL = 16;
+    private static final int BITS_HASH = 256;
+    private static final SecureRandom ALEATORIO = new SecureRandom();
+
+    private SenhaSegura() {
+    }
+
+    /**
+     * Gera o hash de uma senha com um sal aleatório.
+     *
+     * @param senha Senha em texto puro.
+     * @return O hash no formato armazenado.
+     */
+    static String gerarHash(String senha) {
+        byte[] sal = new byte[BYTES_SAL];
+        ALEATORIO.nextBytes(sal);
+        Base64.Encoder base64 = Base64.getEncoder();
+        return PREFIXO + ITERACOES + "$" + base64.encodeToString(sal) + "$"
+                + base64.encodeToString(derivar(senha, sal, ITERACOES));
+    }
+
+    /**
+     * Verifica se a senha corresponde ao valor armazenado, em tempo constante.
+     *
+     * @param senha      Senha informada no login.
+     * @param armazenada Hash armazenado, ou a senha em texto puro de cadastros antigos.
+     * @return true se a senha estiver correta.
+     */
+    static boolean verificar(String senha, String armazenada) {
+        if (!isHash(armazenada)) {
+            return MessageDigest.isEqual(bytes(senha), bytes(armazenada));
+        }
+        String[] partes = armazenada.split("\\$");
+        if (partes.length != 4) {
+            return false;
+        }
+        try {
+            Base64.Decoder base64 = Base64.getDecoder();
+            byte[] esperado = base64.decode(partes[3]);
+            byte[] calculado = derivar(senha, base64.decode(partes[2]), Integer.parseInt(partes[1]));
+            return MessageDigest.isEqual(esperado, calculado);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Informa se o valor armazenado já é um hash, e não uma senha em texto puro.
+     */
+    static boolean isHash(String armazenada) {
+        return armazenada != null && armazenada.startsWith(PREFIXO);
+    }
+
+    private static byte[] derivar(String senha, byte[] sal, int iteracoes) {
+        PBEKeySpec especificacao = new PBEKeySpec(senha.toCharArray(), sal, iteracoes, BITS_HASH);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITMO).generateSecret(especificacao).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Algoritmo de hash de senha indisponível: " + ALGORITMO, e);
+        } finally {
+            especificacao.clearPassword();
+        }
+    }
+
+    private static byte[] bytes(String texto) {
+        return texto == null ? new byte[0] : texto.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+    }
+}
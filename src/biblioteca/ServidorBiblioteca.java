@@ -0,0 +1,334 @@
+package biblioteca;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Predicate;
+
+/**
+ * Modo servidor do sistema da biblioteca. Atende vários terminais pela rede ao
+ * mesmo tempo, cada conexão em uma thread virtual e com a sua própria sessão,
+ * todas compartilhando os mesmos gerenciadores.
+ *
+ * O protocolo é de texto, uma linha por comando, em UTF-8. Cada resposta
+ * começa com "OK" ou "ERRO"; respostas com várias linhas trazem a contagem
+ * logo após o "OK".
+ *
+ * <pre>
+ * LOGIN email senha     -> OK token nome | ERRO mensagem
+ * SESSAO token          -> OK nome | ERRO mensagem (retoma uma sessão sem verificar a senha)
+ * BUSCAR termos         -> OK n, seguido de n linhas "id;título;quantidade"
+ * AUTOR termos          -> OK n, seguido de n linhas "id;título;quantidade;autor" das
+ *                          obras cujo autor casa com os termos
+ * DISPONIVEIS [termos]  -> OK n total, seguido de n linhas "id;título;quantidade" das
+ *                          obras com exemplares disponíveis que casam com os termos;
+ *                          total é a quantidade de obras disponíveis no acervo
+ * ACERVO [TITULO] [DISPONIVEIS] [tamanho] [cursor]
+ *                       -> OK n cursor, seguido de n linhas "id;título;quantidade";
+ *                          o cursor é "-" na última página
+ * EMPRESTAR id          -> OK mensagem | ERRO mensagem
+ * DEVOLVER id           -> OK mensagem | ERRO mensagem
+ * EMPRESTADAS           -> OK n, seguido de n linhas "email;idObra" (bibliotecários)
+ * ATRASADOS             -> OK n, seguido de n linhas "email;idObra" (bibliotecários)
+ * METRICAS              -> OK n, seguido de n linhas do relatório de métricas (bibliotecários)
+ * SAIR                  -> OK, e a conexão é encerrada
+ * </pre>
+ *
+ * O token da sessão é revogado quando a conexão que fez o login ou a retomou
+ * sai ou cai, e também quando ela faz outro login.
+ *
+ * Uma réplica (veja {@link SeguidorDeReplicacao}) atende em modo somente
+ * leitura: EMPRESTAR e DEVOLVER respondem ERRO, e os demais comandos
+ * refletem o estado do líder com o atraso da replicação.
+ */
+public class ServidorBiblioteca {
+
+    public static final int PORTA_PADRAO = 5050;
+    private static final int RESULTADOS_POR_BUSCA = 20;
+    private static final int OBRAS_POR_PAGINA = 100;
+    private static final int FILA_DE_CONEXOES = 4096;
+
+    private final GerenciadorDeUsuarios gerenciadorUsuarios;
+    private final GerenciadorDeObras gerenciadorObras;
+    private final GerenciadorDeEmprestimos gerenciadorEmprestimos;
+    private final int porta;
+    private final boolean somenteLeitura;
+
+    /**
+     * Construtor da classe.
+     *
+     * @param gerenciadorUsuarios    Gerenciador de usuários compartilhado.
+     * @param gerenciadorObras       Gerenciador de obras compartilhado.
+     * @param gerenciadorEmprestimos Gerenciador de empréstimos compartilhado.
+     * @param porta                  Porta TCP em que o servidor escuta.
+     */
+    public ServidorBiblioteca(GerenciadorDeUsuarios gerenciadorUsuarios, GerenciadorDeObras gerenciadorObras,
+            GerenciadorDeEmprestimos gerenciadorEmprestimos, int porta) {
+        this(gerenciadorUsuarios, gerenciadorObras, gerenciadorEmprestimos, porta, false);
+    }
+
+    /**
+     * Construtor da classe.
+     *
+     * @param gerenciadorUsuarios    Gerenciador de usuários compartilhado.
+     * @param gerenciadorObras       Gerenciador de obras compartilhado.
+     * @param gerenciadorEmprestimos Gerenciador de empréstimos compartilhado.
+     * @param porta                  Porta TCP em que o servidor escuta.
+     * @param somenteLeitura         Se true, recusa empréstimos e devoluções.
+     */
+    public ServidorBiblioteca(GerenciadorDeUsuarios gerenciadorUsuarios, GerenciadorDeObras gerenciadorObras,
+            GerenciadorDeEmprestimos gerenciadorEmprestimos, int porta, boolean somenteLeitura) {
+        this.gerenciadorUsuarios = gerenciadorUsuarios;
+        this.gerenciadorObras = gerenciadorObras;
+        this.gerenciadorEmprestimos = gerenciadorEmprestimos;
+        this.porta = porta;
+        this.somenteLeitura = somenteLeitura;
+    }
+
+    /**
+     * Aceita conexões até o processo ser encerrado.
+     */
+    public void iniciar() throws IOException {
+        try (ServerSocket servidor = new ServerSocket(porta, FILA_DE_CONEXOES);
+                ExecutorService sessoes = Executors.newVirtualThreadPerTaskExecutor()) {
+            System.out.println("Servidor da biblioteca escutando na porta " + porta + ".");
+            while (true) {
+                Socket conexao = servidor.accept();
+                sessoes.submit(() -> atender(conexao));
+            }
+        }
+    }
+
+    private void atender(Socket conexao) {
+        try (conexao;
+                BufferedReader entrada = new BufferedReader(new InputStreamReader(conexao.getInputStream(), StandardCharsets.UTF_8));
+                PrintWriter saida = new PrintWriter(new BufferedWriter(new OutputStreamWriter(conexao.getOutputStream(), StandardCharsets.UTF_8)))) {
+            Sessao sessao = new Sessao(saida);
+            try {
+                String linha;
+                while ((linha = entrada.readLine()) != null) {
+                    boolean continuar = sessao.executar(linha.trim());
+                    saida.flush();
+                    if (!continuar) {
+                        break;
+                    }
+                }
+            } finally {
+                sessao.encerrar();
+            }
+        } catch (IOException e) {
+            // Conexão encerrada pelo terminal; nada a fazer
+        }
+    }
+
+    /**
+     * Estado de uma conexão: o usuário autenticado e o canal de resposta.
+     */
+    private final class Sessao {
+
+        private final PrintWriter saida;
+        private Usuario usuarioLogado;
+        private String token;
+
+        Sessao(PrintWriter saida) {
+            this.saida = saida;
+        }
+
+        /**
+         * Revoga o token usado pela conexão, que está sendo encerrada.
+         */
+        void encerrar() {
+            gerenciadorUsuarios.encerrarSessao(token);
+            token = null;
+            usuarioLogado = null;
+        }
+
+        /**
+         * Executa um comando e escreve a resposta.
+         *
+         * @return false se a sessão deve ser encerrada.
+         */
+        boolean executar(String linha) {
+            int espaco = linha.indexOf(' ');
+            String comando = (espaco < 0 ? linha : linha.substring(0, espaco)).toUpperCase();
+            String argumento = espaco < 0 ? "" : linha.substring(espaco + 1).trim();
+
+            if (comando.equals("SAIR")) {
+                saida.println("OK");
+                return false;
+            }
+            if (comando.equals("LOGIN")) {
+                login(argumento);
+                return true;
+            }
+            if (comando.equals("SESSAO")) {
+                retomarSessao(argumento);
+                return true;
+            }
+            if (usuarioLogado == null) {
+                saida.println("ERRO Faça login primeiro.");
+                return true;
+            }
+            if (somenteLeitura && (comando.equals("EMPRESTAR") || comando.equals("DEVOLVER"))) {
+                saida.println("ERRO Esta instância é uma réplica somente leitura.");
+                return true;
+            }
+            switch (comando) {
+                case "BUSCAR" -> buscar(argumento);
+                case "AUTOR" -> buscarPorAutor(argumento);
+                case "DISPONIVEIS" -> buscarDisponiveis(argumento);
+                case "ACERVO" -> listarAcervo(argumento);
+                case "EMPRESTAR" -> emprestar(argumento);
+                case "DEVOLVER" -> devolver(argumento);
+                case "EMPRESTADAS" -> relatorio(gerenciadorEmprestimos.getEmprestimosAbertos());
+                case "ATRASADOS" -> relatorio(gerenciadorEmprestimos.getEmprestimosAtrasados());
+                case "METRICAS" -> metricas();
+                default -> saida.println("ERRO Comando desconhecido: " + comando);
+            }
+            return true;
+        }
+
+        private void login(String argumento) {
+            String[] partes = argumento.split(" ", 2);
+            String novo = partes.length == 2 ? gerenciadorUsuarios.abrirSessao(partes[0], partes[1]) : null;
+            if (novo == null) {
+                saida.println("ERRO Email ou senha incorretos.");
+            } else {
+                encerrar();
+                token = novo;
+                usuarioLogado = gerenciadorUsuarios.usuarioDaSessao(novo);
+                saida.println("OK " + novo + " " + usuarioLogado.getNome());
+            }
+        }
+
+        private void retomarSessao(String retomado) {
+            Usuario usuario = gerenciadorUsuarios.usuarioDaSessao(retomado);
+            if (usuario == null) {
+                saida.println("ERRO Sessão inválida ou expirada.");
+            } else {
+                if (!retomado.equals(token)) {
+                    encerrar();
+                }
+                token = retomado;
+                usuarioLogado = usuario;
+                saida.println("OK " + usuario.getNome());
+            }
+        }
+
+        private void buscar(String consulta) {
+            List<Obra> obras = gerenciadorObras.buscarObrasPorTitulo(consulta, 0, RESULTADOS_POR_BUSCA);
+            saida.println("OK " + obras.size());
+            for (Obra obra : obras) {
+                saida.println(obra.getId() + ";" + obra.getTitulo() + ";" + obra.getQuantidade());
+            }
+        }
+
+        private void buscarPorAutor(String consulta) {
+            List<Obra> obras = gerenciadorObras.buscarObrasPorAutor(consulta, 0, RESULTADOS_POR_BUSCA, false);
+            saida.println("OK " + obras.size());
+            for (Obra obra : obras) {
+                saida.println(obra.getId() + ";" + obra.getTitulo() + ";" + obra.getQuantidade() + ";" + obra.getAutor());
+            }
+        }
+
+        private void buscarDisponiveis(String consulta) {
+            List<Obra> obras = consulta.isBlank() ? List.of()
+                    : gerenciadorObras.buscarObrasPorTitulo(consulta, 0, RESULTADOS_POR_BUSCA, true);
+            saida.println("OK " + obras.size() + " " + gerenciadorObras.contarDisponiveis());
+            for (Obra obra : obras) {
+                saida.println(obra.getId() + ";" + obra.getTitulo() + ";" + obra.getQuantidade());
+            }
+        }
+
+        /**
+         * Uma página do acervo. Os argumentos podem vir em qualquer ordem: um
+         * número é o tamanho da página, e o que não for palavra-chave é o
+         * cursor devolvido pela página anterior.
+         */
+        private void listarAcervo(String argumento) {
+            OrdemDoAcervo ordem = OrdemDoAcervo.POR_ID;
+            Predicate<Obra> filtro = null;
+            int tamanho = OBRAS_POR_PAGINA;
+            String cursor = null;
+            for (String parte : argumento.split(" +")) {
+                if (parte.isEmpty()) {
+                    continue;
+                }
+                if (parte.equalsIgnoreCase("TITULO")) {
+                    ordem = OrdemDoAcervo.POR_TITULO;
+                } else if (parte.equalsIgnoreCase("DISPONIVEIS")) {
+                    filtro = obra -> obra.getQuantidade() > 0;
+                } else if (parte.length() <= 9 && parte.chars().allMatch(Character::isDigit)) {
+                    tamanho = Integer.parseInt(parte);
+                } else {
+                    cursor = parte;
+                }
+            }
+            PaginaDoAcervo pagina;
+            try {
+                pagina = gerenciadorObras.listarAcervo(cursor, tamanho, ordem, filtro);
+            } catch (IllegalArgumentException e) {
+                saida.println("ERRO " + e.getMessage());
+                return;
+            }
+            String proximo = pagina.temMais() ? pagina.getProximoCursor() : "-";
+            saida.println("OK " + pagina.getObras().size() + " " + proximo);
+            for (Obra obra : pagina.getObras()) {
+                saida.println(obra.getId() + ";" + obra.getTitulo() + ";" + obra.getQuantidade());
+            }
+        }
+
+        private void emprestar(String argumento) {
+            Integer idObra = lerId(argumento);
+            if (idObra != null) {
+                ResultadoEmprestimo resultado = gerenciadorEmprestimos.emprestar(usuarioLogado, idObra);
+                saida.println((resultado.isSucesso() ? "OK " : "ERRO ") + resultado.getMensagem());
+            }
+        }
+
+        private void devolver(String argumento) {
+            Integer idObra = lerId(argumento);
+            if (idObra == null) {
+                return;
+            }
+            ResultadoDaTransacao resultado = gerenciadorEmprestimos.devolver(usuarioLogado.getEmail(), idObra);
+            saida.println((resultado.sucesso() ? "OK " : "ERRO ") + resultado.mensagem());
+        }
+
+        private void relatorio(List<Emprestimo> emprestimos) {
+            if (!(usuarioLogado instanceof Bibliotecario)) {
+                saida.println("ERRO Apenas bibliotecários podem acessar este relatório.");
+                return;
+            }
+            saida.println("OK " + emprestimos.size());
+            for (Emprestimo e : emprestimos) {
+                saida.println(e.getEmailUsuario() + ";" + e.getIdObra());
+            }
+        }
+
+        private void metricas() {
+            if (!(usuarioLogado instanceof Bibliotecario)) {
+                saida.println("ERRO Apenas bibliotecários podem acessar este relatório.");
+                return;
+            }
+            String[] linhas = Metricas.getInstancia().relatorio().split("\n");
+            saida.println("OK " + linhas.length);
+            for (String linha : linhas) {
+                saida.println(linha);
+            }
+        }
+
+        private Integer lerId(String argumento) {
+            try {
+                return Integer.parseInt(argumento);
+            } catch (NumberFormatException e) {
+                saida.println("ERRO ID de obra inválido: " + argumento);
+                return null;
+            }
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package biblioteca;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.Scanner;
 
 /**
@@ -8,11 +13,16 @@ import java.util.Scanner;
  */
 public class SistemaBiblioteca {
 
+    // Instantâneo de onde os gerenciadores carregam os dados na partida
+    private final InstantaneoDoSistema instantaneo = InstantaneoDoSistema.abrir();
     // Gerenciadores responsáveis por manipular usuários, obras e empréstimos
-    private final GerenciadorDeUsuarios gerenciadorUsuarios = new GerenciadorDeUsuarios();
-    private final GerenciadorDeObras gerenciadorObras = new GerenciadorDeObras();
-    private final GerenciadorDeEmprestimos gerenciadorEmprestimos = new GerenciadorDeEmprestimos(gerenciadorObras);
+    private final GerenciadorDeUsuarios gerenciadorUsuarios = new GerenciadorDeUsuarios(instantaneo);
+    private final GerenciadorDeObras gerenciadorObras = new GerenciadorDeObras(instantaneo);
+    private final GerenciadorDeEmprestimos gerenciadorEmprestimos = new GerenciadorDeEmprestimos(gerenciadorObras, instantaneo);
     
+    private static final Duration INTERVALO_VERIFICACAO_ATRASOS = Duration.ofHours(1);
+    private static final String DIRETORIO_RELATORIOS = "relatorios";
+
     private Usuario usuarioLogado; // Armazena o usuário autenticado no momento
     private final Scanner scanner = new Scanner(System.in);
 
@@ -20,7 +30,14 @@ public class SistemaBiblioteca {
      * Método principal que inicia a execução do sistema.
      */
     public void iniciar() {
-        gerenciadorEmprestimos.carregarEmprestimos(); // Carrega histórico de empréstimos
+        // Os empréstimos já foram carregados pelo construtor do gerenciador
+        instantaneo.acompanhar(gerenciadorUsuarios, gerenciadorObras, gerenciadorEmprestimos);
+        gerenciadorEmprestimos.iniciarVerificacaoDeAtrasos(gerenciadorUsuarios, INTERVALO_VERIFICACAO_ATRASOS);
+        try {
+            LiderDeReplicacao.configurado(gerenciadorUsuarios, gerenciadorObras, gerenciadorEmprestimos);
+        } catch (IOException e) {
+            System.out.println("Erro ao iniciar a replicação: " + e.getMessage());
+        }
 
         while (true) {
             System.out.println("\n=== BIBLIOTECA MUNICIPAL ===");
@@ -70,7 +87,7 @@ public class SistemaBiblioteca {
             System.out.println("1 - Consultar obras");
             System.out.println("2 - Realizar empréstimo");
             System.out.println("3 - Devolver obra");
-            System.out.println("4 - Buscar obra por título");
+            System.out.println("4 - Buscar obra por título ou autor");
             System.out.println("5 - Logout");
 
             // Opções exclusivas para bibliotecários
@@ -78,6 +95,7 @@ public class SistemaBiblioteca {
                 System.out.println("6 - Cadastrar novo usuário");
                 System.out.println("7 - Relatório de obras emprestadas");
                 System.out.println("8 - Relatório de usuários com atraso");
+                System.out.println("9 - Relatório de circulação");
             }
 
             System.out.print("Escolha uma opção: ");
@@ -111,6 +129,13 @@ public class SistemaBiblioteca {
                         System.out.println("Apenas bibliotecários podem acessar este relatório.");
                     }
                 }
+                case 9 -> {
+                    if (usuarioLogado instanceof Bibliotecario) {
+                        gerarRelatorioDeCirculacao();
+                    } else {
+                        System.out.println("Apenas bibliotecários podem acessar este relatório.");
+                    }
+                }
                 default -> System.out.println("Opção inválida!");
             }
         }
@@ -145,12 +170,20 @@ public class SistemaBiblioteca {
     }
 
     /**
-     * Busca uma obra pelo título.
+     * Busca uma obra pelo título ou pelo autor.
      */
     private void buscarObraPorTitulo() {
-        System.out.print("\nDigite o título da obra: ");
-        String titulo = scanner.nextLine();
-        gerenciadorObras.buscarObraPorTitulo(titulo);
+        System.out.print("\nBuscar por (t)ítulo ou (a)utor? ");
+        boolean porAutor = scanner.nextLine().trim().equalsIgnoreCase("a");
+        System.out.print(porAutor ? "Digite o autor da obra: " : "Digite o título da obra: ");
+        String consulta = scanner.nextLine();
+        System.out.print("Somente obras disponíveis? (s/n): ");
+        boolean soDisponiveis = scanner.nextLine().trim().equalsIgnoreCase("s");
+        if (porAutor) {
+            gerenciadorObras.buscarObraPorAutor(consulta, soDisponiveis);
+        } else {
+            gerenciadorObras.buscarObraPorTitulo(consulta, soDisponiveis);
+        }
     }
 
     /**
@@ -187,6 +220,32 @@ public class SistemaBiblioteca {
         gerenciadorEmprestimos.listarUsuariosAtrasados();
     }
 
+    /**
+     * Gera os relatórios de circulação de um período em CSV (apenas para
+     * bibliotecários). Sem datas, o período é o último ano.
+     */
+    private void gerarRelatorioDeCirculacao() {
+        LocalDate hoje = LocalDate.now();
+        try {
+            System.out.print("\nData inicial (AAAA-MM-DD, vazio para um ano atrás): ");
+            String inicial = scanner.nextLine().trim();
+            System.out.print("Data final (AAAA-MM-DD, vazio para hoje): ");
+            String fim = scanner.nextLine().trim();
+            LocalDate ate = fim.isEmpty() ? hoje : LocalDate.parse(fim);
+            LocalDate de = inicial.isEmpty() ? ate.minusYears(1).plusDays(1) : LocalDate.parse(inicial);
+            if (de.isAfter(ate)) {
+                System.out.println("A data inicial deve ser anterior à final.");
+                return;
+            }
+            new RelatorioDeCirculacao(gerenciadorUsuarios, gerenciadorObras, gerenciadorEmprestimos)
+                    .gerar(de, ate, Path.of(DIRETORIO_RELATORIOS));
+        } catch (DateTimeParseException e) {
+            System.out.println("Data inválida.");
+        } catch (IOException e) {
+            System.out.println("Erro ao gerar o relatório de circulação: " + e.getMessage());
+        }
+    }
+
     /**
      * Realiza o logout do usuário logado.
      */
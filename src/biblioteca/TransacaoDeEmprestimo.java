@@ -0,0 +1,64 @@
+package biblioteca;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Um empréstimo ou uma devolução a ser processado em lote por
+ * {@link GerenciadorDeEmprestimos#processarLote}.
+ *
+ * Em arquivo, cada transação ocupa uma linha no formato
+ * {@code TIPO;email;idObra[;AAAA-MM-DD]}, em que o tipo é {@code EMPRESTIMO}
+ * ou {@code DEVOLUCAO} (ou só {@code E} e {@code D}). Sem a data, vale o dia
+ * do processamento.
+ *
+ * @param tipo         Empréstimo ou devolução.
+ * @param emailUsuario Email do usuário.
+ * @param idObra       ID da obra.
+ * @param data         Dia do empréstimo ou da devolução, ou null para o dia do processamento.
+ */
+public record TransacaoDeEmprestimo(Tipo tipo, String emailUsuario, int idObra, LocalDate data) {
+
+    public enum Tipo {
+        EMPRESTIMO,
+        DEVOLUCAO
+    }
+
+    /**
+     * Lê uma transação a partir de uma linha do arquivo.
+     *
+     * @param linha Linha no formato {@code TIPO;email;idObra[;AAAA-MM-DD]}.
+     * @return A transação lida.
+     * @throws IllegalArgumentException Se a linha não estiver no formato esperado.
+     */
+    public static TransacaoDeEmprestimo ler(String linha) {
+        String[] campos = linha.split(";", -1);
+        if (campos.length < 3 || campos.length > 4) {
+            throw new IllegalArgumentException("Formato esperado: TIPO;email;idObra[;AAAA-MM-DD]");
+        }
+        Tipo tipo = switch (campos[0].trim().toUpperCase()) {
+            case "E", "EMPRESTIMO" -> Tipo.EMPRESTIMO;
+            case "D", "DEVOLUCAO" -> Tipo.DEVOLUCAO;
+            default -> throw new IllegalArgumentException("Tipo de transação desconhecido: " + campos[0].trim());
+        };
+        String email = campos[1].trim();
+        if (email.isEmpty()) {
+            throw new IllegalArgumentException("Email não informado.");
+        }
+        int idObra;
+        try {
+            idObra = Integer.parseInt(campos[2].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("ID de obra inválido: " + campos[2].trim());
+        }
+        LocalDate data = null;
+        if (campos.length == 4 && !campos[3].isBlank()) {
+            try {
+                data = LocalDate.parse(campos[3].trim());
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Data inválida: " + campos[3].trim());
+            }
+        }
+        return new TransacaoDeEmprestimo(tipo, email, idObra, data);
+    }
+}
@@ -11,7 +11,7 @@ public abstract class Usuario implements Serializable {
     private String nome;
     private String email;
     private String senha;
-    private boolean bloqueado;
+    private volatile boolean bloqueado;
 
     /**
      * Construtor da classe Usuario.
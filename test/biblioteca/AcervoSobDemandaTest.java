@@ -0,0 +1,68 @@
+package biblioteca;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AcervoSobDemandaTest {
+
+    private static final int OBRAS = 1_000;
+    private static final int EXEMPLARES = 1_000;
+
+    @Before
+    public void preparar() throws Exception {
+        DadosDeTeste.limparDiretorio();
+    }
+
+    /**
+     * Obras incluídas depois da carga, como as que chegam por replicação, não
+     * fazem perder os empréstimos e devoluções feitos ao mesmo tempo.
+     */
+    @Test
+    public void emprestimosDuranteInclusoesNaoSePerdem() throws Exception {
+        AcervoSobDemanda acervo = AcervoSobDemanda.abrir(Path.of("acervo.csv"), AcervoSobDemanda.CAPACIDADE_PADRAO);
+        for (int id = 1; id <= OBRAS; id++) {
+            acervo.add(new Obra(id, "Obra " + id, "Autor", EXEMPLARES));
+        }
+        CountDownLatch largada = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                aguardar(largada);
+                ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+                for (int i = 0; i < 200_000; i++) {
+                    Obra obra = acervo.get(aleatorio.nextInt(OBRAS));
+                    if (obra.emprestar()) {
+                        obra.devolver();
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        largada.countDown();
+        for (int id = OBRAS + 1; id <= OBRAS + 200_000; id++) {
+            acervo.add(new Obra(id, "Obra incluída " + id, "Autor", 1));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int posicao = 0; posicao < OBRAS; posicao++) {
+            assertEquals("Posição " + posicao, EXEMPLARES, acervo.get(posicao).getQuantidade());
+        }
+    }
+
+    private static void aguardar(CountDownLatch largada) {
+        try {
+            largada.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
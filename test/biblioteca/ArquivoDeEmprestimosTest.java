@@ -0,0 +1,118 @@
+package biblioteca;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class ArquivoDeEmprestimosTest {
+
+    private static final String EMAIL = "aluno@teste.com";
+    private static final LocalDate HOJE = LocalDate.of(2024, 3, 10);
+
+    @Before
+    public void preparar() throws Exception {
+        DadosDeTeste.limparDiretorio();
+    }
+
+    /**
+     * O que é gravado no formato binário é lido de volta igual, com os
+     * emails repetidos gravados uma vez só.
+     */
+    @Test
+    public void gravarELerPreservamOsEmprestimos() throws Exception {
+        Emprestimo devolvido = new Emprestimo(EMAIL, 3, HOJE.minusDays(20), HOJE.minusDays(6), null);
+        devolvido.setDevolvido(true);
+        List<Emprestimo> emprestimos = List.of(
+                new Emprestimo(EMAIL, 1, HOJE),
+                new Emprestimo("joão@teste.com", 2, HOJE.minusDays(1), HOJE.plusDays(30), null),
+                devolvido,
+                new Emprestimo(EMAIL, Integer.MAX_VALUE, LocalDate.of(1999, 12, 31)));
+        Path arquivo = Path.of("emprestimos.dat");
+
+        ArquivoDeEmprestimos.gravar(arquivo, emprestimos, 7);
+        ArquivoDeEmprestimos.Conteudo lido = ArquivoDeEmprestimos.ler(arquivo);
+
+        assertEquals(7, lido.loteConfirmado());
+        assertEquals(emprestimos.size(), lido.emprestimos().size());
+        for (int i = 0; i < emprestimos.size(); i++) {
+            assertIguais(emprestimos.get(i), lido.emprestimos().get(i));
+        }
+        // Cabeçalho de 14 bytes, dois emails e 17 bytes por empréstimo
+        long esperado = 14 + 2 + EMAIL.length() + 2 + "joão@teste.com".getBytes(StandardCharsets.UTF_8).length + 4 + 17 * 4;
+        assertEquals(esperado, Files.size(arquivo));
+    }
+
+    /**
+     * Um arquivo cortado no meio dos registros é recusado, em vez de ser
+     * lido pela metade.
+     */
+    @Test
+    public void arquivoTruncadoEhRecusado() throws Exception {
+        Path arquivo = Path.of("emprestimos.dat");
+        List<Emprestimo> emprestimos = new ArrayList<>();
+        for (int id = 1; id <= 100; id++) {
+            emprestimos.add(new Emprestimo(EMAIL, id, HOJE));
+        }
+        ArquivoDeEmprestimos.gravar(arquivo, emprestimos, 0);
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.WRITE)) {
+            canal.truncate(canal.size() - 5);
+        }
+
+        assertThrows(IOException.class, () -> ArquivoDeEmprestimos.ler(arquivo));
+    }
+
+    /**
+     * Sem o arquivo binário, o emprestimos.txt serializado por versões
+     * anteriores é convertido na carga e renomeado; as cargas seguintes
+     * usam o arquivo binário.
+     */
+    @Test
+    public void migraOArquivoSerializado() throws Exception {
+        DadosDeTeste.gerarAcervo(10, 5);
+        Emprestimo devolvido = new Emprestimo(EMAIL, 2, HOJE.minusDays(3));
+        devolvido.setDevolvido(true);
+        List<Emprestimo> legado = new ArrayList<>(List.of(
+                new Emprestimo(EMAIL, 1, HOJE), devolvido, new Emprestimo("outro@teste.com", 3, HOJE)));
+        try (ObjectOutputStream oos = new ObjectOutputStream(Files.newOutputStream(Path.of("emprestimos.txt")))) {
+            oos.writeObject(legado);
+        }
+
+        try (GerenciadorDeObras obras = new GerenciadorDeObras();
+             GerenciadorDeEmprestimos emprestimos = new GerenciadorDeEmprestimos(obras)) {
+            assertEquals(1, emprestimos.abertosDe(EMAIL).size());
+            assertIguais(legado.get(0), emprestimos.abertosDe(EMAIL).get(0));
+            assertEquals(1, emprestimos.abertosDe("outro@teste.com").size());
+        }
+        assertFalse(Files.exists(Path.of("emprestimos.txt")));
+        assertTrue(Files.exists(Path.of("emprestimos.txt.migrado")));
+        assertEquals(2, ArquivoDeEmprestimos.ler(Path.of("emprestimos.dat")).emprestimos().size());
+
+        try (GerenciadorDeObras obras = new GerenciadorDeObras();
+             GerenciadorDeEmprestimos emprestimos = new GerenciadorDeEmprestimos(obras)) {
+            assertEquals(1, emprestimos.abertosDe(EMAIL).size());
+            assertEquals(1, emprestimos.abertosDe("outro@teste.com").size());
+        }
+    }
+
+    private static void assertIguais(Emprestimo esperado, Emprestimo lido) {
+        assertEquals(esperado.getEmailUsuario(), lido.getEmailUsuario());
+        assertEquals(esperado.getIdObra(), lido.getIdObra());
+        assertEquals(esperado.getDataEmprestimo(), lido.getDataEmprestimo());
+        assertEquals(esperado.getDataDevolucao(), lido.getDataDevolucao());
+        assertEquals(esperado.isDevolvido(), lido.isDevolvido());
+    }
+}
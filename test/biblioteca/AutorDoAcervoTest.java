@@ -0,0 +1,133 @@
+package biblioteca;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class AutorDoAcervoTest {
+
+    private static final Path ACERVO = Path.of("acervo.csv");
+
+    @Before
+    public void preparar() throws Exception {
+        DadosDeTeste.limparDiretorio();
+        Files.writeString(ACERVO, String.join("\n",
+                "ID,Título,Quantidade",
+                "1,Dom Casmurro,3,Machado de Assis",
+                "2,Iracema,2",
+                "3,O Cortiço,1,  Aluísio Azevedo  ",
+                "4,Memórias Póstumas de Brás Cubas,0,Assis, Machado de",
+                "5,O Guarani,4,",
+                "6,Sem quantidade",
+                "7,Quincas Borba,2,Machado de Assis") + "\n", StandardCharsets.UTF_8);
+    }
+
+    @After
+    public void restaurarModo() {
+        System.clearProperty("biblioteca.acervo.sobDemanda");
+    }
+
+    /**
+     * Linhas com e sem a coluna do autor são lidas no mesmo arquivo; o autor
+     * vai até o fim da linha, vírgulas incluídas, e sem ele a obra fica com
+     * autor desconhecido.
+     */
+    @Test
+    public void leLinhasComESemAutor() throws Exception {
+        List<Obra> obras = CarregadorDeAcervo.carregar(ACERVO);
+
+        assertEquals(List.of(1, 2, 3, 4, 5, 7), obras.stream().map(Obra::getId).toList());
+        assertEquals("Machado de Assis", obras.get(0).getAutor());
+        assertEquals(CarregadorDeAcervo.AUTOR_DESCONHECIDO, obras.get(1).getAutor());
+        assertEquals("Aluísio Azevedo", obras.get(2).getAutor());
+        assertEquals("Assis, Machado de", obras.get(3).getAutor());
+        assertEquals(0, obras.get(3).getQuantidade());
+        assertEquals(CarregadorDeAcervo.AUTOR_DESCONHECIDO, obras.get(4).getAutor());
+    }
+
+    /**
+     * O acervo é gravado com o cabeçalho de quatro colunas e o autor de cada
+     * obra, e lido de volta com os mesmos autores.
+     */
+    @Test
+    public void salvarGravaOAutor() throws Exception {
+        try (GerenciadorDeObras obras = new GerenciadorDeObras()) {
+            obras.salvarAcervo();
+        }
+
+        List<String> linhas = Files.readAllLines(ACERVO, StandardCharsets.UTF_8);
+        assertEquals(CarregadorDeAcervo.CABECALHO, linhas.get(0));
+        assertTrue(linhas.contains("1,Dom Casmurro,3,Machado de Assis"));
+        assertTrue(linhas.contains("2,Iracema,2"));
+        assertTrue(linhas.contains("4,Memórias Póstumas de Brás Cubas,0,Assis, Machado de"));
+        try (GerenciadorDeObras obras = new GerenciadorDeObras()) {
+            assertEquals("Aluísio Azevedo", obras.buscarObraPorId(3).getAutor());
+            assertEquals("Assis, Machado de", obras.buscarObraPorId(4).getAutor());
+            assertEquals(CarregadorDeAcervo.AUTOR_DESCONHECIDO, obras.buscarObraPorId(5).getAutor());
+        }
+    }
+
+    /**
+     * A busca por autor usa o índice de autores, com as regras da busca por
+     * título, e acompanha as obras incluídas depois de ele ser montado.
+     */
+    @Test
+    public void buscaPorAutor() {
+        try (GerenciadorDeObras obras = new GerenciadorDeObras()) {
+            conferirBuscaPorAutor(obras);
+        }
+    }
+
+    /**
+     * No acervo sob demanda, os autores são lidos do arquivo ao montar o
+     * índice, e a busca dá o mesmo resultado.
+     */
+    @Test
+    public void buscaPorAutorNoAcervoSobDemanda() {
+        System.setProperty("biblioteca.acervo.sobDemanda", "true");
+        try (GerenciadorDeObras obras = new GerenciadorDeObras()) {
+            conferirBuscaPorAutor(obras);
+        }
+    }
+
+    /**
+     * Outros atributos podem ter o seu índice, com nomes únicos.
+     */
+    @Test
+    public void indicesRegistradosPorNome() {
+        try (GerenciadorDeObras obras = new GerenciadorDeObras()) {
+            obras.adicionarIndice("sobrenome", obra -> {
+                String[] partes = obra.getAutor().split(" ");
+                return partes[partes.length - 1];
+            });
+
+            assertEquals(List.of(3), ids(obras.buscarObrasPor("sobrenome", "azevedo", 0, 10, false)));
+            assertThrows(IllegalArgumentException.class,
+                    () -> obras.adicionarIndice(GerenciadorDeObras.INDICE_AUTOR, Obra::getTitulo));
+            assertThrows(IllegalArgumentException.class,
+                    () -> obras.buscarObrasPor("editora", "qualquer", 0, 10, false));
+        }
+    }
+
+    private static void conferirBuscaPorAutor(GerenciadorDeObras obras) {
+        assertEquals(List.of(1, 4, 7), ids(obras.buscarObrasPorAutor("machado assis", 0, 10, false)));
+        assertEquals(List.of(1, 7), ids(obras.buscarObrasPorAutor("machado assis", 0, 10, true)));
+        assertEquals(List.of(3), ids(obras.buscarObrasPorAutor("ALUISIO", 0, 10, false)));
+        assertEquals(List.of(4), ids(obras.buscarObrasPorAutor("machado", 1, 1, false)));
+
+        obras.adicionarObra(new Obra(8, "Helena", "Machado de Assis", 1));
+        assertEquals(List.of(1, 4, 7, 8), ids(obras.buscarObrasPorAutor("mach", 0, 10, false)));
+    }
+
+    private static List<Integer> ids(List<Obra> obras) {
+        return obras.stream().map(Obra::getId).toList();
+    }
+}
@@ -0,0 +1,57 @@
+package biblioteca;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Prepara o diretório de trabalho dos testes. As classes da biblioteca leem e
+ * gravam seus arquivos no diretório de trabalho, que o build aponta para
+ * build/test/dados; os testes se recusam a rodar no diretório do projeto,
+ * onde apagariam os dados reais.
+ */
+final class DadosDeTeste {
+
+    private DadosDeTeste() {
+    }
+
+    /**
+     * Apaga todos os arquivos do diretório de trabalho.
+     *
+     * @throws IllegalStateException Se o diretório de trabalho for o do projeto.
+     */
+    static void limparDiretorio() throws IOException {
+        Path diretorio = Paths.get("").toAbsolutePath();
+        if (Files.exists(diretorio.resolve("build.xml")) || Files.exists(diretorio.resolve("src"))) {
+            throw new IllegalStateException("Os testes apagam os arquivos do diretório de trabalho e não rodam em "
+                    + diretorio + "; use ant test, que os roda em build/test/dados.");
+        }
+        try (Stream<Path> arquivos = Files.walk(diretorio)) {
+            for (Path arquivo : arquivos.sorted(Comparator.reverseOrder()).toList()) {
+                if (!arquivo.equals(diretorio)) {
+                    Files.delete(arquivo);
+                }
+            }
+        }
+    }
+
+    /**
+     * Grava um acervo.csv com as obras de 1 a {@code obras}, cada uma com a
+     * quantidade pedida.
+     */
+    static void gerarAcervo(int obras, int quantidade) throws IOException {
+        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get("acervo.csv"), StandardCharsets.UTF_8)) {
+            bw.write("ID,Título,Quantidade");
+            bw.newLine();
+            for (int id = 1; id <= obras; id++) {
+                bw.write(id + ",Obra " + id + "," + quantidade);
+                bw.newLine();
+            }
+        }
+    }
+}
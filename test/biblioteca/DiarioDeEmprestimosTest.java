@@ -0,0 +1,62 @@
+package biblioteca;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DiarioDeEmprestimosTest {
+
+    private static final Path ARQUIVO = Path.of("emprestimos.diario");
+
+    @Before
+    public void preparar() throws Exception {
+        DadosDeTeste.limparDiretorio();
+    }
+
+    /**
+     * Um registro cortado no fim do diário é descartado do arquivo, e os
+     * registros seguintes são lidos normalmente.
+     */
+    @Test
+    public void descartaRegistroIncompletoDoFim() throws Exception {
+        try (DiarioDeEmprestimos diario = new DiarioDeEmprestimos(ARQUIVO.toString(), Durabilidade.GRUPO)) {
+            LocalDate hoje = LocalDate.now();
+            diario.registrarEmprestimo(new Emprestimo("a@teste.com", 1, hoje));
+            diario.registrarEmprestimo(new Emprestimo("b@teste.com", 2, hoje));
+            diario.aguardarGravacao();
+            long completo = Files.size(ARQUIVO);
+            Files.write(ARQUIVO, new byte[]{'E', 0, 11, 'c', '@'}, StandardOpenOption.APPEND);
+
+            assertEquals(2, diario.reproduzir(new Registros()));
+            assertEquals(completo, Files.size(ARQUIVO));
+
+            diario.registrarEmprestimo(new Emprestimo("c@teste.com", 3, hoje));
+            diario.aguardarGravacao();
+            Registros registros = new Registros();
+            assertEquals(3, diario.reproduzir(registros));
+            assertEquals(List.of("a@teste.com", "b@teste.com", "c@teste.com"), registros.emails);
+        }
+    }
+
+    private static final class Registros implements DiarioDeEmprestimos.Leitor {
+
+        final List<String> emails = new ArrayList<>();
+
+        @Override
+        public void emprestimo(String emailUsuario, int idObra, LocalDate dataEmprestimo) {
+            emails.add(emailUsuario);
+        }
+
+        @Override
+        public void devolucao(String emailUsuario, int idObra, LocalDate dataEntrega) {
+            emails.add(emailUsuario);
+        }
+    }
+}
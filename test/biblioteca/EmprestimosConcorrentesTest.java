@@ -0,0 +1,120 @@
+package biblioteca;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Empréstimos e devoluções de várias threads sobre poucas obras, com obras
+ * novas sendo incluídas ao mesmo tempo, o que redimensiona o índice por ID
+ * durante as leituras otimistas.
+ */
+public class EmprestimosConcorrentesTest {
+
+    private static final int OBRAS = 20;
+    private static final int EXEMPLARES = 3;
+    private static final int THREADS = 16;
+    private static final int OPERACOES_POR_THREAD = 20_000;
+    private static final int OBRAS_INCLUIDAS = 5_000;
+
+    @BeforeClass
+    public static void semEsperarODisco() {
+        // Com a durabilidade padrão, cada operação esperaria a sincronização do disco
+        System.setProperty("biblioteca.durabilidade", "ASSINCRONA");
+    }
+
+    @Test
+    public void estoqueELimitesSeMantem() throws Exception {
+        DadosDeTeste.limparDiretorio();
+        DadosDeTeste.gerarAcervo(OBRAS, EXEMPLARES);
+        try (GerenciadorDeObras obras = new GerenciadorDeObras();
+             GerenciadorDeEmprestimos emprestimos = new GerenciadorDeEmprestimos(obras)) {
+            List<Usuario> usuarios = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                usuarios.add(new Aluno("Aluno " + i, "aluno" + i + "@teste.com", "senha123", "A" + i, "Curso"));
+                usuarios.add(new Professor("Professor " + i, "professor" + i + "@teste.com", "senha123", "Departamento"));
+            }
+
+            ConcurrentLinkedQueue<String> violacoes = new ConcurrentLinkedQueue<>();
+            AtomicBoolean terminou = new AtomicBoolean();
+            CountDownLatch largada = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                threads.add(new Thread(() -> {
+                    aguardar(largada);
+                    ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+                    for (int i = 0; i < OPERACOES_POR_THREAD; i++) {
+                        Usuario usuario = usuarios.get(aleatorio.nextInt(usuarios.size()));
+                        int idObra = 1 + aleatorio.nextInt(OBRAS);
+                        if (aleatorio.nextBoolean()) {
+                            emprestimos.emprestar(usuario, idObra);
+                        } else {
+                            emprestimos.devolver(usuario.getEmail(), idObra);
+                        }
+                    }
+                }));
+            }
+            Thread inclusoes = new Thread(() -> {
+                aguardar(largada);
+                for (int i = 1; i <= OBRAS_INCLUIDAS && !terminou.get(); i++) {
+                    obras.adicionarObra(new Obra(OBRAS + i, "Obra incluída " + i, "", 1));
+                }
+            });
+            Thread verificacao = new Thread(() -> {
+                aguardar(largada);
+                while (!terminou.get()) {
+                    for (int id = 1; id <= OBRAS; id++) {
+                        int quantidade = obras.buscarObraPorId(id).getQuantidade();
+                        if (quantidade < 0 || quantidade > EXEMPLARES) {
+                            violacoes.add("Obra " + id + " com quantidade " + quantidade);
+                        }
+                    }
+                    for (Usuario usuario : usuarios) {
+                        int abertos = emprestimos.abertosDe(usuario.getEmail()).size();
+                        if (abertos > usuario.getLimiteEmprestimos()) {
+                            violacoes.add(usuario.getEmail() + " com " + abertos + " empréstimos abertos");
+                        }
+                    }
+                }
+            });
+            threads.forEach(Thread::start);
+            inclusoes.start();
+            verificacao.start();
+            largada.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            terminou.set(true);
+            inclusoes.join();
+            verificacao.join();
+
+            assertTrue(violacoes.toString(), violacoes.isEmpty());
+            int[] emprestadas = new int[OBRAS + 1];
+            for (Emprestimo e : emprestimos.getEmprestimosAbertos()) {
+                emprestadas[e.getIdObra()]++;
+            }
+            for (int id = 1; id <= OBRAS; id++) {
+                assertEquals("Obra " + id, EXEMPLARES, obras.buscarObraPorId(id).getQuantidade() + emprestadas[id]);
+            }
+            for (Usuario usuario : usuarios) {
+                assertTrue(usuario.getEmail(), emprestimos.abertosDe(usuario.getEmail()).size() <= usuario.getLimiteEmprestimos());
+            }
+        }
+    }
+
+    private static void aguardar(CountDownLatch largada) {
+        try {
+            largada.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
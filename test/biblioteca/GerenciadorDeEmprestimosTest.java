@@ -0,0 +1,90 @@
+package biblioteca;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GerenciadorDeEmprestimosTest {
+
+    private static final String EMAIL = "aluno@teste.com";
+
+    private GerenciadorDeUsuarios usuarios;
+    private GerenciadorDeObras obras;
+    private GerenciadorDeEmprestimos emprestimos;
+
+    @Before
+    public void preparar() throws Exception {
+        DadosDeTeste.limparDiretorio();
+        DadosDeTeste.gerarAcervo(10, 5);
+        usuarios = new GerenciadorDeUsuarios();
+        usuarios.cadastrarUsuario(new Aluno("Aluno", EMAIL, "senha123", "2024001", "Computação"));
+        obras = new GerenciadorDeObras();
+        emprestimos = new GerenciadorDeEmprestimos(obras);
+    }
+
+    @After
+    public void fechar() {
+        emprestimos.close();
+        obras.close();
+    }
+
+    /**
+     * O relatório de atrasados não pode consumir os atrasos que a tarefa de
+     * bloqueio ainda não visitou.
+     */
+    @Test
+    public void bloqueiaQuemAtrasouMesmoDepoisDoRelatorio() {
+        List<ResultadoDaTransacao> resultados = emprestimos.processarLote(List.of(new TransacaoDeEmprestimo(
+                TransacaoDeEmprestimo.Tipo.EMPRESTIMO, EMAIL, 1, LocalDate.now().minusDays(60))), usuarios);
+        assertTrue(resultados.get(0).mensagem(), resultados.get(0).sucesso());
+
+        assertEquals(1, emprestimos.getEmprestimosAtrasados().size());
+        emprestimos.bloquearUsuariosComAtraso(usuarios);
+
+        assertTrue(usuarios.buscarUsuarioPorEmail(EMAIL).isBloqueado());
+    }
+
+    /**
+     * Um lote grande demais para o diário vai para o estado salvo; se ele não
+     * puder ser salvo, o lote vai para o diário e não se perde.
+     */
+    @Test
+    public void loteQueNaoPodeSerSalvoVaiParaODiario() throws Exception {
+        List<TransacaoDeEmprestimo> lote = new ArrayList<>();
+        for (int i = 0; i <= 1000; i++) {
+            TransacaoDeEmprestimo.Tipo tipo = i % 2 == 0 ? TransacaoDeEmprestimo.Tipo.EMPRESTIMO : TransacaoDeEmprestimo.Tipo.DEVOLUCAO;
+            lote.add(new TransacaoDeEmprestimo(tipo, EMAIL, 1, LocalDate.now()));
+        }
+        // Um diretório no lugar do arquivo temporário faz o checkpoint falhar
+        Path temporario = Files.createDirectory(Path.of("emprestimos.dat.tmp"));
+
+        List<ResultadoDaTransacao> resultados = emprestimos.processarLote(lote, usuarios);
+        assertTrue(resultados.stream().allMatch(ResultadoDaTransacao::sucesso));
+        emprestimos.close();
+        obras.close();
+        Files.delete(temporario);
+
+        obras = new GerenciadorDeObras();
+        emprestimos = new GerenciadorDeEmprestimos(obras);
+        assertEquals(1, emprestimos.abertosDe(EMAIL).size());
+        assertEquals(4, obras.buscarObraPorId(1).getQuantidade());
+    }
+
+    @Test
+    public void bloqueiaQuemAtrasouSemRelatorio() {
+        emprestimos.processarLote(List.of(new TransacaoDeEmprestimo(
+                TransacaoDeEmprestimo.Tipo.EMPRESTIMO, EMAIL, 1, LocalDate.now().minusDays(60))), usuarios);
+
+        emprestimos.bloquearUsuariosComAtraso(usuarios);
+
+        assertTrue(usuarios.buscarUsuarioPorEmail(EMAIL).isBloqueado());
+    }
+}
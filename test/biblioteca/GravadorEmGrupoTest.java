@@ -0,0 +1,74 @@
+package biblioteca;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class GravadorEmGrupoTest {
+
+    private static final Path ARQUIVO = Path.of("teste.delta");
+
+    @Before
+    public void preparar() throws Exception {
+        DadosDeTeste.limparDiretorio();
+    }
+
+    /**
+     * Fechar grava o que estava na fila, encerra a thread de gravação e
+     * passa a recusar registros.
+     */
+    @Test
+    public void fecharGravaAFilaERecusaNovosRegistros() throws Exception {
+        GravadorEmGrupo gravador = new GravadorEmGrupo(ARQUIVO, Durabilidade.ASSINCRONA);
+        gravador.anexar("1,5\n".getBytes(StandardCharsets.UTF_8));
+        gravador.anexar("2,3\n".getBytes(StandardCharsets.UTF_8));
+        gravador.close();
+        gravador.close();
+
+        assertEquals("1,5\n2,3\n", Files.readString(ARQUIVO));
+        assertThrows(IllegalStateException.class, () -> gravador.anexar(new byte[] {'x'}));
+        assertEquals(0, threadsDeGravacao());
+    }
+
+    /**
+     * Gerenciadores fechados não deixam threads de gravação para trás, e os
+     * que só carregam o acervo nem chegam a iniciá-las.
+     */
+    @Test
+    public void gerenciadoresFechadosNaoDeixamThreads() throws Exception {
+        DadosDeTeste.gerarAcervo(10, 5);
+        Usuario aluno = new Aluno("Aluno", "aluno@teste.com", "senha123", "2024001", "Computação");
+        for (int i = 0; i < 50; i++) {
+            try (GerenciadorDeObras obras = new GerenciadorDeObras();
+                 GerenciadorDeEmprestimos emprestimos = new GerenciadorDeEmprestimos(obras)) {
+                assertEquals(0, threadsDeGravacao());
+                if (i % 10 == 0) {
+                    assertTrue(emprestimos.emprestar(aluno, 1).isSucesso());
+                    assertTrue(emprestimos.devolver(aluno.getEmail(), 1).sucesso());
+                }
+            }
+        }
+        assertEquals(0, threadsDeGravacao());
+    }
+
+    // As threads interrompidas por close terminam logo, mas não no mesmo instante
+    private static long threadsDeGravacao() throws InterruptedException {
+        long vivas = 0;
+        for (int tentativa = 0; tentativa < 100; tentativa++) {
+            vivas = Thread.getAllStackTraces().keySet().stream()
+                    .filter(t -> t.isAlive() && t.getName().startsWith("gravacao-"))
+                    .count();
+            if (vivas == 0) {
+                break;
+            }
+            Thread.sleep(20);
+        }
+        return vivas;
+    }
+}
@@ -0,0 +1,177 @@
+package biblioteca;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class IndiceDeTitulosTest {
+
+    private static final String[] PALAVRAS = {
+        "sombra", "sombras", "mar", "mares", "vento", "ventania", "luz", "lua", "vida", "vidro", "de", "do"
+    };
+
+    /**
+     * Todos os termos da consulta precisam estar no título.
+     */
+    @Test
+    public void consultaExigeTodosOsTermos() {
+        IndiceDeTitulos indice = new IndiceDeTitulos();
+        indice.indexar(1, "Sombras do Mar");
+        indice.indexar(2, "O Mar");
+        indice.indexar(3, "Sombras da Noite");
+
+        assertArrayEquals(new int[] {1}, indice.buscar("mar sombras", 0, 10));
+        assertArrayEquals(new int[0], indice.buscar("mar noite", 0, 10));
+        assertArrayEquals(new int[0], indice.buscar("mar inexistente", 0, 10));
+    }
+
+    /**
+     * Um termo casa com qualquer termo do título que comece com ele, e o
+     * casamento exato vem antes.
+     */
+    @Test
+    public void prefixoCasaETermoExatoVemAntes() {
+        IndiceDeTitulos indice = new IndiceDeTitulos();
+        indice.indexar(1, "Ventania");
+        indice.indexar(2, "Vento");
+        indice.indexar(3, "Venturas");
+        indice.indexar(4, "Evento");
+
+        assertArrayEquals(new int[] {1, 2, 3}, indice.buscar("vent", 0, 10));
+        assertArrayEquals(new int[] {2}, indice.buscar("vento", 0, 10));
+        assertArrayEquals(new int[] {1, 2}, indice.buscar("vent ven", 0, 2));
+    }
+
+    /**
+     * Acentos e maiúsculas são ignorados tanto no título quanto na consulta.
+     */
+    @Test
+    public void acentosEMaiusculasSaoIgnorados() {
+        IndiceDeTitulos indice = new IndiceDeTitulos();
+        indice.indexar(1, "Coração de Pedra");
+        indice.indexar(2, "Ação e Reação");
+
+        assertArrayEquals(new int[] {1}, indice.buscar("CORACAO", 0, 10));
+        assertArrayEquals(new int[] {1}, indice.buscar("coraç", 0, 10));
+        assertArrayEquals(new int[] {2}, indice.buscar("reacao acão", 0, 10));
+    }
+
+    /**
+     * As páginas seguem a ordem de relevância sem repetir nem pular obras, e
+     * a página depois da última vem vazia.
+     */
+    @Test
+    public void paginasSeguemARelevancia() {
+        IndiceDeTitulos indice = new IndiceDeTitulos();
+        indice.indexar(5, "Luz");
+        indice.indexar(3, "Luz da Vida");
+        indice.indexar(1, "Luz da Manhã");
+        indice.indexar(4, "Luzes");
+        indice.indexar(2, "A Luz");
+
+        assertArrayEquals(new int[] {5, 2, 1}, indice.buscar("luz", 0, 3));
+        assertArrayEquals(new int[] {3, 4}, indice.buscar("luz", 1, 3));
+        assertArrayEquals(new int[0], indice.buscar("luz", 2, 3));
+        assertArrayEquals(new int[] {2, 1, 3}, indice.buscar("luz", 0, 3, id -> id != 5));
+    }
+
+    /**
+     * Em acervos aleatórios, com obras removidas e reindexadas e com o índice
+     * gravado e restaurado, cada página é a mesma de uma busca que ordena
+     * todas as obras que casam com a consulta.
+     */
+    @Test
+    public void paginasIguaisAsDeUmaBuscaCompleta() throws Exception {
+        Random aleatorio = new Random(42);
+        IndiceDeTitulos indice = new IndiceDeTitulos();
+        Map<Integer, String> titulos = new HashMap<>();
+        for (int id = 1; id <= 3_000; id++) {
+            String titulo = tituloAleatorio(aleatorio);
+            indice.indexar(id, titulo);
+            titulos.put(id, titulo);
+        }
+        for (int id = 1; id <= 3_000; id += 7) {
+            indice.remover(id, titulos.get(id));
+            if (id % 2 == 0) {
+                titulos.remove(id);
+            } else {
+                String titulo = tituloAleatorio(aleatorio);
+                indice.indexar(id, titulo);
+                titulos.put(id, titulo);
+            }
+        }
+        conferirConsultas(indice, titulos, aleatorio);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            indice.gravar(out);
+        }
+        IndiceDeTitulos restaurado = new IndiceDeTitulos();
+        restaurado.restaurar(ByteBuffer.wrap(bytes.toByteArray()));
+        conferirConsultas(restaurado, titulos, aleatorio);
+    }
+
+    private static void conferirConsultas(IndiceDeTitulos indice, Map<Integer, String> titulos, Random aleatorio) {
+        String[] consultas = {"sombra", "som mar", "mar", "vent de", "lu vi", "luz lua", "v", "de do", "vidro mares"};
+        for (String consulta : consultas) {
+            List<Integer> esperados = buscaCompleta(titulos, consulta);
+            int tamanhoPagina = 1 + aleatorio.nextInt(40);
+            for (int pagina = 0; pagina * tamanhoPagina <= esperados.size(); pagina++) {
+                int inicio = pagina * tamanhoPagina;
+                int[] esperada = esperados.subList(inicio, Math.min(esperados.size(), inicio + tamanhoPagina))
+                        .stream().mapToInt(Integer::intValue).toArray();
+                assertArrayEquals(consulta + ", página " + pagina, esperada,
+                        indice.buscar(consulta, pagina, tamanhoPagina));
+            }
+            assertEquals(consulta, 0, indice.buscar(consulta, esperados.size() / tamanhoPagina + 1, tamanhoPagina).length);
+        }
+    }
+
+    // Casa cada obra com a consulta e ordena todas pelos critérios de relevância
+    private static List<Integer> buscaCompleta(Map<Integer, String> titulos, String consulta) {
+        List<String> termosConsulta = IndiceDeTitulos.termos(consulta);
+        Map<Integer, Integer> exatos = new HashMap<>();
+        List<Integer> encontrados = new ArrayList<>();
+        for (Map.Entry<Integer, String> obra : titulos.entrySet()) {
+            List<String> termosTitulo = IndiceDeTitulos.termos(obra.getValue());
+            int exatosDaObra = 0;
+            boolean casa = true;
+            for (String termo : termosConsulta) {
+                if (termosTitulo.contains(termo)) {
+                    exatosDaObra++;
+                } else if (termosTitulo.stream().noneMatch(t -> t.startsWith(termo))) {
+                    casa = false;
+                    break;
+                }
+            }
+            if (casa) {
+                encontrados.add(obra.getKey());
+                exatos.put(obra.getKey(), exatosDaObra);
+            }
+        }
+        encontrados.sort(Comparator
+                .comparingInt((Integer id) -> -exatos.get(id))
+                .thenComparingInt(id -> IndiceDeTitulos.termos(titulos.get(id)).size())
+                .thenComparingInt(id -> id));
+        return encontrados;
+    }
+
+    private static String tituloAleatorio(Random aleatorio) {
+        StringBuilder titulo = new StringBuilder();
+        int termos = 1 + aleatorio.nextInt(4);
+        for (int i = 0; i < termos; i++) {
+            titulo.append(i == 0 ? "" : " ").append(PALAVRAS[aleatorio.nextInt(PALAVRAS.length)]);
+        }
+        return titulo.toString();
+    }
+}
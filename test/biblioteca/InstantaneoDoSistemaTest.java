@@ -0,0 +1,108 @@
+package biblioteca;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InstantaneoDoSistemaTest {
+
+    private static final Path ARQUIVO = Path.of(InstantaneoDoSistema.ARQUIVO);
+
+    private final Usuario aluno = new Aluno("Aluno", "aluno@teste.com", "senha123", "2024001", "Computação");
+
+    @Before
+    public void preparar() throws Exception {
+        DadosDeTeste.limparDiretorio();
+        DadosDeTeste.gerarAcervo(20, 5);
+        new GerenciadorDeUsuarios().cadastrarUsuario(aluno);
+        try (GerenciadorDeObras obras = new GerenciadorDeObras();
+             GerenciadorDeEmprestimos emprestimos = new GerenciadorDeEmprestimos(obras)) {
+            assertTrue(emprestimos.emprestar(aluno, 1).isSucesso());
+            assertTrue(emprestimos.salvarEmprestimos());
+        }
+        gravarInstantaneo();
+    }
+
+    /**
+     * Uma seção cujo CRC não confere é ignorada, e o gerenciador dela lê os
+     * seus próprios arquivos; as outras seções continuam valendo.
+     */
+    @Test
+    public void secaoCorrompidaEhLidaDosArquivos() throws Exception {
+        byte[] bytes = Files.readAllBytes(ARQUIVO);
+        int titulo = indiceDe(bytes, "Obra 7".getBytes(StandardCharsets.UTF_8));
+        bytes[titulo + 3] = 'x';
+        Files.write(ARQUIVO, bytes);
+
+        InstantaneoDoSistema instantaneo = InstantaneoDoSistema.abrir();
+        assertNull(instantaneo.secao(InstantaneoDoSistema.ACERVO));
+        assertNotNull(instantaneo.secao(InstantaneoDoSistema.USUARIOS));
+        assertNotNull(instantaneo.secao(InstantaneoDoSistema.EMPRESTIMOS));
+        try (GerenciadorDeObras obras = new GerenciadorDeObras(instantaneo);
+             GerenciadorDeEmprestimos emprestimos = new GerenciadorDeEmprestimos(obras, instantaneo)) {
+            assertEquals("Obra 7", obras.buscarObraPorId(7).getTitulo());
+            assertEquals(4, obras.buscarObraPorId(1).getQuantidade());
+            assertEquals(1, emprestimos.abertosDe(aluno.getEmail()).size());
+        }
+    }
+
+    /**
+     * Uma seção válida, mas gravada antes de os arquivos do gerenciador serem
+     * regravados, é ignorada, e o que foi gravado depois dela não se perde.
+     */
+    @Test
+    public void secaoDesatualizadaEhLidaDosArquivos() throws Exception {
+        try (GerenciadorDeObras obras = new GerenciadorDeObras();
+             GerenciadorDeEmprestimos emprestimos = new GerenciadorDeEmprestimos(obras)) {
+            assertTrue(obras.atualizarTitulo(7, "Novo Título"));
+            obras.salvarAcervo();
+            assertTrue(emprestimos.emprestar(aluno, 2).isSucesso());
+            assertTrue(emprestimos.salvarEmprestimos());
+        }
+
+        InstantaneoDoSistema instantaneo = InstantaneoDoSistema.abrir();
+        assertNotNull(instantaneo.secao(InstantaneoDoSistema.ACERVO));
+        try (GerenciadorDeObras obras = new GerenciadorDeObras(instantaneo);
+             GerenciadorDeEmprestimos emprestimos = new GerenciadorDeEmprestimos(obras, instantaneo)) {
+            assertEquals("Novo Título", obras.buscarObraPorId(7).getTitulo());
+            assertEquals(4, obras.buscarObraPorId(2).getQuantidade());
+            assertEquals(2, emprestimos.abertosDe(aluno.getEmail()).size());
+        }
+    }
+
+    /**
+     * Carrega os gerenciadores como na partida do sistema e espera o
+     * instantâneo que eles agendam por não haver nenhum.
+     */
+    private static void gravarInstantaneo() throws Exception {
+        InstantaneoDoSistema instantaneo = InstantaneoDoSistema.abrir();
+        try (GerenciadorDeObras obras = new GerenciadorDeObras(instantaneo);
+             GerenciadorDeEmprestimos emprestimos = new GerenciadorDeEmprestimos(obras, instantaneo)) {
+            instantaneo.acompanhar(new GerenciadorDeUsuarios(instantaneo), obras, emprestimos);
+            for (int tentativa = 0; tentativa < 500 && !Files.exists(ARQUIVO); tentativa++) {
+                Thread.sleep(20);
+            }
+        }
+        assertTrue(Files.exists(ARQUIVO));
+    }
+
+    private static int indiceDe(byte[] bytes, byte[] procurado) {
+        for (int i = 0; i + procurado.length <= bytes.length; i++) {
+            int j = 0;
+            while (j < procurado.length && bytes[i + j] == procurado[j]) {
+                j++;
+            }
+            if (j == procurado.length) {
+                return i;
+            }
+        }
+        throw new AssertionError("Trecho não encontrado no instantâneo.");
+    }
+}
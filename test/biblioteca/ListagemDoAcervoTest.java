@@ -0,0 +1,137 @@
+package biblioteca;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class ListagemDoAcervoTest {
+
+    private static final int OBRAS = 200;
+
+    private GerenciadorDeObras obras;
+
+    @Before
+    public void preparar() throws Exception {
+        DadosDeTeste.limparDiretorio();
+        DadosDeTeste.gerarAcervo(OBRAS, 5);
+        obras = new GerenciadorDeObras();
+    }
+
+    @After
+    public void fechar() {
+        obras.close();
+    }
+
+    /**
+     * As páginas em ordem de ID passam por todas as obras uma única vez, e
+     * a última não tem cursor.
+     */
+    @Test
+    public void paginasPassamPorTodasAsObrasUmaVez() {
+        List<Integer> ids = new ArrayList<>();
+        PaginaDoAcervo pagina = obras.listarAcervo(null, 7, OrdemDoAcervo.POR_ID, null);
+        ids.addAll(idsDa(pagina));
+        while (pagina.temMais()) {
+            assertEquals(7, pagina.getObras().size());
+            pagina = obras.listarAcervo(pagina.getProximoCursor(), 7, OrdemDoAcervo.POR_ID, null);
+            ids.addAll(idsDa(pagina));
+        }
+
+        assertNull(pagina.getProximoCursor());
+        assertEquals(OBRAS, ids.size());
+        for (int i = 0; i < OBRAS; i++) {
+            assertEquals(Integer.valueOf(i + 1), ids.get(i));
+        }
+    }
+
+    /**
+     * Títulos incluídos entre uma página e outra não fazem a listagem
+     * repetir nem pular obras: os que ficam antes do cursor não aparecem, e
+     * os que ficam depois aparecem na sua vez.
+     */
+    @Test
+    public void inclusoesEntrePaginasNaoRepetemNemPulamObras() {
+        List<String> titulos = new ArrayList<>();
+        PaginaDoAcervo pagina = obras.listarAcervo(null, 6, OrdemDoAcervo.POR_TITULO, null);
+        titulos.addAll(titulosDa(pagina));
+        int proximoId = OBRAS + 1;
+        while (pagina.temMais()) {
+            obras.adicionarObra(new Obra(proximoId, "A Obra " + proximoId, "Autor", 1));
+            proximoId++;
+            obras.adicionarObra(new Obra(proximoId, "Zeta " + proximoId, "Autor", 1));
+            proximoId++;
+            pagina = obras.listarAcervo(pagina.getProximoCursor(), 6, OrdemDoAcervo.POR_TITULO, null);
+            titulos.addAll(titulosDa(pagina));
+        }
+
+        List<String> esperados = new ArrayList<>();
+        for (int id = 1; id <= OBRAS; id++) {
+            esperados.add("Obra " + id);
+        }
+        for (int id = OBRAS + 2; id < proximoId; id += 2) {
+            esperados.add("Zeta " + id);
+        }
+        esperados.sort(String.CASE_INSENSITIVE_ORDER);
+        assertEquals(esperados, titulos);
+    }
+
+    /**
+     * Com filtro, a listagem traz só as obras aceitas, e uma página que não
+     * encheu ainda tem cursor se o acervo não acabou.
+     */
+    @Test
+    public void filtroListaSoAsDisponiveis() {
+        for (int id = 2; id <= OBRAS; id++) {
+            Obra obra = obras.buscarObraPorId(id);
+            while (obras.emprestar(obra)) {
+                // Esgota os exemplares de todas as obras menos a primeira e a última
+            }
+            if (id == OBRAS) {
+                obras.devolver(obra);
+            }
+        }
+
+        List<Integer> ids = new ArrayList<>();
+        PaginaDoAcervo pagina = obras.listarAcervo(null, 1, OrdemDoAcervo.POR_ID, obra -> obra.getQuantidade() > 0);
+        ids.addAll(idsDa(pagina));
+        boolean vaziaComCursor = false;
+        while (pagina.temMais()) {
+            pagina = obras.listarAcervo(pagina.getProximoCursor(), 1, OrdemDoAcervo.POR_ID, obra -> obra.getQuantidade() > 0);
+            ids.addAll(idsDa(pagina));
+            vaziaComCursor |= pagina.getObras().isEmpty() && pagina.temMais();
+        }
+
+        assertEquals(List.of(1, OBRAS), ids);
+        assertTrue(vaziaComCursor);
+    }
+
+    /**
+     * Um cursor só vale para a ordem que o criou.
+     */
+    @Test
+    public void cursorDeOutraOrdemEhRecusado() {
+        PaginaDoAcervo pagina = obras.listarAcervo(null, 10, OrdemDoAcervo.POR_ID, null);
+        assertFalse(pagina.getObras().isEmpty());
+
+        assertThrows(IllegalArgumentException.class,
+                () -> obras.listarAcervo(pagina.getProximoCursor(), 10, OrdemDoAcervo.POR_TITULO, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> obras.listarAcervo("não é um cursor", 10, OrdemDoAcervo.POR_ID, null));
+    }
+
+    private static List<Integer> idsDa(PaginaDoAcervo pagina) {
+        return pagina.getObras().stream().map(Obra::getId).toList();
+    }
+
+    private static List<String> titulosDa(PaginaDoAcervo pagina) {
+        return pagina.getObras().stream().map(Obra::getTitulo).toList();
+    }
+}
@@ -0,0 +1,133 @@
+package biblioteca;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParticaoDoAcervoTest {
+
+    private static final int OBRAS = 30;
+
+    @Before
+    public void preparar() throws Exception {
+        DadosDeTeste.limparDiretorio();
+        DadosDeTeste.gerarAcervo(OBRAS, 5);
+    }
+
+    @After
+    public void restaurarDivisao() {
+        System.clearProperty("biblioteca.acervo.particoes");
+    }
+
+    /**
+     * Quando a quantidade de partições muda, o acervo é regravado na nova
+     * divisão, com as alterações ainda não consolidadas da anterior, e os
+     * arquivos da divisão anterior são apagados.
+     */
+    @Test
+    public void acervoEhRedivididoQuandoAQuantidadeMuda() throws Exception {
+        emprestar(4);
+        assertTrue(Files.size(Path.of("acervo.delta")) > 0);
+
+        dividirEm(3);
+        conferirAcervo(Map.of(4, 4));
+        assertFalse(Files.exists(Path.of("acervo.csv")));
+        assertFalse(Files.exists(Path.of("acervo.delta")));
+        for (int particao = 0; particao < 3; particao++) {
+            conferirIds(Path.of("acervo-" + particao + ".csv"), particao, 3);
+        }
+
+        emprestar(4, 8);
+        dividirEm(2);
+        conferirAcervo(Map.of(4, 3, 8, 4));
+        assertFalse(Files.exists(Path.of("acervo-2.csv")));
+        assertFalse(Files.exists(Path.of("acervo-2.delta")));
+        for (int particao = 0; particao < 2; particao++) {
+            conferirIds(Path.of("acervo-" + particao + ".csv"), particao, 2);
+        }
+
+        dividirEm(1);
+        conferirAcervo(Map.of(4, 3, 8, 4));
+        assertEquals(List.of(Path.of("acervo.csv")), ParticaoDoAcervo.arquivosExistentes().stream()
+                .filter(arquivo -> arquivo.toString().endsWith(".csv")).toList());
+        conferirIds(Path.of("acervo.csv"), 0, 1);
+    }
+
+    /**
+     * Abrir de novo com a mesma quantidade de partições não regrava nada.
+     */
+    @Test
+    public void mesmaDivisaoNaoEhRegravada() throws Exception {
+        dividirEm(3);
+        long modificado = Files.getLastModifiedTime(Path.of("acervo-1.csv")).toMillis();
+        Thread.sleep(20);
+
+        dividirEm(3);
+        assertEquals(modificado, Files.getLastModifiedTime(Path.of("acervo-1.csv")).toMillis());
+        conferirAcervo(Map.of());
+    }
+
+    private static void dividirEm(int particoes) {
+        System.setProperty("biblioteca.acervo.particoes", Integer.toString(particoes));
+        new GerenciadorDeObras().close();
+    }
+
+    private static void emprestar(int... ids) throws Exception {
+        try (GerenciadorDeObras obras = new GerenciadorDeObras()) {
+            for (int id : ids) {
+                Obra obra = obras.buscarObraPorId(id);
+                assertTrue(obras.emprestar(obra));
+                obras.registrarAlteracao(obra);
+            }
+            obras.aguardarGravacao();
+        }
+    }
+
+    /**
+     * Todas as obras foram carregadas, com a quantidade indicada para as
+     * emprestadas e 5 exemplares para as outras.
+     */
+    private static void conferirAcervo(Map<Integer, Integer> emprestadas) {
+        try (GerenciadorDeObras obras = new GerenciadorDeObras()) {
+            assertEquals(OBRAS, obras.getObras().size());
+            for (int id = 1; id <= OBRAS; id++) {
+                Obra obra = obras.buscarObraPorId(id);
+                assertEquals("Obra " + id, obra.getTitulo());
+                assertEquals(obra.getTitulo(), (int) emprestadas.getOrDefault(id, 5), obra.getQuantidade());
+            }
+        }
+    }
+
+    /**
+     * O arquivo só tem as obras da partição, e em ordem de ID.
+     */
+    private static void conferirIds(Path arquivo, int particao, int particoes) throws Exception {
+        int anterior = 0;
+        int quantidade = 0;
+        for (String linha : Files.readAllLines(arquivo)) {
+            if (linha.isEmpty() || !Character.isDigit(linha.charAt(0))) {
+                continue;
+            }
+            int id = Integer.parseInt(linha.substring(0, linha.indexOf(',')));
+            assertEquals(arquivo + ": " + linha, particao, ParticaoDoAcervo.indice(id, particoes));
+            assertTrue(id > anterior);
+            anterior = id;
+            quantidade++;
+        }
+        int esperada = 0;
+        for (int id = 1; id <= OBRAS; id++) {
+            if (id % particoes == particao) {
+                esperada++;
+            }
+        }
+        assertEquals(esperada, quantidade);
+    }
+}